@@ -0,0 +1,276 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Off-heap cache of blocks of data files which are read with direct io, so that reads of blocks
+ * which are read often don't go to disk. Used in place of the page cache, therefore the memory
+ * used for caching data is bounded by the capacity and doesn't compete with other processes.
+ *
+ * Only blocks of files which are no longer written to are cached, and a file id is never reused,
+ * therefore a cached block never has to be invalidated. Blocks of deleted files are evicted as they
+ * are no longer read.
+ *
+ * Each segment has a fixed number of slots, allocated up front, and evicts with the CLOCK algorithm:
+ * a block which was read since the hand last passed it gets another round. Slots are found by key through
+ * an open-addressed index of slot numbers, which is also allocated up front, so that neither reads
+ * nor puts allocate.
+ */
+class BlockCache {
+
+    static final int BLOCK_SIZE = NativeIO.DIRECT_IO_ALIGNMENT;
+
+    private final CacheSegment[] segments;
+    private final int segmentMask;
+
+    BlockCache(long capacity, int noOfSegments) {
+        int segmentCount = (int)Utils.roundUpToPowerOf2(noOfSegments);
+        int slotsPerSegment = (int)Math.max(1, capacity / BLOCK_SIZE / segmentCount);
+        this.segments = new CacheSegment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new CacheSegment(slotsPerSegment);
+        }
+        this.segmentMask = segmentCount - 1;
+    }
+
+    /**
+     * Copies length bytes, starting at offset in the block, to the destination buffer.
+     *
+     * @return false if the block is not in the cache.
+     */
+    boolean get(int fileId, long blockIndex, int offset, int length, ByteBuffer destination) {
+        long key = key(fileId, blockIndex);
+        return segment(key).get(key, offset, length, destination);
+    }
+
+    /**
+     * Caches the block from the buffer's position to its limit, which is shorter than
+     * {@link #BLOCK_SIZE} only for the last block of a file.
+     *
+     * @throws IllegalArgumentException if more than {@link #BLOCK_SIZE} bytes remain in the buffer.
+     */
+    void put(int fileId, long blockIndex, ByteBuffer block) {
+        if (block.remaining() > BLOCK_SIZE) {
+            throw new IllegalArgumentException("Block of " + block.remaining() + " bytes is larger than " + BLOCK_SIZE);
+        }
+        long key = key(fileId, blockIndex);
+        segment(key).put(key, block);
+    }
+
+    long hitCount() {
+        long count = 0;
+        for (CacheSegment segment : segments) {
+            count += segment.hitCount();
+        }
+        return count;
+    }
+
+    long missCount() {
+        long count = 0;
+        for (CacheSegment segment : segments) {
+            count += segment.missCount();
+        }
+        return count;
+    }
+
+    long size() {
+        long size = 0;
+        for (CacheSegment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    void resetStatistics() {
+        for (CacheSegment segment : segments) {
+            segment.resetStatistics();
+        }
+    }
+
+    void close() {
+        for (CacheSegment segment : segments) {
+            segment.close();
+        }
+    }
+
+    private static long key(int fileId, long blockIndex) {
+        return ((long)fileId << 32) | blockIndex;
+    }
+
+    private CacheSegment segment(long key) {
+        // blocks of a file which are next to each other go to different segments.
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return segments[(int)(hash >>> 32) & segmentMask];
+    }
+
+    private static class CacheSegment {
+
+        private final int noOfSlots;
+        private long memory;
+
+        private final long[] keys;
+        private final int[] lengths;
+        private final boolean[] referenced;
+
+        // linear probing, each entry is a slot number plus one and 0 is empty.
+        private final int[] index;
+        private final int indexMask;
+
+        private int used = 0;
+        private int size = 0;
+        private int hand = 0;
+
+        private long hitCount = 0;
+        private long missCount = 0;
+
+        CacheSegment(int noOfSlots) {
+            this.noOfSlots = noOfSlots;
+            this.memory = Uns.allocate((long)noOfSlots * BLOCK_SIZE, true);
+            this.keys = new long[noOfSlots];
+            this.lengths = new int[noOfSlots];
+            this.referenced = new boolean[noOfSlots];
+            // at most half full.
+            this.index = new int[(int)Utils.roundUpToPowerOf2(2L * noOfSlots)];
+            this.indexMask = index.length - 1;
+        }
+
+        synchronized boolean get(long key, int offset, int length, ByteBuffer destination) {
+            int slot = memory != 0 ? slotOf(key) : -1;
+            if (slot == -1 || offset + length > lengths[slot]) {
+                missCount++;
+                return false;
+            }
+
+            hitCount++;
+            referenced[slot] = true;
+            copyTo(memory + (long)slot * BLOCK_SIZE + offset, length, destination);
+            return true;
+        }
+
+        synchronized void put(long key, ByteBuffer block) {
+            if (memory == 0 || slotOf(key) != -1) {
+                return;
+            }
+
+            int slot = used < noOfSlots ? used++ : evict();
+            int length = block.remaining();
+            Uns.copyMemory(Uns.address(block), block.position(), memory, (long)slot * BLOCK_SIZE, length);
+            keys[slot] = key;
+            lengths[slot] = length;
+            referenced[slot] = false;
+            addToIndex(key, slot);
+        }
+
+        private int evict() {
+            while (referenced[hand]) {
+                referenced[hand] = false;
+                hand = (hand + 1) % noOfSlots;
+            }
+            int slot = hand;
+            removeFromIndex(keys[slot]);
+            hand = (hand + 1) % noOfSlots;
+            return slot;
+        }
+
+        private int home(long key) {
+            // the high bits of another multiplier than the one which picks the segment.
+            return (int)((key * 0xC2B2AE3D27D4EB4FL) >>> 32) & indexMask;
+        }
+
+        /**
+         * @return the slot which holds the block, or -1 if it is not cached.
+         */
+        private int slotOf(long key) {
+            for (int i = home(key); index[i] != 0; i = (i + 1) & indexMask) {
+                int slot = index[i] - 1;
+                if (keys[slot] == key) {
+                    return slot;
+                }
+            }
+            return -1;
+        }
+
+        private void addToIndex(long key, int slot) {
+            int i = home(key);
+            while (index[i] != 0) {
+                i = (i + 1) & indexMask;
+            }
+            index[i] = slot + 1;
+            size++;
+        }
+
+        /**
+         * Removes the key and moves back the entries after it which would otherwise no longer be
+         * found, so that no tombstones are needed.
+         */
+        private void removeFromIndex(long key) {
+            int i = home(key);
+            while (index[i] != 0 && keys[index[i] - 1] != key) {
+                i = (i + 1) & indexMask;
+            }
+            if (index[i] == 0) {
+                return;
+            }
+
+            for (int j = (i + 1) & indexMask; index[j] != 0; j = (j + 1) & indexMask) {
+                int h = home(keys[index[j] - 1]);
+                // move the entry at j into the hole at i unless its home lies cyclically in (i, j].
+                boolean reachableWithoutHole = i <= j ? (i < h && h <= j) : (i < h || h <= j);
+                if (!reachableWithoutHole) {
+                    index[i] = index[j];
+                    i = j;
+                }
+            }
+            index[i] = 0;
+            size--;
+        }
+
+        private static void copyTo(long address, int length, ByteBuffer destination) {
+            if (destination.remaining() < length) {
+                throw new BufferOverflowException();
+            }
+            int position = destination.position();
+            if (destination.hasArray()) {
+                Uns.copyMemory(address, 0, destination.array(), destination.arrayOffset() + position, length);
+            }
+            else if (destination.isDirect() && !destination.isReadOnly()) {
+                Uns.copyMemory(address, 0, Uns.address(destination), position, length);
+            }
+            else {
+                throw new IllegalArgumentException("Destination buffer is read-only");
+            }
+            destination.position(position + length);
+        }
+
+        synchronized long hitCount() {
+            return hitCount;
+        }
+
+        synchronized long missCount() {
+            return missCount;
+        }
+
+        synchronized long size() {
+            return size;
+        }
+
+        synchronized void resetStatistics() {
+            hitCount = 0;
+            missCount = 0;
+        }
+
+        synchronized void close() {
+            Uns.free(memory);
+            memory = 0;
+            Arrays.fill(index, 0);
+            size = 0;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+/**
+ * Algorithms used for the checksum of records, index file entries and tombstone entries.
+ * The algorithm of an entry is stored in its version byte, see {@link Versions}.
+ */
+enum ChecksumAlgorithm {
+    // all entries written before the algorithm was stored in the version byte use CRC32.
+    CRC32(0),
+
+    CRC32C(1),
+
+    // 64 bit xxHash truncated to 32 bits, used when CRC32C is not available in the JDK.
+    XX(2);
+
+    private final int id;
+
+    ChecksumAlgorithm(int id) {
+        this.id = id;
+    }
+
+    int getId() {
+        return id;
+    }
+
+    static ChecksumAlgorithm forId(int id) {
+        for (ChecksumAlgorithm algorithm : values()) {
+            if (algorithm.id == id) {
+                return algorithm;
+            }
+        }
+        return null;
+    }
+}
@@ -11,7 +11,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.nio.channels.FileChannel;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 
@@ -58,6 +57,7 @@ class CompactionManager {
                 compactionQueue.put(STOP_SIGNAL);
                 compactionThread.join();
                 if (currentWriteFile != null) {
+                    currentWriteFile.trim();
                     currentWriteFile.flushToDisk();
                     currentWriteFile.getIndexFile().flushToDisk();
                     currentWriteFile.close();
@@ -126,7 +126,9 @@ class CompactionManager {
                 compactionThread = null;
                 if (currentWriteFile != null) {
                     try {
+                        currentWriteFile.trim();
                         currentWriteFile.flushToDisk();
+                        currentWriteFile.getIndexFile().flushToDisk();
                     } catch (IOException e1) {
                         logger.error("Error while flushing " + currentWriteFile.getFileId() + " to disk", e);
                     }
@@ -171,7 +173,8 @@ class CompactionManager {
                 return;
             }
 
-            FileChannel readFrom =  fileToCompact.getChannel();
+            // only the fresh records are read, in the order in which they are in the file.
+            fileToCompact.advise(NativeIO.Advice.SEQUENTIAL);
             IndexFile.IndexFileIterator iterator = fileToCompact.getIndexFile().newIterator();
             long recordsCopied = 0, recordsScanned = 0;
 
@@ -191,7 +194,7 @@ class CompactionManager {
                     sizeOfRecordsCopied += recordSize;
 
                     // fresh record, copy to merged file.
-                    long transferred = readFrom.transferTo(recordOffset, recordSize, currentWriteFile.getChannel());
+                    long transferred = currentWriteFile.transferFrom(fileToCompact, recordOffset, recordSize, currentWriteFileOffset);
 
                     //TODO: for testing. remove.
                     if (transferred != recordSize) {
@@ -201,7 +204,7 @@ class CompactionManager {
                     unFlushedData += transferred;
                     if (dbInternal.options.getFlushDataSizeBytes() != -1 &&
                         unFlushedData > dbInternal.options.getFlushDataSizeBytes()) {
-                        currentWriteFile.getChannel().force(false);
+                        currentWriteFile.flushDataToDisk();
                         unFlushedData = 0;
                     }
 
@@ -214,7 +217,8 @@ class CompactionManager {
                     int valueOffset = Utils.getValueOffset(currentWriteFileOffset, key);
                     RecordMetaDataForCache newMetaData = new RecordMetaDataForCache(
                         currentWriteFile.getFileId(), valueOffset,
-                        currentRecordMetaData.getValueSize(), indexFileEntry.getSequenceNumber()
+                        currentRecordMetaData.getValueSize(), indexFileEntry.getSequenceNumber(),
+                        currentRecordMetaData.isValueCompressed()
                     );
 
                     boolean updated = dbInternal.getInMemoryIndex().replace(key, currentRecordMetaData, newMetaData);
@@ -237,6 +241,10 @@ class CompactionManager {
                 currentWriteFile.flushToDisk();
             }
 
+            // readers which still find the file in the index read from disk again, which is rare.
+            // The pages would otherwise stay in the page cache until the file is deleted.
+            fileToCompact.advise(NativeIO.Advice.DONT_NEED);
+
             numberOfRecordsCopied += recordsCopied;
             numberOfRecordsScanned += recordsScanned;
             sizeOfFilesDeleted += fileToCompact.getSize();
@@ -253,8 +261,10 @@ class CompactionManager {
         private void rollOverCurrentWriteFile(int recordSize) throws IOException {
             if (currentWriteFile == null ||  currentWriteFileOffset + recordSize > dbInternal.options.getMaxFileSize()) {
                 if (currentWriteFile != null) {
+                    currentWriteFile.trim();
                     currentWriteFile.flushToDisk();
                     currentWriteFile.getIndexFile().flushToDisk();
+                    currentWriteFile.seal();
                 }
                 currentWriteFile = dbInternal.createHaloDBFile(HaloDBFile.FileType.COMPACTED_FILE);
                 currentWriteFileOffset = 0;
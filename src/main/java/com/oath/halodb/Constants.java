@@ -18,4 +18,7 @@ class Constants {
     static final Pattern INDEX_FILE_PATTERN = Pattern.compile("([0-9]+)" + IndexFile.INDEX_FILE_NAME);
 
     static final Pattern TOMBSTONE_FILE_PATTERN = Pattern.compile("([0-9]+)" + TombstoneFile.TOMBSTONE_FILE_NAME);
+
+    // files created ahead of time have this suffix until they are used.
+    static final String STAGED_FILE_SUFFIX = ".staged";
 }
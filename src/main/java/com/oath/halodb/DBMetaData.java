@@ -30,8 +30,10 @@ class DBMetaData {
      * sequence number  - 8 bytes.
      * io error         - 1 byte.
      * file size        - 4 byte.
+     * synced data file - 4 byte.
+     * synced tombstone - 4 byte.
      */
-    private final static int META_DATA_SIZE = 4+1+1+8+1+4;
+    private final static int META_DATA_SIZE = 4+1+1+8+1+4+4+4;
     private final static int checkSumSize = 4;
     private final static int checkSumOffset = 0;
 
@@ -41,6 +43,8 @@ class DBMetaData {
     private long sequenceNumber = 0;
     private boolean ioError = false;
     private int maxFileSize = 0;
+    private int syncedDataFileId = 0;
+    private int syncedTombstoneFileId = 0;
 
     private final String dbDirectory;
 
@@ -66,6 +70,11 @@ class DBMetaData {
                     sequenceNumber = buff.getLong();
                     ioError = buff.get() != 0;
                     maxFileSize = buff.getInt();
+                    // not present in a file written by an older version, in which case all files are repaired.
+                    if (buff.remaining() >= 8) {
+                        syncedDataFileId = buff.getInt();
+                        syncedTombstoneFileId = buff.getInt();
+                    }
                 }
             }
         }
@@ -84,6 +93,8 @@ class DBMetaData {
                 buff.putLong(sequenceNumber);
                 buff.put((byte)(ioError ? 0xFF : 0));
                 buff.putInt(maxFileSize);
+                buff.putInt(syncedDataFileId);
+                buff.putInt(syncedTombstoneFileId);
 
                 long crc32 = computeCheckSum(buff.array());
                 buff.putInt(checkSumOffset, (int)crc32);
@@ -109,6 +120,8 @@ class DBMetaData {
         buff.putLong(sequenceNumber);
         buff.put((byte)(ioError ? 0xFF : 0));
         buff.putInt(maxFileSize);
+        buff.putInt(syncedDataFileId);
+        buff.putInt(syncedTombstoneFileId);
 
         return computeCheckSum(buff.array()) == checkSum;
     }
@@ -152,4 +165,27 @@ class DBMetaData {
     public void setMaxFileSize(int maxFileSize) {
         this.maxFileSize = maxFileSize;
     }
+
+    /**
+     * Id of the last data file which was flushed to disk in the background after it was retired.
+     * This and all the data files written before it are durable and need not be repaired after a crash.
+     */
+    int getSyncedDataFileId() {
+        return syncedDataFileId;
+    }
+
+    void setSyncedDataFileId(int syncedDataFileId) {
+        this.syncedDataFileId = syncedDataFileId;
+    }
+
+    /**
+     * Same as {@link #getSyncedDataFileId()} for tombstone files.
+     */
+    int getSyncedTombstoneFileId() {
+        return syncedTombstoneFileId;
+    }
+
+    void setSyncedTombstoneFileId(int syncedTombstoneFileId) {
+        this.syncedTombstoneFileId = syncedTombstoneFileId;
+    }
 }
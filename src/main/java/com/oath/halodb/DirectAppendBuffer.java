@@ -0,0 +1,240 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Appends to a data file opened with O_DIRECT, which only takes whole blocks written from aligned memory.
+ *
+ * Records are copied into a window of blocks at the end of the file. A full window is written out and the next
+ * one starts after it. When the file is flushed, the filled part of the window is written out with its last block
+ * padded with zeros, and that block is written again once more of it is filled. The padding is truncated once the
+ * file is no longer written to, after a crash the end of the data is found as for a preallocated file.
+ *
+ * Writers copy their records in a different order than they reserved space in the file, therefore a window is
+ * written out only after all of it has been copied, and a writer whose record starts past the window waits for it.
+ * A writer which fails after reserving space fills its range with zeros instead, so that the writers after it
+ * don't wait forever. Records which are still in the window are read from it, everything before the window is
+ * in the file.
+ */
+class DirectAppendBuffer {
+    private static final Logger logger = LoggerFactory.getLogger(DirectAppendBuffer.class);
+
+    // a multiple of the alignment, written out with one call for many small records.
+    static final int WINDOW_SIZE = 256 * 1024;
+
+    private final int fd;
+    private final String fileName;
+
+    private final ByteBuffer window;
+    private final long windowAddress;
+
+    // position in the file of the window, always aligned.
+    private volatile long windowStart = 0;
+
+    // number of bytes copied into the window, which is written out once all of it has been copied.
+    private int copied = 0;
+
+    // end of the data copied into the window so far, relative to its start.
+    private int end = 0;
+
+    private boolean finished = false;
+
+    // set if a full window could not be written out, after which nothing more is written.
+    private IOException failure = null;
+
+    private DirectAppendBuffer(int fd, String fileName) {
+        this.fd = fd;
+        this.fileName = fileName;
+        this.window = ScratchBuffers.newAlignedBuffer(WINDOW_SIZE);
+        this.windowAddress = Uns.address(window);
+    }
+
+    /**
+     * @return a buffer for appends to the empty file, or null if the file can't be opened with O_DIRECT.
+     */
+    static DirectAppendBuffer open(File file) {
+        int fd = NativeIO.openDirectForWrites(file);
+        if (fd == -1) {
+            return null;
+        }
+        return new DirectAppendBuffer(fd, file.getName());
+    }
+
+    long getWindowStart() {
+        return windowStart;
+    }
+
+    /**
+     * Copies the buffer from its position to its limit to the given position in the file, the position of the
+     * buffer is moved to its limit. The range must have been reserved by the caller.
+     */
+    synchronized void write(ByteBuffer buffer, long position) throws IOException {
+        copy(buffer, position, buffer.remaining());
+    }
+
+    /**
+     * Fills a reserved range with zeros, called instead of {@link #write(ByteBuffer, long)} by a writer which
+     * failed before it could write its record.
+     */
+    synchronized void fillHole(long position, int size) throws IOException {
+        copy(null, position, size);
+    }
+
+    /**
+     * Copies size bytes from the buffer, or zeros if the buffer is null, to the given position in the file. Either
+     * all of the range is copied or the append buffer can no longer be written to.
+     */
+    private void copy(ByteBuffer buffer, long position, int size) throws IOException {
+        long current = position;
+        long last = position + size;
+        while (current < last) {
+            while (current - windowStart >= WINDOW_SIZE) {
+                // completed by a writer which reserved space before this one.
+                awaitWindow();
+            }
+            if (failure != null) {
+                throw new IOException("An earlier write to " + fileName + " failed", failure);
+            }
+            if (finished || current < windowStart) {
+                throw new IllegalStateException("Write at " + current + " outside of the window of " + fileName);
+            }
+
+            int offset = (int)(current - windowStart);
+            int length = (int)Math.min(last - current, WINDOW_SIZE - offset);
+            if (buffer != null) {
+                ByteBuffer target = window.duplicate();
+                target.position(offset);
+                target.limit(offset + length);
+                ByteBuffer source = buffer.duplicate();
+                source.limit(source.position() + length);
+                target.put(source);
+                buffer.position(buffer.position() + length);
+            }
+            // else the window is still zero filled where the range is.
+
+            copied += length;
+            end = Math.max(end, offset + length);
+            current += length;
+            if (copied == WINDOW_SIZE) {
+                try {
+                    writeWindow(WINDOW_SIZE);
+                } catch (IOException e) {
+                    // the window can't be moved on, writers waiting for it give up.
+                    logger.error("Failed to write the window at {} of {}", windowStart, fileName, e);
+                    failure = e;
+                    notifyAll();
+                    throw e;
+                }
+                windowStart += WINDOW_SIZE;
+                copied = 0;
+                end = 0;
+                Uns.setMemory(windowAddress, 0, WINDOW_SIZE, (byte)0);
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Reads from the window into the buffer, the position of the buffer is moved past the bytes read.
+     *
+     * @return number of bytes read, 0 if the position is past the data, or -1 if the position is before the window,
+     * in which case it is read from the file.
+     */
+    synchronized int read(long position, ByteBuffer destinationBuffer) {
+        if (finished || position < windowStart) {
+            return -1;
+        }
+        int offset = (int)(position - windowStart);
+        int length = Math.min(destinationBuffer.remaining(), end - offset);
+        if (length <= 0) {
+            return 0;
+        }
+
+        ByteBuffer source = window.duplicate();
+        source.position(offset);
+        source.limit(offset + length);
+        destinationBuffer.put(source);
+        return length;
+    }
+
+    /**
+     * Writes the filled part of the window to the file, the last block padded with zeros.
+     */
+    synchronized void flush() throws IOException {
+        if (!finished && end > 0) {
+            writeWindow(alignUp(end));
+        }
+    }
+
+    /**
+     * Writes out the rest of the data and closes the descriptor, called once the file is no longer written to.
+     * Reads are made from the file afterwards.
+     */
+    synchronized void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        try {
+            flush();
+        } finally {
+            finished = true;
+            // everything is read from the file from now on.
+            windowStart = Long.MAX_VALUE;
+            NativeIO.closeDirect(fd);
+            notifyAll();
+        }
+    }
+
+    private void writeWindow(int length) throws IOException {
+        ByteBuffer source = window.duplicate();
+        source.limit(length);
+        while (source.hasRemaining()) {
+            long written = NativeIO.pwrite(fd, source, windowStart + source.position());
+            if (written <= 0) {
+                throw new IOException("Direct write to " + fileName + " at " + (windowStart + source.position()) + " failed");
+            }
+            // a short write ends on a block boundary, unless the disk is full in which case the next one fails.
+            source.position(source.position() + (int)written);
+        }
+    }
+
+    /**
+     * Waits until the window is written out. Doesn't give up when interrupted, since the writer has reserved its
+     * range and must fill it, the wait is bounded as every writer before it either fills its range or fails.
+     */
+    private void awaitWindow() throws IOException {
+        boolean interrupted = false;
+        try {
+            if (finished) {
+                throw new IllegalStateException("Write to " + fileName + " after it was finished");
+            }
+            if (failure != null) {
+                throw new IOException("An earlier write to " + fileName + " failed", failure);
+            }
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static int alignUp(int size) {
+        int alignment = NativeIO.DIRECT_IO_ALIGNMENT;
+        return (size + alignment - 1) & -alignment;
+    }
+}
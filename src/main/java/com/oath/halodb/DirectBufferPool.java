@@ -0,0 +1,90 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Pool of direct buffers into which values are read, so that a read neither allocates
+ * nor goes through the temporary direct buffer the JDK uses when reading into a heap buffer.
+ *
+ * Buffers are grouped by capacity, which is a power of two. Buffers aren't owned by a thread
+ * since a consumer of a value might itself read from the db.
+ */
+class DirectBufferPool {
+
+    static final int MIN_BUFFER_SIZE = 1024;
+
+    // larger values are read into heap buffers which are not pooled.
+    static final int MAX_BUFFER_SIZE = 1024 * 1024;
+
+    private static final int MIN_SIZE_SHIFT = Integer.numberOfTrailingZeros(MIN_BUFFER_SIZE);
+    private static final int NO_OF_SIZES = Integer.numberOfTrailingZeros(MAX_BUFFER_SIZE) - MIN_SIZE_SHIFT + 1;
+
+    private final int maxBuffersPerSize;
+
+    private final List<Queue<ByteBuffer>> pools;
+
+    // number of buffers in each pool, since size() of the queue is not constant time.
+    private final AtomicIntegerArray pooledBuffers = new AtomicIntegerArray(NO_OF_SIZES);
+
+    DirectBufferPool(int maxBuffersPerSize) {
+        this.maxBuffersPerSize = maxBuffersPerSize;
+        this.pools = new ArrayList<>(NO_OF_SIZES);
+        for (int i = 0; i < NO_OF_SIZES; i++) {
+            pools.add(new ConcurrentLinkedQueue<>());
+        }
+    }
+
+    /**
+     * @return a cleared buffer whose limit is set to size.
+     */
+    ByteBuffer acquire(int size) {
+        if (size > MAX_BUFFER_SIZE) {
+            return ByteBuffer.allocate(size);
+        }
+
+        int index = indexOf(size);
+        ByteBuffer buffer = pools.get(index).poll();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(MIN_BUFFER_SIZE << index);
+        }
+        else {
+            pooledBuffers.decrementAndGet(index);
+        }
+
+        buffer.clear();
+        buffer.limit(size);
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer got from {@link #acquire(int)} to the pool. The buffer must not be used after this call.
+     */
+    void release(ByteBuffer buffer) {
+        if (!buffer.isDirect()) {
+            return;
+        }
+
+        int index = indexOf(buffer.capacity());
+        if (pooledBuffers.incrementAndGet(index) > maxBuffersPerSize) {
+            // let the buffer be garbage collected.
+            pooledBuffers.decrementAndGet(index);
+            return;
+        }
+        pools.get(index).offer(buffer);
+    }
+
+    private static int indexOf(int size) {
+        int capacity = (int)Utils.roundUpToPowerOf2(Math.max(size, MIN_BUFFER_SIZE));
+        return Integer.numberOfTrailingZeros(capacity) - MIN_SIZE_SHIFT;
+    }
+}
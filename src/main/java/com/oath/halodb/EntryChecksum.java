@@ -0,0 +1,241 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import net.jpountz.xxhash.StreamingXXHash64;
+import net.jpountz.xxhash.XXHash64;
+import net.jpountz.xxhash.XXHashFactory;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+
+/**
+ * Computes the checksum of a serialized record, index file entry or tombstone entry in a single pass,
+ * or of an entry whose parts are in different arrays by feeding them in order to {@link #update}.
+ *
+ * Implementations which keep state are not thread safe, use {@link ScratchBuffers#checksum(int)}
+ * to get an instance owned by the calling thread.
+ */
+abstract class EntryChecksum {
+
+    // java.util.zip.CRC32C, which is an intrinsic, was added in java 9.
+    private static final MethodHandle newCrc32c;
+    private static final MethodHandle updateCrc32c;
+
+    static {
+        MethodHandle constructor = null, update = null;
+        try {
+            Class<?> cls = Class.forName("java.util.zip.CRC32C");
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            constructor = lookup.findConstructor(cls, MethodType.methodType(void.class))
+                .asType(MethodType.methodType(Checksum.class));
+            update = lookup.findVirtual(cls, "update", MethodType.methodType(void.class, ByteBuffer.class))
+                .asType(MethodType.methodType(void.class, Checksum.class, ByteBuffer.class));
+        } catch (ReflectiveOperationException e) {
+            // running on java 8.
+            constructor = null;
+            update = null;
+        }
+        newCrc32c = constructor;
+        updateCrc32c = update;
+    }
+
+    /**
+     * Algorithm used for new entries. CRC32C if the JDK has it, otherwise xxHash if lz4 is
+     * in the classpath and CRC32 if neither is available.
+     */
+    static final ChecksumAlgorithm DEFAULT_ALGORITHM =
+        newCrc32c != null ? ChecksumAlgorithm.CRC32C
+                          : isXxAvailable() ? ChecksumAlgorithm.XX : ChecksumAlgorithm.CRC32;
+
+    static EntryChecksum create(ChecksumAlgorithm algorithm) {
+        switch (algorithm) {
+            case CRC32:
+                return new Crc32Checksum();
+            case CRC32C:
+                return newCrc32c != null ? new Crc32cChecksum() : new PortableCrc32cChecksum();
+            case XX:
+                if (!isXxAvailable()) {
+                    throw new IllegalStateException("lz4 library is required to verify xxHash checksums");
+                }
+                return new XxChecksum();
+            default:
+                throw new IllegalArgumentException("Unknown checksum algorithm " + algorithm);
+        }
+    }
+
+    /**
+     * Returns the checksum, as an unsigned 32 bit value, of the bytes between the
+     * buffer's position and limit. Position of the buffer is not changed.
+     */
+    abstract long compute(ByteBuffer buffer);
+
+    /**
+     * Starts a new checksum, to which bytes are added by {@link #update(byte[], int, int)}.
+     */
+    abstract void reset();
+
+    abstract void update(byte[] bytes, int offset, int length);
+
+    /**
+     * Returns the checksum, as an unsigned 32 bit value, of the bytes added since the last {@link #reset()}.
+     */
+    abstract long getValue();
+
+    private static boolean isXxAvailable() {
+        try {
+            Class.forName("net.jpountz.xxhash.XXHashFactory");
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    static final class Crc32Checksum extends EntryChecksum {
+        private final CRC32 crc32 = new CRC32();
+
+        @Override
+        long compute(ByteBuffer buffer) {
+            int position = buffer.position();
+            crc32.reset();
+            crc32.update(buffer);
+            buffer.position(position);
+            return crc32.getValue();
+        }
+
+        @Override
+        void reset() {
+            crc32.reset();
+        }
+
+        @Override
+        void update(byte[] bytes, int offset, int length) {
+            crc32.update(bytes, offset, length);
+        }
+
+        @Override
+        long getValue() {
+            return crc32.getValue();
+        }
+    }
+
+    static final class Crc32cChecksum extends EntryChecksum {
+        private final Checksum crc32c;
+
+        Crc32cChecksum() {
+            try {
+                crc32c = (Checksum)newCrc32c.invokeExact();
+            } catch (Throwable t) {
+                throw new IllegalStateException("Unable to create CRC32C", t);
+            }
+        }
+
+        @Override
+        long compute(ByteBuffer buffer) {
+            int position = buffer.position();
+            crc32c.reset();
+            try {
+                updateCrc32c.invokeExact(crc32c, buffer);
+            } catch (Throwable t) {
+                throw new IllegalStateException("Unable to compute CRC32C", t);
+            }
+            buffer.position(position);
+            return crc32c.getValue();
+        }
+
+        @Override
+        void reset() {
+            crc32c.reset();
+        }
+
+        @Override
+        void update(byte[] bytes, int offset, int length) {
+            crc32c.update(bytes, offset, length);
+        }
+
+        @Override
+        long getValue() {
+            return crc32c.getValue();
+        }
+    }
+
+    /**
+     * CRC32C for java 8, only used to read entries written by a newer JDK.
+     */
+    static final class PortableCrc32cChecksum extends EntryChecksum {
+        private static final HashFunction crc32c = Hashing.crc32c();
+        private final byte[] chunk = new byte[4096];
+        private com.google.common.hash.Hasher hasher = crc32c.newHasher();
+
+        @Override
+        long compute(ByteBuffer buffer) {
+            if (buffer.hasArray()) {
+                return Utils.toUnsignedIntFromInt(
+                    crc32c.hashBytes(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining()).asInt()
+                );
+            }
+
+            com.google.common.hash.Hasher hasher = crc32c.newHasher();
+            ByteBuffer duplicate = buffer.duplicate();
+            while (duplicate.hasRemaining()) {
+                int length = Math.min(chunk.length, duplicate.remaining());
+                duplicate.get(chunk, 0, length);
+                hasher.putBytes(chunk, 0, length);
+            }
+            return Utils.toUnsignedIntFromInt(hasher.hash().asInt());
+        }
+
+        @Override
+        void reset() {
+            hasher = crc32c.newHasher();
+        }
+
+        @Override
+        void update(byte[] bytes, int offset, int length) {
+            hasher.putBytes(bytes, offset, length);
+        }
+
+        @Override
+        long getValue() {
+            return Utils.toUnsignedIntFromInt(hasher.hash().asInt());
+        }
+    }
+
+    static final class XxChecksum extends EntryChecksum {
+        private static final XXHash64 xx = XXHashFactory.fastestInstance().hash64();
+        private static final long SEED = 0;
+
+        // same hash as xx, computed over bytes added in several parts.
+        private final StreamingXXHash64 streaming = XXHashFactory.fastestInstance().newStreamingHash64(SEED);
+
+        @Override
+        long compute(ByteBuffer buffer) {
+            return xx.hash(buffer, buffer.position(), buffer.remaining(), SEED) & 0xffffffffL;
+        }
+
+        @Override
+        void reset() {
+            streaming.reset();
+        }
+
+        @Override
+        void update(byte[] bytes, int offset, int length) {
+            streaming.update(bytes, offset, length);
+        }
+
+        @Override
+        long getValue() {
+            return streaming.getValue() & 0xffffffffL;
+        }
+    }
+}
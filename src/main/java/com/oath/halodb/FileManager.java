@@ -0,0 +1,165 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Creates the next data and tombstone files ahead of time and flushes retired files to disk
+ * on a background thread, so that rolling over to a new file doesn't block the writer on file
+ * creation and fsync.
+ *
+ * Files are created with a temporary name and renamed when they are handed out, therefore
+ * a file which was created but never used is not visible to the db.
+ */
+class FileManager {
+    private static final Logger logger = LoggerFactory.getLogger(FileManager.class);
+
+    private final HaloDBInternal dbInternal;
+
+    private final ExecutorService executor;
+
+    private Future<HaloDBFile> nextDataFile;
+    private Future<TombstoneFile> nextTombstoneFile;
+
+    private Future<?> pendingDataFileSync;
+    private Future<?> pendingTombstoneFileSync;
+
+    FileManager(HaloDBInternal dbInternal) {
+        this.dbInternal = dbInternal;
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "FileManagerThread");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        nextDataFile = executor.submit(this::createDataFile);
+        nextTombstoneFile = executor.submit(this::createTombstoneFile);
+    }
+
+    /**
+     * Returns the data file created in the background and starts creating the next one.
+     */
+    synchronized HaloDBFile nextDataFile() throws IOException {
+        Future<HaloDBFile> future = nextDataFile;
+        nextDataFile = executor.submit(this::createDataFile);
+
+        HaloDBFile file = getResult(future);
+        file.publish();
+        return file;
+    }
+
+    synchronized TombstoneFile nextTombstoneFile() throws IOException {
+        Future<TombstoneFile> future = nextTombstoneFile;
+        nextTombstoneFile = executor.submit(this::createTombstoneFile);
+
+        TombstoneFile file = getResult(future);
+        file.publish();
+        return file;
+    }
+
+    /**
+     * Trims, flushes and seals a data file which is no longer written to in the background.
+     * Doesn't wait for the previously retired file to be flushed, the background thread flushes
+     * files in the order in which they were retired, and an error flushing a file is reported
+     * along with the files retired after it.
+     *
+     * Once the file and all the files retired before it are on disk its id is recorded in the meta
+     * data, on restart after a crash all the data files after it are repaired.
+     */
+    synchronized void retire(HaloDBFile file) {
+        Future<?> previous = pendingDataFileSync;
+        pendingDataFileSync = executor.submit(() -> {
+            try {
+                file.trim();
+                file.flushToDisk();
+                file.getIndexFile().flushToDisk();
+                file.seal();
+            } catch (ClosedChannelException e) {
+                // file was compacted and deleted before it was flushed.
+                logger.debug("File {} was closed before it could be flushed", file.getFileId());
+            }
+            // already done, as it was submitted to the same thread before this one.
+            getResult(previous);
+            dbInternal.setSyncedDataFileId(file.getFileId());
+            return null;
+        });
+    }
+
+    synchronized void retire(TombstoneFile file) {
+        Future<?> previous = pendingTombstoneFileSync;
+        pendingTombstoneFileSync = executor.submit(() -> {
+            file.flushToDisk();
+            file.close();
+            getResult(previous);
+            dbInternal.setSyncedTombstoneFileId(file.getFileId());
+            return null;
+        });
+    }
+
+    /**
+     * Waits until all retired files have been flushed to disk.
+     */
+    synchronized void waitForRetiredFiles() throws IOException {
+        getResult(pendingDataFileSync);
+        getResult(pendingTombstoneFileSync);
+    }
+
+    /**
+     * Flushes retired files, stops the background thread and deletes the files which were created but not used.
+     */
+    synchronized void close() throws IOException {
+        try {
+            waitForRetiredFiles();
+        } finally {
+            executor.shutdown();
+            try {
+                getResult(nextDataFile).delete();
+            } catch (IOException e) {
+                logger.error("Error while deleting unused data file", e);
+            }
+            try {
+                getResult(nextTombstoneFile).delete();
+            } catch (IOException e) {
+                logger.error("Error while deleting unused tombstone file", e);
+            }
+        }
+    }
+
+    private HaloDBFile createDataFile() throws IOException {
+        return HaloDBFile.createStaged(dbInternal.getDbDirectory(), dbInternal.getNextFileId(), dbInternal.options, HaloDBFile.FileType.DATA_FILE, dbInternal.getBlockCache());
+    }
+
+    private TombstoneFile createTombstoneFile() throws IOException {
+        return TombstoneFile.createStaged(dbInternal.getDbDirectory(), dbInternal.getNextFileId(), dbInternal.options);
+    }
+
+    private static <T> T getResult(Future<T> future) throws IOException {
+        if (future == null) {
+            return null;
+        }
+
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for file manager", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+}
@@ -7,6 +7,8 @@ package com.oath.halodb;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
@@ -61,6 +63,33 @@ class FileUtils {
         return directory.listFiles(file -> Constants.DATA_FILE_PATTERN.matcher(file.getName()).matches());
     }
 
+    static File getStagedFile(File file) {
+        return new File(file.getPath() + Constants.STAGED_FILE_SUFFIX);
+    }
+
+    /**
+     * Renames a staged file to its final name and returns the renamed file.
+     */
+    static File publishStagedFile(File stagedFile) throws IOException {
+        String path = stagedFile.getPath();
+        File file = new File(path.substring(0, path.length() - Constants.STAGED_FILE_SUFFIX.length()));
+        Files.move(stagedFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        return file;
+    }
+
+    /**
+     * Deletes staged files which were never used, probably because the db crashed.
+     */
+    static void deleteStagedFiles(File directory) {
+        File[] files = directory.listFiles(file -> file.getName().endsWith(Constants.STAGED_FILE_SUFFIX));
+        if (files == null)
+            return;
+
+        for (File file : files) {
+            file.delete();
+        }
+    }
+
     private static int getFileId(File file, Pattern pattern) {
         Matcher matcher = pattern.matcher(file.getName());
         if (matcher.find()) {
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+/**
+ * Count-min sketch of the access frequency of keys, with 4-bit counters so that sixteen of them fit
+ * in a long. Counters are halved once the number of increments reaches ten times the width of the
+ * sketch, so that the sketch ages out keys which were popular in the past.
+ *
+ * Each segment of the value cache has its own sketch, which is resized and read with the lock of the
+ * segment held but incremented by lookups without it. Concurrent increments are racy: an increment
+ * can be lost, or the counters halved twice, which only makes the estimate less accurate. Each word
+ * is read once and written once, so a race never carries a counter over into its neighbour.
+ */
+class FrequencySketch {
+
+    static final int MAX_FREQUENCY = 15;
+
+    private static final long[] SEEDS = {
+        0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+    };
+
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    private volatile long[] table;
+    private int sampleSize;
+    private int increments;
+
+    FrequencySketch(int width) {
+        resize(width);
+    }
+
+    /**
+     * Grows the sketch to count at least width keys. Counts are lost when the sketch is resized.
+     */
+    void ensureCapacity(int width) {
+        if (width > table.length) {
+            resize(width);
+        }
+    }
+
+    int frequency(long hash) {
+        long[] table = this.table;
+        int frequency = MAX_FREQUENCY;
+        for (int i = 0; i < SEEDS.length; i++) {
+            long word = table[indexOf(table, hash, i)];
+            frequency = Math.min(frequency, (int)((word >>> offsetOf(hash, i)) & 0xfL));
+        }
+        return frequency;
+    }
+
+    void increment(long hash) {
+        long[] table = this.table;
+        boolean incremented = false;
+        for (int i = 0; i < SEEDS.length; i++) {
+            int index = indexOf(table, hash, i);
+            int offset = offsetOf(hash, i);
+            long word = table[index];
+            if (((word >>> offset) & 0xfL) != MAX_FREQUENCY) {
+                table[index] = word + (1L << offset);
+                incremented = true;
+            }
+        }
+
+        if (incremented && ++increments >= sampleSize) {
+            reset(table);
+        }
+    }
+
+    private void reset(long[] table) {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        increments /= 2;
+    }
+
+    private void resize(int width) {
+        int length = (int)Utils.roundUpToPowerOf2(Math.max(width, 64));
+        table = new long[length];
+        sampleSize = 10 * length;
+        increments = 0;
+    }
+
+    private static int indexOf(long[] table, long hash, int i) {
+        long h = (hash + SEEDS[i]) * SEEDS[i];
+        h ^= h >>> 32;
+        return (int)h & (table.length - 1);
+    }
+
+    // a different counter of the word for each hash function.
+    private static int offsetOf(long hash, int i) {
+        return (int)((hash >>> (i << 3)) & 0xfL) << 2;
+    }
+}
@@ -9,7 +9,11 @@ import com.google.common.annotations.VisibleForTesting;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 /**
  * @author Arjun Mannaly
@@ -43,6 +47,179 @@ public final class HaloDB {
         }
     }
 
+    /**
+     * Reads the value for the key into dst, which is cleared before the read and flipped after so
+     * that it holds just the value. Key bytes are read from the key's position to its limit and its
+     * position is not changed. Using a direct buffer for dst avoids a copy, and the lookup doesn't
+     * allocate a byte array for either the key or the value.
+     *
+     * @return size of the value, or -1 if the key is not in the db.
+     * @throws HaloDBException if dst is too small to hold the value or the key is longer than 127 bytes.
+     */
+    public int get(ByteBuffer key, ByteBuffer dst) throws HaloDBException {
+        try {
+            return dbInternal.get(key, dst);
+        } catch (IOException e) {
+            throw new HaloDBException("Lookup failed.", e);
+        }
+    }
+
+    /**
+     * Same as {@link #get(ByteBuffer, ByteBuffer)} with the key in an array.
+     */
+    public int get(byte[] key, ByteBuffer dst) throws HaloDBException {
+        try {
+            return dbInternal.get(key, dst, 1);
+        } catch (IOException e) {
+            throw new HaloDBException("Lookup failed.", e);
+        }
+    }
+
+    /**
+     * Reads a range of the value, of at most length bytes starting at valueOffset, into dst, which is cleared
+     * before the read and flipped after. Only the range is read from disk, therefore reading a header or a slice
+     * of a large value is much cheaper than reading the whole value. Values which were compressed, see
+     * {@link HaloDBOptions#setCompressValues(boolean)}, are still read and decompressed as a whole.
+     *
+     * @return number of bytes read, which is less than length if the value ends before, or -1 if the key is not in the db.
+     * @throws HaloDBException if valueOffset is beyond the end of the value, or if dst is too small to hold the bytes read.
+     */
+    public int get(byte[] key, int valueOffset, int length, ByteBuffer dst) throws HaloDBException {
+        if (valueOffset < 0 || length < 0) {
+            throw new IllegalArgumentException("valueOffset and length cannot be negative");
+        }
+        try {
+            return dbInternal.get(key, valueOffset, length, dst, 1);
+        } catch (IOException e) {
+            throw new HaloDBException("Lookup failed.", e);
+        }
+    }
+
+    /**
+     * Reads the value for the key into a direct buffer taken from a pool and passes it to the consumer
+     * on the calling thread. The value is read from the file straight into the buffer without
+     * allocating an array for it, and the buffer is returned to the pool once the consumer returns.
+     *
+     * @return false if the key is not in the db, in which case the consumer is not called.
+     */
+    public boolean get(byte[] key, ValueConsumer consumer) throws HaloDBException {
+        try {
+            return dbInternal.get(key, consumer);
+        } catch (IOException e) {
+            throw new HaloDBException("Lookup failed.", e);
+        }
+    }
+
+    /**
+     * Reads the values of all the keys. Keys are looked up in the in-memory index first and the values are
+     * then read in the order of their location on disk, with values close to each other in a file read by
+     * a single read call.
+     *
+     * @return values in the order of the keys, with null for a key which is not in the db.
+     */
+    public List<byte[]> multiGet(List<byte[]> keys) throws HaloDBException {
+        return multiGet(keys, null);
+    }
+
+    /**
+     * Same as {@link #multiGet(List)}, with the reads run in parallel on the executor.
+     */
+    public List<byte[]> multiGet(List<byte[]> keys, Executor executor) throws HaloDBException {
+        return MultiGet.toArrays(multiGetAsByteBuffers(keys, executor));
+    }
+
+    /**
+     * Same as {@link #multiGet(List, Executor)} but values are returned as buffers which hold the value
+     * from their position to their limit. Values read together share the buffer they were read into,
+     * which saves copying each value into its own array. Executor can be null to read on the calling thread.
+     */
+    public List<ByteBuffer> multiGetAsByteBuffers(List<byte[]> keys, Executor executor) throws HaloDBException {
+        try {
+            return dbInternal.multiGet(keys, executor);
+        } catch (IOException e) {
+            throw new HaloDBException("Lookup failed.", e);
+        }
+    }
+
+    /**
+     * Looks up the key in the in-memory index on the calling thread and reads the value from disk on
+     * the read executor, see {@link HaloDBOptions#setReadExecutor(Executor)}. If the key is not in the db
+     * the returned future is already complete. A failed read completes the future with a {@link HaloDBException}.
+     */
+    public CompletableFuture<byte[]> getAsync(byte[] key) {
+        return dbInternal.getAsync(key);
+    }
+
+    /**
+     * Same as {@link #multiGet(List)} with the values read from disk on the read executor,
+     * see {@link #getAsync(byte[])}.
+     */
+    public CompletableFuture<List<byte[]>> multiGetAsync(List<byte[]> keys) {
+        return dbInternal.multiGetAsync(keys);
+    }
+
+    /**
+     * Answered from the in-memory index without reading from disk.
+     */
+    public boolean contains(byte[] key) {
+        return dbInternal.contains(key);
+    }
+
+    /**
+     * Same as {@link #contains(byte[])} for each of the keys.
+     */
+    public boolean[] contains(List<byte[]> keys) {
+        boolean[] result = new boolean[keys.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = dbInternal.contains(keys.get(i));
+        }
+        return result;
+    }
+
+    /**
+     * Size of the value as stored on disk. Answered from the in-memory index without reading from disk.
+     * For a value which was compressed, see {@link HaloDBOptions#setCompressValues(boolean)}, this is
+     * the compressed size and therefore only a lower bound of the size of the value, which is known
+     * only once it is read.
+     *
+     * @return size of the value as stored on disk, or -1 if the key is not in the db.
+     */
+    public int getValueSize(byte[] key) {
+        return dbInternal.getValueSize(key);
+    }
+
+    /**
+     * Same as {@link #getValueSize(byte[])} for each of the keys.
+     */
+    public int[] getValueSizes(List<byte[]> keys) {
+        int[] result = new int[keys.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = dbInternal.getValueSize(keys.get(i));
+        }
+        return result;
+    }
+
+    /**
+     * Version of the value, which is the sequence number of the record it was written with. A put of the
+     * key always gets a higher version. Answered from the in-memory index without reading from disk.
+     *
+     * @return version of the value, or -1 if the key is not in the db.
+     */
+    public long getVersion(byte[] key) {
+        return dbInternal.getVersion(key);
+    }
+
+    /**
+     * Same as {@link #getVersion(byte[])} for each of the keys.
+     */
+    public long[] getVersions(List<byte[]> keys) {
+        long[] result = new long[keys.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = dbInternal.getVersion(keys.get(i));
+        }
+        return result;
+    }
+
     public void put(byte[] key, byte[] value) throws HaloDBException {
         try {
             dbInternal.put(key, value);
@@ -51,6 +228,45 @@ public final class HaloDB {
         }
     }
 
+    /**
+     * Key and value are read from their position to their limit and their positions are not changed.
+     * The record is serialized into a buffer reused by the calling thread, therefore using direct buffers
+     * avoids allocating on the heap for the key and the value.
+     */
+    public void put(ByteBuffer key, ByteBuffer value) throws HaloDBException {
+        try {
+            dbInternal.put(key, value);
+        } catch (IOException e) {
+            throw new HaloDBException("Store to db failed.", e);
+        }
+    }
+
+    /**
+     * Writes the record like {@link #put(byte[], byte[])} and returns a future which completes once
+     * the record has been flushed to disk by a background thread. Flushes requested by concurrent
+     * writers are combined into a single fsync, so callers can pipeline writes instead of waiting
+     * for each flush. The future completes exceptionally if the flush fails.
+     */
+    public CompletableFuture<Void> putAsync(byte[] key, byte[] value) throws HaloDBException {
+        try {
+            return dbInternal.putAsync(key, value);
+        } catch (IOException e) {
+            throw new HaloDBException("Store to db failed.", e);
+        }
+    }
+
+    /**
+     * Writes all the operations in the batch. Records are written to disk with a single
+     * write call per file and the in-memory index is updated once the write completes.
+     */
+    public void write(WriteBatch batch) throws HaloDBException {
+        try {
+            dbInternal.write(batch);
+        } catch (IOException e) {
+            throw new HaloDBException("Batch write failed.", e);
+        }
+    }
+
     public void delete(byte[] key) throws HaloDBException {
         try {
             dbInternal.delete(key);
@@ -59,6 +275,18 @@ public final class HaloDB {
         }
     }
 
+    /**
+     * Deletes the key like {@link #delete(byte[])} and returns a future which completes once
+     * the tombstone has been flushed to disk, see {@link #putAsync(byte[], byte[])}.
+     */
+    public CompletableFuture<Void> deleteAsync(byte[] key) throws HaloDBException {
+        try {
+            return dbInternal.deleteAsync(key);
+        } catch (IOException e) {
+            throw new HaloDBException("Delete operation failed.", e);
+        }
+    }
+
     public void close() throws HaloDBException {
         try {
             dbInternal.close();
@@ -79,14 +307,34 @@ public final class HaloDB {
         dbInternal.resetStats();
     }
 
+    /**
+     * Returns an iterator over all the records in the db. An iterator which is not read to the end
+     * must be closed, as the data file it is reading from isn't deleted until then.
+     */
     public HaloDBIterator newIterator() throws HaloDBException {
         return new HaloDBIterator(dbInternal);
     }
 
+    /**
+     * Same as {@link #newIterator()} but the value of each record holds at most the first valuePrefixLength
+     * bytes of the value, and only those bytes are read from disk unless the value was compressed.
+     */
+    public HaloDBIterator newIterator(int valuePrefixLength) throws HaloDBException {
+        if (valuePrefixLength < 0) {
+            throw new IllegalArgumentException("valuePrefixLength cannot be negative");
+        }
+        return new HaloDBIterator(dbInternal, valuePrefixLength);
+    }
+
     // methods used in tests.
 
     @VisibleForTesting
     boolean isCompactionComplete() {
         return dbInternal.isCompactionComplete();
     }
+
+    @VisibleForTesting
+    long getNumberOfSyncs() {
+        return dbInternal.getNumberOfSyncs();
+    }
 }
@@ -11,12 +11,19 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.FileDescriptor;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
 import java.nio.channels.FileChannel;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.BiFunction;
 import java.util.regex.Matcher;
 
@@ -28,32 +35,71 @@ import java.util.regex.Matcher;
 class HaloDBFile {
     private static final Logger logger = LoggerFactory.getLogger(HaloDBFile.class);
 
+    // reads with direct io which span more blocks than this are not cached, so that large values don't evict small ones.
+    private static final int MAX_CACHED_BLOCKS_PER_READ = 16;
+
     private volatile int writeOffset;
+    private static final AtomicIntegerFieldUpdater<HaloDBFile> writeOffsetUpdater =
+        AtomicIntegerFieldUpdater.newUpdater(HaloDBFile.class, "writeOffset");
+
+    // size of the records in the file which were overwritten or deleted since the file was last submitted for compaction.
+    private volatile int staleDataSize = 0;
+    private static final AtomicIntegerFieldUpdater<HaloDBFile> staleDataSizeUpdater =
+        AtomicIntegerFieldUpdater.newUpdater(HaloDBFile.class, "staleDataSize");
+
+    // one reference is held by the db while the file is in use, others by iterators reading from it.
+    private volatile int references = 1;
+    private static final AtomicIntegerFieldUpdater<HaloDBFile> referencesUpdater =
+        AtomicIntegerFieldUpdater.newUpdater(HaloDBFile.class, "references");
 
     private FileChannel channel;
-    private final File backingFile;
+    private final FileDescriptor descriptor;
+
+    // descriptor of the file opened with O_DIRECT once it is no longer written to, -1 if not opened.
+    // Set to -1 before the descriptor is closed, so that a read which raced with close can
+    // find out that it might have read from another file which got the same descriptor.
+    private volatile int directFd = -1;
+
+    // appends to a file written with direct io, null once the file is no longer written to or if it is written
+    // through the page cache.
+    private volatile DirectAppendBuffer appendBuffer;
+
+    // null if blocks read with direct io are not cached.
+    private final BlockCache blockCache;
+
+    // read-only mapping of a file which is no longer written to, null if the file is not mapped.
+    // A file deleted by compaction is unmapped once no reader is left, otherwise the mapping is
+    // released by the garbage collector since a reader might still be copying from it.
+    private volatile MappedByteBuffer mappedBuffer;
+
+    private File backingFile;
     private final int fileId;
 
     private IndexFile indexFile;
 
     private final HaloDBOptions options;
 
-    private long unFlushedData = 0;
+    private final AtomicLong unFlushedData = new AtomicLong(0);
 
     static final String DATA_FILE_NAME = ".data";
     static final String COMPACTED_DATA_FILE_NAME = ".datac";
 
     private final FileType fileType;
 
+    // true while a preallocated file might have zeros after its data, a zero filled header marks the end of the data.
+    private volatile boolean zeroFilledTail = false;
+
     private HaloDBFile(int fileId, File backingFile, IndexFile indexFile, FileType fileType,
-                       FileChannel channel, HaloDBOptions options) throws IOException {
+                       FileChannel channel, FileDescriptor descriptor, int writeOffset, HaloDBOptions options, BlockCache blockCache) {
         this.fileId = fileId;
         this.backingFile = backingFile;
         this.indexFile = indexFile;
         this.fileType = fileType;
         this.channel = channel;
-        this.writeOffset = Ints.checkedCast(channel.size());
+        this.descriptor = descriptor;
+        this.writeOffset = writeOffset;
         this.options = options;
+        this.blockCache = blockCache;
     }
 
     byte[] readFromFile(int offset, int length) throws IOException {
@@ -66,6 +112,23 @@ class HaloDBFile {
     }
 
     int readFromFile(long position, ByteBuffer destinationBuffer) throws IOException {
+        MappedByteBuffer mapped = mappedBuffer;
+        if (mapped != null) {
+            return readFromMapping(mapped, Ints.checkedCast(position), destinationBuffer);
+        }
+        int fd = directFd;
+        if (fd != -1) {
+            return readDirect(fd, position, destinationBuffer);
+        }
+        DirectAppendBuffer appending = appendBuffer;
+        if (appending != null) {
+            return readAppended(appending, position, destinationBuffer);
+        }
+
+        return readFromChannel(position, destinationBuffer);
+    }
+
+    private int readFromChannel(long position, ByteBuffer destinationBuffer) throws IOException {
         long currentPosition = position;
         int bytesRead;
         do {
@@ -76,6 +139,212 @@ class HaloDBFile {
         return (int)(currentPosition - position);
     }
 
+    /**
+     * Reads from a file which is written with direct io, what is before the window of the append buffer from the
+     * file and the rest from the window.
+     */
+    private int readAppended(DirectAppendBuffer appending, long position, ByteBuffer destinationBuffer) throws IOException {
+        int start = destinationBuffer.position();
+        long currentPosition = position;
+        while (destinationBuffer.hasRemaining()) {
+            long inFile = appending.getWindowStart() - currentPosition;
+            int bytesRead;
+            if (inFile > 0) {
+                ByteBuffer part = destinationBuffer.duplicate();
+                part.limit((int)Math.min(part.limit(), part.position() + inFile));
+                bytesRead = readFromChannel(currentPosition, part);
+                if (bytesRead <= 0) {
+                    break;
+                }
+                destinationBuffer.position(part.position());
+            }
+            else {
+                bytesRead = appending.read(currentPosition, destinationBuffer);
+                if (bytesRead == 0) {
+                    break;
+                }
+                if (bytesRead == -1) {
+                    // the window was written out in the meantime.
+                    continue;
+                }
+            }
+            currentPosition += bytesRead;
+        }
+
+        int read = destinationBuffer.position() - start;
+        return read == 0 ? -1 : read;
+    }
+
+    private static int readFromMapping(MappedByteBuffer mapped, int position, ByteBuffer destinationBuffer) {
+        int length = Math.min(destinationBuffer.remaining(), mapped.capacity() - position);
+        if (length <= 0) {
+            return -1;
+        }
+
+        // a duplicate since the position and limit of the mapping are shared by all readers.
+        ByteBuffer source = mapped.duplicate();
+        source.limit(position + length);
+        source.position(position);
+        destinationBuffer.put(source);
+        return length;
+    }
+
+    /**
+     * Reads whole blocks into aligned buffers, through the block cache unless the read spans more blocks
+     * than would be worth caching, and copies the requested range to the destination buffer.
+     */
+    private int readDirect(int fd, long position, ByteBuffer destinationBuffer) throws IOException {
+        int length = (int)Math.min(destinationBuffer.remaining(), writeOffset - position);
+        if (length <= 0) {
+            return -1;
+        }
+
+        long firstBlock = position / BlockCache.BLOCK_SIZE;
+        long lastBlock = (position + length - 1) / BlockCache.BLOCK_SIZE;
+        if (blockCache == null || lastBlock - firstBlock >= MAX_CACHED_BLOCKS_PER_READ) {
+            long start = firstBlock * BlockCache.BLOCK_SIZE;
+            ByteBuffer aligned = ScratchBuffers.get().alignedBuffer(Ints.checkedCast((lastBlock + 1) * BlockCache.BLOCK_SIZE - start));
+            readAligned(fd, aligned, start, position + length);
+            aligned.limit(Ints.checkedCast(position - start) + length);
+            aligned.position(Ints.checkedCast(position - start));
+            destinationBuffer.put(aligned);
+            return length;
+        }
+
+        int remaining = length;
+        for (long block = firstBlock; block <= lastBlock; block++) {
+            int offsetInBlock = block == firstBlock ? (int)(position % BlockCache.BLOCK_SIZE) : 0;
+            int bytes = Math.min(BlockCache.BLOCK_SIZE - offsetInBlock, remaining);
+            if (!blockCache.get(fileId, block, offsetInBlock, bytes, destinationBuffer)) {
+                ByteBuffer aligned = ScratchBuffers.get().alignedBuffer(BlockCache.BLOCK_SIZE);
+                long blockStart = block * BlockCache.BLOCK_SIZE;
+                readAligned(fd, aligned, blockStart, blockStart + offsetInBlock + bytes);
+                blockCache.put(fileId, block, aligned);
+                aligned.limit(offsetInBlock + bytes);
+                aligned.position(offsetInBlock);
+                destinationBuffer.put(aligned);
+            }
+            remaining -= bytes;
+        }
+        return length;
+    }
+
+    /**
+     * Reads into the buffer from its start, and sets its limit to the number of bytes read,
+     * which must reach at least up to the given end position in the file.
+     */
+    private void readAligned(int fd, ByteBuffer aligned, long position, long end) throws IOException {
+        long read = NativeIO.pread(fd, aligned, position);
+        if (directFd != fd) {
+            // closed while reading, the descriptor might have been reused for another file.
+            throw new ClosedChannelException();
+        }
+        if (read < end - position) {
+            throw new IOException("Read " + read + " bytes at " + position + " from file " + fileId + " but expected " + (end - position));
+        }
+        aligned.limit((int)read);
+    }
+
+    /**
+     * Called once all writes to the file have completed. From then on reads are served
+     * from a read-only mapping or with direct io, if enabled.
+     */
+    void seal() throws IOException {
+        if (options.isDirectIO()) {
+            // normally already done by trim.
+            finishAppends();
+            openForDirectReads();
+        }
+        else {
+            map();
+        }
+    }
+
+    private synchronized void openForDirectReads() {
+        if (writeOffset == 0 || !channel.isOpen() || directFd != -1) {
+            return;
+        }
+        int fd = NativeIO.openDirect(backingFile);
+        if (fd != -1) {
+            directFd = fd;
+            // written pages are flushed by now and won't be read through the page cache again.
+            NativeIO.dropCachedPages(backingFile);
+        }
+    }
+
+    /**
+     * Maps the file read-only so that reads copy from the page cache without a system call.
+     * Called only if enabled in the options and only once all writes to the file have completed.
+     */
+    synchronized void map() throws IOException {
+        if (!options.isMemoryMapDataFiles() || writeOffset == 0 || !channel.isOpen()) {
+            return;
+        }
+        MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, writeOffset);
+        if (options.isAdviseFileAccess()) {
+            NativeIO.madvise(mapped, NativeIO.Advice.RANDOM);
+        }
+        mappedBuffer = mapped;
+    }
+
+    /**
+     * Advises the kernel on how the file will be read from now on. Data files serve random
+     * gets, files are read sequentially only when they are compacted or repaired.
+     */
+    synchronized void advise(NativeIO.Advice advice) {
+        if (!options.isAdviseFileAccess() || !channel.isOpen()) {
+            return;
+        }
+        if (advice == NativeIO.Advice.DONT_NEED) {
+            NativeIO.dropCachedPages(backingFile);
+        }
+        else {
+            NativeIO.fadvise(descriptor, 0, 0, advice);
+        }
+        MappedByteBuffer mapped = mappedBuffer;
+        if (mapped != null && advice != NativeIO.Advice.DONT_NEED) {
+            NativeIO.madvise(mapped, advice);
+        }
+    }
+
+    boolean isMapped() {
+        return mappedBuffer != null;
+    }
+
+    /**
+     * Releases the mapping without waiting for the garbage collector. Must be called
+     * only when no reader can be copying from the mapping.
+     */
+    synchronized void unmap() {
+        MappedByteBuffer mapped = mappedBuffer;
+        mappedBuffer = null;
+        if (mapped != null) {
+            Uns.invokeCleaner(mapped);
+        }
+    }
+
+    /**
+     * @return false if the file was already released by all its holders.
+     */
+    boolean retain() {
+        while (true) {
+            int current = references;
+            if (current == 0) {
+                return false;
+            }
+            if (referencesUpdater.compareAndSet(this, current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return true if this was the last reference, in which case the caller deletes the file.
+     */
+    boolean release() {
+        return referencesUpdater.decrementAndGet(this) == 0;
+    }
+
     private Record readRecord(int offset) throws HaloDBException, IOException {
         long tempOffset = offset;
 
@@ -102,26 +371,127 @@ class HaloDBFile {
         Record record = Record.deserialize(recordBuf, header.getKeySize(), header.getValueSize());
         record.setHeader(header);
         int valueOffset = offset + Record.Header.HEADER_SIZE + header.getKeySize();
-        record.setRecordMetaData(new RecordMetaDataForCache(fileId, valueOffset, header.getValueSize(), header.getSequenceNumber()));
+        record.setRecordMetaData(new RecordMetaDataForCache(
+            fileId, valueOffset, header.getValueSize(), header.getSequenceNumber(),
+            Versions.isValueCompressed(header.getVersion())
+        ));
         return record;
     }
 
     RecordMetaDataForCache writeRecord(Record record) throws IOException {
-        writeToChannel(record.serialize(), channel);
+        int recordOffset = writeOffsetUpdater.getAndAdd(this, record.getRecordSize());
+        return writeRecord(record, recordOffset);
+    }
+
+    /**
+     * Writes the record at the given offset, which must have been reserved
+     * by the caller using {@link #reserve(int)}.
+     */
+    RecordMetaDataForCache writeRecord(Record record, int recordOffset) throws IOException {
+        ByteBuffer buffer;
+        boolean serialized = false;
+        try {
+            buffer = ScratchBuffers.get().recordBuffer(record.getRecordSize());
+            Record.serialize(buffer, record.getKey(), ByteBuffer.wrap(record.getValue()), record.getSequenceNumber(), record.getVersion());
+            serialized = true;
+        } finally {
+            if (!serialized) {
+                fillHole(recordOffset, record.getRecordSize());
+            }
+        }
+        return writeRecord(record.getKey(), buffer, record.getSequenceNumber(), recordOffset);
+    }
+
+    /**
+     * Writes a serialized record, from the buffer's position to its limit, at the given offset which
+     * must have been reserved by the caller using {@link #reserve(int)}.
+     */
+    RecordMetaDataForCache writeRecord(byte[] key, ByteBuffer serializedRecord, long sequenceNumber, int recordOffset) throws IOException {
+        // written before anything else, a writer which reserved space after this one might be waiting for it.
+        int start = serializedRecord.position();
+        int recordSize = serializedRecord.remaining();
+        writeToChannel(serializedRecord, recordOffset);
+        boolean compressed = Versions.isValueCompressed(serializedRecord.get(start + Record.Header.VERSION_OFFSET));
+        indexFile.write(key, recordSize, recordOffset, sequenceNumber, indexFileVersion(compressed));
+
+        int valueOffset = Utils.getValueOffset(recordOffset, key);
+        int valueSize = recordSize - Record.Header.HEADER_SIZE - key.length;
+        return new RecordMetaDataForCache(fileId, valueOffset, valueSize, sequenceNumber, compressed);
+    }
+
+    /**
+     * Atomically reserves space for a record of the given size at the end of the file so that multiple
+     * threads can write to the file concurrently.
+     *
+     * @return offset of the reserved space or -1 if the record will not fit in the file.
+     */
+    int reserve(int size) {
+        while (true) {
+            int current = writeOffset;
+            // a record larger than maxFileSize is written to an empty file.
+            if (current != 0 && current + (long)size > options.getMaxFileSize()) {
+                return -1;
+            }
+            if (writeOffsetUpdater.compareAndSet(this, current, current + size)) {
+                return current;
+            }
+        }
+    }
+
+    /**
+     * Serializes all the records into a single buffer and writes it to the file with one write call.
+     * Index entries of the records are also written to the index file with a single write call.
+     * Caller should make sure that the records will fit in the file.
+     */
+    List<RecordMetaDataForCache> writeRecords(List<Record> records) throws IOException {
+        int batchSize = 0;
+        for (Record record : records) {
+            batchSize += record.getRecordSize();
+        }
 
-        int recordSize = record.getRecordSize();
-        int recordOffset = writeOffset;
-        writeOffset += recordSize;
+        // direct, so that writing it doesn't go through a temporary direct buffer of the JDK.
+        ByteBuffer batch = ScratchBuffers.get().recordBuffer(batchSize);
+        List<IndexFileEntry> indexFileEntries = new ArrayList<>(records.size());
+        List<RecordMetaDataForCache> metaData = new ArrayList<>(records.size());
+
+        int batchOffset = writeOffsetUpdater.getAndAdd(this, batchSize);
+        int recordOffset = batchOffset;
+        boolean serialized = false;
+        try {
+            for (Record record : records) {
+                Record.serialize(batch, record.getKey(), ByteBuffer.wrap(record.getValue()), record.getSequenceNumber(), record.getVersion());
+                batch.position(batch.limit());
+                batch.limit(batch.capacity());
+
+                boolean compressed = Versions.isValueCompressed(record.getVersion());
+                indexFileEntries.add(new IndexFileEntry(
+                    record.getKey(), record.getRecordSize(),
+                    recordOffset, record.getSequenceNumber(),
+                    indexFileVersion(compressed), -1
+                ));
+
+                int valueOffset = Utils.getValueOffset(recordOffset, record.getKey());
+                metaData.add(new RecordMetaDataForCache(
+                    fileId, valueOffset, record.getValue().length, record.getSequenceNumber(), compressed
+                ));
+                recordOffset += record.getRecordSize();
+            }
+            batch.flip();
+            serialized = true;
+        } finally {
+            if (!serialized) {
+                fillHole(batchOffset, batchSize);
+            }
+        }
 
-        IndexFileEntry indexFileEntry = new IndexFileEntry(
-            record.getKey(), recordSize,
-            recordOffset, record.getSequenceNumber(),
-            Versions.CURRENT_INDEX_FILE_VERSION, -1
-        );
-        indexFile.write(indexFileEntry);
+        writeToChannel(batch, batchOffset);
+        indexFile.write(indexFileEntries);
 
-        int valueOffset = Utils.getValueOffset(recordOffset, record.getKey());
-        return new RecordMetaDataForCache(fileId, valueOffset, record.getValue().length, record.getSequenceNumber());
+        return metaData;
+    }
+
+    private static int indexFileVersion(boolean valueCompressed) {
+        return Versions.withCompressedValue(Versions.CURRENT_INDEX_FILE_VERSION, valueCompressed);
     }
 
     void rebuildIndexFile() throws IOException {
@@ -130,18 +500,25 @@ class HaloDBFile {
         indexFile = new IndexFile(fileId, backingFile.getParentFile(), options);
         indexFile.create();
 
-        HaloDBFileIterator iterator = new HaloDBFileIterator();
+        advise(NativeIO.Advice.SEQUENTIAL);
+        HaloDBFileIterator iterator = newIterator();
         int offset = 0;
         while (iterator.hasNext()) {
             Record record = iterator.next();
+            if (record == null) {
+                logger.info("Found a corrupted record in file {} after indexing {} bytes", fileId, offset);
+                break;
+            }
             IndexFileEntry indexFileEntry = new IndexFileEntry(
                 record.getKey(), record.getRecordSize(),
                 offset, record.getSequenceNumber(),
-                Versions.CURRENT_INDEX_FILE_VERSION, -1
+                indexFileVersion(Versions.isValueCompressed(record.getVersion())), -1
             );
             indexFile.write(indexFileEntry);
             offset += record.getRecordSize();
         }
+        indexFile.flush();
+        advise(NativeIO.Advice.RANDOM);
     }
 
     /**
@@ -154,11 +531,12 @@ class HaloDBFile {
      * This method is called if we detect an unclean shutdown.
      */
     HaloDBFile repairFile(int newFileId) throws IOException {
-        HaloDBFile newFile = create(backingFile.getParentFile(), newFileId, options, fileType);
+        HaloDBFile newFile = create(backingFile.getParentFile(), newFileId, options, fileType, blockCache);
 
         logger.info("Repairing file {}. Records with the correct checksum will be copied to {}", fileId, newFile.fileId);
+        advise(NativeIO.Advice.SEQUENTIAL);
 
-        HaloDBFileIterator iterator = new HaloDBFileIterator();
+        HaloDBFileIterator iterator = newIterator();
         int count = 0;
         while (iterator.hasNext()) {
             Record record = iterator.next();
@@ -173,42 +551,138 @@ class HaloDBFile {
             }
         }
         logger.info("Copied {} records from {} with size {} to {} with size {}. Deleting file ...", count, fileId, getSize(), newFile.fileId, newFile.getSize());
+        newFile.trim();
         newFile.flushToDisk();
         newFile.indexFile.flushToDisk();
+        newFile.seal();
         delete();
         return newFile;
     }
 
-    private long writeToChannel(ByteBuffer[] buffers, FileChannel writeChannel) throws IOException {
-        long toWrite = 0;
-        for (ByteBuffer buffer : buffers) {
-            toWrite += buffer.remaining();
-        }
-
+    private long writeToChannel(ByteBuffer buffer, long position) throws IOException {
         long written = 0;
-        while (written < toWrite) {
-            written += writeChannel.write(buffers);
+        DirectAppendBuffer appending = appendBuffer;
+        if (appending != null) {
+            written = buffer.remaining();
+            appending.write(buffer, position);
+        }
+        else {
+            while (buffer.hasRemaining()) {
+                written += channel.write(buffer, position + written);
+            }
         }
 
-        unFlushedData += written;
-
-        if (options.getFlushDataSizeBytes() != -1 && unFlushedData > options.getFlushDataSizeBytes()) {
+        if (options.getFlushDataSizeBytes() != -1 && unFlushedData.addAndGet(written) > options.getFlushDataSizeBytes()) {
             //TODO: since metadata is not flushed file corruption can happen when process crashes.
-            writeChannel.force(false);
-            unFlushedData = 0;
+            unFlushedData.set(0);
+            flushDataToDisk();
         }
         return written;
     }
 
+    /**
+     * Fills a range reserved by a writer which failed before writing it with zeros, so that the writers of the
+     * ranges after it, which wait for it with direct io, can go on.
+     */
+    void fillHole(long position, int size) throws IOException {
+        DirectAppendBuffer appending = appendBuffer;
+        if (appending != null) {
+            appending.fillHole(position, size);
+        }
+    }
+
+    /**
+     * Appends size bytes at the given offset of the source file at the given position of this file, which is
+     * where the channel is positioned unless the file is written with direct io.
+     *
+     * @return number of bytes written. With direct io all of the range is written, the part which couldn't be
+     * read from the source file with zeros.
+     */
+    long transferFrom(HaloDBFile source, long sourceOffset, int size, long position) throws IOException {
+        DirectAppendBuffer appending = appendBuffer;
+        if (appending == null) {
+            return source.channel.transferTo(sourceOffset, size, channel);
+        }
+
+        ByteBuffer buffer = ScratchBuffers.get().recordBuffer(size);
+        buffer.limit(size);
+        int read;
+        try {
+            read = source.readFromChannel(sourceOffset, buffer);
+        } catch (IOException | RuntimeException e) {
+            fillHole(position, size);
+            throw e;
+        }
+        if (read < size) {
+            logger.error("Read {} bytes at {} from file {} but expected {}", read, sourceOffset, source.fileId, size);
+            while (buffer.hasRemaining()) {
+                buffer.put((byte)0);
+            }
+        }
+        buffer.flip();
+        appending.write(buffer, position);
+        return size;
+    }
+
+    /**
+     * Flushes the data but not the metadata of the file.
+     */
+    void flushDataToDisk() throws IOException {
+        DirectAppendBuffer appending = appendBuffer;
+        if (appending != null) {
+            appending.flush();
+        }
+        channel.force(false);
+    }
+
     void flushToDisk() throws IOException {
+        DirectAppendBuffer appending = appendBuffer;
+        if (appending != null) {
+            appending.flush();
+        }
         if (channel != null && channel.isOpen())
             channel.force(true);
     }
 
+    /**
+     * Truncates a preallocated file, or the padding of the last block written with direct io, to the size of the
+     * data actually written. Called once the file is no longer written to.
+     */
+    void trim() throws IOException {
+        finishAppends();
+        if (channel != null && channel.isOpen() && channel.size() > writeOffset) {
+            channel.truncate(writeOffset);
+        }
+        zeroFilledTail = false;
+    }
+
+    private void finishAppends() throws IOException {
+        DirectAppendBuffer appending = appendBuffer;
+        if (appending != null) {
+            appending.finish();
+            appendBuffer = null;
+        }
+    }
+
     long getWriteOffset() {
         return writeOffset;
     }
 
+    /**
+     * @return size of the stale records in the file, including the given one.
+     */
+    int addStaleData(int staleRecordSize) {
+        return staleDataSizeUpdater.addAndGet(this, staleRecordSize);
+    }
+
+    int getStaleDataSize() {
+        return staleDataSize;
+    }
+
+    void resetStaleData() {
+        staleDataSize = 0;
+    }
+
     void setWriteOffset(int writeOffset) {
         this.writeOffset = writeOffset;
     }
@@ -234,39 +708,192 @@ class HaloDBFile {
     }
 
     static HaloDBFile openForReading(File haloDBDirectory, File filename, FileType fileType, HaloDBOptions options) throws IOException {
+        return openForReading(haloDBDirectory, filename, fileType, options, null);
+    }
+
+    static HaloDBFile openForReading(File haloDBDirectory, File filename, FileType fileType, HaloDBOptions options, BlockCache blockCache) throws IOException {
         int fileId = HaloDBFile.getFileTimeStamp(filename);
-        FileChannel channel = new RandomAccessFile(filename, "r").getChannel();
+        RandomAccessFile randomAccessFile = new RandomAccessFile(filename, "r");
+        FileChannel channel = randomAccessFile.getChannel();
         IndexFile indexFile = new IndexFile(fileId, haloDBDirectory, options);
         indexFile.open();
 
-        return new HaloDBFile(fileId, filename, indexFile, fileType, channel, options);
+        HaloDBFile file = new HaloDBFile(fileId, filename, indexFile, fileType, channel, randomAccessFile.getFD(), Ints.checkedCast(channel.size()), options, blockCache);
+        file.advise(NativeIO.Advice.RANDOM);
+        if (file.hasZeroFilledTail()) {
+            // a preallocated file which was not trimmed, probably because the db crashed.
+            file.zeroFilledTail = true;
+            file.writeOffset = file.findEndOfData();
+        }
+        // files are never written to after they have been closed.
+        file.seal();
+        return file;
     }
 
     static HaloDBFile create(File haloDBDirectory, int fileId, HaloDBOptions options, FileType fileType) throws IOException {
+        return create(haloDBDirectory, fileId, options, fileType, null, false);
+    }
+
+    static HaloDBFile create(File haloDBDirectory, int fileId, HaloDBOptions options, FileType fileType, BlockCache blockCache) throws IOException {
+        return create(haloDBDirectory, fileId, options, fileType, blockCache, false);
+    }
+
+    /**
+     * Creates a file with a temporary name, which is not visible to the db until {@link #publish()}
+     * is called. Used to create the next write file ahead of time.
+     */
+    static HaloDBFile createStaged(File haloDBDirectory, int fileId, HaloDBOptions options, FileType fileType, BlockCache blockCache) throws IOException {
+        return create(haloDBDirectory, fileId, options, fileType, blockCache, true);
+    }
+
+    private static HaloDBFile create(File haloDBDirectory, int fileId, HaloDBOptions options, FileType fileType,
+                                     BlockCache blockCache, boolean staged) throws IOException {
         BiFunction<File, Integer, File> toFile = (fileType == FileType.DATA_FILE) ? HaloDBFile::getDataFile : HaloDBFile::getCompactedDataFile;
 
         File file = toFile.apply(haloDBDirectory, fileId);
-        while (!file.createNewFile()) {
+        while (!createNewFile(file, staged)) {
             // file already exists try another one.
             fileId++;
             file = toFile.apply(haloDBDirectory, fileId);
         }
+        if (staged) {
+            file = FileUtils.getStagedFile(file);
+        }
 
-        FileChannel channel = new RandomAccessFile(file, "rw").getChannel();
-        //TODO: setting the length might improve performance.
-        //file.setLength(max_);
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        if (options.isPreallocateDataFiles()) {
+            preallocate(file, randomAccessFile, options.getMaxFileSize());
+        }
+        FileChannel channel = randomAccessFile.getChannel();
 
         IndexFile indexFile = new IndexFile(fileId, haloDBDirectory, options);
-        indexFile.create();
+        if (staged) {
+            indexFile.createStaged();
+        }
+        else {
+            indexFile.create();
+        }
+
+        HaloDBFile dbFile = new HaloDBFile(fileId, file, indexFile, fileType, channel, randomAccessFile.getFD(), 0, options, blockCache);
+        if (options.isDirectIO()) {
+            // falls back to writes through the page cache if the file system doesn't support direct io.
+            dbFile.appendBuffer = DirectAppendBuffer.open(file);
+        }
+        dbFile.zeroFilledTail = options.isPreallocateDataFiles() || dbFile.appendBuffer != null;
+        dbFile.advise(NativeIO.Advice.RANDOM);
+        return dbFile;
+    }
+
+    private static boolean createNewFile(File file, boolean staged) throws IOException {
+        if (staged) {
+            return !file.exists() && FileUtils.getStagedFile(file).createNewFile();
+        }
+        return file.createNewFile();
+    }
+
+    /**
+     * Renames a staged file and its index file to their final names. The data file is renamed first
+     * so that a crash in between leaves behind an empty data file, for which the index file is recreated on open.
+     */
+    void publish() throws IOException {
+        if (backingFile.getName().endsWith(Constants.STAGED_FILE_SUFFIX)) {
+            backingFile = FileUtils.publishStagedFile(backingFile);
+        }
+        indexFile.publish();
+    }
 
-        return new HaloDBFile(fileId, file, indexFile, fileType, channel, options);
+    /**
+     * Reserves space for the whole file up front so that the file system doesn't
+     * have to update the file size and allocate blocks on every append.
+     * If fallocate is not available the length is set, which creates a sparse file.
+     */
+    private static void preallocate(File file, RandomAccessFile randomAccessFile, int size) throws IOException {
+        if (!NativeIO.fallocate(file, 0, size)) {
+            randomAccessFile.setLength(size);
+        }
+    }
+
+    private boolean hasZeroFilledTail() throws IOException {
+        if (!mightHaveZeroFilledTail()) {
+            return false;
+        }
+        // a record can end with zeros, but a file which was trimmed ends where the last record in its index file does.
+        return getIndexedEndOfData() != writeOffset;
+    }
+
+    private boolean mightHaveZeroFilledTail() throws IOException {
+        if (options.isDirectIO() && writeOffset > 0 && writeOffset % NativeIO.DIRECT_IO_ALIGNMENT == 0 && isZeroFilled(writeOffset - 1)) {
+            // the last block written with direct io might be padded with fewer zeros than a header.
+            return true;
+        }
+        if (writeOffset < Record.Header.HEADER_SIZE) {
+            return false;
+        }
+        return isZeroFilled(writeOffset - Record.Header.HEADER_SIZE);
+    }
+
+    /**
+     * @return end of the last record in the index file, which is complete once the data file is no longer written to,
+     * or -1 if the last entry of the index file is incomplete.
+     */
+    private long getIndexedEndOfData() throws IOException {
+        long end = 0;
+        try {
+            IndexFile.IndexFileIterator iterator = indexFile.newIterator();
+            while (iterator.hasNext()) {
+                IndexFileEntry entry = iterator.next();
+                // entries of concurrent writers are not in the order of their records.
+                end = Math.max(end, (long)entry.getRecordOffset() + entry.getRecordSize());
+            }
+        } catch (RuntimeException e) {
+            // the last entry was only partly written.
+            return -1;
+        }
+        return end;
+    }
+
+    private boolean isZeroFilled(int offset) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(Math.min(Record.Header.HEADER_SIZE, Ints.checkedCast(channel.size()) - offset));
+        readFromFile(offset, buffer);
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            if (buffer.get() != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Finds the end of the data in a preallocated file, or one written with direct io, which was not trimmed,
+     * which is where the first zero filled header is.
+     */
+    private int findEndOfData() throws IOException {
+        HaloDBFileIterator iterator = new HaloDBFileIterator(true);
+        int offset = 0;
+        while (iterator.hasNext()) {
+            Record record = iterator.next();
+            if (record == null) {
+                break;
+            }
+            offset += record.getRecordSize();
+        }
+        return offset;
     }
 
     HaloDBFileIterator newIterator() throws IOException {
-        return new HaloDBFileIterator();
+        return new HaloDBFileIterator(zeroFilledTail);
     }
 
-    void close() throws IOException {
+    synchronized void close() throws IOException {
+        finishAppends();
+        // readers which already got the mapping can still use it, others read from the closed channel and retry.
+        mappedBuffer = null;
+        int fd = directFd;
+        if (fd != -1) {
+            directFd = -1;
+            NativeIO.closeDirect(fd);
+        }
         if (channel != null) {
             channel.close();
         }
@@ -315,15 +942,32 @@ class HaloDBFile {
      */
     class HaloDBFileIterator implements Iterator<Record> {
 
-        private final int endOffset;
+        private int endOffset;
         private int currentOffset = 0;
+        private int checkedOffset = -1;
+
+        // only for a file which might have zeros after its data, as checking costs a read per record.
+        private final boolean stopAtZeroFilledHeader;
 
-        HaloDBFileIterator() throws IOException {
+        private HaloDBFileIterator(boolean stopAtZeroFilledHeader) throws IOException {
             this.endOffset = Ints.checkedCast(channel.size());
+            this.stopAtZeroFilledHeader = stopAtZeroFilledHeader;
         }
 
         @Override
         public boolean hasNext() {
+            if (stopAtZeroFilledHeader && currentOffset < endOffset && checkedOffset != currentOffset) {
+                // a zero filled header marks the end of data in a preallocated file.
+                checkedOffset = currentOffset;
+                try {
+                    if (isZeroFilled(currentOffset)) {
+                        endOffset = currentOffset;
+                    }
+                } catch (IOException e) {
+                    logger.error("Error in iterator", e);
+                    endOffset = currentOffset;
+                }
+            }
             return currentOffset < endOffset;
         }
 
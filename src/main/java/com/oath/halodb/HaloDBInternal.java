@@ -21,8 +21,18 @@ import java.nio.channels.OverlappingFileLockException;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
 
 /**
  * @author Arjun Mannaly
@@ -34,7 +44,7 @@ class HaloDBInternal {
 
     private volatile HaloDBFile currentWriteFile;
 
-    private TombstoneFile currentTombstoneFile;
+    private volatile TombstoneFile currentTombstoneFile;
 
     private Map<Integer, HaloDBFile> readFileMap = new ConcurrentHashMap<>();
 
@@ -42,14 +52,32 @@ class HaloDBInternal {
 
     private InMemoryIndex inMemoryIndex;
 
-    private final Map<Integer, Integer> staleDataPerFileMap = new ConcurrentHashMap<>();
 
     private CompactionManager compactionManager;
 
+    private FileManager fileManager;
+
+    private SyncManager syncManager;
+
+    // values which are read often, null if the cache is disabled.
+    private ValueCache valueCache;
+
+    // blocks of data files read with direct io, null if direct io or the cache is disabled.
+    private BlockCache blockCache;
+
+    // disk reads of getAsync and multiGetAsync run on this executor.
+    private Executor readExecutor;
+
+    // set if the read executor was created by the db, in which case it is shut down on close.
+    private ExecutorService ownedReadExecutor;
+
     private AtomicInteger nextFileId;
 
     private volatile boolean isClosing = false;
 
+    // meta data is updated by reading the file, changing a field and writing it back, from more than one thread.
+    private final Object metaDataLock = new Object();
+
     private volatile long statsResetTime = System.currentTimeMillis();
 
     private FileLock dbLock;
@@ -59,7 +87,39 @@ class HaloDBInternal {
     private volatile long noOfTombstonesCopiedDuringOpen = 0;
     private volatile long noOfTombstonesFoundDuringOpen = 0;
 
-    private HaloDBInternal() {}
+    // Multiple threads can append to the current write file concurrently while holding the read lock,
+    // space for each record is reserved atomically in the file. The write lock is held while rolling
+    // over to a new file and while writing a batch.
+    private final ReentrantReadWriteLock writeFileLock = new ReentrantReadWriteLock();
+
+    // Serializes writes to the same key so that the order of records in the
+    // in-memory index is the same as the order of their sequence numbers. A batch
+    // takes the locks of all its keys, in the order of their index.
+    private static final int noOfKeyLocks = 1024;
+    private final ReentrantLock[] keyLocks = new ReentrantLock[noOfKeyLocks];
+
+    private final Object tombstoneFileLock = new Object();
+
+    private final AtomicLong lastSequenceNumber = new AtomicLong(0);
+
+    // reads enter an epoch before looking up the index, compaction waits for them before deleting a file.
+    private final ReadEpoch readEpoch = new ReadEpoch();
+
+    // files deleted by compaction which an iterator still reads from.
+    private final Set<HaloDBFile> filesPendingDeletion = ConcurrentHashMap.newKeySet();
+
+    // reads which didn't find the file the index pointed to and looked up the key again.
+    private final AtomicLong noOfReadRetries = new AtomicLong(0);
+
+    // values read by get(byte[], ValueConsumer) land in these buffers.
+    private final DirectBufferPool valueBufferPool =
+        new DirectBufferPool(2 * Runtime.getRuntime().availableProcessors());
+
+    private HaloDBInternal() {
+        for (int i = 0; i < noOfKeyLocks; i++) {
+            keyLocks[i] = new ReentrantLock();
+        }
+    }
 
     static HaloDBInternal open(File directory, HaloDBOptions options) throws HaloDBException, IOException {
         checkIfOptionsAreCorrect(options);
@@ -72,6 +132,19 @@ class HaloDBInternal {
 
         dbInternal.options = options;
 
+        if (options.isAdviseFileAccess()) {
+            NativeIO.warnIfAccessAdviceIsNotAvailable();
+        }
+        if (options.isDirectIO()) {
+            if (!NativeIO.isDirectIOAvailable()) {
+                logger.warn("Direct io is not supported on this platform, data files will be read through the page cache.");
+            }
+            else if (options.getBlockCacheSize() > 0) {
+                dbInternal.blockCache = new BlockCache(options.getBlockCacheSize(), 2 * Runtime.getRuntime().availableProcessors());
+            }
+        }
+
+        FileUtils.deleteStagedFiles(directory);
         int maxFileId = dbInternal.buildReadFileMap();
         dbInternal.nextFileId = new AtomicInteger(maxFileId + 10);
 
@@ -84,7 +157,7 @@ class HaloDBInternal {
         if (dbMetaData.isOpen() || dbMetaData.isIOError()) {
             logger.info("DB was not shutdown correctly last time. Files may not be consistent, repairing them.");
             // open flag is true, this might mean that the db was not cleanly closed the last time.
-            dbInternal.repairFiles();
+            dbInternal.repairFiles(dbMetaData);
         }
         dbMetaData.setOpen(true);
         dbMetaData.setIOError(false);
@@ -93,12 +166,25 @@ class HaloDBInternal {
         dbMetaData.storeToFile();
 
         dbInternal.compactionManager = new CompactionManager(dbInternal);
+        dbInternal.fileManager = new FileManager(dbInternal);
+        dbInternal.syncManager = new SyncManager(dbInternal);
+        if (options.getReadExecutor() != null) {
+            dbInternal.readExecutor = options.getReadExecutor();
+        }
+        else {
+            dbInternal.ownedReadExecutor = createReadExecutor();
+            dbInternal.readExecutor = dbInternal.ownedReadExecutor;
+        }
 
         dbInternal.inMemoryIndex = new InMemoryIndex(
             options.getNumberOfRecords(), options.isUseMemoryPool(),
-            options.getFixedKeySize(), options.getMemoryPoolChunkSize()
+            options.getFixedKeySize(), options.getMemoryPoolChunkSize(), options.isUseOpenAddressing()
         );
 
+        if (options.getValueCacheSize() > 0) {
+            dbInternal.valueCache = new ValueCache(options.getValueCacheSize(), dbInternal.inMemoryIndex.getNoOfSegments());
+        }
+
         dbInternal.buildInMemoryIndex(options);
         dbInternal.compactionManager.startCompactionThread();
 
@@ -124,7 +210,28 @@ class HaloDBInternal {
         if (options.isCleanUpKeyCacheOnClose())
             inMemoryIndex.close();
 
+        if (ownedReadExecutor != null) {
+            // let reads in progress complete before the files are closed.
+            ownedReadExecutor.shutdown();
+            try {
+                if (!ownedReadExecutor.awaitTermination(10, TimeUnit.SECONDS)) {
+                    logger.warn("Reads still in progress after waiting for 10 seconds");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                logger.error("Interrupted while waiting for reads to complete", e);
+            }
+        }
+
+        if (valueCache != null) {
+            valueCache.close();
+        }
+
+        syncManager.stop();
+        fileManager.close();
+
         if (currentWriteFile != null) {
+            currentWriteFile.trim();
             currentWriteFile.flushToDisk();
             currentWriteFile.getIndexFile().flushToDisk();
             currentWriteFile.close();
@@ -137,11 +244,20 @@ class HaloDBInternal {
         for (HaloDBFile file : readFileMap.values()) {
             file.close();
         }
+        if (blockCache != null) {
+            blockCache.close();
+        }
+        // an iterator which wasn't read to the end still holds these files.
+        for (HaloDBFile file : filesPendingDeletion) {
+            file.delete();
+        }
 
-        DBMetaData metaData = new DBMetaData(dbDirectory.getPath());
-        metaData.loadFromFileIfExists();
-        metaData.setOpen(false);
-        metaData.storeToFile();
+        synchronized (metaDataLock) {
+            DBMetaData metaData = new DBMetaData(dbDirectory.getPath());
+            metaData.loadFromFileIfExists();
+            metaData.setOpen(false);
+            metaData.storeToFile();
+        }
 
         if (dbLock != null) {
             dbLock.close();
@@ -153,15 +269,60 @@ class HaloDBInternal {
             throw new HaloDBException("key length cannot exceed " + Byte.MAX_VALUE);
         }
 
-        Record record = new Record(key, value);
-        record.setSequenceNumber(getNextSequenceNumber());
-        record.setVersion(Versions.CURRENT_DATA_FILE_VERSION);
-        RecordMetaDataForCache entry = writeRecordToFile(record);
-        markPreviousVersionAsStale(key);
+        put(key, ByteBuffer.wrap(value));
+    }
+
+    /**
+     * Key and value are read from their position to their limit. Doesn't allocate on the heap
+     * other than for the index entry.
+     */
+    void put(ByteBuffer key, ByteBuffer value) throws IOException, HaloDBException {
+        if (key.remaining() > Byte.MAX_VALUE) {
+            throw new HaloDBException("key length cannot exceed " + Byte.MAX_VALUE);
+        }
+
+        put(ScratchBuffers.get().key(key), value);
+    }
+
+    private void put(byte[] key, ByteBuffer value) throws IOException, HaloDBException {
+        ReentrantLock keyLock = getKeyLock(key);
+        keyLock.lock();
+        try {
+            long sequenceNumber = getNextSequenceNumber();
+            int version = Versions.CURRENT_DATA_FILE_VERSION;
+            ByteBuffer storedValue = value;
+            ByteBuffer compressed = options.isCompressValues() ? ValueCompression.compress(value) : null;
+            if (compressed != null) {
+                storedValue = compressed;
+                version = Versions.withCompressedValue(version, true);
+            }
+
+            ScratchBuffers scratch = ScratchBuffers.get();
+            ByteBuffer record = scratch.recordBuffer(Record.Header.HEADER_SIZE + key.length + storedValue.remaining());
+            Record.serialize(record, key, storedValue, sequenceNumber, version);
+
+            writeFileLock.readLock().lock();
+            try {
+                RecordMetaDataForCache entry = writeRecordToFile(key, record, sequenceNumber);
+                RecordMetaDataForCache previous = inMemoryIndex.getAndPut(key, entry);
+                if (previous != null) {
+                    markPreviousVersionAsStale(key, previous);
+                    removeCachedValue(key);
+                }
+            } finally {
+                writeFileLock.readLock().unlock();
+            }
+        } finally {
+            keyLock.unlock();
+        }
+    }
 
-        //TODO: implement getAndSet and use the return value for
-        //TODO: markPreviousVersionAsStale method.   
-        inMemoryIndex.put(key, entry);
+    /**
+     * Writes the record and returns a future which completes once it is on disk.
+     */
+    CompletableFuture<Void> putAsync(byte[] key, byte[] value) throws IOException, HaloDBException {
+        put(key, value);
+        return syncManager.requestSync();
     }
 
     byte[] get(byte[] key, int attemptNumber) throws IOException, HaloDBException {
@@ -169,23 +330,44 @@ class HaloDBInternal {
             logger.error("Tried {} attempts but read failed", attemptNumber-1);
             throw new HaloDBException("Tried " + attemptNumber + " attempts but failed.");
         }
-        RecordMetaDataForCache metaData = inMemoryIndex.get(key);
-        if (metaData == null) {
-            return null;
+        int epochSlot = readEpoch.enter();
+        try {
+            RecordMetaDataForCache metaData = inMemoryIndex.get(key);
+            if (metaData == null) {
+                return null;
+            }
+
+            return readValue(key, metaData, attemptNumber);
+        } finally {
+            readEpoch.exit(epochSlot);
+        }
+    }
+
+    private byte[] readValue(byte[] key, RecordMetaDataForCache metaData, int attemptNumber) throws IOException, HaloDBException {
+        byte[] cached = getCachedValue(key, metaData);
+        if (cached != null) {
+            return cached;
         }
 
         HaloDBFile readFile = readFileMap.get(metaData.getFileId());
         if (readFile == null) {
             logger.debug("File {} not present. Compaction job would have deleted it. Retrying ...", metaData.getFileId());
+            noOfReadRetries.incrementAndGet();
             return get(key, attemptNumber+1);
         }
 
         try {
-            return readFile.readFromFile(metaData.getValueOffset(), metaData.getValueSize());
+            byte[] value = readFile.readFromFile(metaData.getValueOffset(), metaData.getValueSize());
+            if (metaData.isValueCompressed()) {
+                value = ValueCompression.decompress(value);
+            }
+            cacheValue(key, metaData, ByteBuffer.wrap(value));
+            return value;
         }
         catch (ClosedChannelException e) {
             if (!isClosing) {
                 logger.debug("File {} was closed. Compaction job would have deleted it. Retrying ...", metaData.getFileId());
+                noOfReadRetries.incrementAndGet();
                 return get(key, attemptNumber+1);
             }
 
@@ -194,75 +376,708 @@ class HaloDBInternal {
         }
     }
 
-    int get(byte[] key, ByteBuffer buffer) throws IOException {
+    boolean contains(byte[] key) {
+        return inMemoryIndex.containsKey(key);
+    }
+
+    /**
+     * @return sequence number of the current record of the key, or -1 if the key is not in the db.
+     */
+    long getVersion(byte[] key) {
+        RecordMetaDataForCache metaData = inMemoryIndex.get(key);
+        return metaData != null ? metaData.getSequenceNumber() : -1;
+    }
+
+    /**
+     * Answered from the in-memory index, which holds the size of a value as stored on disk, that is the compressed
+     * size of a value which was compressed.
+     *
+     * @return size of the value, or -1 if the key is not in the db.
+     */
+    int getValueSize(byte[] key) {
+        RecordMetaDataForCache metaData = inMemoryIndex.get(key);
+        return metaData != null ? metaData.getValueSize() : -1;
+    }
+
+    int get(ByteBuffer key, ByteBuffer buffer) throws IOException, HaloDBException {
+        if (key.remaining() > Byte.MAX_VALUE) {
+            throw new HaloDBException("key length cannot exceed " + Byte.MAX_VALUE);
+        }
+
+        return get(ScratchBuffers.get().key(key), buffer, 1);
+    }
+
+    /**
+     * Reads the value into the buffer, which is cleared before the read and flipped after.
+     *
+     * @return size of the value or -1 if the key is not present.
+     */
+    int get(byte[] key, ByteBuffer buffer, int attemptNumber) throws IOException, HaloDBException {
+        if (attemptNumber > maxReadAttempts) {
+            logger.error("Tried {} attempts but read failed", attemptNumber-1);
+            throw new HaloDBException("Tried " + attemptNumber + " attempts but failed.");
+        }
+        int epochSlot = readEpoch.enter();
+        try {
+            RecordMetaDataForCache metaData = inMemoryIndex.get(key);
+            if (metaData == null) {
+                return -1;
+            }
+
+            byte[] cached = getCachedValue(key, metaData);
+            if (cached != null) {
+                if (cached.length > buffer.capacity()) {
+                    throw new HaloDBException("Buffer of size " + buffer.capacity() + " cannot hold value of size " + cached.length);
+                }
+                buffer.clear();
+                buffer.put(cached);
+                buffer.flip();
+                return cached.length;
+            }
+
+            // size of a compressed value is known only after it is read.
+            if (!metaData.isValueCompressed() && metaData.getValueSize() > buffer.capacity()) {
+                throw new HaloDBException("Buffer of size " + buffer.capacity() + " cannot hold value of size " + metaData.getValueSize());
+            }
+
+            HaloDBFile readFile = readFileMap.get(metaData.getFileId());
+            if (readFile == null) {
+                logger.debug("File {} not present. Compaction job would have deleted it. Retrying ...", metaData.getFileId());
+                noOfReadRetries.incrementAndGet();
+                return get(key, buffer, attemptNumber+1);
+            }
+
+            buffer.clear();
+
+            try {
+                if (metaData.isValueCompressed()) {
+                    byte[] stored = readCompressedValue(readFile, metaData);
+                    int size = ValueCompression.uncompressedSize(stored, 0, metaData.getValueSize());
+                    if (size > buffer.capacity()) {
+                        throw new HaloDBException("Buffer of size " + buffer.capacity() + " cannot hold value of size " + size);
+                    }
+                    buffer.limit(size);
+                    decompressValue(stored, metaData.getValueSize(), buffer);
+                    cacheValue(key, metaData, buffer);
+                    return size;
+                }
+
+                buffer.limit(metaData.getValueSize());
+                int read = readFile.readFromFile(metaData.getValueOffset(), buffer);
+                buffer.flip();
+                cacheValue(key, metaData, buffer);
+                return read;
+            }
+            catch (ClosedChannelException e) {
+                if (!isClosing) {
+                    logger.debug("File {} was closed. Compaction job would have deleted it. Retrying ...", metaData.getFileId());
+                    noOfReadRetries.incrementAndGet();
+                    return get(key, buffer, attemptNumber+1);
+                }
+
+                // trying to read after HaloDB.close() method called.
+                throw e;
+            }
+        } finally {
+            readEpoch.exit(epochSlot);
+        }
+    }
+
+    /**
+     * Reads at most length bytes of the value, starting at valueOffset, into the buffer, which is cleared
+     * before the read and flipped after. Only the requested range is read from disk, unless the value is
+     * compressed, in which case the whole value is read and decompressed.
+     *
+     * @return number of bytes read, which is less than length if the value ends before, or -1 if the key is not present.
+     */
+    int get(byte[] key, int valueOffset, int length, ByteBuffer buffer, int attemptNumber) throws IOException, HaloDBException {
+        if (attemptNumber > maxReadAttempts) {
+            logger.error("Tried {} attempts but read failed", attemptNumber-1);
+            throw new HaloDBException("Tried " + attemptNumber + " attempts but failed.");
+        }
+        int epochSlot = readEpoch.enter();
+        try {
+            RecordMetaDataForCache metaData = inMemoryIndex.get(key);
+            if (metaData == null) {
+                return -1;
+            }
+
+            byte[] cached = getCachedValue(key, metaData);
+            if (cached != null) {
+                return copyRange(cached, cached.length, valueOffset, length, buffer);
+            }
+
+            HaloDBFile readFile = readFileMap.get(metaData.getFileId());
+            if (readFile == null) {
+                logger.debug("File {} not present. Compaction job would have deleted it. Retrying ...", metaData.getFileId());
+                noOfReadRetries.incrementAndGet();
+                return get(key, valueOffset, length, buffer, attemptNumber+1);
+            }
+
+            try {
+                if (metaData.isValueCompressed()) {
+                    byte[] stored = readCompressedValue(readFile, metaData);
+                    int size = ValueCompression.uncompressedSize(stored, 0, metaData.getValueSize());
+                    byte[] value = ScratchBuffers.get().valueArray(size);
+                    ValueCompression.decompress(stored, 0, metaData.getValueSize(), value, 0);
+                    cacheValue(key, metaData, ByteBuffer.wrap(value, 0, size));
+                    return copyRange(value, size, valueOffset, length, buffer);
+                }
+
+                int bytesToRead = checkRange(metaData.getValueSize(), valueOffset, length, buffer);
+                buffer.clear();
+                buffer.limit(bytesToRead);
+                readFile.readFromFile(metaData.getValueOffset() + valueOffset, buffer);
+                buffer.flip();
+                return bytesToRead;
+            }
+            catch (ClosedChannelException e) {
+                if (!isClosing) {
+                    logger.debug("File {} was closed. Compaction job would have deleted it. Retrying ...", metaData.getFileId());
+                    noOfReadRetries.incrementAndGet();
+                    return get(key, valueOffset, length, buffer, attemptNumber+1);
+                }
+
+                // trying to read after HaloDB.close() method called.
+                throw e;
+            }
+        } finally {
+            readEpoch.exit(epochSlot);
+        }
+    }
+
+    private static int copyRange(byte[] value, int size, int valueOffset, int length, ByteBuffer buffer) throws HaloDBException {
+        int bytesToCopy = checkRange(size, valueOffset, length, buffer);
+        buffer.clear();
+        buffer.put(value, valueOffset, bytesToCopy);
+        buffer.flip();
+        return bytesToCopy;
+    }
+
+    /**
+     * @return number of bytes of the range which are within the value.
+     */
+    private static int checkRange(int size, int valueOffset, int length, ByteBuffer buffer) throws HaloDBException {
+        if (valueOffset > size) {
+            throw new HaloDBException("Offset " + valueOffset + " is beyond the end of the value of size " + size);
+        }
+        int bytes = Math.min(length, size - valueOffset);
+        if (bytes > buffer.capacity()) {
+            throw new HaloDBException("Buffer of size " + buffer.capacity() + " cannot hold " + bytes + " bytes of the value");
+        }
+        return bytes;
+    }
+
+    /**
+     * Reads the value into a direct buffer from the pool and passes it to the consumer.
+     *
+     * @return false if the key is not present.
+     */
+    boolean get(byte[] key, ValueConsumer consumer) throws IOException, HaloDBException {
+        ByteBuffer value;
+        int epochSlot = readEpoch.enter();
+        try {
+            value = readIntoPooledBuffer(key, 1);
+        } finally {
+            // the value was copied, a slow consumer must not hold up the deletion of compacted files.
+            readEpoch.exit(epochSlot);
+        }
+        if (value == null) {
+            return false;
+        }
+
+        try {
+            consumer.accept(value.asReadOnlyBuffer());
+        } finally {
+            valueBufferPool.release(value);
+        }
+        return true;
+    }
+
+    /**
+     * @return buffer holding the value, which is either a cached value or a buffer from the
+     * pool, or null if the key is not present.
+     */
+    private ByteBuffer readIntoPooledBuffer(byte[] key, int attemptNumber) throws IOException, HaloDBException {
+        if (attemptNumber > maxReadAttempts) {
+            logger.error("Tried {} attempts but read failed", attemptNumber-1);
+            throw new HaloDBException("Tried " + attemptNumber + " attempts but failed.");
+        }
         RecordMetaDataForCache metaData = inMemoryIndex.get(key);
         if (metaData == null) {
-            return 0;
+            return null;
+        }
+
+        byte[] cached = getCachedValue(key, metaData);
+        if (cached != null) {
+            return ByteBuffer.wrap(cached);
         }
 
         HaloDBFile readFile = readFileMap.get(metaData.getFileId());
         if (readFile == null) {
             logger.debug("File {} not present. Compaction job would have deleted it. Retrying ...", metaData.getFileId());
-            return get(key, buffer);
+            noOfReadRetries.incrementAndGet();
+            return readIntoPooledBuffer(key, attemptNumber+1);
         }
 
-        buffer.clear();
-        buffer.limit(metaData.getValueSize());
-
+        ByteBuffer buffer = null;
+        boolean read = false;
         try {
-            int read = readFile.readFromFile(metaData.getValueOffset(), buffer);
-            buffer.flip();
-            return read;
+            if (metaData.isValueCompressed()) {
+                byte[] stored = readCompressedValue(readFile, metaData);
+                buffer = valueBufferPool.acquire(ValueCompression.uncompressedSize(stored, 0, metaData.getValueSize()));
+                decompressValue(stored, metaData.getValueSize(), buffer);
+            }
+            else {
+                buffer = valueBufferPool.acquire(metaData.getValueSize());
+                readFile.readFromFile(metaData.getValueOffset(), buffer);
+                buffer.flip();
+            }
+            cacheValue(key, metaData, buffer);
+            read = true;
+            return buffer;
         }
         catch (ClosedChannelException e) {
+            // released before the retry, which acquires a buffer of its own.
+            if (buffer != null) {
+                valueBufferPool.release(buffer);
+                buffer = null;
+            }
             if (!isClosing) {
                 logger.debug("File {} was closed. Compaction job would have deleted it. Retrying ...", metaData.getFileId());
-                return get(key, buffer);
+                noOfReadRetries.incrementAndGet();
+                return readIntoPooledBuffer(key, attemptNumber+1);
             }
 
             // trying to read after HaloDB.close() method called.
             throw e;
         }
+        finally {
+            // the buffer goes back to the pool unless it is handed to the consumer, whatever failed.
+            if (!read && buffer != null) {
+                valueBufferPool.release(buffer);
+            }
+        }
+    }
+
+    /**
+     * @return the cached value if it was read from the record the index entry points to, otherwise null.
+     */
+    byte[] getCachedValue(byte[] key, RecordMetaDataForCache metaData) {
+        return valueCache != null ? valueCache.get(key, metaData.getSequenceNumber()) : null;
+    }
+
+    /**
+     * Caches the value, from its position to its limit, read from the record the index entry points to.
+     */
+    void cacheValue(byte[] key, RecordMetaDataForCache metaData, ByteBuffer value) {
+        if (valueCache != null) {
+            valueCache.put(key, metaData.getSequenceNumber(), value);
+        }
+    }
+
+    // entry of an old record would be a miss anyway, removing it frees the memory sooner.
+    private void removeCachedValue(byte[] key) {
+        if (valueCache != null) {
+            valueCache.remove(key);
+        }
+    }
+
+    /**
+     * @return a thread's reused array holding the compressed value as stored on disk.
+     */
+    private byte[] readCompressedValue(HaloDBFile readFile, RecordMetaDataForCache metaData) throws IOException {
+        int storedSize = metaData.getValueSize();
+        byte[] stored = ScratchBuffers.get().compressedValueArray(storedSize);
+        readFile.readFromFile(metaData.getValueOffset(), ByteBuffer.wrap(stored, 0, storedSize));
+        return stored;
+    }
+
+    /**
+     * Decompresses into the buffer, whose position must be 0 and limit the uncompressed size.
+     * On return the buffer holds the value from its position to its limit.
+     */
+    private void decompressValue(byte[] stored, int storedSize, ByteBuffer buffer) throws IOException {
+        int size = buffer.limit();
+        if (buffer.hasArray()) {
+            ValueCompression.decompress(stored, 0, storedSize, buffer.array(), buffer.arrayOffset());
+        }
+        else {
+            byte[] value = ScratchBuffers.get().valueArray(size);
+            ValueCompression.decompress(stored, 0, storedSize, value, 0);
+            buffer.put(value, 0, size);
+            buffer.flip();
+        }
+    }
+
+    /**
+     * Looks up the key in the index and the value cache on the calling thread and,
+     * if the value isn't cached, reads it on the read executor.
+     */
+    CompletableFuture<byte[]> getAsync(byte[] key) {
+        // the read is still in the epoch it entered when it looked up the index.
+        int epochSlot = readEpoch.enter();
+        boolean submitted = false;
+        try {
+            RecordMetaDataForCache metaData = inMemoryIndex.get(key);
+            if (metaData == null) {
+                return CompletableFuture.completedFuture(null);
+            }
+            byte[] cached = getCachedValue(key, metaData);
+            if (cached != null) {
+                return CompletableFuture.completedFuture(cached);
+            }
+
+            CompletableFuture<byte[]> future = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return readValue(key, metaData, 1);
+                } catch (IOException e) {
+                    throw new CompletionException(new HaloDBException("Lookup failed.", e));
+                } catch (HaloDBException e) {
+                    throw new CompletionException(e);
+                } finally {
+                    readEpoch.exit(epochSlot);
+                }
+            }, readExecutor);
+            submitted = true;
+            return future;
+        } finally {
+            if (!submitted) {
+                readEpoch.exit(epochSlot);
+            }
+        }
+    }
+
+    /**
+     * Looks up the keys in the index on the calling thread and reads the values on the read executor.
+     */
+    CompletableFuture<List<byte[]>> multiGetAsync(List<byte[]> keys) {
+        int epochSlot = readEpoch.enter();
+        boolean submitted = false;
+        try {
+            MultiGet multiGet;
+            try {
+                checkKeyLengths(keys);
+                multiGet = new MultiGet(this, keys);
+            } catch (HaloDBException | RuntimeException e) {
+                CompletableFuture<List<byte[]>> failed = new CompletableFuture<>();
+                failed.completeExceptionally(e);
+                return failed;
+            }
+
+            if (!multiGet.hasValuesToRead()) {
+                // keys are either not in the db or their values are cached.
+                return CompletableFuture.completedFuture(MultiGet.toArrays(multiGet.values()));
+            }
+
+            CompletableFuture<List<byte[]>> future = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return MultiGet.toArrays(multiGet.read(null));
+                } catch (IOException e) {
+                    throw new CompletionException(new HaloDBException("Lookup failed.", e));
+                } catch (HaloDBException e) {
+                    throw new CompletionException(e);
+                } finally {
+                    readEpoch.exit(epochSlot);
+                }
+            }, readExecutor);
+            submitted = true;
+            return future;
+        } finally {
+            if (!submitted) {
+                readEpoch.exit(epochSlot);
+            }
+        }
+    }
+
+    /**
+     * @return values in the order of the keys, null for a key which is not present.
+     */
+    List<ByteBuffer> multiGet(List<byte[]> keys, Executor executor) throws IOException, HaloDBException {
+        checkKeyLengths(keys);
+        int epochSlot = readEpoch.enter();
+        try {
+            return new MultiGet(this, keys).read(executor);
+        } finally {
+            readEpoch.exit(epochSlot);
+        }
+    }
+
+    private static void checkKeyLengths(List<byte[]> keys) throws HaloDBException {
+        for (byte[] key : keys) {
+            if (key.length > Byte.MAX_VALUE) {
+                throw new HaloDBException("key length cannot exceed " + Byte.MAX_VALUE);
+            }
+        }
     }
 
     void delete(byte[] key) throws IOException {
-        RecordMetaDataForCache metaData = inMemoryIndex.get(key);
-        if (metaData != null) {
-            //TODO: implement a getAndRemove method in keyCache. 
-            inMemoryIndex.remove(key);
-            TombstoneEntry entry =
-                new TombstoneEntry(key, getNextSequenceNumber(), -1, Versions.CURRENT_TOMBSTONE_FILE_VERSION);
-            rollOverCurrentTombstoneFile(entry);
-            currentTombstoneFile.write(entry);
-            markPreviousVersionAsStale(key, metaData);
+        ReentrantLock keyLock = getKeyLock(key);
+        keyLock.lock();
+        try {
+            // the read lock makes sure that a batch write doesn't interleave with the delete.
+            writeFileLock.readLock().lock();
+            try {
+                RecordMetaDataForCache metaData = inMemoryIndex.getAndRemove(key);
+                if (metaData != null) {
+                    TombstoneEntry entry =
+                        new TombstoneEntry(key, getNextSequenceNumber(), -1, Versions.CURRENT_TOMBSTONE_FILE_VERSION);
+                    writeTombstoneToFile(entry);
+                    markPreviousVersionAsStale(key, metaData);
+                    removeCachedValue(key);
+                }
+            } finally {
+                writeFileLock.readLock().unlock();
+            }
+        } finally {
+            keyLock.unlock();
+        }
+    }
+
+    CompletableFuture<Void> deleteAsync(byte[] key) throws IOException {
+        delete(key);
+        return syncManager.requestSync();
+    }
+
+    void write(WriteBatch batch) throws IOException, HaloDBException {
+        List<WriteBatch.Operation> operations = batch.getOperations();
+        for (WriteBatch.Operation operation : operations) {
+            if (operation.getKey().length > Byte.MAX_VALUE) {
+                throw new HaloDBException("key length cannot exceed " + Byte.MAX_VALUE);
+            }
+        }
+
+        // a put or delete takes its sequence number before the read lock and releases the read lock
+        // to roll over, therefore the write lock alone doesn't keep a batch from getting a higher
+        // sequence number for the same key and being overwritten in the index by the older record.
+        int[] stripes = getKeyLockStripes(operations);
+        for (int stripe : stripes) {
+            keyLocks[stripe].lock();
+        }
+        try {
+            // a batch excludes all other writers so that its records are written
+            // contiguously and the in-memory index is updated atomically.
+            writeFileLock.writeLock().lock();
+            try {
+                writeBatch(operations);
+            } finally {
+                writeFileLock.writeLock().unlock();
+            }
+        } finally {
+            for (int i = stripes.length - 1; i >= 0; i--) {
+                keyLocks[stripes[i]].unlock();
+            }
+        }
+    }
+
+    private void writeBatch(List<WriteBatch.Operation> operations) throws IOException, HaloDBException {
+
+        List<Record> records = new ArrayList<>();
+        List<TombstoneEntry> tombstones = new ArrayList<>();
+        Set<ByteBuffer> keysInBatch = new HashSet<>();
+        for (WriteBatch.Operation operation : operations) {
+            byte[] key = operation.getKey();
+            if (operation.isDelete()) {
+                // a tombstone is needed only if the key is either in the db or was written earlier in this batch.
+                if (keysInBatch.contains(ByteBuffer.wrap(key)) || inMemoryIndex.containsKey(key)) {
+                    tombstones.add(new TombstoneEntry(key, getNextSequenceNumber(), -1, Versions.CURRENT_TOMBSTONE_FILE_VERSION));
+                }
+            }
+            else {
+                Record record = newRecordForBatch(key, operation.getValue());
+                record.setSequenceNumber(getNextSequenceNumber());
+                records.add(record);
+                keysInBatch.add(ByteBuffer.wrap(key));
+            }
+        }
+
+        List<RecordMetaDataForCache> metaData = writeRecordsToFile(records);
+        writeTombstonesToFile(tombstones);
+
+        // update the in-memory index only after all the data has been written.
+        Iterator<RecordMetaDataForCache> entries = metaData.iterator();
+        for (WriteBatch.Operation operation : operations) {
+            byte[] key = operation.getKey();
+            RecordMetaDataForCache existing =
+                operation.isDelete() ? inMemoryIndex.getAndRemove(key) : inMemoryIndex.getAndPut(key, entries.next());
+            if (existing != null) {
+                markPreviousVersionAsStale(key, existing);
+                removeCachedValue(key);
+            }
         }
     }
 
+    private Record newRecordForBatch(byte[] key, byte[] value) {
+        ByteBuffer compressed = options.isCompressValues() ? ValueCompression.compress(ByteBuffer.wrap(value)) : null;
+        if (compressed == null) {
+            Record record = new Record(key, value);
+            record.setVersion(Versions.CURRENT_DATA_FILE_VERSION);
+            return record;
+        }
+
+        // compressed value is in a buffer reused by the thread.
+        Record record = new Record(key, Arrays.copyOf(compressed.array(), compressed.limit()));
+        record.setVersion(Versions.withCompressedValue(Versions.CURRENT_DATA_FILE_VERSION, true));
+        return record;
+    }
+
     long size() {
         return inMemoryIndex.size();
     }
 
+    /**
+     * Flushes to disk the data, index and tombstone files currently written to and waits for the
+     * files which were rolled over to be flushed, so that all writes completed before the call are durable.
+     */
+    void syncWrittenFiles() throws IOException {
+        HaloDBFile writeFile = currentWriteFile;
+        TombstoneFile tombstoneFile = currentTombstoneFile;
+
+        // a file which was closed after we read it was either rolled over, and is flushed
+        // before it is closed, or compacted.
+        try {
+            if (writeFile != null) {
+                writeFile.getIndexFile().flushToDisk();
+                writeFile.flushToDisk();
+            }
+        } catch (ClosedChannelException e) {
+            logger.debug("Data file {} was closed while flushing", writeFile.getFileId());
+        }
+        try {
+            if (tombstoneFile != null) {
+                tombstoneFile.flushToDisk();
+            }
+        } catch (ClosedChannelException e) {
+            logger.debug("Tombstone file {} was closed while flushing", tombstoneFile.getName());
+        }
+
+        // files are retired before the next file is made current, therefore all files
+        // rolled over before we read the current files have been submitted for flushing.
+        fileManager.waitForRetiredFiles();
+    }
+
     void setIOErrorFlag() throws IOException {
-        DBMetaData metaData = new DBMetaData(dbDirectory.getPath());
-        metaData.loadFromFileIfExists();
-        metaData.setIOError(true);
-        metaData.storeToFile();
+        synchronized (metaDataLock) {
+            DBMetaData metaData = new DBMetaData(dbDirectory.getPath());
+            metaData.loadFromFileIfExists();
+            metaData.setIOError(true);
+            metaData.storeToFile();
+        }
     }
 
-    private RecordMetaDataForCache writeRecordToFile(Record record) throws IOException, HaloDBException {
-        rollOverCurrentWriteFile(record);
-        return currentWriteFile.writeRecord(record);
+    /**
+     * Called by the file manager once a retired data file, and all the ones retired before it, have been
+     * flushed to disk. Files up to this one are not repaired after a crash.
+     */
+    void setSyncedDataFileId(int fileId) throws IOException {
+        synchronized (metaDataLock) {
+            DBMetaData metaData = new DBMetaData(dbDirectory.getPath());
+            metaData.loadFromFileIfExists();
+            metaData.setSyncedDataFileId(fileId);
+            metaData.storeToFile();
+        }
     }
 
-    private void rollOverCurrentWriteFile(Record record) throws IOException, HaloDBException {
-        int size = record.getKey().length + record.getValue().length + Record.Header.HEADER_SIZE;
+    void setSyncedTombstoneFileId(int fileId) throws IOException {
+        synchronized (metaDataLock) {
+            DBMetaData metaData = new DBMetaData(dbDirectory.getPath());
+            metaData.loadFromFileIfExists();
+            metaData.setSyncedTombstoneFileId(fileId);
+            metaData.storeToFile();
+        }
+    }
 
+    /**
+     * Reserves space for the record in the current write file and writes it. Caller must hold the read lock,
+     * which is temporarily exchanged for the write lock if we need to roll over to a new file.
+     */
+    private RecordMetaDataForCache writeRecordToFile(byte[] key, ByteBuffer record, long sequenceNumber) throws IOException, HaloDBException {
+        int recordSize = record.remaining();
+        while (true) {
+            HaloDBFile file = currentWriteFile;
+            if (file != null) {
+                int offset = file.reserve(recordSize);
+                if (offset != -1) {
+                    return file.writeRecord(key, record, sequenceNumber, offset);
+                }
+            }
+
+            // can't upgrade a read lock, therefore release it before taking the write lock.
+            writeFileLock.readLock().unlock();
+            writeFileLock.writeLock().lock();
+            try {
+                // another thread might have already rolled over the file.
+                if (currentWriteFile == file) {
+                    rollOverCurrentWriteFile(recordSize);
+                }
+            } finally {
+                // downgrade to the read lock.
+                writeFileLock.readLock().lock();
+                writeFileLock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Writes the records to the current write file, rolling over to a new file when
+     * the current one is full. Each file receives a single write call.
+     */
+    private List<RecordMetaDataForCache> writeRecordsToFile(List<Record> records) throws IOException, HaloDBException {
+        List<RecordMetaDataForCache> metaData = new ArrayList<>(records.size());
+        int from = 0;
+        while (from < records.size()) {
+            rollOverCurrentWriteFile(records.get(from).getRecordSize());
+
+            long available = options.getMaxFileSize() - currentWriteFile.getWriteOffset();
+            long size = records.get(from).getRecordSize();
+            int to = from + 1;
+            while (to < records.size() && size + records.get(to).getRecordSize() <= available) {
+                size += records.get(to).getRecordSize();
+                to++;
+            }
+
+            metaData.addAll(currentWriteFile.writeRecords(records.subList(from, to)));
+            from = to;
+        }
+
+        return metaData;
+    }
+
+    private void writeTombstonesToFile(List<TombstoneEntry> tombstones) throws IOException {
+        int from = 0;
+        while (from < tombstones.size()) {
+            rollOverCurrentTombstoneFile(tombstones.get(from));
+
+            long available = options.getMaxFileSize() - currentTombstoneFile.getWriteOffset();
+            long size = tombstones.get(from).getKey().length + TombstoneEntry.TOMBSTONE_ENTRY_HEADER_SIZE;
+            int to = from + 1;
+            while (to < tombstones.size()
+                   && size + tombstones.get(to).getKey().length + TombstoneEntry.TOMBSTONE_ENTRY_HEADER_SIZE <= available) {
+                size += tombstones.get(to).getKey().length + TombstoneEntry.TOMBSTONE_ENTRY_HEADER_SIZE;
+                to++;
+            }
+
+            currentTombstoneFile.write(tombstones.subList(from, to));
+            from = to;
+        }
+    }
+
+    private void writeTombstoneToFile(TombstoneEntry entry) throws IOException {
+        synchronized (tombstoneFileLock) {
+            rollOverCurrentTombstoneFile(entry);
+            currentTombstoneFile.write(entry);
+        }
+    }
+
+    private void rollOverCurrentWriteFile(int size) throws IOException, HaloDBException {
         if (currentWriteFile == null ||  currentWriteFile.getWriteOffset() + size > options.getMaxFileSize()) {
+            // next file was already created in the background.
+            HaloDBFile nextFile = fileManager.nextDataFile();
+            addToReadFileMap(nextFile);
             if (currentWriteFile != null) {
-                currentWriteFile.flushToDisk();
-                currentWriteFile.getIndexFile().flushToDisk();
+                fileManager.retire(currentWriteFile);
             }
-            currentWriteFile = createHaloDBFile(HaloDBFile.FileType.DATA_FILE);
+            currentWriteFile = nextFile;
         }
     }
 
@@ -271,19 +1086,11 @@ class HaloDBInternal {
 
 
         if (currentTombstoneFile == null || currentTombstoneFile.getWriteOffset() + size > options.getMaxFileSize()) {
+            TombstoneFile nextFile = fileManager.nextTombstoneFile();
             if (currentTombstoneFile != null) {
-                currentTombstoneFile.flushToDisk();
-                currentTombstoneFile.close();
+                fileManager.retire(currentTombstoneFile);
             }
-
-            currentTombstoneFile = TombstoneFile.create(dbDirectory, getNextFileId(), options);
-        }
-    }
-
-    private void markPreviousVersionAsStale(byte[] key) {
-        RecordMetaDataForCache recordMetaData = inMemoryIndex.get(key);
-        if (recordMetaData != null) {
-            markPreviousVersionAsStale(key, recordMetaData);
+            currentTombstoneFile = nextFile;
         }
     }
 
@@ -293,28 +1100,40 @@ class HaloDBInternal {
     }
 
     void addFileToCompactionQueueIfThresholdCrossed(int fileId, int staleRecordSize) {
-        HaloDBFile file = readFileMap.get(fileId);
+        // a recently written key is usually overwritten in the current write file, which is found without boxing its id.
+        HaloDBFile file = currentWriteFile;
+        if (file == null || file.getFileId() != fileId) {
+            file = readFileMap.get(fileId);
+        }
         if (file == null)
             return;
 
-        int staleSizeInFile = updateStaleDataMap(fileId, staleRecordSize);
+        // counted in the file rather than in a map keyed by file id, which would box the id and the size on every put.
+        int staleSizeInFile = file.addStaleData(staleRecordSize);
         if (staleSizeInFile >= file.getSize() * options.getCompactionThresholdPerFile()) {
 
             // We don't want to compact the files the writer thread and the compaction thread is currently writing to.
             if (getCurrentWriteFileId() != fileId && compactionManager.getCurrentWriteFileId() != fileId) {
                 if(compactionManager.submitFileForCompaction(fileId)) {
-                    staleDataPerFileMap.remove(fileId);
+                    file.resetStaleData();
                 }
             }
         }
     }
 
-    private int updateStaleDataMap(int fileId, int staleDataSize) {
-        return staleDataPerFileMap.merge(fileId, staleDataSize, (oldValue, newValue) -> oldValue + newValue);
+    void markFileAsCompacted(int fileId) {
+        HaloDBFile file = readFileMap.get(fileId);
+        if (file != null) {
+            file.resetStaleData();
+        }
     }
 
-    void markFileAsCompacted(int fileId) {
-        staleDataPerFileMap.remove(fileId);
+    BlockCache getBlockCache() {
+        return blockCache;
+    }
+
+    File getDbDirectory() {
+        return dbDirectory;
     }
 
     InMemoryIndex getInMemoryIndex() {
@@ -322,11 +1141,15 @@ class HaloDBInternal {
     }
 
     HaloDBFile createHaloDBFile(HaloDBFile.FileType fileType) throws IOException {
-        HaloDBFile file = HaloDBFile.create(dbDirectory, getNextFileId(), options, fileType);
+        HaloDBFile file = HaloDBFile.create(dbDirectory, getNextFileId(), options, fileType, blockCache);
+        addToReadFileMap(file);
+        return file;
+    }
+
+    private void addToReadFileMap(HaloDBFile file) throws IOException {
         if(readFileMap.putIfAbsent(file.getFileId(), file) != null) {
             throw new IOException("Error while trying to create file " + file.getName() + " file with the given id already exists in the map");
         }
-        return file;
     }
 
     private List<HaloDBFile> openDataFilesForReading() throws IOException {
@@ -335,7 +1158,7 @@ class HaloDBInternal {
         List<HaloDBFile> result = new ArrayList<>();
         for (File f : files) {
             HaloDBFile.FileType fileType = HaloDBFile.findFileType(f);
-            result.add(HaloDBFile.openForReading(dbDirectory, f, fileType, options));
+            result.add(HaloDBFile.openForReading(dbDirectory, f, fileType, options, blockCache));
         }
 
         return result;
@@ -364,7 +1187,7 @@ class HaloDBInternal {
         return maxFileId;
     }
 
-    private int getNextFileId() {
+    int getNextFileId() {
         return nextFileId.incrementAndGet();
     }
 
@@ -398,18 +1221,19 @@ class HaloDBInternal {
                 long sequenceNumber = indexFileEntry.getSequenceNumber();
                 int valueOffset = Utils.getValueOffset(recordOffset, key);
                 int valueSize = recordSize - (Record.Header.HEADER_SIZE + key.length);
+                boolean valueCompressed = Versions.isValueCompressed(indexFileEntry.getVersion());
                 count++;
 
                 RecordMetaDataForCache existing = inMemoryIndex.get(key);
 
                 if (existing == null) {
                     // first version of the record that we have seen, add to cache.
-                    inMemoryIndex.put(key, new RecordMetaDataForCache(fileId, valueOffset, valueSize, sequenceNumber));
+                    inMemoryIndex.put(key, new RecordMetaDataForCache(fileId, valueOffset, valueSize, sequenceNumber, valueCompressed));
                     inserted++;
                 }
                 else if (existing.getSequenceNumber() <= sequenceNumber) {
                     // a newer version of the record, replace existing record in cache with newer one.
-                    inMemoryIndex.put(key, new RecordMetaDataForCache(fileId, valueOffset, valueSize, sequenceNumber));
+                    inMemoryIndex.put(key, new RecordMetaDataForCache(fileId, valueOffset, valueSize, sequenceNumber, valueCompressed));
 
                     // update stale data map for the previous version.
                     addFileToCompactionQueueIfThresholdCrossed(existing.getFileId(), Utils.getRecordSize(key.length, existing.getValueSize()));
@@ -449,8 +1273,7 @@ class HaloDBInternal {
                     deleted++;
 
                     if (options.isCleanUpTombstonesDuringOpen()) {
-                        rollOverCurrentTombstoneFile(entry);
-                        currentTombstoneFile.write(entry);
+                        writeTombstoneToFile(entry);
                         copied++;
                     }
                 }
@@ -460,6 +1283,8 @@ class HaloDBInternal {
 
             if (options.isCleanUpTombstonesDuringOpen()) {
                 logger.info("Copied {} tombstones from {}. Deleting the file", copied, tombstoneFile.getName());
+                // tombstones might have been copied to files which were rolled over.
+                fileManager.waitForRetiredFiles();
                 if (currentTombstoneFile != null)
                     currentTombstoneFile.flushToDisk();
                 tombstoneFile.delete();
@@ -475,29 +1300,68 @@ class HaloDBInternal {
         return readFileMap.get(fileId);
     }
 
+    /**
+     * Called by the compaction thread once the in-memory index no longer points to the file. Waits for
+     * reads which might have found the file in the index before, then deletes the file once no iterator
+     * reads from it.
+     */
     void deleteHaloDBFile(int fileId) throws IOException {
         HaloDBFile file = readFileMap.get(fileId);
 
         if (file != null) {
+            readEpoch.awaitReaders();
             readFileMap.remove(fileId);
-            file.delete();
+            filesPendingDeletion.add(file);
+            releaseHaloDBFile(file);
         }
+    }
+
+    /**
+     * @return the file, which is not deleted until it is released, or null if it was already deleted.
+     */
+    HaloDBFile acquireHaloDBFile(int fileId) {
+        HaloDBFile file = readFileMap.get(fileId);
+        return file != null && file.retain() ? file : null;
+    }
 
-        staleDataPerFileMap.remove(fileId);
+    void releaseHaloDBFile(HaloDBFile file) throws IOException {
+        if (file.release()) {
+            // no reader is left, the mapping can be released without waiting for a GC.
+            file.unmap();
+            file.delete();
+            filesPendingDeletion.remove(file);
+        }
     }
 
-    private void repairFiles() {
-        getLatestDataFile(HaloDBFile.FileType.DATA_FILE).ifPresent(file -> {
+    /**
+     * Repairs the files which might not have been completely flushed to disk. Data and tombstone files are
+     * flushed in the background after they are retired, therefore these are all the files written after
+     * the last one recorded as synced in the meta data, and not just the latest one. Compaction flushes
+     * a file before it moves to the next one, hence only the latest compacted file is repaired.
+     */
+    private void repairFiles(DBMetaData dbMetaData) {
+        // repaired files are recorded as synced, and get ids higher than those of the files yet to be repaired.
+        int syncedDataFileId = dbMetaData.getSyncedDataFileId();
+        int syncedTombstoneFileId = dbMetaData.getSyncedTombstoneFileId();
+
+        List<HaloDBFile> dataFiles = readFileMap.values()
+            .stream()
+            .filter(f -> f.getFileType() == HaloDBFile.FileType.DATA_FILE && f.getFileId() > syncedDataFileId)
+            .sorted(Comparator.comparingInt(HaloDBFile::getFileId))
+            .collect(Collectors.toList());
+        // repaired files get new ids, repair in order so that they keep their relative order.
+        for (HaloDBFile file : dataFiles) {
             try {
                 logger.info("Repairing file {}.data", file.getFileId());
                 HaloDBFile newFile = file.repairFile(getNextFileId());
                 readFileMap.put(newFile.getFileId(), newFile);
                 readFileMap.remove(file.getFileId());
+                dbMetaData.setSyncedDataFileId(newFile.getFileId());
             }
             catch (IOException e) {
                 throw new RuntimeException("Exception while rebuilding index file " + file.getFileId() + " which might be corrupted", e);
             }
-        });
+        }
         getLatestDataFile(HaloDBFile.FileType.COMPACTED_FILE).ifPresent(file -> {
             try {
                 logger.info("Repairing file {}.datac", file.getFileId());
@@ -510,16 +1374,19 @@ class HaloDBInternal {
             }
         });
 
-        File[] tombstoneFiles = FileUtils.listTombstoneFiles(dbDirectory);
-        if (tombstoneFiles != null && tombstoneFiles.length > 0) {
-            TombstoneFile lastFile = new TombstoneFile(tombstoneFiles[tombstoneFiles.length-1], options);
+        for (File file : FileUtils.listTombstoneFiles(dbDirectory)) {
+            TombstoneFile tombstoneFile = new TombstoneFile(file, options);
+            if (tombstoneFile.getFileId() <= syncedTombstoneFileId) {
+                continue;
+            }
             try {
-                logger.info("Repairing {} file", lastFile.getName());
-                lastFile.open();
-                TombstoneFile newFile = lastFile.repairFile(getNextFileId());
+                logger.info("Repairing {} file", tombstoneFile.getName());
+                tombstoneFile.open();
+                TombstoneFile newFile = tombstoneFile.repairFile(getNextFileId());
                 newFile.close();
+                dbMetaData.setSyncedTombstoneFileId(newFile.getFileId());
             } catch (IOException e) {
-                throw new RuntimeException("Exception while rebuilding index file " + lastFile.getName() + " which might be corrupted", e);
+                throw new RuntimeException("Exception while rebuilding index file " + tombstoneFile.getName() + " which might be corrupted", e);
             }
         }
     }
@@ -559,18 +1426,81 @@ class HaloDBInternal {
             metaData.getValueOffset() == metaDataFromCache.getValueOffset();
     }
 
+    // sequence numbers are strictly increasing even when multiple threads are writing concurrently.
     private long getNextSequenceNumber() {
-        return System.nanoTime();
+        return lastSequenceNumber.updateAndGet(previous -> Math.max(previous + 1, System.nanoTime()));
+    }
+
+    private ReentrantLock getKeyLock(byte[] key) {
+        return keyLocks[getKeyLockStripe(key)];
+    }
+
+    private static int getKeyLockStripe(byte[] key) {
+        int hash = Arrays.hashCode(key);
+        hash ^= (hash >>> 16);
+        return hash & (noOfKeyLocks - 1);
+    }
+
+    /**
+     * @return indexes of the key locks of the batch without duplicates, in ascending order so that
+     * two batches can't deadlock.
+     */
+    private static int[] getKeyLockStripes(List<WriteBatch.Operation> operations) {
+        int[] stripes = new int[operations.size()];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = getKeyLockStripe(operations.get(i).getKey());
+        }
+        Arrays.sort(stripes);
+
+        int distinct = 0;
+        for (int i = 0; i < stripes.length; i++) {
+            if (i == 0 || stripes[i] != stripes[i - 1]) {
+                stripes[distinct++] = stripes[i];
+            }
+        }
+        return Arrays.copyOf(stripes, distinct);
     }
 
     int getCurrentWriteFileId() {
         return currentWriteFile != null ? currentWriteFile.getFileId() : -1;
     }
 
+    /**
+     * Reads block on a system call, therefore they run on a bounded pool of daemon threads. Not on virtual
+     * threads, as each of those would allocate its own {@link ScratchBuffers} for a single read.
+     */
+    private static ExecutorService createReadExecutor() {
+        AtomicInteger threadId = new AtomicInteger(0);
+        return Executors.newFixedThreadPool(4 * Runtime.getRuntime().availableProcessors(), runnable -> {
+            Thread thread = new Thread(runnable, "ReadThread-" + threadId.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
     private static void checkIfOptionsAreCorrect(HaloDBOptions options) {
         if (options.isUseMemoryPool() && (options.getFixedKeySize() < 0 || options.getFixedKeySize() > Byte.MAX_VALUE)) {
             throw new IllegalArgumentException("fixedKeySize must be set and should be less than 128 when using memory pool");
         }
+        if (options.isUseOpenAddressing() && !options.isUseMemoryPool()) {
+            throw new IllegalArgumentException("useOpenAddressing requires useMemoryPool");
+        }
+        if (options.isCompressValues() && !ValueCompression.isAvailable()) {
+            throw new IllegalArgumentException("lz4 must be in the classpath to compress values");
+        }
+        if (options.getValueCacheSize() < 0) {
+            throw new IllegalArgumentException("valueCacheSize cannot be negative");
+        }
+        if (options.isDirectIO() && options.isMemoryMapDataFiles()) {
+            throw new IllegalArgumentException("directIO and memoryMapDataFiles cannot both be enabled");
+        }
+        if (options.getBlockCacheSize() < 0) {
+            throw new IllegalArgumentException("blockCacheSize cannot be negative");
+        }
+    }
+
+    void recordReadRetry() {
+        noOfReadRetries.incrementAndGet();
     }
 
     boolean isClosing() {
@@ -596,6 +1526,14 @@ class HaloDBInternal {
             compactionManager.getSizeOfRecordsCopied(),
             compactionManager.getSizeOfFilesDeleted(),
             compactionManager.getSizeOfFilesDeleted()-compactionManager.getSizeOfRecordsCopied(),
+            valueCache != null ? valueCache.hitCount() : 0,
+            valueCache != null ? valueCache.missCount() : 0,
+            valueCache != null ? valueCache.evictionCount() : 0,
+            valueCache != null ? valueCache.size() : 0,
+            valueCache != null ? valueCache.memUsed() : 0,
+            noOfReadRetries.get(),
+            blockCache != null ? blockCache.hitCount() : 0,
+            blockCache != null ? blockCache.missCount() : 0,
             options.clone()
         );
     }
@@ -603,14 +1541,21 @@ class HaloDBInternal {
     synchronized void resetStats() {
         inMemoryIndex.resetStats();
         compactionManager.resetStats();
+        noOfReadRetries.set(0);
+        if (valueCache != null) {
+            valueCache.resetStatistics();
+        }
+        if (blockCache != null) {
+            blockCache.resetStatistics();
+        }
         statsResetTime = System.currentTimeMillis();
     }
 
     private Map<Integer, Double> computeStaleDataMapForStats() {
         Map<Integer, Double> stats = new HashMap<>();
-        staleDataPerFileMap.forEach((fileId, staleData) -> {
-            HaloDBFile file = readFileMap.get(fileId);
-            if (file != null && file.getSize() > 0) {
+        readFileMap.forEach((fileId, file) -> {
+            int staleData = file.getStaleDataSize();
+            if (staleData > 0 && file.getSize() > 0) {
                 double stalePercent = (1.0*staleData/file.getSize()) * 100;
                 stats.put(fileId, stalePercent);
             }
@@ -624,4 +1569,9 @@ class HaloDBInternal {
     boolean isCompactionComplete() {
         return compactionManager.isCompactionComplete();
     }
+
+    @VisibleForTesting
+    long getNumberOfSyncs() {
+        return syncManager.getNumberOfSyncs();
+    }
 }
@@ -10,13 +10,21 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.nio.channels.ClosedChannelException;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 
 /**
+ * Iterates over all the records in the db.
+ *
+ * The data file which is being read is kept from being deleted by the compaction thread until the
+ * iterator moves on to the next file. It is released once the iterator is exhausted, an iterator
+ * which is abandoned before that must be closed, preferably with try-with-resources, or the file
+ * won't be deleted until the db is closed.
+ *
  * @author Arjun Mannaly
  */
-public class HaloDBIterator implements Iterator<Record> {
+public class HaloDBIterator implements Iterator<Record>, AutoCloseable {
     private static final Logger logger = LoggerFactory.getLogger(HaloDBIterator.class);
 
     private Iterator<Integer> outer;
@@ -25,10 +33,20 @@ public class HaloDBIterator implements Iterator<Record> {
 
     private Record next;
 
+    private boolean closed = false;
+
     private final HaloDBInternal dbInternal;
 
+    // values of records are truncated to this length.
+    private final int valuePrefixLength;
+
     HaloDBIterator(HaloDBInternal dbInternal) {
+        this(dbInternal, Integer.MAX_VALUE);
+    }
+
+    HaloDBIterator(HaloDBInternal dbInternal, int valuePrefixLength) {
         this.dbInternal = dbInternal;
+        this.valuePrefixLength = valuePrefixLength;
         outer = dbInternal.listDataFileIds().iterator();
     }
 
@@ -37,6 +55,9 @@ public class HaloDBIterator implements Iterator<Record> {
         if (next != null) {
             return true;
         }
+        if (closed) {
+            return false;
+        }
 
         try {
             // inner == null means this is the first time hasNext() is called.
@@ -51,10 +72,12 @@ public class HaloDBIterator implements Iterator<Record> {
                 }
             } while (moveToNextFile());
 
+            closed = true;
             return false;
 
         } catch (IOException e) {
             logger.error("Error in Iterator", e);
+            closeQuietly();
             return false;
         }
     }
@@ -69,20 +92,49 @@ public class HaloDBIterator implements Iterator<Record> {
         throw new NoSuchElementException();
     }
 
+    /**
+     * Releases the data file the iterator is reading from. Records which were already returned
+     * by {@link #hasNext()} are still returned by {@link #next()}.
+     */
+    @Override
+    public void close() throws HaloDBException {
+        closed = true;
+        try {
+            releaseCurrentFile();
+        } catch (IOException e) {
+            throw new HaloDBException("Error while closing iterator", e);
+        }
+    }
+
+    private void closeQuietly() {
+        try {
+            close();
+        } catch (HaloDBException e) {
+            logger.error("Error while closing iterator", e);
+        }
+    }
+
+    /**
+     * The current file is held until the iterator moves to the next one, therefore
+     * it isn't deleted by the compaction thread while we read from it.
+     */
     private boolean moveToNextFile() throws IOException {
+        releaseCurrentFile();
         while (outer.hasNext()) {
             int fileId = outer.next();
-            currentFile = dbInternal.getHaloDBFile(fileId);
+            currentFile = dbInternal.acquireHaloDBFile(fileId);
             if (currentFile != null) {
                 try {
                     inner = currentFile.getIndexFile().newIterator();
                     return true;
                 } catch (ClosedChannelException e) {
+                    releaseCurrentFile();
                     if (dbInternal.isClosing()) {
                         //TODO: define custom Exception classes for HaloDB.
                         throw new RuntimeException("DB is closing");
                     }
                     logger.debug("Index file {} closed, probably by compaction thread. Skipping to next one", fileId);
+                    continue;
                 }
             }
             logger.debug("Data file {} deleted, probably by compaction thread. Skipping to next one", fileId);
@@ -91,6 +143,13 @@ public class HaloDBIterator implements Iterator<Record> {
         return false;
     }
 
+    private void releaseCurrentFile() throws IOException {
+        if (currentFile != null) {
+            dbInternal.releaseHaloDBFile(currentFile);
+            currentFile = null;
+        }
+    }
+
     private boolean readNextRecord() {
         while (inner.hasNext()) {
             IndexFileEntry entry = inner.next();
@@ -104,7 +163,7 @@ public class HaloDBIterator implements Iterator<Record> {
                     if (dbInternal.isClosing()) {
                         throw new RuntimeException("DB is closing");
                     }
-                    logger.debug("Data file {} closed, probably by compaction thread. Skipping to next one", currentFile.getFileId());
+                    logger.error("Data file {} closed while iterating. Skipping to next one", currentFile.getFileId());
                     break;
                 }
             } catch (IOException e) {
@@ -119,9 +178,17 @@ public class HaloDBIterator implements Iterator<Record> {
         RecordMetaDataForCache meta = Utils.getMetaData(entry, currentFile.getFileId());
         Record record = null;
         if (dbInternal.isRecordFresh(entry.getKey(), meta)) {
+            int valueSize = Utils.getValueSize(entry.getRecordSize(), entry.getKey());
+            // a compressed value can only be decompressed as a whole.
+            int bytesToRead = meta.isValueCompressed() ? valueSize : Math.min(valueSize, valuePrefixLength);
             byte[] value = currentFile.readFromFile(
-                Utils.getValueOffset(entry.getRecordOffset(), entry.getKey()),
-                Utils.getValueSize(entry.getRecordSize(), entry.getKey()));
+                Utils.getValueOffset(entry.getRecordOffset(), entry.getKey()), bytesToRead);
+            if (meta.isValueCompressed()) {
+                value = ValueCompression.decompress(value);
+                if (value.length > valuePrefixLength) {
+                    value = Arrays.copyOf(value, valuePrefixLength);
+                }
+            }
             record = new Record(entry.getKey(), value);
             record.setRecordMetaData(meta);
         }
@@ -7,6 +7,8 @@ package com.oath.halodb;
 
 import com.google.common.base.MoreObjects;
 
+import java.util.concurrent.Executor;
+
 /**
  * @author Arjun Mannaly
  */
@@ -39,6 +41,39 @@ public class HaloDBOptions implements Cloneable {
 
     private int memoryPoolChunkSize = 16 * 1024 * 1024;
 
+    // with the memory pool, store index entries in one array per segment, probed linearly
+    // instead of chained through the pool's chunks.
+    private boolean useOpenAddressing = false;
+
+    // preallocate data files to maxFileSize when they are created. Files are
+    // trimmed to the size of the data written when they are rolled over or closed.
+    private boolean preallocateDataFiles = false;
+
+    // compress values with LZ4 on put. Requires lz4 in the classpath. Values which don't
+    // get smaller are stored uncompressed, therefore a db can have both kinds of records.
+    private boolean compressValues = false;
+
+    // map data files read-only once they are no longer written to and serve reads from the mapping.
+    private boolean memoryMapDataFiles = false;
+
+    // read and append to data files with O_DIRECT, bypassing the page cache. Appends are buffered
+    // and written in whole blocks. Only supported on Linux, cannot be used with memoryMapDataFiles.
+    private boolean directIO = false;
+
+    // bytes of off-heap memory used to cache blocks read with direct io, 0 disables the cache.
+    private long blockCacheSize = 0;
+
+    // advise the kernel on how data files are read, so that files scanned by compaction and repair
+    // get more read-ahead and files serving gets none. Only supported on Linux.
+    private boolean adviseFileAccess = true;
+
+    // executor on which getAsync and multiGetAsync read from disk. If not set the db reads
+    // on a bounded pool of threads it owns.
+    private Executor readExecutor = null;
+
+    // bytes of off-heap memory used to cache values which are read often, 0 disables the cache.
+    private long valueCacheSize = 0;
+
     // Just to avoid clients having to deal with CloneNotSupportedException
     public HaloDBOptions clone() {
         try {
@@ -62,6 +97,15 @@ public class HaloDBOptions implements Cloneable {
             .add("useMemoryPool", useMemoryPool)
             .add("fixedKeySize", fixedKeySize)
             .add("memoryPoolChunkSize", memoryPoolChunkSize)
+            .add("useOpenAddressing", useOpenAddressing)
+            .add("preallocateDataFiles", preallocateDataFiles)
+            .add("compressValues", compressValues)
+            .add("memoryMapDataFiles", memoryMapDataFiles)
+            .add("directIO", directIO)
+            .add("blockCacheSize", blockCacheSize)
+            .add("adviseFileAccess", adviseFileAccess)
+            .add("readExecutor", readExecutor)
+            .add("valueCacheSize", valueCacheSize)
             .toString();
     }
 
@@ -155,4 +199,81 @@ public class HaloDBOptions implements Cloneable {
     public void setMemoryPoolChunkSize(int memoryPoolChunkSize) {
         this.memoryPoolChunkSize = memoryPoolChunkSize;
     }
+
+    public boolean isUseOpenAddressing() {
+        return useOpenAddressing;
+    }
+
+    public void setUseOpenAddressing(boolean useOpenAddressing) {
+        this.useOpenAddressing = useOpenAddressing;
+    }
+
+    public boolean isPreallocateDataFiles() {
+        return preallocateDataFiles;
+    }
+
+    public void setPreallocateDataFiles(boolean preallocateDataFiles) {
+        this.preallocateDataFiles = preallocateDataFiles;
+    }
+
+    public boolean isCompressValues() {
+        return compressValues;
+    }
+
+    public void setCompressValues(boolean compressValues) {
+        this.compressValues = compressValues;
+    }
+
+    public boolean isMemoryMapDataFiles() {
+        return memoryMapDataFiles;
+    }
+
+    public void setMemoryMapDataFiles(boolean memoryMapDataFiles) {
+        this.memoryMapDataFiles = memoryMapDataFiles;
+    }
+
+    public boolean isDirectIO() {
+        return directIO;
+    }
+
+    public void setDirectIO(boolean directIO) {
+        this.directIO = directIO;
+    }
+
+    public long getBlockCacheSize() {
+        return blockCacheSize;
+    }
+
+    public void setBlockCacheSize(long blockCacheSize) {
+        this.blockCacheSize = blockCacheSize;
+    }
+
+    public boolean isAdviseFileAccess() {
+        return adviseFileAccess;
+    }
+
+    public void setAdviseFileAccess(boolean adviseFileAccess) {
+        this.adviseFileAccess = adviseFileAccess;
+    }
+
+    public Executor getReadExecutor() {
+        return readExecutor;
+    }
+
+    /**
+     * Executor is not shut down when the db is closed. Reads reuse buffers owned by the thread they
+     * run on, therefore an executor which runs each read on a new thread, such as one of virtual
+     * threads, allocates these buffers for each read.
+     */
+    public void setReadExecutor(Executor readExecutor) {
+        this.readExecutor = readExecutor;
+    }
+
+    public long getValueCacheSize() {
+        return valueCacheSize;
+    }
+
+    public void setValueCacheSize(long valueCacheSize) {
+        this.valueCacheSize = valueCacheSize;
+    }
 }
@@ -37,6 +37,17 @@ public class HaloDBStats {
     private final long sizeOfFilesDeleted;
     private final long sizeReclaimed;
 
+    private final long valueCacheHitCount;
+    private final long valueCacheMissCount;
+    private final long valueCacheEvictionCount;
+    private final long valueCacheSize;
+    private final long valueCacheMemoryUsed;
+
+    private final long numberOfReadRetries;
+
+    private final long blockCacheHitCount;
+    private final long blockCacheMissCount;
+
     private final HaloDBOptions options;
 
     public HaloDBStats(long statsResetTime, long size, int numberOfFilesPendingCompaction,
@@ -44,7 +55,10 @@ public class HaloDBStats {
                        long maxSizePerSegment, SegmentStats[] segmentStats, long numberOfTombstonesFoundDuringOpen,
                        long numberOfTombstonesCleanedUpDuringOpen, long numberOfRecordsCopied,
                        long numberOfRecordsReplaced, long numberOfRecordsScanned, long sizeOfRecordsCopied,
-                       long sizeOfFilesDeleted, long sizeReclaimed, HaloDBOptions options) {
+                       long sizeOfFilesDeleted, long sizeReclaimed, long valueCacheHitCount,
+                       long valueCacheMissCount, long valueCacheEvictionCount, long valueCacheSize,
+                       long valueCacheMemoryUsed, long numberOfReadRetries, long blockCacheHitCount,
+                       long blockCacheMissCount, HaloDBOptions options) {
         this.statsResetTime = statsResetTime;
         this.size = size;
         this.numberOfFilesPendingCompaction = numberOfFilesPendingCompaction;
@@ -61,6 +75,14 @@ public class HaloDBStats {
         this.sizeOfRecordsCopied = sizeOfRecordsCopied;
         this.sizeOfFilesDeleted = sizeOfFilesDeleted;
         this.sizeReclaimed = sizeReclaimed;
+        this.valueCacheHitCount = valueCacheHitCount;
+        this.valueCacheMissCount = valueCacheMissCount;
+        this.valueCacheEvictionCount = valueCacheEvictionCount;
+        this.valueCacheSize = valueCacheSize;
+        this.valueCacheMemoryUsed = valueCacheMemoryUsed;
+        this.numberOfReadRetries = numberOfReadRetries;
+        this.blockCacheHitCount = blockCacheHitCount;
+        this.blockCacheMissCount = blockCacheMissCount;
         this.options = options;
     }
 
@@ -112,6 +134,44 @@ public class HaloDBStats {
         return sizeReclaimed;
     }
 
+    public long getValueCacheHitCount() {
+        return valueCacheHitCount;
+    }
+
+    public long getValueCacheMissCount() {
+        return valueCacheMissCount;
+    }
+
+    public long getValueCacheEvictionCount() {
+        return valueCacheEvictionCount;
+    }
+
+    /**
+     * @return number of values in the value cache.
+     */
+    public long getValueCacheSize() {
+        return valueCacheSize;
+    }
+
+    public long getValueCacheMemoryUsed() {
+        return valueCacheMemoryUsed;
+    }
+
+    /**
+     * @return number of times a read didn't find the file the in-memory index pointed to and looked up the key again.
+     */
+    public long getNumberOfReadRetries() {
+        return numberOfReadRetries;
+    }
+
+    public long getBlockCacheHitCount() {
+        return blockCacheHitCount;
+    }
+
+    public long getBlockCacheMissCount() {
+        return blockCacheMissCount;
+    }
+
     public HaloDBOptions getOptions() {
         return options;
     }
@@ -141,6 +201,14 @@ public class HaloDBStats {
             .add("sizeOfRecordsCopied", sizeOfRecordsCopied)
             .add("sizeOfFilesDeleted", sizeOfFilesDeleted)
             .add("sizeReclaimed", sizeReclaimed)
+            .add("valueCacheHitCount", valueCacheHitCount)
+            .add("valueCacheMissCount", valueCacheMissCount)
+            .add("valueCacheEvictionCount", valueCacheEvictionCount)
+            .add("valueCacheSize", valueCacheSize)
+            .add("valueCacheMemoryUsed", valueCacheMemoryUsed)
+            .add("numberOfReadRetries", numberOfReadRetries)
+            .add("blockCacheHitCount", blockCacheHitCount)
+            .add("blockCacheMissCount", blockCacheMissCount)
             .add("rehashCount", rehashCount)
             .add("maxSizePerSegment", maxSizePerSegment)
             .add("numberOfTombstonesFoundDuringOpen", numberOfTombstonesFoundDuringOpen)
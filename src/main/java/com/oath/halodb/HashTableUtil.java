@@ -12,7 +12,7 @@ final class HashTableUtil {
 // Hash bucket-table
 
     static final long NON_MEMORY_POOL_BUCKET_ENTRY_LEN = 8;
-    static final long MEMORY_POOL_BUCKET_ENTRY_LEN = 5;
+    static final long MEMORY_POOL_BUCKET_ENTRY_LEN = 8;
 
     static long allocLen(long keyLen, long valueLen) {
         return NonMemoryPoolHashEntries.ENTRY_OFF_DATA + keyLen + valueLen;
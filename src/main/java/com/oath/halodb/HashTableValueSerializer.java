@@ -18,6 +18,15 @@ interface HashTableValueSerializer<T> {
 
     T deserialize(ByteBuffer buf);
 
+    /**
+     * Deserializes a value of {@code length} bytes at {@code address + offset} in off-heap memory, written in
+     * the format of {@link #serialize(Object, ByteBuffer)}. Override to read the fields directly so that no
+     * buffer is allocated for each read.
+     */
+    default T deserialize(long address, long offset, int length) {
+        return deserialize(Uns.directBufferFor(address, offset, length, true));
+    }
+
     int serializedSize(T value);
 }
 
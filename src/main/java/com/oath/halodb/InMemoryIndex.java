@@ -11,6 +11,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.List;
 
 /**
  * Hash table stored in native memory, outside Java heap.
@@ -25,7 +26,7 @@ class InMemoryIndex {
     private final int noOfSegments;
     private final int maxSizeOfEachSegment;
 
-    InMemoryIndex(int numberOfKeys, boolean useMemoryPool, int fixedKeySize, int memoryPoolChunkSize) {
+    InMemoryIndex(int numberOfKeys, boolean useMemoryPool, int fixedKeySize, int memoryPoolChunkSize, boolean useOpenAddressing) {
         noOfSegments = Ints.checkedCast(Utils.roundUpToPowerOf2(Runtime.getRuntime().availableProcessors() * 2));
         maxSizeOfEachSegment = Ints.checkedCast(Utils.roundUpToPowerOf2(numberOfKeys / noOfSegments));
 
@@ -41,7 +42,8 @@ class InMemoryIndex {
                 .throwOOME(true);
 
         if (useMemoryPool) {
-            builder.useMemoryPool(true).fixedKeySize(fixedKeySize).memoryPoolChunkSize(memoryPoolChunkSize);
+            builder.useMemoryPool(true).fixedKeySize(fixedKeySize).memoryPoolChunkSize(memoryPoolChunkSize)
+                .useOpenAddressing(useOpenAddressing);
         }
 
         this.offHeapHashTable = builder.build();
@@ -54,6 +56,21 @@ class InMemoryIndex {
         return true;
     }
 
+    /**
+     * @return metadata of the previous version of the key or null if it wasn't present.
+     */
+    RecordMetaDataForCache getAndPut(byte[] key, RecordMetaDataForCache metaData) {
+        return offHeapHashTable.getAndPut(key, metaData);
+    }
+
+    RecordMetaDataForCache getAndRemove(byte[] key) {
+        return offHeapHashTable.getAndRemove(key);
+    }
+
+    List<RecordMetaDataForCache> getAll(List<byte[]> keys) {
+        return offHeapHashTable.getAll(keys);
+    }
+
     boolean remove(byte[] key) {
         return offHeapHashTable.remove(key);
     }
@@ -9,9 +9,11 @@ import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.file.Paths;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Objects;
 
 /**
@@ -24,10 +26,19 @@ class IndexFile {
 
     private FileChannel channel;
 
+    // a staged index file has a temporary name until it is published.
+    private boolean staged = false;
+
     private final HaloDBOptions options;
 
     private long unFlushedData = 0;
 
+    // index entries are collected in this buffer and written to the channel
+    // when it fills up, instead of making a write call for each entry.
+    // allocated on first write since most index files are only read.
+    private ByteBuffer writeBuffer;
+    static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
     static final String INDEX_FILE_NAME = ".index";
     private static final String nullMessage = "Index file entry cannot be null";
 
@@ -45,55 +56,129 @@ class IndexFile {
         channel = new RandomAccessFile(file, "rw").getChannel();
     }
 
+    /**
+     * Creates the index file with a temporary name, which is renamed when {@link #publish()} is called.
+     */
+    void createStaged() throws IOException {
+        File file = getIndexFile();
+        if (file.exists()) {
+            throw new IOException("Index file with id " + fileId + " already exists");
+        }
+        staged = true;
+        create();
+    }
+
+    void publish() throws IOException {
+        if (staged) {
+            FileUtils.publishStagedFile(getIndexFile());
+            staged = false;
+        }
+    }
+
     void open() throws IOException {
         File file = getIndexFile();
         channel = new RandomAccessFile(file, "rw").getChannel();
     }
 
-    void close() throws IOException {
+    synchronized void close() throws IOException {
         if (channel != null) {
+            if (channel.isOpen()) {
+                flush();
+            }
             channel.close();
         }
     }
 
-    void delete() throws IOException {
+    synchronized void delete() throws IOException {
+        writeBuffer = null;
         if (channel != null && channel.isOpen())
             channel.close();
 
         getIndexFile().delete();
     }
 
-    void write(IndexFileEntry entry) throws IOException {
+    synchronized void write(IndexFileEntry entry) throws IOException {
         Objects.requireNonNull(entry, nullMessage);
 
-        ByteBuffer[] contents = entry.serialize();
-        long toWrite = 0;
-        for (ByteBuffer buffer : contents) {
-            toWrite += buffer.remaining();
+        append(entry);
+        flushIfRequired();
+    }
+
+    /**
+     * Writes an index entry without creating an {@link IndexFileEntry}.
+     */
+    synchronized void write(byte[] key, int recordSize, int recordOffset, long sequenceNumber, int version) throws IOException {
+        append(key, recordSize, recordOffset, sequenceNumber, version);
+        flushIfRequired();
+    }
+
+    /**
+     * Appends all the entries to the write buffer, which is written to the channel
+     * each time it fills up.
+     */
+    synchronized void write(List<IndexFileEntry> entries) throws IOException {
+        for (IndexFileEntry entry : entries) {
+            Objects.requireNonNull(entry, nullMessage);
+            append(entry);
         }
-        long written = 0;
-        while (written < toWrite) {
-            written += channel.write(contents);
+        flushIfRequired();
+    }
+
+    private void append(IndexFileEntry entry) throws IOException {
+        append(entry.getKey(), entry.getRecordSize(), entry.getRecordOffset(), entry.getSequenceNumber(), entry.getVersion());
+    }
+
+    private void append(byte[] key, int recordSize, int recordOffset, long sequenceNumber, int version) throws IOException {
+        if (writeBuffer == null) {
+            writeBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
         }
 
-        unFlushedData += written;
+        int size = IndexFileEntry.INDEX_FILE_HEADER_SIZE + key.length;
+        if (size > writeBuffer.remaining()) {
+            flush();
+        }
+        IndexFileEntry.serialize(writeBuffer, key, recordSize, recordOffset, sequenceNumber, version);
+        unFlushedData += size;
+    }
+
+    private void flushIfRequired() throws IOException {
         if (options.getFlushDataSizeBytes() != -1 && unFlushedData > options.getFlushDataSizeBytes()) {
+            flush();
             channel.force(false);
             unFlushedData = 0;
         }
     }
 
-    void flushToDisk() throws IOException {
-        if (channel != null && channel.isOpen())
+    /**
+     * Writes the buffered entries to the channel. Doesn't fsync.
+     */
+    synchronized void flush() throws IOException {
+        if (writeBuffer == null || writeBuffer.position() == 0) {
+            return;
+        }
+
+        writeBuffer.flip();
+        while (writeBuffer.hasRemaining()) {
+            channel.write(writeBuffer);
+        }
+        writeBuffer.clear();
+    }
+
+    synchronized void flushToDisk() throws IOException {
+        if (channel != null && channel.isOpen()) {
+            flush();
             channel.force(true);
+        }
     }
 
     IndexFileIterator newIterator() throws IOException {
+        flush();
         return new IndexFileIterator();
     }
 
     private File getIndexFile() {
-        return Paths.get(dbDirectory.getPath(), fileId + INDEX_FILE_NAME).toFile();
+        File file = Paths.get(dbDirectory.getPath(), fileId + INDEX_FILE_NAME).toFile();
+        return staged ? FileUtils.getStagedFile(file) : file;
     }
 
     public class IndexFileIterator implements Iterator<IndexFileEntry> {
@@ -103,7 +188,11 @@ class IndexFile {
         //TODO: index files are not that large, need to check the
         // performance since we are memory mapping it.
         public IndexFileIterator() throws IOException {
-            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (options.isAdviseFileAccess()) {
+                NativeIO.madvise(mapped, NativeIO.Advice.SEQUENTIAL);
+            }
+            buffer = mapped;
         }
 
         @Override
@@ -8,7 +8,6 @@ package com.oath.halodb;
 import com.sun.scenario.effect.impl.prism.PrImage;
 
 import java.nio.ByteBuffer;
-import java.util.zip.CRC32;
 
 /**
  * This is what is stored in the index file.
@@ -56,18 +55,34 @@ class IndexFileEntry {
     }
 
     ByteBuffer[] serialize() {
-        byte[] header = new byte[INDEX_FILE_HEADER_SIZE];
-        ByteBuffer h = ByteBuffer.wrap(header);
-
-        h.put(VERSION_OFFSET, (byte)version);
-        h.put(KEY_SIZE_OFFSET, keySize);
-        h.putInt(RECORD_SIZE_OFFSET, recordSize);
-        h.putInt(RECORD_OFFSET, recordOffset);
-        h.putLong(SEQUENCE_NUMBER_OFFSET, sequenceNumber);
-        long crc32 = computeCheckSum(h.array());
-        h.putInt(CHECKSUM_OFFSET, Utils.toSignedIntFromLong(crc32));
-
-        return new ByteBuffer[] { h, ByteBuffer.wrap(key) };
+        byte[] entry = new byte[INDEX_FILE_HEADER_SIZE + key.length];
+        serialize(ByteBuffer.wrap(entry), key, recordSize, recordOffset, sequenceNumber, version);
+
+        return new ByteBuffer[] { ByteBuffer.wrap(entry, 0, INDEX_FILE_HEADER_SIZE), ByteBuffer.wrap(entry, INDEX_FILE_HEADER_SIZE, key.length) };
+    }
+
+    /**
+     * Serializes an entry into the destination buffer at its position, advancing the position,
+     * and computes the checksum with the algorithm of the version in a single pass over the serialized bytes.
+     */
+    static void serialize(ByteBuffer destination, byte[] key, int recordSize, int recordOffset, long sequenceNumber, int version) {
+        int start = destination.position();
+        destination.putInt(0);
+        destination.put((byte)version);
+        destination.put((byte)key.length);
+        destination.putInt(recordSize);
+        destination.putInt(recordOffset);
+        destination.putLong(sequenceNumber);
+        destination.put(key);
+
+        int end = destination.position();
+        int limit = destination.limit();
+        destination.limit(end);
+        destination.position(start + CHECKSUM_SIZE);
+        long checkSum = ScratchBuffers.get().checksum(version).compute(destination);
+        destination.position(end);
+        destination.limit(limit);
+        destination.putInt(start + CHECKSUM_OFFSET, Utils.toSignedIntFromLong(checkSum));
     }
 
     static IndexFileEntry deserialize(ByteBuffer buffer) {
@@ -89,6 +104,7 @@ class IndexFileEntry {
             return null;
         }
 
+        int start = buffer.position();
         long crc32 = Utils.toUnsignedIntFromInt(buffer.getInt());
         int version = Utils.toUnsignedByte(buffer.get());
         byte keySize = buffer.get();
@@ -97,37 +113,31 @@ class IndexFileEntry {
         long sequenceNumber = buffer.getLong();
         if (sequenceNumber < 0 || keySize <= 0
             || version < 0 || version > 255
+            || Versions.getChecksumAlgorithm(version) == null
             || recordSize <= 0 || offset < 0
             || buffer.remaining() < keySize) {
             return null;
         }
 
-        byte[] key = new byte[keySize];
-        buffer.get(key);
-
-        IndexFileEntry entry = new IndexFileEntry(key, recordSize, offset, sequenceNumber, version, crc32);
-        if (entry.computeCheckSum() != entry.checkSum) {
+        // verify the checksum over the serialized entry before copying the key.
+        int end = buffer.position() + keySize;
+        ByteBuffer entryBuffer = buffer.duplicate();
+        entryBuffer.position(start + CHECKSUM_SIZE);
+        entryBuffer.limit(end);
+        if (ScratchBuffers.get().checksum(version).compute(entryBuffer) != crc32) {
             return null;
         }
 
-        return entry;
-    }
+        byte[] key = new byte[keySize];
+        buffer.get(key);
 
-    private long computeCheckSum(byte[] header) {
-        CRC32 crc32 = new CRC32();
-        crc32.update(header, CHECKSUM_OFFSET + CHECKSUM_SIZE, INDEX_FILE_HEADER_SIZE - CHECKSUM_SIZE);
-        crc32.update(key);
-        return crc32.getValue();
+        return new IndexFileEntry(key, recordSize, offset, sequenceNumber, version, crc32);
     }
 
     long computeCheckSum() {
-        ByteBuffer header = ByteBuffer.allocate(INDEX_FILE_HEADER_SIZE);
-        header.put(VERSION_OFFSET, (byte)version);
-        header.put(KEY_SIZE_OFFSET, keySize);
-        header.putInt(RECORD_SIZE_OFFSET, recordSize);
-        header.putInt(RECORD_OFFSET, recordOffset);
-        header.putLong(SEQUENCE_NUMBER_OFFSET, sequenceNumber);
-        return computeCheckSum(header.array());
+        ByteBuffer entry = ByteBuffer.allocate(INDEX_FILE_HEADER_SIZE + key.length);
+        serialize(entry, key, recordSize, recordOffset, sequenceNumber, version);
+        return Utils.toUnsignedIntFromInt(entry.getInt(CHECKSUM_OFFSET));
     }
 
     byte[] getKey() {
@@ -74,11 +74,18 @@ final class KeyBuffer {
     // This is meant to be used only with non-pooled memory.
     //TODO: move to another class. 
     boolean sameKey(long hashEntryAdr) {
+        return sameKey(buffer, hashEntryAdr);
+    }
+
+    /**
+     * Same as {@link #sameKey(long)}, for lookups which don't need a KeyBuffer.
+     */
+    static boolean sameKey(byte[] buffer, long hashEntryAdr) {
         long serKeyLen = NonMemoryPoolHashEntries.getKeyLen(hashEntryAdr);
-        return serKeyLen == buffer.length && compareKey(hashEntryAdr);
+        return serKeyLen == buffer.length && compareKey(buffer, hashEntryAdr);
     }
 
-    private boolean compareKey(long hashEntryAdr) {
+    private static boolean compareKey(byte[] buffer, long hashEntryAdr) {
         int blkOff = (int) NonMemoryPoolHashEntries.ENTRY_OFF_DATA;
         int p = 0;
         int endIdx = buffer.length;
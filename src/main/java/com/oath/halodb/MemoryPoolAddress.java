@@ -9,32 +9,36 @@ package com.oath.halodb;
  * Represents the address of an entry in the memory pool. It will have two components: the index of the chunk which
  * contains the entry and the offset within the chunk.
  *
+ * Both are packed into a long, the chunk index in the high and the offset in the low 32 bits, so that walking a
+ * chain of entries doesn't allocate an object for each of them. The long is stored as is in the hash table and in
+ * the entries, therefore a segment can have up to {@link Integer#MAX_VALUE} chunks.
+ *
  * @author Arjun Mannaly
  */
-class MemoryPoolAddress {
+final class MemoryPoolAddress {
+
+    // chunk index -1 and offset -1.
+    static final long EMPTY = -1L;
 
-    final byte chunkIndex;
-    final int chunkOffset;
+    private MemoryPoolAddress() {
+    }
+
+    static long encode(int chunkIndex, int chunkOffset) {
+        return ((long) chunkIndex << 32) | (chunkOffset & 0xFFFFFFFFL);
+    }
 
-    MemoryPoolAddress(byte chunkIndex, int chunkOffset) {
-        this.chunkIndex = chunkIndex;
-        this.chunkOffset = chunkOffset;
+    static int chunkIndex(long address) {
+        return (int) (address >> 32);
     }
 
-    @Override
-    public boolean equals(Object o) {
-        if (o == this) {
-            return true;
-        }
-        if (!(o instanceof MemoryPoolAddress)) {
-            return false;
-        }
-        MemoryPoolAddress m = (MemoryPoolAddress) o;
-        return m.chunkIndex == chunkIndex && m.chunkOffset == chunkOffset;
+    static int chunkOffset(long address) {
+        return (int) address;
     }
 
-    @Override
-    public int hashCode() {
-        return 31 * ((31 * chunkIndex) + chunkOffset);
+    /**
+     * @return true for an address which doesn't point to an entry, such as the end of a chain.
+     */
+    static boolean isEmpty(long address) {
+        return address < 0;
     }
 }
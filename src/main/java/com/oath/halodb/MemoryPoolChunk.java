@@ -44,22 +44,21 @@ class MemoryPoolChunk {
         Uns.free(address);
     }
 
-    MemoryPoolAddress getNextAddress(int slotOffset) {
-        byte chunkIndex = Uns.getByte(address, slotOffset + ENTRY_OFF_NEXT_CHUNK_INDEX);
-        int chunkOffset = Uns.getInt(address, slotOffset + ENTRY_OFF_NEXT_CHUNK_OFFSET);
-
-        return new MemoryPoolAddress(chunkIndex, chunkOffset);
+    /**
+     * @return address of the next entry in the chain, encoded as by {@link MemoryPoolAddress#encode(int, int)}.
+     */
+    long getNextAddress(int slotOffset) {
+        return Uns.getLong(address, slotOffset + ENTRY_OFF_NEXT_ADDRESS);
     }
 
-    void setNextAddress(int slotOffset, MemoryPoolAddress next) {
-        Uns.putByte(address, slotOffset + ENTRY_OFF_NEXT_CHUNK_INDEX, next.chunkIndex);
-        Uns.putInt(address, slotOffset + ENTRY_OFF_NEXT_CHUNK_OFFSET, next.chunkOffset);
+    void setNextAddress(int slotOffset, long next) {
+        Uns.putLong(address, slotOffset + ENTRY_OFF_NEXT_ADDRESS, next);
     }
 
     /**
      * Relative put method. Writes to the slot pointed to by the writeOffset and increments the writeOffset.
      */
-    void fillNextSlot(byte[] key, byte[] value, MemoryPoolAddress nextAddress) {
+    void fillNextSlot(byte[] key, byte[] value, long nextAddress) {
         fillSlot(writeOffset, key, value, nextAddress);
         writeOffset += fixedSlotSize;
     }
@@ -67,7 +66,7 @@ class MemoryPoolChunk {
     /**
      * Absolute put method. Writes to the slot pointed to by the offset.
      */
-    void fillSlot(int slotOffset, byte[] key, byte[] value, MemoryPoolAddress nextAddress) {
+    void fillSlot(int slotOffset, byte[] key, byte[] value, long nextAddress) {
         if (key.length > fixedKeyLength || value.length != fixedValueLength) {
             throw new IllegalArgumentException(
                 String.format("Invalid request. Key length %d. fixed key length %d. Value length %d",
@@ -98,6 +97,10 @@ class MemoryPoolChunk {
         Uns.copyMemory(value, 0, address, slotOffset + ENTRY_OFF_DATA + fixedKeyLength, value.length);
     }
 
+    int getFixedKeyLength() {
+        return fixedKeyLength;
+    }
+
     int getWriteOffset() {
         return writeOffset;
     }
@@ -106,8 +109,11 @@ class MemoryPoolChunk {
         return chunkSize - writeOffset;
     }
 
-    ByteBuffer readOnlyValueByteBuffer(int offset) {
-        return Uns.directBufferFor(address, offset + ENTRY_OFF_DATA + fixedKeyLength, fixedValueLength, true);
+    /**
+     * Deserializes the value of the slot straight from the chunk, without wrapping it in a buffer.
+     */
+    <V> V readValue(int offset, HashTableValueSerializer<V> serializer) {
+        return serializer.deserialize(address, offset + ENTRY_OFF_DATA + fixedKeyLength, fixedValueLength);
     }
 
     ByteBuffer readOnlyKeyByteBuffer(int offset) {
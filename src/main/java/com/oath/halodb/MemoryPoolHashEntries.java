@@ -11,19 +11,17 @@ package com.oath.halodb;
 class MemoryPoolHashEntries {
 
     /*
-     * chunk index - 1 byte.
-     * chunk offset - 4 byte.
+     * address of the next entry - 8 bytes, see MemoryPoolAddress.
      * key length - 1 byte.
      */
-    static final int HEADER_SIZE = 1 + 4 + 1;
+    static final int HEADER_SIZE = 8 + 1;
 
-    static final int ENTRY_OFF_NEXT_CHUNK_INDEX = 0;
-    static final int ENTRY_OFF_NEXT_CHUNK_OFFSET = 1;
+    static final int ENTRY_OFF_NEXT_ADDRESS = 0;
 
     // offset of key length (1 bytes, byte)
-    static final int ENTRY_OFF_KEY_LENGTH = 5;
+    static final int ENTRY_OFF_KEY_LENGTH = 8;
 
     // offset of data in first block
-    static final int ENTRY_OFF_DATA = 6;
+    static final int ENTRY_OFF_DATA = 9;
 
 }
@@ -0,0 +1,228 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Reads the values of multiple keys. All the keys are looked up in the in-memory index and the
+ * value cache first, then the reads are sorted by file and offset, and values which are close to
+ * each other in a file are read with a single read call.
+ */
+class MultiGet {
+    private static final Logger logger = LoggerFactory.getLogger(MultiGet.class);
+
+    // values separated by at most this many bytes are read together, since reading
+    // the bytes in between costs less than another system call.
+    static final int MAX_GAP_BETWEEN_VALUES = 4 * 1024;
+
+    // bounds the memory used by a single read when merging values.
+    static final int MAX_MERGED_READ_SIZE = 1024 * 1024;
+
+    private final HaloDBInternal dbInternal;
+    private final List<byte[]> keys;
+    private final List<RecordMetaDataForCache> metaData;
+    private final ByteBuffer[] values;
+
+    MultiGet(HaloDBInternal dbInternal, List<byte[]> keys) {
+        this.dbInternal = dbInternal;
+        this.keys = keys;
+        this.metaData = dbInternal.getInMemoryIndex().getAll(keys);
+        this.values = new ByteBuffer[keys.size()];
+        for (int i = 0; i < metaData.size(); i++) {
+            if (metaData.get(i) != null) {
+                byte[] cached = dbInternal.getCachedValue(keys.get(i), metaData.get(i));
+                if (cached != null) {
+                    values[i] = ByteBuffer.wrap(cached);
+                }
+            }
+        }
+    }
+
+    boolean hasValuesToRead() {
+        for (int i = 0; i < metaData.size(); i++) {
+            if (metaData.get(i) != null && values[i] == null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads the values, running the reads in parallel on the executor if it is not null.
+     *
+     * @return values in the order of the keys, null for a key which is not in the db.
+     */
+    List<ByteBuffer> read(Executor executor) throws IOException, HaloDBException {
+        List<Read> reads = planReads();
+        if (executor == null || reads.size() < 2) {
+            for (Read read : reads) {
+                read.execute();
+            }
+            return Arrays.asList(values);
+        }
+
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[reads.size()];
+        for (int i = 0; i < reads.size(); i++) {
+            Read read = reads.get(i);
+            futures[i] = CompletableFuture.runAsync(() -> {
+                try {
+                    read.execute();
+                } catch (IOException | HaloDBException e) {
+                    throw new CompletionException(e);
+                }
+            }, executor);
+        }
+
+        try {
+            CompletableFuture.allOf(futures).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new HaloDBException("Interrupted while waiting for reads", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause() instanceof CompletionException ? e.getCause().getCause() : e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException)cause;
+            }
+            if (cause instanceof HaloDBException) {
+                throw (HaloDBException)cause;
+            }
+            throw new HaloDBException("Read failed", cause);
+        }
+        return Arrays.asList(values);
+    }
+
+    /**
+     * @return values found so far, in the order of the keys.
+     */
+    List<ByteBuffer> values() {
+        return Arrays.asList(values);
+    }
+
+    static List<byte[]> toArrays(List<ByteBuffer> buffers) {
+        List<byte[]> values = new ArrayList<>(buffers.size());
+        for (ByteBuffer buffer : buffers) {
+            byte[] value = null;
+            if (buffer != null) {
+                value = new byte[buffer.remaining()];
+                buffer.get(value);
+            }
+            values.add(value);
+        }
+        return values;
+    }
+
+    /**
+     * Sorts the keys which are in the db but not in the value cache by file and value offset
+     * and merges values which are close to each other into a single read.
+     */
+    private List<Read> planReads() {
+        List<Integer> found = new ArrayList<>();
+        for (int i = 0; i < metaData.size(); i++) {
+            if (metaData.get(i) != null && values[i] == null) {
+                found.add(i);
+            }
+        }
+        found.sort(Comparator.<Integer>comparingInt(i -> metaData.get(i).getFileId())
+                       .thenComparingInt(i -> metaData.get(i).getValueOffset()));
+
+        List<Read> reads = new ArrayList<>();
+        Read current = null;
+        for (int index : found) {
+            RecordMetaDataForCache entry = metaData.get(index);
+            long start = entry.getValueOffset();
+            long end = start + entry.getValueSize();
+            if (current == null
+                || current.fileId != entry.getFileId()
+                || start > current.end + MAX_GAP_BETWEEN_VALUES
+                || Math.max(end, current.end) - current.start > MAX_MERGED_READ_SIZE) {
+                current = new Read(entry.getFileId(), start);
+                reads.add(current);
+            }
+            current.add(index, end);
+        }
+        return reads;
+    }
+
+    /**
+     * A single read from a file which covers the values of one or more keys.
+     */
+    private class Read {
+        private final int fileId;
+        private final long start;
+        private long end;
+        private final List<Integer> keyIndices = new ArrayList<>();
+
+        Read(int fileId, long start) {
+            this.fileId = fileId;
+            this.start = start;
+            this.end = start;
+        }
+
+        void add(int keyIndex, long valueEnd) {
+            keyIndices.add(keyIndex);
+            end = Math.max(end, valueEnd);
+        }
+
+        void execute() throws IOException, HaloDBException {
+            HaloDBFile file = dbInternal.getHaloDBFile(fileId);
+            ByteBuffer buffer = ByteBuffer.allocate((int)(end - start));
+            try {
+                if (file != null) {
+                    file.readFromFile(start, buffer);
+                }
+            } catch (ClosedChannelException e) {
+                if (dbInternal.isClosing()) {
+                    // trying to read after HaloDB.close() method called.
+                    throw e;
+                }
+                file = null;
+            }
+
+            if (file == null) {
+                // file was deleted by the compaction job, the keys now point to other files.
+                logger.debug("File {} was compacted while reading. Reading {} keys one by one", fileId, keyIndices.size());
+                for (int index : keyIndices) {
+                    dbInternal.recordReadRetry();
+                    byte[] value = dbInternal.get(keys.get(index), 1);
+                    values[index] = value != null ? ByteBuffer.wrap(value) : null;
+                }
+                return;
+            }
+
+            for (int index : keyIndices) {
+                RecordMetaDataForCache entry = metaData.get(index);
+                int offset = (int)(entry.getValueOffset() - start);
+                if (entry.isValueCompressed()) {
+                    byte[] stored = buffer.array();
+                    byte[] value = new byte[ValueCompression.uncompressedSize(stored, offset, entry.getValueSize())];
+                    ValueCompression.decompress(stored, offset, entry.getValueSize(), value, 0);
+                    values[index] = ByteBuffer.wrap(value);
+                }
+                else {
+                    ByteBuffer value = buffer.duplicate();
+                    value.limit(offset + entry.getValueSize());
+                    value.position(offset);
+                    values[index] = value.slice();
+                }
+                dbInternal.cacheValue(keys.get(index), entry, values[index]);
+            }
+        }
+    }
+}
@@ -0,0 +1,319 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import com.sun.jna.Native;
+import com.sun.jna.Platform;
+import com.sun.jna.Pointer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * File system calls which are not exposed by the JDK, made through JNA.
+ * Only available on Linux; callers are expected to fall back to plain java io
+ * when a call returns false.
+ *
+ * Calls which apply to the file rather than to a descriptor, fallocate and dropping cached pages, open the file
+ * themselves. Advice on how a file is read applies only to reads through the descriptor it is given, therefore it
+ * needs the descriptor of a file opened by java, which is accessible on JDK 16 and later only when java.io is
+ * opened with {@code --add-opens java.base/java.io=ALL-UNNAMED}.
+ */
+final class NativeIO {
+    private static final Logger logger = LoggerFactory.getLogger(NativeIO.class);
+
+    // buffers, offsets and lengths of reads and writes of a file opened with O_DIRECT must be aligned to this.
+    static final int DIRECT_IO_ALIGNMENT = 4096;
+
+    private static final int O_RDONLY = 0;
+    private static final int O_WRONLY = 1;
+    private static final int O_DIRECT = directFlag();
+
+    private static final boolean available;
+    private static final Field fdField;
+
+    private static final AtomicBoolean accessAdviceWarningLogged = new AtomicBoolean(false);
+
+    static {
+        boolean registered = false;
+        Field field = null;
+        if (Platform.isLinux()) {
+            try {
+                Native.register(NativeIO.class, "c");
+                registered = true;
+            } catch (Throwable t) {
+                logger.warn("Native io calls are not available, falling back to java io. {}", t.getMessage());
+            }
+            try {
+                field = FileDescriptor.class.getDeclaredField("fd");
+                field.setAccessible(true);
+            } catch (Throwable t) {
+                // on JDK 16+ java.io must be opened to this module, logged once advice is enabled.
+                logger.debug("Descriptors of open files are not accessible. {}", t.getMessage());
+                field = null;
+            }
+        }
+        available = registered;
+        fdField = field;
+    }
+
+    private NativeIO() {}
+
+    private static native int posix_fallocate(int fd, long offset, long len);
+
+    private static native int posix_fadvise(int fd, long offset, long len, int advice);
+
+    private static native int madvise(Pointer addr, long length, int advice);
+
+    private static native int open(String path, int flags);
+
+    private static native long pread(int fd, Pointer buf, long count, long offset);
+
+    private static native long pwrite(int fd, Pointer buf, long count, long offset);
+
+    private static native int close(int fd);
+
+    /**
+     * Expected access pattern of a file or a mapping. Values are the same for posix_fadvise and madvise on Linux.
+     */
+    enum Advice {
+        // disables read-ahead, for files which serve random gets.
+        RANDOM(1),
+        // doubles read-ahead, for files which are scanned.
+        SEQUENTIAL(2),
+        // drops cached pages of the file, only used with fadvise.
+        DONT_NEED(4);
+
+        private final int value;
+
+        Advice(int value) {
+            this.value = value;
+        }
+    }
+
+    /**
+     * @return true if calls which take the descriptor of a file opened by java, fadvise, can be made.
+     */
+    static boolean isAvailable() {
+        return available && fdField != null;
+    }
+
+    /**
+     * Logs once if advice on how files are read can't be given, since the descriptors of files opened by java are
+     * not accessible.
+     */
+    static void warnIfAccessAdviceIsNotAvailable() {
+        if (available && fdField == null && accessAdviceWarningLogged.compareAndSet(false, true)) {
+            logger.warn("Descriptors of files opened by java are not accessible, read-ahead of data files is not advised. "
+                        + "Add --add-opens java.base/java.io=ALL-UNNAMED to the java options to enable it.");
+        }
+    }
+
+    /**
+     * Allocates disk space for the given range of the file.
+     *
+     * @return true if the space was allocated, false if the call is not supported.
+     */
+    static boolean fallocate(File file, long offset, long length) {
+        if (!available) {
+            return false;
+        }
+
+        int fd = open(file.getPath(), O_WRONLY);
+        if (fd < 0) {
+            logger.debug("Could not open {} for fallocate, error {}", file.getName(), Native.getLastError());
+            return false;
+        }
+        try {
+            int result = posix_fallocate(fd, offset, length);
+            if (result != 0) {
+                logger.debug("posix_fallocate failed with error {}", result);
+                return false;
+            }
+            return true;
+        } finally {
+            close(fd);
+        }
+    }
+
+    /**
+     * Drops the cached pages of the file from the page cache, which is done for the file whichever descriptor is used.
+     *
+     * @return true if the advice was given, false if the call is not supported.
+     */
+    static boolean dropCachedPages(File file) {
+        if (!available) {
+            return false;
+        }
+
+        int fd = open(file.getPath(), O_RDONLY);
+        if (fd < 0) {
+            logger.debug("Could not open {} for fadvise, error {}", file.getName(), Native.getLastError());
+            return false;
+        }
+        try {
+            return fadvise(fd, 0, 0, Advice.DONT_NEED);
+        } finally {
+            close(fd);
+        }
+    }
+
+    /**
+     * Advises the kernel on how the given range of the file will be read through this descriptor.
+     * A length of 0 means until the end of the file.
+     *
+     * @return true if the advice was given, false if the call is not supported.
+     */
+    static boolean fadvise(FileDescriptor descriptor, long offset, long length, Advice advice) {
+        if (!available || fdField == null) {
+            return false;
+        }
+
+        return fadvise(getFd(descriptor), offset, length, advice);
+    }
+
+    private static boolean fadvise(int fd, long offset, long length, Advice advice) {
+        int result = posix_fadvise(fd, offset, length, advice.value);
+        if (result != 0) {
+            logger.debug("posix_fadvise failed with error {}", result);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Advises the kernel on how the pages of the mapping will be read. Read-ahead for reads
+     * from a mapping is controlled by this advice and not by that given to the file.
+     *
+     * @return true if the advice was given, false if the call is not supported.
+     */
+    static boolean madvise(MappedByteBuffer mapping, Advice advice) {
+        if (!available || mapping.capacity() == 0) {
+            return false;
+        }
+        if (advice == Advice.DONT_NEED) {
+            throw new IllegalArgumentException("Pages of a file are dropped with fadvise");
+        }
+
+        if (madvise(Native.getDirectBufferPointer(mapping), mapping.capacity(), advice.value) != 0) {
+            logger.debug("madvise failed with error {}", Native.getLastError());
+            return false;
+        }
+        return true;
+    }
+
+    static boolean isDirectIOAvailable() {
+        return available && O_DIRECT != 0;
+    }
+
+    /**
+     * Opens the file read-only with O_DIRECT, so that reads bypass the page cache.
+     *
+     * @return the file descriptor, or -1 if direct io is not supported for the file.
+     */
+    static int openDirect(File file) {
+        if (!isDirectIOAvailable()) {
+            return -1;
+        }
+
+        int fd = open(file.getPath(), O_RDONLY | O_DIRECT);
+        if (fd < 0) {
+            logger.warn("Could not open {} for direct io, error {}", file.getName(), Native.getLastError());
+        }
+        return fd;
+    }
+
+    /**
+     * Opens the file write-only with O_DIRECT, so that writes bypass the page cache.
+     *
+     * @return the file descriptor, or -1 if direct io is not supported for the file.
+     */
+    static int openDirectForWrites(File file) {
+        if (!isDirectIOAvailable()) {
+            return -1;
+        }
+
+        int fd = open(file.getPath(), O_WRONLY | O_DIRECT);
+        if (fd < 0) {
+            logger.warn("Could not open {} for direct writes, error {}", file.getName(), Native.getLastError());
+        }
+        return fd;
+    }
+
+    /**
+     * Reads from the file into the buffer from its position to its limit, the position of the buffer is not changed.
+     * Address of the buffer at its position, the number of bytes remaining, and the position in the file must be
+     * aligned to {@link #DIRECT_IO_ALIGNMENT}.
+     *
+     * @return number of bytes read, which is less than remaining only at the end of the file, or -1 on error.
+     */
+    static long pread(int fd, ByteBuffer buffer, long position) {
+        Pointer address = Native.getDirectBufferPointer(buffer).share(buffer.position());
+        long read = pread(fd, address, buffer.remaining(), position);
+        if (read < 0) {
+            logger.debug("pread failed with error {}", Native.getLastError());
+        }
+        return read;
+    }
+
+    /**
+     * Writes the buffer from its position to its limit to the file, the position of the buffer is not changed.
+     * Address of the buffer at its position, the number of bytes remaining, and the position in the file must be
+     * aligned to {@link #DIRECT_IO_ALIGNMENT}.
+     *
+     * @return number of bytes written, or -1 on error.
+     */
+    static long pwrite(int fd, ByteBuffer buffer, long position) {
+        Pointer address = Native.getDirectBufferPointer(buffer).share(buffer.position());
+        long written = pwrite(fd, address, buffer.remaining(), position);
+        if (written < 0) {
+            logger.debug("pwrite failed with error {}", Native.getLastError());
+        }
+        return written;
+    }
+
+    /**
+     * Closes a descriptor returned by {@link #openDirect(File)} or {@link #openDirectForWrites(File)}.
+     */
+    static void closeDirect(int fd) {
+        if (close(fd) != 0) {
+            logger.debug("close failed with error {}", Native.getLastError());
+        }
+    }
+
+    // value of O_DIRECT differs between architectures, 0 if it isn't known.
+    private static int directFlag() {
+        switch (Platform.ARCH) {
+            case "x86":
+            case "x86-64":
+                return 0x4000;
+            case "arm":
+            case "aarch64":
+                return 0x10000;
+            case "ppc":
+            case "ppc64":
+            case "ppc64le":
+                return 0x20000;
+            default:
+                return 0;
+        }
+    }
+
+    static int getFd(FileDescriptor descriptor) {
+        try {
+            return fdField.getInt(descriptor);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("Unable to get file descriptor", e);
+        }
+    }
+}
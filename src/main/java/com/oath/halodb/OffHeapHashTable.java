@@ -10,6 +10,7 @@ package com.oath.halodb;
 import com.oath.halodb.histo.EstimatedHistogram;
 
 import java.io.Closeable;
+import java.util.List;
 
 interface OffHeapHashTable<V> extends Closeable {
 
@@ -46,6 +47,31 @@ interface OffHeapHashTable<V> extends Closeable {
      */
     boolean remove(byte[] key);
 
+    /**
+     * Adds or replaces the entry for the key, with a single lookup.
+     *
+     * @param key      key of the entry to be added. Must not be {@code null}.
+     * @param value    value of the entry to be added. Must not be {@code null}.
+     * @return the value which was replaced or {@code null} if the key was not present.
+     */
+    V getAndPut(byte[] key, V value);
+
+    /**
+     * Removes the entry for the key, with a single lookup.
+     *
+     * @param key key of the entry to be removed. Must not be {@code null}.
+     * @return the value which was removed or {@code null} if the key was not present.
+     */
+    V getAndRemove(byte[] key);
+
+    /**
+     * Looks up all the keys, taking the lock of each segment once for all the keys in the segment.
+     *
+     * @param keys keys to look up. None of them may be {@code null}.
+     * @return values in the order of the keys, with {@code null} for a key which is not present.
+     */
+    List<V> getAll(List<byte[]> keys);
+
     /**
      * Removes all entries from the cache.
      */
@@ -23,6 +23,7 @@ class OffHeapHashTableBuilder<V> {
     private Hasher hasher;
     private boolean unlocked;
     private boolean useMemoryPool = false;
+    private boolean useOpenAddressing = false;
 
     private OffHeapHashTableBuilder() {
         int cpus = Runtime.getRuntime().availableProcessors();
@@ -113,6 +114,10 @@ class OffHeapHashTableBuilder<V> {
             throw new IllegalArgumentException("Need to set fixedKeySize when using memory pool");
         }
 
+        if (useOpenAddressing && fixedKeySize == -1) {
+            throw new IllegalArgumentException("Need to set fixedKeySize when using open addressing");
+        }
+
         if (valueSerializer == null) {
             throw new IllegalArgumentException("Value serializer must be set.");
         }
@@ -278,4 +283,16 @@ class OffHeapHashTableBuilder<V> {
         this.useMemoryPool = useMemoryPool;
         return this;
     }
+
+    public boolean isUseOpenAddressing() {
+        return useOpenAddressing;
+    }
+
+    /**
+     * Store fixed size entries in a single array per segment, probed linearly, instead of chaining them.
+     */
+    public OffHeapHashTableBuilder<V> useOpenAddressing(boolean useOpenAddressing) {
+        this.useOpenAddressing = useOpenAddressing;
+        return this;
+    }
 }
@@ -42,6 +42,9 @@ final class OffHeapHashTableImpl<V> implements OffHeapHashTable<V> {
     private final boolean throwOOME;
     private final Hasher hasher;
 
+    // readers of all segments, which writers wait for before freeing memory.
+    private final ReadEpoch readers = new ReadEpoch();
+
     OffHeapHashTableImpl(OffHeapHashTableBuilder<V> builder) {
         long capacity = builder.getCapacity();
         if (capacity <= 0L) {
@@ -65,7 +68,7 @@ final class OffHeapHashTableImpl<V> implements OffHeapHashTable<V> {
             try {
                 maps.add(makeMap(builder, capacity / segmentCount));
             } catch (RuntimeException e) {
-                for (; i >= 0; i--) {
+                for (i--; i >= 0; i--) {
                     if (maps.get(i) != null) {
                         maps.get(i).release();
                     }
@@ -99,10 +102,13 @@ final class OffHeapHashTableImpl<V> implements OffHeapHashTable<V> {
     }
 
     private Segment<V> makeMap(OffHeapHashTableBuilder<V> builder, long perMapCapacity) {
+        if (builder.isUseOpenAddressing()) {
+            return new SegmentWithOpenAddressing<V>(builder, readers);
+        }
         if (builder.isUseMemoryPool()) {
-            return new SegmentWithMemoryPool<V>(builder);
+            return new SegmentWithMemoryPool<V>(builder, readers);
         }
-        return new SegmentNonMemoryPool<V>(builder);
+        return new SegmentNonMemoryPool<V>(builder, readers);
     }
 
     //
@@ -139,7 +145,25 @@ final class OffHeapHashTableImpl<V> implements OffHeapHashTable<V> {
         return putInternal(k, v, true, null);
     }
 
+    public V getAndPut(byte[] key, V value) {
+        checkKeyAndValue(key, value);
+
+        long hash = hasher.hash(key);
+        return segment(hash).getAndPutEntry(key, value, hash);
+    }
+
     private boolean putInternal(byte[] key, V value, boolean ifAbsent, V old) {
+        checkKeyAndValue(key, value);
+
+        if (old != null && valueSize(old) != fixedValueLength) {
+            throw new IllegalArgumentException("old value size " + valueSize(old) + " greater than fixed value size " + fixedValueLength);
+        }
+
+        long hash = hasher.hash(key);
+        return segment(hash).putEntry(key, value, hash, ifAbsent, old);
+    }
+
+    private void checkKeyAndValue(byte[] key, V value) {
         if (key == null || value == null) {
             throw new NullPointerException();
         }
@@ -149,16 +173,9 @@ final class OffHeapHashTableImpl<V> implements OffHeapHashTable<V> {
             throw new IllegalArgumentException("value size " + valueSize + " greater than fixed value size " + fixedValueLength);
         }
 
-        if (old != null && valueSize(old) != fixedValueLength) {
-            throw new IllegalArgumentException("old value size " + valueSize(old) + " greater than fixed value size " + fixedValueLength);
-        }
-
         if (key.length > Byte.MAX_VALUE) {
             throw new IllegalArgumentException("key size of " + key.length + " exceeds max permitted size of " + Byte.MAX_VALUE);
         }
-
-        long hash = hasher.hash(key);
-        return segment(hash).putEntry(key, value, hash, ifAbsent, old);
     }
 
     private int valueSize(V v) {
@@ -178,9 +195,51 @@ final class OffHeapHashTableImpl<V> implements OffHeapHashTable<V> {
         return segment(keySource.hash()).removeEntry(keySource);
     }
 
+    public V getAndRemove(byte[] k) {
+        if (k == null) {
+            throw new NullPointerException();
+        }
+
+        KeyBuffer keySource = keySource(k);
+        return segment(keySource.hash()).getAndRemoveEntry(keySource);
+    }
+
+    public List<V> getAll(List<byte[]> keys) {
+        int size = keys.size();
+        KeyBuffer[] keySources = new KeyBuffer[size];
+
+        // segment index in the high and key index in the low bits, so that sorting groups the keys by segment
+        // and lookups of a group find the segment's table in the cache.
+        long[] order = new long[size];
+        for (int i = 0; i < size; i++) {
+            byte[] key = keys.get(i);
+            if (key == null) {
+                throw new NullPointerException();
+            }
+            keySources[i] = keySource(key);
+            order[i] = ((long)segmentIndex(keySources[i].hash()) << 32) | i;
+        }
+        Arrays.sort(order);
+
+        List<V> values = new ArrayList<>(Collections.nCopies(size, null));
+        int from = 0;
+        while (from < size) {
+            int seg = (int)(order[from] >>> 32);
+            Segment<V> segment = maps.get(seg);
+            for (; from < size && (int)(order[from] >>> 32) == seg; from++) {
+                int index = (int)order[from];
+                values.set(index, segment.getEntry(keySources[index]));
+            }
+        }
+        return values;
+    }
+
     private Segment<V> segment(long hash) {
-        int seg = (int) ((hash & segmentMask) >>> segmentShift);
-        return maps.get(seg);
+        return maps.get(segmentIndex(hash));
+    }
+
+    private int segmentIndex(long hash) {
+        return (int) ((hash & segmentMask) >>> segmentShift);
     }
 
     private KeyBuffer keySource(byte[] key) {
@@ -208,6 +267,9 @@ final class OffHeapHashTableImpl<V> implements OffHeapHashTable<V> {
     }
 
     public void close() {
+        if (closed) {
+            return;
+        }
         closed = true;
         for (Segment map : maps) {
             map.release();
@@ -305,7 +367,8 @@ final class OffHeapHashTableImpl<V> implements OffHeapHashTable<V> {
         SegmentStats[] stats = new SegmentStats[maps.size()];
         for (int i = 0; i < stats.length; i++) {
             Segment<V> map = maps.get(i);
-            stats[i] = new SegmentStats(map.size(), map.numberOfChunks(), map.numberOfSlots(), map.freeListSize());
+            stats[i] = new SegmentStats(map.size(), map.numberOfChunks(), map.numberOfSlots(), map.freeListSize(),
+                                        map.chunkMemory(), map.chunkMemoryInUse());
         }
 
         return stats;
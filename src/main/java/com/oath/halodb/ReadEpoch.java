@@ -0,0 +1,106 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lets the compaction thread wait for reads which might have found a data file in the in-memory index
+ * before it deletes the file, so that a read never finds that the file it looked up was deleted.
+ *
+ * A reader calls {@link #enter()} before it looks up the index and {@link #exit(int)} once it has read the
+ * value. Readers are counted in one of two epochs, the one which was current when they entered.
+ * {@link #awaitReaders()} makes the other epoch current and waits until no reader is left in the old one.
+ * Readers which enter after the index was updated might still be counted in the old epoch, therefore readers
+ * of the previous epoch are waited for as well before switching.
+ *
+ * The off-heap index frees memory which readers of a segment, who don't take its lock, might still be reading
+ * without waiting: memory detached in an epoch can be freed once the epoch has been advanced twice, and the epoch
+ * is advanced with {@link #tryAdvance()} whenever no reader is left in the previous one.
+ *
+ * Counters are striped by thread so that readers on different cores don't update the same cache line.
+ */
+class ReadEpoch {
+
+    // ints in a cache line, each counter is on a line of its own.
+    private static final int PADDING = 16;
+
+    private static final long WAIT_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private final int stripes;
+    private final AtomicIntegerArray readers;
+
+    private volatile int epoch = 0;
+    private static final AtomicIntegerFieldUpdater<ReadEpoch> epochUpdater =
+        AtomicIntegerFieldUpdater.newUpdater(ReadEpoch.class, "epoch");
+
+    ReadEpoch() {
+        this.stripes = (int)Utils.roundUpToPowerOf2(2 * Runtime.getRuntime().availableProcessors());
+        this.readers = new AtomicIntegerArray(2 * stripes * PADDING);
+    }
+
+    /**
+     * @return slot which must be passed to {@link #exit(int)}, which can be called from another thread.
+     */
+    int enter() {
+        int stripe = (int)Thread.currentThread().getId() & (stripes - 1);
+        int slot = ((epoch & 1) * stripes + stripe) * PADDING;
+        readers.incrementAndGet(slot);
+        return slot;
+    }
+
+    void exit(int slot) {
+        readers.decrementAndGet(slot);
+    }
+
+    int currentEpoch() {
+        return epoch;
+    }
+
+    /**
+     * Returns true if all readers which entered before the epoch, which must have been read
+     * after the index was updated, have exited.
+     */
+    boolean isReclaimable(int retiredEpoch) {
+        return epoch - retiredEpoch >= 2;
+    }
+
+    /**
+     * Makes the next epoch current if no reader is left in the previous one. Doesn't wait.
+     */
+    boolean tryAdvance() {
+        int current = epoch;
+        if (hasReaders((current & 1) ^ 1)) {
+            return false;
+        }
+        return epochUpdater.compareAndSet(this, current, current + 1);
+    }
+
+    /**
+     * Returns once all readers which entered before the call have exited. Must be called
+     * after the index was updated so that it no longer points to the file which is deleted.
+     */
+    void awaitReaders() {
+        int retiredEpoch = epoch;
+        while (!isReclaimable(retiredEpoch)) {
+            if (!tryAdvance()) {
+                LockSupport.parkNanos(WAIT_NANOS);
+            }
+        }
+    }
+
+    private boolean hasReaders(int epochIndex) {
+        for (int stripe = 0; stripe < stripes; stripe++) {
+            if (readers.get((epochIndex * stripes + stripe) * PADDING) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -7,7 +7,6 @@ package com.oath.halodb;
 
 import java.nio.ByteBuffer;
 import java.util.Arrays;
-import java.util.zip.CRC32;
 
 /**
  * @author Arjun Mannaly
@@ -27,10 +26,40 @@ public class Record {
     }
 
     ByteBuffer[] serialize() {
-        ByteBuffer headerBuf = serializeHeaderAndComputeChecksum();
+        ByteBuffer headerBuf = header.serialize();
+        long checkSum = computeCheckSum(headerBuf.array());
+        headerBuf.putInt(Header.CHECKSUM_OFFSET, Utils.toSignedIntFromLong(checkSum));
         return new ByteBuffer[] {headerBuf, ByteBuffer.wrap(key), ByteBuffer.wrap(value)};
     }
 
+    /**
+     * Serializes a record into the destination buffer at its position and computes the checksum
+     * with the algorithm of the version in a single pass over the serialized bytes. Value bytes are read from the value's position
+     * to its limit, without changing its position. On return the destination buffer's position
+     * is at the start of the record and its limit at the end.
+     */
+    static void serialize(ByteBuffer destination, byte[] key, ByteBuffer value, long sequenceNumber, int version) {
+        int start = destination.position();
+        destination.putInt(0);
+        destination.put((byte)version);
+        destination.put((byte)key.length);
+        destination.putInt(value.remaining());
+        destination.putLong(sequenceNumber);
+        destination.put(key);
+
+        int valuePosition = value.position();
+        destination.put(value);
+        value.position(valuePosition);
+
+        // checksum of all but the first header element, key and value.
+        int end = destination.position();
+        destination.limit(end);
+        destination.position(start + Header.CHECKSUM_SIZE);
+        long checkSum = ScratchBuffers.get().checksum(version).compute(destination);
+        destination.putInt(start + Header.CHECKSUM_OFFSET, Utils.toSignedIntFromLong(checkSum));
+        destination.position(start);
+    }
+
     static Record deserialize(ByteBuffer buffer, short keySize, int valueSize) {
         buffer.flip();
         byte[] key = new byte[keySize];
@@ -90,14 +119,11 @@ public class Record {
         this.header = header;
     }
 
-    private ByteBuffer serializeHeaderAndComputeChecksum() {
-        ByteBuffer headerBuf = header.serialize();
-        long checkSum = computeCheckSum(headerBuf.array());
-        headerBuf.putInt(Header.CHECKSUM_OFFSET, Utils.toSignedIntFromLong(checkSum));
-        return headerBuf;
-    }
-
     boolean verifyChecksum() {
+        if (Versions.getChecksumAlgorithm(header.version) == null) {
+            return false;
+        }
+
         ByteBuffer headerBuf = header.serialize();
         long checkSum = computeCheckSum(headerBuf.array());
 
@@ -105,13 +131,15 @@ public class Record {
     }
 
     private long computeCheckSum(byte[] header) {
-        CRC32 crc32 = new CRC32();
-
-        // compute checksum with all but the first header element, key and value.
-        crc32.update(header, Header.CHECKSUM_OFFSET + Header.CHECKSUM_SIZE, Header.HEADER_SIZE-Header.CHECKSUM_SIZE);
-        crc32.update(key);
-        crc32.update(value);
-        return crc32.getValue();
+        // checksum of all but the first header element, key and value, fed in sequence so that
+        // the record is not copied.
+        EntryChecksum checksum = ScratchBuffers.get().checksum(this.header.version);
+        checksum.reset();
+        int offset = Header.CHECKSUM_OFFSET + Header.CHECKSUM_SIZE;
+        checksum.update(header, offset, header.length - offset);
+        checksum.update(key, 0, key.length);
+        checksum.update(value, 0, value.length);
+        return checksum.getValue();
     }
 
     @Override
@@ -188,6 +216,7 @@ public class Record {
 
         static boolean verifyHeader(Record.Header header) {
             return header.version >= 0 && header.version < 256
+                   && Versions.getChecksumAlgorithm(header.version) != null
                    &&  header.keySize > 0 && header.valueSize > 0
                    && header.recordSize > 0 && header.sequenceNumber > 0;
         }
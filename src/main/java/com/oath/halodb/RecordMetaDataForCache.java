@@ -19,20 +19,32 @@ class RecordMetaDataForCache {
     private final int valueOffset;
     private final int valueSize;
     private final long sequenceNumber;
+    private final boolean valueCompressed;
 
     static final int SERIALIZED_SIZE = 4 + 4 + 4 + 8;
 
+    // value size is never negative, therefore its sign bit is used for the compression flag when serialized.
+    private static final int COMPRESSED_VALUE_BIT = 1 << 31;
+
     RecordMetaDataForCache(int fileId, int valueOffset, int valueSize, long sequenceNumber) {
+        this(fileId, valueOffset, valueSize, sequenceNumber, false);
+    }
+
+    /**
+     * @param valueSize size of the value on disk, which is the compressed size if the value is compressed.
+     */
+    RecordMetaDataForCache(int fileId, int valueOffset, int valueSize, long sequenceNumber, boolean valueCompressed) {
         this.fileId = fileId;
         this.valueOffset = valueOffset;
         this.valueSize = valueSize;
         this.sequenceNumber = sequenceNumber;
+        this.valueCompressed = valueCompressed;
     }
 
     void serialize(ByteBuffer byteBuffer) {
         byteBuffer.putInt(getFileId());
         byteBuffer.putInt(getValueOffset());
-        byteBuffer.putInt(getValueSize());
+        byteBuffer.putInt(valueCompressed ? getValueSize() | COMPRESSED_VALUE_BIT : getValueSize());
         byteBuffer.putLong(getSequenceNumber());
         byteBuffer.flip();
     }
@@ -43,7 +55,19 @@ class RecordMetaDataForCache {
         int size = byteBuffer.getInt();
         long sequenceNumber = byteBuffer.getLong();
 
-        return new RecordMetaDataForCache(fileId, offset, size, sequenceNumber);
+        return new RecordMetaDataForCache(fileId, offset, size & ~COMPRESSED_VALUE_BIT, sequenceNumber, (size & COMPRESSED_VALUE_BIT) != 0);
+    }
+
+    /**
+     * Same as {@link #deserialize(ByteBuffer)}, but reads the fields directly from off-heap memory.
+     */
+    static RecordMetaDataForCache deserialize(long address, long offset) {
+        int fileId = Uns.getIntBigEndian(address, offset);
+        int valueOffset = Uns.getIntBigEndian(address, offset + 4);
+        int size = Uns.getIntBigEndian(address, offset + 8);
+        long sequenceNumber = Uns.getLongBigEndian(address, offset + 12);
+
+        return new RecordMetaDataForCache(fileId, valueOffset, size & ~COMPRESSED_VALUE_BIT, sequenceNumber, (size & COMPRESSED_VALUE_BIT) != 0);
     }
 
     int getFileId() {
@@ -61,4 +85,8 @@ class RecordMetaDataForCache {
     long getSequenceNumber() {
         return sequenceNumber;
     }
+
+    boolean isValueCompressed() {
+        return valueCompressed;
+    }
 }
@@ -21,6 +21,11 @@ class RecordMetaDataSerializer implements HashTableValueSerializer<RecordMetaDat
         return RecordMetaDataForCache.deserialize(byteBuffer);
     }
 
+    @Override
+    public RecordMetaDataForCache deserialize(long address, long offset, int length) {
+        return RecordMetaDataForCache.deserialize(address, offset);
+    }
+
     public int serializedSize(RecordMetaDataForCache recordMetaData) {
         return RecordMetaDataForCache.SERIALIZED_SIZE;
     }
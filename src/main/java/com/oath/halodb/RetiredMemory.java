@@ -0,0 +1,74 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Memory which a writer has unlinked from a structure that readers search without its lock, and which readers
+ * might therefore still be reading. The memory is queued with the epoch it was detached in and freed once the
+ * readers which had entered before have exited, as tracked by {@link ReadEpoch}. Writers don't wait for them,
+ * memory which became reclaimable is freed by a later writer.
+ *
+ * Not thread safe, only used with the lock of the structure held.
+ */
+class RetiredMemory {
+
+    private final ReadEpoch readers;
+
+    // oldest first.
+    private final ArrayDeque<Retired> retired = new ArrayDeque<>();
+
+    RetiredMemory(ReadEpoch readers) {
+        this.readers = readers;
+    }
+
+    /**
+     * Queues a task which frees memory detached by the writer. Must be called once the memory
+     * can no longer be reached by readers which enter from now on.
+     */
+    void add(Runnable reclaim) {
+        retired.add(new Retired(readers.currentEpoch(), reclaim));
+    }
+
+    /**
+     * @return tasks which free the memory no reader can be reading any more, to be run once the
+     * lock is released, or null if there are none.
+     */
+    List<Runnable> pollReclaimable() {
+        if (retired.isEmpty()) {
+            return null;
+        }
+
+        readers.tryAdvance();
+        List<Runnable> reclaimable = null;
+        while (!retired.isEmpty() && readers.isReclaimable(retired.peek().epoch)) {
+            if (reclaimable == null) {
+                reclaimable = new ArrayList<>();
+            }
+            reclaimable.add(retired.poll().reclaim);
+        }
+        return reclaimable;
+    }
+
+    static void run(List<Runnable> reclaimable) {
+        if (reclaimable != null) {
+            reclaimable.forEach(Runnable::run);
+        }
+    }
+
+    private static final class Retired {
+        final int epoch;
+        final Runnable reclaim;
+
+        Retired(int epoch, Runnable reclaim) {
+            this.epoch = epoch;
+            this.reclaim = reclaim;
+        }
+    }
+}
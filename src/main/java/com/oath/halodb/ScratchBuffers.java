@@ -0,0 +1,165 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import com.google.common.primitives.Ints;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Buffers owned by a thread which are reused on the put and get paths so
+ * that they don't allocate in the steady state.
+ */
+class ScratchBuffers {
+
+    private static final ThreadLocal<ScratchBuffers> buffers = ThreadLocal.withInitial(ScratchBuffers::new);
+
+    private static final int INITIAL_RECORD_BUFFER_SIZE = 4 * 1024;
+
+    // records larger than this are serialized into a direct buffer which is not retained by the thread.
+    static final int MAX_RECORD_BUFFER_SIZE = 1024 * 1024;
+
+    // one array for each key length, since the hash table needs keys as exactly sized arrays.
+    private final byte[][] keys = new byte[Byte.MAX_VALUE + 1][];
+
+    // allocated on first use, threads which only read from the index or the cache never need it.
+    private ByteBuffer recordBuffer = null;
+
+    // reads with direct io land in this buffer, allocated on first use.
+    private ByteBuffer alignedBuffer = null;
+
+    // used to compress and decompress values.
+    private byte[] valueArray = new byte[0];
+    private byte[] compressedValueArray = new byte[0];
+
+    // one instance for each checksum algorithm, created on first use.
+    private final EntryChecksum[] checksums = new EntryChecksum[ChecksumAlgorithm.values().length];
+
+    private ScratchBuffers() {}
+
+    static ScratchBuffers get() {
+        return buffers.get();
+    }
+
+    /**
+     * Copies the bytes between the key's position and limit into an array reused for keys of
+     * the same length. The position of the key is not changed. Contents of the array
+     * are valid only until the next call from the same thread.
+     */
+    byte[] key(ByteBuffer key) {
+        int length = key.remaining();
+        if (length > Byte.MAX_VALUE) {
+            throw new IllegalArgumentException("key length cannot exceed " + Byte.MAX_VALUE);
+        }
+
+        byte[] array = keys[length];
+        if (array == null) {
+            array = new byte[length];
+            keys[length] = array;
+        }
+
+        int position = key.position();
+        key.get(array);
+        key.position(position);
+        return array;
+    }
+
+    /**
+     * Returns a cleared direct buffer which can hold at least size bytes. Above
+     * {@link #MAX_RECORD_BUFFER_SIZE} the buffer is allocated for the call and not retained by the thread.
+     */
+    ByteBuffer recordBuffer(int size) {
+        if (size > MAX_RECORD_BUFFER_SIZE) {
+            // direct as well, so that writing it doesn't go through a temporary direct buffer of the JDK.
+            return ByteBuffer.allocateDirect(size);
+        }
+
+        if (recordBuffer == null || size > recordBuffer.capacity()) {
+            int capacity = Math.max(INITIAL_RECORD_BUFFER_SIZE, Ints.checkedCast(Utils.roundUpToPowerOf2(size)));
+            recordBuffer = ByteBuffer.allocateDirect(capacity);
+        }
+        recordBuffer.clear();
+        return recordBuffer;
+    }
+
+    /**
+     * Returns an array of at least size bytes used to hold an uncompressed value.
+     */
+    byte[] valueArray(int size) {
+        if (size > MAX_RECORD_BUFFER_SIZE) {
+            return new byte[size];
+        }
+
+        if (size > valueArray.length) {
+            valueArray = new byte[Ints.checkedCast(Utils.roundUpToPowerOf2(size))];
+        }
+        return valueArray;
+    }
+
+    /**
+     * Returns an array of at least size bytes used to hold a compressed value.
+     */
+    byte[] compressedValueArray(int size) {
+        if (size > MAX_RECORD_BUFFER_SIZE) {
+            return new byte[size];
+        }
+
+        if (size > compressedValueArray.length) {
+            compressedValueArray = new byte[Ints.checkedCast(Utils.roundUpToPowerOf2(size))];
+        }
+        return compressedValueArray;
+    }
+
+    /**
+     * Returns a direct buffer whose address and capacity are aligned to {@link NativeIO#DIRECT_IO_ALIGNMENT},
+     * with its position at 0 and its limit at size rounded up to the alignment. The buffer retained by the thread
+     * can have a larger capacity, left from an earlier larger read.
+     */
+    ByteBuffer alignedBuffer(int size) {
+        if (size > MAX_RECORD_BUFFER_SIZE) {
+            return newAlignedBuffer(size);
+        }
+
+        if (alignedBuffer == null || size > alignedBuffer.capacity()) {
+            alignedBuffer = newAlignedBuffer(Ints.checkedCast(Utils.roundUpToPowerOf2(size)));
+        }
+        alignedBuffer.clear();
+        alignedBuffer.limit(alignUp(size));
+        return alignedBuffer;
+    }
+
+    private static int alignUp(int size) {
+        int alignment = NativeIO.DIRECT_IO_ALIGNMENT;
+        return (size + alignment - 1) & -alignment;
+    }
+
+    static ByteBuffer newAlignedBuffer(int size) {
+        int alignment = NativeIO.DIRECT_IO_ALIGNMENT;
+        int capacity = alignUp(size);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(capacity + alignment);
+        int offset = (int)(-Uns.address(buffer) & (alignment - 1));
+        buffer.position(offset);
+        buffer.limit(offset + capacity);
+        return buffer.slice();
+    }
+
+    /**
+     * Returns the checksum for the algorithm recorded in the given entry version.
+     */
+    EntryChecksum checksum(int version) {
+        ChecksumAlgorithm algorithm = Versions.getChecksumAlgorithm(version);
+        if (algorithm == null) {
+            throw new IllegalArgumentException("Unknown checksum algorithm in version " + version);
+        }
+
+        EntryChecksum checksum = checksums[algorithm.ordinal()];
+        if (checksum == null) {
+            checksum = EntryChecksum.create(algorithm);
+            checksums[algorithm.ordinal()] = checksum;
+        }
+        return checksum;
+    }
+}
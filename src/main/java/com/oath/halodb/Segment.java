@@ -9,37 +9,136 @@ package com.oath.halodb;
 
 import com.oath.halodb.histo.EstimatedHistogram;
 
+import java.util.List;
 import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 
 /**
+ * Writers change a segment with its lock held. Readers look up entries without the lock: the segment's stamp is
+ * odd while a writer holds the lock and is incremented again when it releases it, so a reader which walked a
+ * chain while the stamp was unchanged and even has read a consistent state. A reader which saw the stamp change
+ * retries and, after {@link #MAX_OPTIMISTIC_READS} attempts, takes the lock instead.
+ *
+ * As readers might still be reading memory which a writer has unlinked, such memory is freed only once the
+ * readers which had entered the segment before have exited. Writers don't wait for them, the memory is queued
+ * as {@link RetiredMemory} and freed by a later writer of the segment.
+ *
  * @author Arjun Mannaly
  */
 abstract class Segment<V> {
 
+    static final int MAX_OPTIMISTIC_READS = 4;
+
     final HashTableValueSerializer<V> valueSerializer;
     final int fixedValueLength;
     final int fixedKeyLength;
 
     private final Hasher hasher;
 
+    final ReadEpoch readers;
+
     private volatile long lock;
     private static final AtomicLongFieldUpdater<Segment> lockFieldUpdater =
         AtomicLongFieldUpdater.newUpdater(Segment.class, "lock");
 
-    Segment(HashTableValueSerializer<V> valueSerializer, int fixedValueLength, Hasher hasher) {
-        this(valueSerializer, fixedValueLength, -1, hasher);
+    // only written by the thread holding the lock.
+    private volatile long stamp;
+
+    // only accessed with the lock held.
+    private final RetiredMemory retiredMemory;
+
+    Segment(HashTableValueSerializer<V> valueSerializer, int fixedValueLength, Hasher hasher, ReadEpoch readers) {
+        this(valueSerializer, fixedValueLength, -1, hasher, readers);
     }
 
-    Segment(HashTableValueSerializer<V> valueSerializer, int fixedValueLength, int fixedKeyLength, Hasher hasher) {
+    Segment(HashTableValueSerializer<V> valueSerializer, int fixedValueLength, int fixedKeyLength, Hasher hasher,
+            ReadEpoch readers) {
         this.valueSerializer = valueSerializer;
         this.fixedValueLength = fixedValueLength;
         this.fixedKeyLength = fixedKeyLength;
         this.hasher = hasher;
+        this.readers = readers;
+        this.retiredMemory = new RetiredMemory(readers);
     }
 
+    /**
+     * Takes the lock for a writer. Returns false if the current thread already holds it.
+     */
+    boolean lock() {
+        if (!acquire()) {
+            return false;
+        }
 
+        stamp = stamp + 1;
+        // changes made by the writer must not become visible before the odd stamp.
+        Uns.storeFence();
+        return true;
+    }
 
-    boolean lock() {
+    void unlock(boolean wasFirst) {
+        if (!wasFirst) {
+            return;
+        }
+
+        Runnable reclaim = detachRetired();
+        if (reclaim != null) {
+            retiredMemory.add(reclaim);
+        }
+        List<Runnable> reclaimable = retiredMemory.pollReclaimable();
+        stamp = stamp + 1;
+        releaseLock();
+
+        // with the lock released, as readers which failed to read optimistically might be waiting for it.
+        RetiredMemory.run(reclaimable);
+    }
+
+    /**
+     * Waits for the readers and frees all the memory detached from the segment, when the segment is released.
+     */
+    void reclaimRetired() {
+        readers.awaitReaders();
+        boolean wasFirst = lock();
+        unlock(wasFirst);
+    }
+
+    /**
+     * Takes the lock for a reader which failed to read optimistically. Unlike {@link #lock()}, doesn't
+     * invalidate the optimistic reads in progress.
+     */
+    boolean lockForRead() {
+        return acquire();
+    }
+
+    void unlockForRead(boolean wasFirst) {
+        if (wasFirst) {
+            releaseLock();
+        }
+    }
+
+    /**
+     * Returns the stamp an optimistic read is validated against, odd if a writer holds the lock.
+     */
+    long optimisticRead() {
+        return stamp;
+    }
+
+    /**
+     * Returns true if no writer has held the lock since {@code stamp} was read and all reads before the
+     * call therefore saw a consistent state.
+     */
+    boolean validate(long stamp) {
+        Uns.loadFence();
+        return (stamp & 1) == 0 && this.stamp == stamp;
+    }
+
+    /**
+     * Called with the lock held. Returns a task which frees the memory that writers unlinked from the segment
+     * and that readers might still be reading, or null if there is nothing to free yet.
+     */
+    Runnable detachRetired() {
+        return null;
+    }
+
+    private boolean acquire() {
         long t = Thread.currentThread().getId();
 
         if (t == lockFieldUpdater.get(this)) {
@@ -57,11 +156,7 @@ abstract class Segment<V> {
         }
     }
 
-    void unlock(boolean wasFirst) {
-        if (!wasFirst) {
-            return;
-        }
-
+    private void releaseLock() {
         long t = Thread.currentThread().getId();
         boolean r = lockFieldUpdater.compareAndSet(this, t, 0L);
         assert r;
@@ -80,6 +175,10 @@ abstract class Segment<V> {
 
     abstract boolean removeEntry(KeyBuffer key);
 
+    abstract V getAndPutEntry(byte[] key, V value, long hash);
+
+    abstract V getAndRemoveEntry(KeyBuffer key);
+
     abstract long size();
 
     abstract void release();
@@ -120,4 +219,18 @@ abstract class Segment<V> {
     long freeListSize() {
         return -1;
     }
+
+    /**
+     * @return bytes of off-heap memory allocated for chunks.
+     */
+    long chunkMemory() {
+        return -1;
+    }
+
+    /**
+     * @return bytes of the chunks which hold entries.
+     */
+    long chunkMemoryInUse() {
+        return -1;
+    }
 }
@@ -13,6 +13,8 @@ import com.oath.halodb.histo.EstimatedHistogram;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.concurrent.atomic.LongAdder;
+
 class SegmentNonMemoryPool<V> extends Segment<V> {
 
     private static final Logger logger = LoggerFactory.getLogger(SegmentNonMemoryPool.class);
@@ -20,11 +22,21 @@ class SegmentNonMemoryPool<V> extends Segment<V> {
     // maximum hash table size
     private static final int MAX_TABLE_SIZE = 1 << 30;
 
+    // number of removed entries after which a writer waits for readers to free them.
+    private static final int RETIRED_ENTRIES_TO_RECLAIM = 64;
+
+    // returned by a lookup which saw the segment change.
+    private static final long CONFLICT = -1L;
+
     long size;
     Table table;
 
-    private long hitCount;
-    private long missCount;
+    // entries and table which were unlinked but not yet freed, as readers might still be reading them.
+    private LongArrayList retiredEntries = new LongArrayList(RETIRED_ENTRIES_TO_RECLAIM);
+    private Table retiredTable;
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
     private long putAddCount;
     private long putReplaceCount;
     private long removeCount;
@@ -43,7 +55,11 @@ class SegmentNonMemoryPool<V> extends Segment<V> {
     private final boolean throwOOME;
 
     SegmentNonMemoryPool(OffHeapHashTableBuilder<V> builder) {
-        super(builder.getValueSerializer(), builder.getFixedValueSize(), builder.getHasher());
+        this(builder, new ReadEpoch());
+    }
+
+    SegmentNonMemoryPool(OffHeapHashTableBuilder<V> builder, ReadEpoch readers) {
+        super(builder.getValueSerializer(), builder.getFixedValueSize(), builder.getHasher(), readers);
 
         this.throwOOME = builder.isThrowOOME();
 
@@ -74,11 +90,12 @@ class SegmentNonMemoryPool<V> extends Segment<V> {
     void release() {
         boolean wasFirst = lock();
         try {
-            table.release();
+            retiredTable = table;
             table = null;
         } finally {
             unlock(wasFirst);
         }
+        reclaimRetired();
     }
 
     @Override
@@ -88,12 +105,12 @@ class SegmentNonMemoryPool<V> extends Segment<V> {
 
     @Override
     long hitCount() {
-        return hitCount;
+        return hitCount.sum();
     }
 
     @Override
     long missCount() {
-        return missCount;
+        return missCount.sum();
     }
 
     @Override
@@ -115,8 +132,8 @@ class SegmentNonMemoryPool<V> extends Segment<V> {
     void resetStatistics() {
         rehashes = 0L;
         evictedEntries = 0L;
-        hitCount = 0L;
-        missCount = 0L;
+        hitCount.reset();
+        missCount.reset();
         putAddCount = 0L;
         putReplaceCount = 0L;
         removeCount = 0L;
@@ -129,45 +146,97 @@ class SegmentNonMemoryPool<V> extends Segment<V> {
 
     @Override
     V getEntry(KeyBuffer key) {
-        boolean wasFirst = lock();
+        int readerSlot = readers.enter();
         try {
-            for (long hashEntryAdr = table.getFirst(key.hash());
-                 hashEntryAdr != 0L;
-                 hashEntryAdr = NonMemoryPoolHashEntries.getNext(hashEntryAdr)) {
-
-                if (key.sameKey(hashEntryAdr)) {
-                    hitCount++;
-                    return valueSerializer.deserialize(Uns.readOnlyBuffer(hashEntryAdr, fixedValueLength, NonMemoryPoolHashEntries.ENTRY_OFF_DATA + NonMemoryPoolHashEntries.getKeyLen(hashEntryAdr)));
+            for (int attempt = 0; attempt < MAX_OPTIMISTIC_READS; attempt++) {
+                long stamp = optimisticRead();
+                try {
+                    long hashEntryAdr = find(key, stamp);
+                    V value = hashEntryAdr != 0L && hashEntryAdr != CONFLICT ? readValue(hashEntryAdr) : null;
+                    if (hashEntryAdr != CONFLICT && validate(stamp)) {
+                        (hashEntryAdr != 0L ? hitCount : missCount).increment();
+                        return value;
+                    }
+                } catch (RuntimeException e) {
+                    // an inconsistent read can fail in ways a consistent one can't.
+                    if (validate(stamp)) {
+                        throw e;
+                    }
                 }
+                Thread.yield();
             }
 
-            missCount++;
-            return null;
+            boolean wasFirst = lockForRead();
+            try {
+                long hashEntryAdr = find(key, -1L);
+                (hashEntryAdr != 0L ? hitCount : missCount).increment();
+                return hashEntryAdr != 0L ? readValue(hashEntryAdr) : null;
+            } finally {
+                unlockForRead(wasFirst);
+            }
         } finally {
-            unlock(wasFirst);
+            readers.exit(readerSlot);
         }
     }
 
     @Override
     boolean containsEntry(KeyBuffer key) {
-        boolean wasFirst = lock();
+        int readerSlot = readers.enter();
         try {
-            for (long hashEntryAdr = table.getFirst(key.hash());
-                 hashEntryAdr != 0L;
-                 hashEntryAdr = NonMemoryPoolHashEntries.getNext(hashEntryAdr)) {
-                if (key.sameKey(hashEntryAdr)) {
-                    hitCount++;
-                    return true;
+            for (int attempt = 0; attempt < MAX_OPTIMISTIC_READS; attempt++) {
+                long stamp = optimisticRead();
+                try {
+                    long hashEntryAdr = find(key, stamp);
+                    if (hashEntryAdr != CONFLICT && validate(stamp)) {
+                        (hashEntryAdr != 0L ? hitCount : missCount).increment();
+                        return hashEntryAdr != 0L;
+                    }
+                } catch (RuntimeException e) {
+                    if (validate(stamp)) {
+                        throw e;
+                    }
                 }
+                Thread.yield();
             }
 
-            missCount++;
-            return false;
+            boolean wasFirst = lockForRead();
+            try {
+                long hashEntryAdr = find(key, -1L);
+                (hashEntryAdr != 0L ? hitCount : missCount).increment();
+                return hashEntryAdr != 0L;
+            } finally {
+                unlockForRead(wasFirst);
+            }
         } finally {
-            unlock(wasFirst);
+            readers.exit(readerSlot);
         }
     }
 
+    /**
+     * Returns the address of the entry for the key, 0 if there is none or {@link #CONFLICT} if the segment
+     * changed since {@code stamp} was read. A stamp of -1 means that the lock is held.
+     */
+    private long find(KeyBuffer key, long stamp) {
+        for (long hashEntryAdr = table.getFirst(key.hash());
+             hashEntryAdr != 0L;
+             hashEntryAdr = NonMemoryPoolHashEntries.getNext(hashEntryAdr)) {
+
+            // checked on every hop, as a chain changed by a writer might be followed in circles.
+            if (stamp != -1L && !validate(stamp)) {
+                return CONFLICT;
+            }
+            if (key.sameKey(hashEntryAdr)) {
+                return hashEntryAdr;
+            }
+        }
+
+        return 0L;
+    }
+
+    private V readValue(long hashEntryAdr) {
+        return valueSerializer.deserialize(hashEntryAdr, NonMemoryPoolHashEntries.ENTRY_OFF_DATA + NonMemoryPoolHashEntries.getKeyLen(hashEntryAdr), fixedValueLength);
+    }
+
     @Override
     boolean putEntry(byte[] key, V value, long hash, boolean ifAbsent, V oldValue) {
         long oldValueAdr = 0L;
@@ -204,7 +273,6 @@ class SegmentNonMemoryPool<V> extends Segment<V> {
     }
 
     private boolean putEntry(long newHashEntryAdr, long hash, long keyLen, boolean putIfAbsent, long oldValueAddr) {
-        long removeHashEntryAdr = 0L;
         boolean wasFirst = lock();
         try {
             long hashEntryAdr;
@@ -230,7 +298,7 @@ class SegmentNonMemoryPool<V> extends Segment<V> {
                 }
 
                 removeInternal(hashEntryAdr, prevEntryAdr, hash);
-                removeHashEntryAdr = hashEntryAdr;
+                retiredEntries.add(hashEntryAdr);
 
                 break;
             }
@@ -262,9 +330,47 @@ class SegmentNonMemoryPool<V> extends Segment<V> {
             return true;
         } finally {
             unlock(wasFirst);
-            if (removeHashEntryAdr != 0L) {
-                Uns.free(removeHashEntryAdr);
+        }
+    }
+
+    @Override
+    V getAndPutEntry(byte[] key, V value, long hash) {
+        long newHashEntryAdr;
+        if ((newHashEntryAdr = Uns.allocate(HashTableUtil.allocLen(key.length, fixedValueLength), throwOOME)) == 0L) {
+            putFailCount++;
+            throw new RuntimeException("Unable to allocate memory for key of size " + key.length + " in off-heap");
+        }
+
+        NonMemoryPoolHashEntries.init(key.length, newHashEntryAdr);
+        serializeForPut(key, value, newHashEntryAdr);
+
+        boolean wasFirst = lock();
+        try {
+            long prevEntryAdr = 0L;
+            for (long hashEntryAdr = table.getFirst(hash);
+                 hashEntryAdr != 0L;
+                 prevEntryAdr = hashEntryAdr, hashEntryAdr = NonMemoryPoolHashEntries.getNext(hashEntryAdr)) {
+                if (notSameKey(newHashEntryAdr, hash, key.length, hashEntryAdr)) {
+                    continue;
+                }
+
+                V oldValue = valueSerializer.deserialize(hashEntryAdr, NonMemoryPoolHashEntries.ENTRY_OFF_DATA + key.length, fixedValueLength);
+                removeInternal(hashEntryAdr, prevEntryAdr, hash);
+                retiredEntries.add(hashEntryAdr);
+                add(newHashEntryAdr, hash);
+                putReplaceCount++;
+                return oldValue;
             }
+
+            if (size >= threshold) {
+                rehash();
+            }
+            size++;
+            add(newHashEntryAdr, hash);
+            putAddCount++;
+            return null;
+        } finally {
+            unlock(wasFirst);
         }
     }
 
@@ -276,7 +382,7 @@ class SegmentNonMemoryPool<V> extends Segment<V> {
 
     private void serializeForPut(byte[] key, V value, long hashEntryAdr) {
         try {
-            Uns.buffer(hashEntryAdr, key.length, NonMemoryPoolHashEntries.ENTRY_OFF_DATA).put(key);
+            Uns.copyMemory(key, 0, hashEntryAdr, NonMemoryPoolHashEntries.ENTRY_OFF_DATA, key.length);
             if (value != null) {
                 valueSerializer.serialize(value, Uns.buffer(hashEntryAdr, fixedValueLength, NonMemoryPoolHashEntries.ENTRY_OFF_DATA + key.length));
             }
@@ -308,7 +414,7 @@ class SegmentNonMemoryPool<V> extends Segment<V> {
                      hashEntryAdr != 0L;
                      hashEntryAdr = next) {
                     next = NonMemoryPoolHashEntries.getNext(hashEntryAdr);
-                    Uns.free(hashEntryAdr);
+                    retiredEntries.add(hashEntryAdr);
                 }
             }
 
@@ -320,7 +426,6 @@ class SegmentNonMemoryPool<V> extends Segment<V> {
 
     @Override
     boolean removeEntry(KeyBuffer key) {
-        long removeHashEntryAdr = 0L;
         boolean wasFirst = lock();
         try {
             long prevEntryAdr = 0L;
@@ -333,8 +438,8 @@ class SegmentNonMemoryPool<V> extends Segment<V> {
 
                 // remove existing entry
 
-                removeHashEntryAdr = hashEntryAdr;
                 removeInternal(hashEntryAdr, prevEntryAdr, key.hash());
+                retiredEntries.add(hashEntryAdr);
 
                 size--;
                 removeCount++;
@@ -345,10 +450,56 @@ class SegmentNonMemoryPool<V> extends Segment<V> {
             return false;
         } finally {
             unlock(wasFirst);
-            if (removeHashEntryAdr != 0L) {
-                Uns.free(removeHashEntryAdr);
+        }
+    }
+
+    @Override
+    V getAndRemoveEntry(KeyBuffer key) {
+        boolean wasFirst = lock();
+        try {
+            long prevEntryAdr = 0L;
+            for (long hashEntryAdr = table.getFirst(key.hash());
+                 hashEntryAdr != 0L;
+                 prevEntryAdr = hashEntryAdr, hashEntryAdr = NonMemoryPoolHashEntries.getNext(hashEntryAdr)) {
+                if (!key.sameKey(hashEntryAdr)) {
+                    continue;
+                }
+
+                V oldValue = readValue(hashEntryAdr);
+                removeInternal(hashEntryAdr, prevEntryAdr, key.hash());
+                retiredEntries.add(hashEntryAdr);
+
+                size--;
+                removeCount++;
+
+                return oldValue;
             }
+
+            return null;
+        } finally {
+            unlock(wasFirst);
+        }
+    }
+
+    @Override
+    Runnable detachRetired() {
+        if (retiredEntries.size() < RETIRED_ENTRIES_TO_RECLAIM && retiredTable == null) {
+            return null;
         }
+
+        LongArrayList entries = retiredEntries;
+        Table oldTable = retiredTable;
+        // sized for a full batch, so that it doesn't grow on the way.
+        retiredEntries = new LongArrayList(RETIRED_ENTRIES_TO_RECLAIM);
+        retiredTable = null;
+        return () -> {
+            for (int i = 0; i < entries.size(); i++) {
+                Uns.free(entries.getLong(i));
+            }
+            if (oldTable != null) {
+                oldTable.release();
+            }
+        };
     }
 
     private void rehash() {
@@ -381,7 +532,7 @@ class SegmentNonMemoryPool<V> extends Segment<V> {
         }
 
         threshold = (long) ((float) newTable.size() * loadFactor);
-        table.release();
+        retiredTable = table;
         table = newTable;
         rehashes++;
         logger.info("Completed rehashing segment in {} ms.", (System.currentTimeMillis() - start));
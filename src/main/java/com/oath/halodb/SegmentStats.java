@@ -16,12 +16,37 @@ class SegmentStats {
     private final long numberOfChunks;
     private final long numberOfSlots;
     private final long freeListSize;
+    private final long chunkMemory;
+    private final long chunkMemoryInUse;
 
     public SegmentStats(long noOfEntries, long numberOfChunks, long numberOfSlots, long freeListSize) {
+        this(noOfEntries, numberOfChunks, numberOfSlots, freeListSize, -1, -1);
+    }
+
+    /**
+     * @param chunkMemory bytes of off-heap memory allocated for the chunks of the memory pool.
+     * @param chunkMemoryInUse bytes of the chunks which hold entries, the rest is either free or not yet written to.
+     */
+    public SegmentStats(long noOfEntries, long numberOfChunks, long numberOfSlots, long freeListSize,
+                        long chunkMemory, long chunkMemoryInUse) {
         this.noOfEntries = noOfEntries;
         this.numberOfChunks = numberOfChunks;
         this.numberOfSlots = numberOfSlots;
         this.freeListSize = freeListSize;
+        this.chunkMemory = chunkMemory;
+        this.chunkMemoryInUse = chunkMemoryInUse;
+    }
+
+    long getNumberOfChunks() {
+        return numberOfChunks;
+    }
+
+    long getChunkMemory() {
+        return chunkMemory;
+    }
+
+    long getChunkMemoryInUse() {
+        return chunkMemoryInUse;
     }
 
     @Override
@@ -31,6 +56,8 @@ class SegmentStats {
             .add("numberOfChunks", numberOfChunks)
             .add("numberOfSlots", numberOfSlots)
             .add("freeListSize", freeListSize)
+            .add("chunkMemory", chunkMemory)
+            .add("chunkMemoryInUse", chunkMemoryInUse)
             .toString();
     }
 
@@ -46,7 +73,9 @@ class SegmentStats {
         return that.noOfEntries == noOfEntries
                && that.numberOfChunks == numberOfChunks
                && that.numberOfSlots == numberOfSlots
-               && that.freeListSize == freeListSize;
+               && that.freeListSize == freeListSize
+               && that.chunkMemory == chunkMemory
+               && that.chunkMemoryInUse == chunkMemoryInUse;
     }
 
     @Override
@@ -56,6 +85,8 @@ class SegmentStats {
         result = 31 * result + Long.hashCode(numberOfChunks);
         result = 31 * result + Long.hashCode(numberOfSlots);
         result = 31 * result + Long.hashCode(freeListSize);
+        result = 31 * result + Long.hashCode(chunkMemory);
+        result = 31 * result + Long.hashCode(chunkMemoryInUse);
 
         return result;
     }
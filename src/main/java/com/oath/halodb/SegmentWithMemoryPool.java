@@ -14,7 +14,9 @@ import org.slf4j.LoggerFactory;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * @author Arjun Mannaly
@@ -26,9 +28,15 @@ class SegmentWithMemoryPool<V> extends Segment<V> {
     // maximum hash table size
     private static final int MAX_TABLE_SIZE = 1 << 30;
 
-    private long hitCount = 0;
+    // maximum number of chunks, the largest array the jvm can allocate.
+    static final int MAX_CHUNKS = Integer.MAX_VALUE - 8;
+
+    // key capacity of the smallest size class.
+    static final int MIN_KEY_SIZE_CLASS = 8;
+
+    private final LongAdder hitCount = new LongAdder();
     private long size = 0;
-    private long missCount = 0;
+    private final LongAdder missCount = new LongAdder();
     private long putAddCount = 0;
     private long putReplaceCount = 0;
     private long removeCount = 0;
@@ -36,35 +44,51 @@ class SegmentWithMemoryPool<V> extends Segment<V> {
     private final float loadFactor;
     private long rehashes = 0;
 
-    private final List<MemoryPoolChunk> chunks;
-    private byte currentChunkIndex = -1;
+    // grown by copying into a larger array so that readers which don't hold the lock see either the old or the new
+    // one. Only the first numberOfChunks are in use.
+    private volatile MemoryPoolChunk[] chunks = new MemoryPoolChunk[16];
+    private volatile int numberOfChunks = 0;
 
     private final int chunkSize;
 
-    private final MemoryPoolAddress emptyAddress = new MemoryPoolAddress((byte) -1, -1);
+    // returned by a lookup which saw the segment change.
+    private static final long CONFLICT = MemoryPoolAddress.encode(-2, -1);
 
-    private MemoryPoolAddress freeListHead = emptyAddress;
-    private long freeListSize = 0;
+    // ordered by key capacity, the last one can hold keys of fixedKeyLength.
+    private final SizeClass[] sizeClasses;
 
-    private final int fixedSlotSize;
+    private long numberOfSlots = 0;
+    private long freeListSize = 0;
+    private long chunkMemoryInUse = 0;
 
     private final HashTableValueSerializer<V> valueSerializer;
 
     private Table table;
 
+    // chunks and table which were unlinked but not yet freed, as readers might still be reading them.
+    private List<MemoryPoolChunk> retiredChunks = new ArrayList<>();
+    private Table retiredTable;
+
     private final ByteBuffer oldValueBuffer = ByteBuffer.allocate(fixedValueLength);
     private final ByteBuffer newValueBuffer = ByteBuffer.allocate(fixedValueLength);
 
     private final HashAlgorithm hashAlgorithm;
 
     SegmentWithMemoryPool(OffHeapHashTableBuilder<V> builder) {
+        this(builder, new ReadEpoch());
+    }
+
+    SegmentWithMemoryPool(OffHeapHashTableBuilder<V> builder, ReadEpoch readers) {
         super(builder.getValueSerializer(), builder.getFixedValueSize(), builder.getFixedKeySize(),
-              builder.getHasher());
+              builder.getHasher(), readers);
 
-        this.chunks = new ArrayList<>();
         this.chunkSize = builder.getMemoryPoolChunkSize();
         this.valueSerializer = builder.getValueSerializer();
-        this.fixedSlotSize = MemoryPoolHashEntries.HEADER_SIZE + fixedKeyLength + fixedValueLength;
+        int[] keySizes = keySizeClasses(fixedKeyLength);
+        this.sizeClasses = new SizeClass[keySizes.length];
+        for (int i = 0; i < keySizes.length; i++) {
+            sizeClasses[i] = new SizeClass(keySizes[i], MemoryPoolHashEntries.HEADER_SIZE + keySizes[i] + fixedValueLength);
+        }
         this.hashAlgorithm = builder.getHashAlgorighm();
 
         int hts = builder.getHashTableSize();
@@ -90,48 +114,111 @@ class SegmentWithMemoryPool<V> extends Segment<V> {
 
     @Override
     public V getEntry(KeyBuffer key) {
-        boolean wasFirst = lock();
+        int readerSlot = readers.enter();
         try {
-            for (MemoryPoolAddress address = table.getFirst(key.hash());
-                 address.chunkIndex >= 0;
-                 address = getNext(address)) {
-
-                MemoryPoolChunk chunk = chunks.get(address.chunkIndex);
-                if (chunk.compareKey(address.chunkOffset, key.buffer)) {
-                    hitCount++;
-                    return valueSerializer.deserialize(chunk.readOnlyValueByteBuffer(address.chunkOffset));
+            for (int attempt = 0; attempt < MAX_OPTIMISTIC_READS; attempt++) {
+                long stamp = optimisticRead();
+                try {
+                    long address = find(key, stamp);
+                    boolean found = address != CONFLICT && !MemoryPoolAddress.isEmpty(address);
+                    V value = found ? readValue(address) : null;
+                    if (address != CONFLICT && validate(stamp)) {
+                        (found ? hitCount : missCount).increment();
+                        return value;
+                    }
+                } catch (RuntimeException e) {
+                    // an inconsistent read can fail in ways a consistent one can't.
+                    if (validate(stamp)) {
+                        throw e;
+                    }
                 }
+                Thread.yield();
             }
 
-            missCount++;
-            return null;
+            boolean wasFirst = lockForRead();
+            try {
+                long address = find(key, -1L);
+                boolean found = !MemoryPoolAddress.isEmpty(address);
+                (found ? hitCount : missCount).increment();
+                return found ? readValue(address) : null;
+            } finally {
+                unlockForRead(wasFirst);
+            }
         } finally {
-            unlock(wasFirst);
+            readers.exit(readerSlot);
         }
     }
 
     @Override
     public boolean containsEntry(KeyBuffer key) {
-        boolean wasFirst = lock();
+        int readerSlot = readers.enter();
         try {
-            for (MemoryPoolAddress address = table.getFirst(key.hash());
-                 address.chunkIndex >= 0;
-                 address = getNext(address)) {
-
-                MemoryPoolChunk chunk = chunks.get(address.chunkIndex);
-                if (chunk.compareKey(address.chunkOffset, key.buffer)) {
-                    hitCount++;
-                    return true;
+            for (int attempt = 0; attempt < MAX_OPTIMISTIC_READS; attempt++) {
+                long stamp = optimisticRead();
+                try {
+                    long address = find(key, stamp);
+                    if (address != CONFLICT && validate(stamp)) {
+                        boolean found = !MemoryPoolAddress.isEmpty(address);
+                        (found ? hitCount : missCount).increment();
+                        return found;
+                    }
+                } catch (RuntimeException e) {
+                    if (validate(stamp)) {
+                        throw e;
+                    }
                 }
+                Thread.yield();
             }
 
-            missCount++;
-            return false;
+            boolean wasFirst = lockForRead();
+            try {
+                boolean found = !MemoryPoolAddress.isEmpty(find(key, -1L));
+                (found ? hitCount : missCount).increment();
+                return found;
+            } finally {
+                unlockForRead(wasFirst);
+            }
         } finally {
-            unlock(wasFirst);
+            readers.exit(readerSlot);
         }
     }
 
+    /**
+     * Returns the address of the entry for the key, {@link MemoryPoolAddress#EMPTY} if there is none or
+     * {@link #CONFLICT} if the segment changed since {@code stamp} was read. A stamp of -1 means that the lock is held.
+     */
+    private long find(KeyBuffer key, long stamp) {
+        for (long address = table.getFirst(key.hash());
+             !MemoryPoolAddress.isEmpty(address);
+             address = getNext(address)) {
+
+            // checked on every hop, as slots are reused and a chain changed by a writer might be followed in circles.
+            if (stamp != -1L && !validate(stamp)) {
+                return CONFLICT;
+            }
+            if (keyMatches(chunkOf(address), MemoryPoolAddress.chunkOffset(address), key.buffer)) {
+                return address;
+            }
+        }
+
+        return MemoryPoolAddress.EMPTY;
+    }
+
+    /**
+     * Chains have entries of all size classes, a key can only be in a chunk whose slots are large enough for it.
+     */
+    private static boolean keyMatches(MemoryPoolChunk chunk, int chunkOffset, byte[] key) {
+        return key.length <= chunk.getFixedKeyLength() && chunk.compareKey(chunkOffset, key);
+    }
+
+    private V readValue(long address) {
+        return chunkOf(address).readValue(MemoryPoolAddress.chunkOffset(address), valueSerializer);
+    }
+
+    private MemoryPoolChunk chunkOf(long address) {
+        return chunks[MemoryPoolAddress.chunkIndex(address)];
+    }
+
     @Override
     boolean putEntry(byte[] key, V value, long hash, boolean putIfAbsent, V oldValue) {
         boolean wasFirst = lock();
@@ -143,10 +230,11 @@ class SegmentWithMemoryPool<V> extends Segment<V> {
             newValueBuffer.clear();
             valueSerializer.serialize(value, newValueBuffer);
 
-            MemoryPoolAddress first = table.getFirst(hash);
-            for (MemoryPoolAddress address = first; address.chunkIndex >= 0; address = getNext(address)) {
-                MemoryPoolChunk chunk = chunks.get(address.chunkIndex);
-                if (chunk.compareKey(address.chunkOffset, key)) {
+            long first = table.getFirst(hash);
+            for (long address = first; !MemoryPoolAddress.isEmpty(address); address = getNext(address)) {
+                MemoryPoolChunk chunk = chunkOf(address);
+                int chunkOffset = MemoryPoolAddress.chunkOffset(address);
+                if (keyMatches(chunk, chunkOffset, key)) {
                     // key is already present in the segment. 
 
                     // putIfAbsent is true, but key is already present, return.
@@ -156,13 +244,13 @@ class SegmentWithMemoryPool<V> extends Segment<V> {
 
                     // code for replace() operation
                     if (oldValue != null) {
-                        if (!chunk.compareValue(address.chunkOffset, oldValueBuffer.array())) {
+                        if (!chunk.compareValue(chunkOffset, oldValueBuffer.array())) {
                             return false;
                         }
                     }
 
                     // replace value with the new one.
-                    chunk.setValue(newValueBuffer.array(), address.chunkOffset);
+                    chunk.setValue(newValueBuffer.array(), chunkOffset);
                     putReplaceCount++;
                     return true;
                 }
@@ -180,7 +268,7 @@ class SegmentWithMemoryPool<V> extends Segment<V> {
             }
 
             // key is not present in the segment, we need to add a new entry.
-            MemoryPoolAddress nextSlot = writeToFreeSlot(key, newValueBuffer.array(), first);
+            long nextSlot = writeToFreeSlot(key, newValueBuffer.array(), first);
             table.addAsHead(hash, nextSlot);
             size++;
             putAddCount++;
@@ -195,13 +283,14 @@ class SegmentWithMemoryPool<V> extends Segment<V> {
     public boolean removeEntry(KeyBuffer key) {
         boolean wasFirst = lock();
         try {
-            MemoryPoolAddress previous = null;
-            for (MemoryPoolAddress address = table.getFirst(key.hash());
-                 address.chunkIndex >= 0;
+            long previous = MemoryPoolAddress.EMPTY;
+            for (long address = table.getFirst(key.hash());
+                 !MemoryPoolAddress.isEmpty(address);
                  previous = address, address = getNext(address)) {
 
-                MemoryPoolChunk chunk = chunks.get(address.chunkIndex);
-                if (chunk.compareKey(address.chunkOffset, key.buffer)) {
+                MemoryPoolChunk chunk = chunkOf(address);
+                int chunkOffset = MemoryPoolAddress.chunkOffset(address);
+                if (keyMatches(chunk, chunkOffset, key.buffer)) {
                     removeInternal(address, previous, key.hash());
                     removeCount++;
                     size--;
@@ -215,57 +304,203 @@ class SegmentWithMemoryPool<V> extends Segment<V> {
         }
     }
 
-    private MemoryPoolAddress getNext(MemoryPoolAddress address) {
-        if (address.chunkIndex < 0 || address.chunkIndex >= chunks.size()) {
-            throw new IllegalArgumentException("Invalid chunk index " + address.chunkIndex + ". Chunk size " + chunks.size());
+    @Override
+    V getAndPutEntry(byte[] key, V value, long hash) {
+        boolean wasFirst = lock();
+        try {
+            newValueBuffer.clear();
+            valueSerializer.serialize(value, newValueBuffer);
+
+            long first = table.getFirst(hash);
+            for (long address = first; !MemoryPoolAddress.isEmpty(address); address = getNext(address)) {
+                MemoryPoolChunk chunk = chunkOf(address);
+                int chunkOffset = MemoryPoolAddress.chunkOffset(address);
+                if (keyMatches(chunk, chunkOffset, key)) {
+                    V oldValue = chunk.readValue(chunkOffset, valueSerializer);
+                    chunk.setValue(newValueBuffer.array(), chunkOffset);
+                    putReplaceCount++;
+                    return oldValue;
+                }
+            }
+
+            if (size >= threshold) {
+                rehash();
+                first = table.getFirst(hash);
+            }
+
+            long nextSlot = writeToFreeSlot(key, newValueBuffer.array(), first);
+            table.addAsHead(hash, nextSlot);
+            size++;
+            putAddCount++;
+            return null;
+        } finally {
+            unlock(wasFirst);
         }
+    }
 
-        MemoryPoolChunk chunk = chunks.get(address.chunkIndex);
-        return chunk.getNextAddress(address.chunkOffset);
+    @Override
+    V getAndRemoveEntry(KeyBuffer key) {
+        boolean wasFirst = lock();
+        try {
+            long previous = MemoryPoolAddress.EMPTY;
+            for (long address = table.getFirst(key.hash());
+                 !MemoryPoolAddress.isEmpty(address);
+                 previous = address, address = getNext(address)) {
+
+                MemoryPoolChunk chunk = chunkOf(address);
+                int chunkOffset = MemoryPoolAddress.chunkOffset(address);
+                if (keyMatches(chunk, chunkOffset, key.buffer)) {
+                    V oldValue = chunk.readValue(chunkOffset, valueSerializer);
+                    removeInternal(address, previous, key.hash());
+                    removeCount++;
+                    size--;
+                    return oldValue;
+                }
+            }
+
+            return null;
+        } finally {
+            unlock(wasFirst);
+        }
     }
 
-    private MemoryPoolAddress writeToFreeSlot(byte[] key, byte[] value, MemoryPoolAddress nextAddress) {
-        if (!freeListHead.equals(emptyAddress)) {
+    private long getNext(long address) {
+        int chunkIndex = MemoryPoolAddress.chunkIndex(address);
+        if (chunkIndex < 0 || chunkIndex >= numberOfChunks) {
+            throw new IllegalArgumentException("Invalid chunk index " + chunkIndex + ". Chunk size " + numberOfChunks);
+        }
+
+        MemoryPoolChunk chunk = chunks[chunkIndex];
+        return chunk.getNextAddress(MemoryPoolAddress.chunkOffset(address));
+    }
+
+    private long writeToFreeSlot(byte[] key, byte[] value, long nextAddress) {
+        SizeClass sizeClass = sizeClassFor(key.length);
+        if (!MemoryPoolAddress.isEmpty(sizeClass.freeListHead)) {
             // write to the head of the free list.
-            MemoryPoolAddress temp = freeListHead;
-            freeListHead = chunks.get(freeListHead.chunkIndex).getNextAddress(freeListHead.chunkOffset);
-            chunks.get(temp.chunkIndex).fillSlot(temp.chunkOffset, key, value, nextAddress);
+            long slotAddress = sizeClass.freeListHead;
+            MemoryPoolChunk chunk = chunkOf(slotAddress);
+            int chunkOffset = MemoryPoolAddress.chunkOffset(slotAddress);
+            long nextFree = chunk.getNextAddress(chunkOffset);
+            chunk.fillSlot(chunkOffset, key, value, nextAddress);
+            sizeClass.freeListHead = nextFree;
             --freeListSize;
-            return temp;
+            chunkMemoryInUse += sizeClass.slotSize;
+            return slotAddress;
         }
 
-        if (currentChunkIndex == -1 || chunks.get(currentChunkIndex).remaining() < fixedSlotSize) {
-            if (chunks.size() > Byte.MAX_VALUE) {
-                logger.error("No more memory left. Each segment can have at most {} chunks.", Byte.MAX_VALUE + 1);
-                throw new OutOfMemoryError("Each segment can have at most " + (Byte.MAX_VALUE + 1) + " chunks.");
-            }
-
-            // There is no chunk allocated for this segment or the current chunk being written to has no space left.
+        int currentChunkIndex = sizeClass.currentChunkIndex;
+        if (currentChunkIndex == -1 || chunks[currentChunkIndex].remaining() < sizeClass.slotSize) {
+            // There is no chunk allocated for this size class or the current chunk being written to has no space left.
             // allocate an new one. 
-            chunks.add(MemoryPoolChunk.create(chunkSize, fixedKeyLength, fixedValueLength));
-            ++currentChunkIndex;
+            currentChunkIndex = addChunk(MemoryPoolChunk.create(chunkSize, sizeClass.keyCapacity, fixedValueLength));
+            sizeClass.currentChunkIndex = currentChunkIndex;
+            numberOfSlots += chunkSize / sizeClass.slotSize;
         }
 
-        MemoryPoolChunk currentWriteChunk = chunks.get(currentChunkIndex);
-        MemoryPoolAddress slotAddress = new MemoryPoolAddress(currentChunkIndex, currentWriteChunk.getWriteOffset());
+        MemoryPoolChunk currentWriteChunk = chunks[currentChunkIndex];
+        long slotAddress = MemoryPoolAddress.encode(currentChunkIndex, currentWriteChunk.getWriteOffset());
         currentWriteChunk.fillNextSlot(key, value, nextAddress);
+        chunkMemoryInUse += sizeClass.slotSize;
         return slotAddress;
     }
 
-    private void removeInternal(MemoryPoolAddress address, MemoryPoolAddress previous, long hash) {
-        MemoryPoolAddress next = chunks.get(address.chunkIndex).getNextAddress(address.chunkOffset);
-        if (table.getFirst(hash).equals(address)) {
+    /**
+     * @return the smallest size class which can hold the key, or the largest one if none can.
+     */
+    private SizeClass sizeClassFor(int keyLength) {
+        for (SizeClass sizeClass : sizeClasses) {
+            if (keyLength <= sizeClass.keyCapacity) {
+                return sizeClass;
+            }
+        }
+        return sizeClasses[sizeClasses.length - 1];
+    }
+
+    /**
+     * Key capacities of the size classes for keys of up to {@code maxKeyLength} bytes, powers of two from
+     * {@link #MIN_KEY_SIZE_CLASS} followed by {@code maxKeyLength}.
+     */
+    static int[] keySizeClasses(int maxKeyLength) {
+        List<Integer> keySizes = new ArrayList<>();
+        for (int keySize = MIN_KEY_SIZE_CLASS; keySize < maxKeyLength; keySize *= 2) {
+            keySizes.add(keySize);
+        }
+        keySizes.add(maxKeyLength);
+        return Ints.toArray(keySizes);
+    }
+
+    /**
+     * @return index of the chunk.
+     */
+    private int addChunk(MemoryPoolChunk chunk) {
+        int index = numberOfChunks;
+        if (index == MAX_CHUNKS) {
+            chunk.destroy();
+            logger.error("No more memory left. Each segment can have at most {} chunks.", MAX_CHUNKS);
+            throw new OutOfMemoryError("Each segment can have at most " + MAX_CHUNKS + " chunks.");
+        }
+
+        MemoryPoolChunk[] current = chunks;
+        if (index == current.length) {
+            current = Arrays.copyOf(current, (int) Math.min((long) current.length * 2, MAX_CHUNKS));
+        }
+        current[index] = chunk;
+        chunks = current;
+        numberOfChunks = index + 1;
+        return index;
+    }
+
+    private void retireChunks() {
+        retiredChunks.addAll(Arrays.asList(chunks).subList(0, numberOfChunks));
+        chunks = new MemoryPoolChunk[16];
+        numberOfChunks = 0;
+        for (SizeClass sizeClass : sizeClasses) {
+            sizeClass.currentChunkIndex = -1;
+            sizeClass.freeListHead = MemoryPoolAddress.EMPTY;
+        }
+        numberOfSlots = 0;
+        freeListSize = 0;
+        chunkMemoryInUse = 0;
+    }
+
+    private void removeInternal(long address, long previous, long hash) {
+        int chunkOffset = MemoryPoolAddress.chunkOffset(address);
+        long next = chunkOf(address).getNextAddress(chunkOffset);
+        if (table.getFirst(hash) == address) {
             table.addAsHead(hash, next);
-        } else if (previous == null) {
+        } else if (MemoryPoolAddress.isEmpty(previous)) {
             //this should never happen. 
-            throw new IllegalArgumentException("Removing entry which is not head but with previous null");
+            throw new IllegalArgumentException("Removing entry which is not head but with previous empty");
         } else {
-            chunks.get(previous.chunkIndex).setNextAddress(previous.chunkOffset, next);
+            chunkOf(previous).setNextAddress(MemoryPoolAddress.chunkOffset(previous), next);
         }
 
-        chunks.get(address.chunkIndex).setNextAddress(address.chunkOffset, freeListHead);
-        freeListHead = address;
+        // the slot goes back to the free list of its size class.
+        MemoryPoolChunk chunk = chunkOf(address);
+        SizeClass sizeClass = sizeClassFor(chunk.getFixedKeyLength());
+        chunk.setNextAddress(chunkOffset, sizeClass.freeListHead);
+        sizeClass.freeListHead = address;
         ++freeListSize;
+        chunkMemoryInUse -= sizeClass.slotSize;
+    }
+
+    @Override
+    Runnable detachRetired() {
+        if (retiredChunks.isEmpty() && retiredTable == null) {
+            return null;
+        }
+
+        List<MemoryPoolChunk> oldChunks = retiredChunks;
+        Table oldTable = retiredTable;
+        retiredChunks = new ArrayList<>();
+        retiredTable = null;
+        return () -> {
+            oldChunks.forEach(MemoryPoolChunk::destroy);
+            if (oldTable != null) {
+                oldTable.release();
+            }
+        };
     }
 
     private void rehash() {
@@ -278,20 +513,22 @@ class SegmentWithMemoryPool<V> extends Segment<V> {
 
         Table newTable = Table.create(tableSize * 2);
         Hasher hasher = Hasher.create(hashAlgorithm);
-        MemoryPoolAddress next;
+        long next;
 
         for (int i = 0; i < tableSize; i++) {
-            for (MemoryPoolAddress address = table.getFirst(i); address.chunkIndex >= 0; address = next) {
-                long hash = chunks.get(address.chunkIndex).computeHash(address.chunkOffset, hasher);
+            for (long address = table.getFirst(i); !MemoryPoolAddress.isEmpty(address); address = next) {
+                MemoryPoolChunk chunk = chunkOf(address);
+                int chunkOffset = MemoryPoolAddress.chunkOffset(address);
+                long hash = chunk.computeHash(chunkOffset, hasher);
                 next = getNext(address);
-                MemoryPoolAddress first = newTable.getFirst(hash);
+                long first = newTable.getFirst(hash);
                 newTable.addAsHead(hash, address);
-                chunks.get(address.chunkIndex).setNextAddress(address.chunkOffset, first);
+                chunk.setNextAddress(chunkOffset, first);
             }
         }
 
         threshold = (long) ((float) newTable.size() * loadFactor);
-        table.release();
+        retiredTable = table;
         table = newTable;
         rehashes++;
 
@@ -307,24 +544,24 @@ class SegmentWithMemoryPool<V> extends Segment<V> {
     void release() {
         boolean wasFirst = lock();
         try {
-            chunks.forEach(MemoryPoolChunk::destroy);
-            chunks.clear();
-            currentChunkIndex = -1;
+            if (table == null) {
+                return;
+            }
+            retireChunks();
             size = 0;
-            table.release();
+            retiredTable = table;
+            table = null;
         } finally {
             unlock(wasFirst);
         }
-
+        reclaimRetired();
     }
 
     @Override
     void clear() {
         boolean wasFirst = lock();
         try {
-            chunks.forEach(MemoryPoolChunk::destroy);
-            chunks.clear();
-            currentChunkIndex = -1;
+            retireChunks();
             size = 0;
             table.clear();
         } finally {
@@ -334,12 +571,12 @@ class SegmentWithMemoryPool<V> extends Segment<V> {
 
     @Override
     long hitCount() {
-        return hitCount;
+        return hitCount.sum();
     }
 
     @Override
     long missCount() {
-        return missCount;
+        return missCount.sum();
     }
 
     @Override
@@ -360,8 +597,8 @@ class SegmentWithMemoryPool<V> extends Segment<V> {
     @Override
     void resetStatistics() {
         rehashes = 0L;
-        hitCount = 0L;
-        missCount = 0L;
+        hitCount.reset();
+        missCount.reset();
         putAddCount = 0L;
         putReplaceCount = 0L;
         removeCount = 0L;
@@ -369,12 +606,22 @@ class SegmentWithMemoryPool<V> extends Segment<V> {
 
     @Override
     long numberOfChunks() {
-        return chunks.size();
+        return numberOfChunks;
     }
 
     @Override
     long numberOfSlots() {
-        return chunks.size() * chunkSize / fixedSlotSize;
+        return numberOfSlots;
+    }
+
+    @Override
+    long chunkMemory() {
+        return (long) numberOfChunks * chunkSize;
+    }
+
+    @Override
+    long chunkMemoryInUse() {
+        return chunkMemoryInUse;
     }
 
     @Override
@@ -407,6 +654,25 @@ class SegmentWithMemoryPool<V> extends Segment<V> {
         }
     }
 
+    /**
+     * Slots of a size class hold keys of up to keyCapacity bytes. Each size class writes to its own chunks and keeps
+     * its own list of free slots, therefore all slots of a chunk have the same size.
+     */
+    private static final class SizeClass {
+
+        final int keyCapacity;
+        final int slotSize;
+
+        // chunk being written to, -1 if none.
+        int currentChunkIndex = -1;
+        long freeListHead = MemoryPoolAddress.EMPTY;
+
+        SizeClass(int keyCapacity, int slotSize) {
+            this.keyCapacity = keyCapacity;
+            this.slotSize = slotSize;
+        }
+    }
+
     static final class Table {
 
         final int mask;
@@ -441,18 +707,12 @@ class SegmentWithMemoryPool<V> extends Segment<V> {
             super.finalize();
         }
 
-        MemoryPoolAddress getFirst(long hash) {
-            long bOffset = address + bucketOffset(hash);
-            byte chunkIndex = Uns.getByte(bOffset, 0);
-            int chunkOffset = Uns.getInt(bOffset, 1);
-            return new MemoryPoolAddress(chunkIndex, chunkOffset);
-
+        long getFirst(long hash) {
+            return Uns.getLong(address, bucketOffset(hash));
         }
 
-        void addAsHead(long hash, MemoryPoolAddress entryAddress) {
-            long bOffset = address + bucketOffset(hash);
-            Uns.putByte(bOffset, 0, entryAddress.chunkIndex);
-            Uns.putInt(bOffset, 1, entryAddress.chunkOffset);
+        void addAsHead(long hash, long entryAddress) {
+            Uns.putLong(address, bucketOffset(hash), entryAddress);
         }
 
         long bucketOffset(long hash) {
@@ -467,11 +727,11 @@ class SegmentWithMemoryPool<V> extends Segment<V> {
             return mask + 1;
         }
 
-        void updateBucketHistogram(EstimatedHistogram h, final List<MemoryPoolChunk> chunks) {
+        void updateBucketHistogram(EstimatedHistogram h, final MemoryPoolChunk[] chunks) {
             for (int i = 0; i < size(); i++) {
                 int len = 0;
-                for (MemoryPoolAddress adr = getFirst(i); adr.chunkIndex >= 0;
-                     adr = chunks.get(adr.chunkIndex).getNextAddress(adr.chunkOffset)) {
+                for (long adr = getFirst(i); !MemoryPoolAddress.isEmpty(adr);
+                     adr = chunks[MemoryPoolAddress.chunkIndex(adr)].getNextAddress(MemoryPoolAddress.chunkOffset(adr))) {
                     len++;
                 }
                 h.add(len + 1);
@@ -480,12 +740,17 @@ class SegmentWithMemoryPool<V> extends Segment<V> {
     }
 
     @VisibleForTesting
-    MemoryPoolAddress getFreeListHead() {
-        return freeListHead;
+    long getFreeListHead() {
+        return getFreeListHead(fixedKeyLength);
+    }
+
+    @VisibleForTesting
+    long getFreeListHead(int keyLength) {
+        return sizeClassFor(keyLength).freeListHead;
     }
 
     @VisibleForTesting
     int getChunkWriteOffset(int index) {
-        return chunks.get(index).getWriteOffset();
+        return chunks[index].getWriteOffset();
     }
 }
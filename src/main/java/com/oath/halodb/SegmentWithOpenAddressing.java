@@ -0,0 +1,694 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.primitives.Ints;
+import com.oath.halodb.histo.EstimatedHistogram;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Segment which stores fixed size entries in a single off-heap array and resolves collisions with Robin Hood
+ * linear probing, instead of chaining entries in memory pool chunks.
+ *
+ * Each slot holds a tag of the key's hash next to the key and the value. A lookup compares keys only for slots
+ * whose tag matches, and as entries are kept in the order of their distance from their home slot, it stops at
+ * the first slot whose entry is closer to home than the key would be. Entries don't need a next pointer, and
+ * removed entries are shifted back instead of being left as tombstones.
+ */
+class SegmentWithOpenAddressing<V> extends Segment<V> {
+
+    private static final Logger logger = LoggerFactory.getLogger(SegmentWithOpenAddressing.class);
+
+    // maximum hash table size
+    private static final int MAX_TABLE_SIZE = 1 << 30;
+
+    // load factor above which probe sequences get long.
+    static final float MAX_LOAD_FACTOR = 0.9f;
+
+    // distance is stored in a byte, table grows when an entry would be farther from its home slot.
+    static final int MAX_DISTANCE = 0xFF;
+
+    private static final int NOT_FOUND = -1;
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private long size = 0;
+    private long putAddCount = 0;
+    private long putReplaceCount = 0;
+    private long removeCount = 0;
+    private long threshold = 0;
+    private final float loadFactor;
+    private long rehashes = 0;
+
+    private final Hasher hasher;
+
+    private Table table;
+
+    // tables which were replaced but not yet freed, as readers might still be reading them. An insert
+    // can grow the table more than once.
+    private List<Table> retiredTables = new ArrayList<>();
+
+    private final ByteBuffer oldValueBuffer = ByteBuffer.allocate(fixedValueLength);
+    private final ByteBuffer newValueBuffer = ByteBuffer.allocate(fixedValueLength);
+
+    SegmentWithOpenAddressing(OffHeapHashTableBuilder<V> builder) {
+        this(builder, new ReadEpoch());
+    }
+
+    SegmentWithOpenAddressing(OffHeapHashTableBuilder<V> builder, ReadEpoch readers) {
+        super(builder.getValueSerializer(), builder.getFixedValueSize(), builder.getFixedKeySize(),
+              builder.getHasher(), readers);
+
+        this.hasher = Hasher.create(builder.getHashAlgorighm());
+
+        int hts = builder.getHashTableSize();
+        if (hts <= 0) {
+            hts = 8192;
+        }
+        if (hts < 256) {
+            hts = 256;
+        }
+        int msz = Ints.checkedCast(HashTableUtil.roundUpToPowerOf2(hts, MAX_TABLE_SIZE));
+        table = Table.create(msz, fixedKeyLength, fixedValueLength);
+
+        float lf = builder.getLoadFactor();
+        if (lf <= .0d || lf > MAX_LOAD_FACTOR) {
+            lf = MAX_LOAD_FACTOR;
+        }
+        this.loadFactor = lf;
+        threshold = (long) ((double) table.size() * loadFactor);
+    }
+
+    @Override
+    V getEntry(KeyBuffer key) {
+        int readerSlot = readers.enter();
+        try {
+            for (int attempt = 0; attempt < MAX_OPTIMISTIC_READS; attempt++) {
+                long stamp = optimisticRead();
+                try {
+                    // a probe sequence is at most MAX_DISTANCE long, therefore validating once is enough.
+                    Table t = table;
+                    int index = find(t, key.buffer, key.hash());
+                    V value = index != NOT_FOUND ? t.readValue(index, valueSerializer) : null;
+                    if (validate(stamp)) {
+                        (index != NOT_FOUND ? hitCount : missCount).increment();
+                        return value;
+                    }
+                } catch (RuntimeException e) {
+                    // an inconsistent read can fail in ways a consistent one can't.
+                    if (validate(stamp)) {
+                        throw e;
+                    }
+                }
+                Thread.yield();
+            }
+
+            boolean wasFirst = lockForRead();
+            try {
+                int index = find(table, key.buffer, key.hash());
+                (index != NOT_FOUND ? hitCount : missCount).increment();
+                return index != NOT_FOUND ? table.readValue(index, valueSerializer) : null;
+            } finally {
+                unlockForRead(wasFirst);
+            }
+        } finally {
+            readers.exit(readerSlot);
+        }
+    }
+
+    @Override
+    boolean containsEntry(KeyBuffer key) {
+        int readerSlot = readers.enter();
+        try {
+            for (int attempt = 0; attempt < MAX_OPTIMISTIC_READS; attempt++) {
+                long stamp = optimisticRead();
+                try {
+                    int index = find(table, key.buffer, key.hash());
+                    if (validate(stamp)) {
+                        (index != NOT_FOUND ? hitCount : missCount).increment();
+                        return index != NOT_FOUND;
+                    }
+                } catch (RuntimeException e) {
+                    if (validate(stamp)) {
+                        throw e;
+                    }
+                }
+                Thread.yield();
+            }
+
+            boolean wasFirst = lockForRead();
+            try {
+                int index = find(table, key.buffer, key.hash());
+                (index != NOT_FOUND ? hitCount : missCount).increment();
+                return index != NOT_FOUND;
+            } finally {
+                unlockForRead(wasFirst);
+            }
+        } finally {
+            readers.exit(readerSlot);
+        }
+    }
+
+    /**
+     * Returns the index of the slot which holds the key or {@link #NOT_FOUND}.
+     */
+    private static int find(Table t, byte[] key, long hash) {
+        byte tag = tag(hash);
+        int index = t.home(hash);
+        for (int distance = 0; distance <= MAX_DISTANCE; distance++, index = t.next(index)) {
+            byte slotTag = t.getTag(index);
+
+            // an entry closer to its home slot means that the key would have taken its place.
+            if (slotTag == 0 || t.getDistance(index) < distance) {
+                return NOT_FOUND;
+            }
+            if (slotTag == tag && t.compareKey(index, key)) {
+                return index;
+            }
+        }
+
+        return NOT_FOUND;
+    }
+
+    @Override
+    boolean putEntry(byte[] key, V value, long hash, boolean putIfAbsent, V oldValue) {
+        boolean wasFirst = lock();
+        try {
+            if (oldValue != null) {
+                oldValueBuffer.clear();
+                valueSerializer.serialize(oldValue, oldValueBuffer);
+            }
+            newValueBuffer.clear();
+            valueSerializer.serialize(value, newValueBuffer);
+
+            int index = find(table, key, hash);
+            if (index != NOT_FOUND) {
+                // putIfAbsent is true, but key is already present, return.
+                if (putIfAbsent) {
+                    return false;
+                }
+
+                // code for replace() operation
+                if (oldValue != null && !table.compareValue(index, oldValueBuffer.array())) {
+                    return false;
+                }
+
+                table.setValue(index, newValueBuffer.array());
+                putReplaceCount++;
+                return true;
+            }
+
+            if (oldValue != null) {
+                // key is not present but old value is not null.
+                // we consider this as a mismatch and return.
+                return false;
+            }
+
+            add(key, newValueBuffer.array(), hash);
+            putAddCount++;
+        } finally {
+            unlock(wasFirst);
+        }
+
+        return true;
+    }
+
+    @Override
+    V getAndPutEntry(byte[] key, V value, long hash) {
+        boolean wasFirst = lock();
+        try {
+            newValueBuffer.clear();
+            valueSerializer.serialize(value, newValueBuffer);
+
+            int index = find(table, key, hash);
+            if (index != NOT_FOUND) {
+                V oldValue = table.readValue(index, valueSerializer);
+                table.setValue(index, newValueBuffer.array());
+                putReplaceCount++;
+                return oldValue;
+            }
+
+            add(key, newValueBuffer.array(), hash);
+            putAddCount++;
+            return null;
+        } finally {
+            unlock(wasFirst);
+        }
+    }
+
+    @Override
+    boolean removeEntry(KeyBuffer key) {
+        boolean wasFirst = lock();
+        try {
+            int index = find(table, key.buffer, key.hash());
+            if (index == NOT_FOUND) {
+                return false;
+            }
+
+            table.remove(index);
+            removeCount++;
+            size--;
+            return true;
+        } finally {
+            unlock(wasFirst);
+        }
+    }
+
+    @Override
+    V getAndRemoveEntry(KeyBuffer key) {
+        boolean wasFirst = lock();
+        try {
+            int index = find(table, key.buffer, key.hash());
+            if (index == NOT_FOUND) {
+                return null;
+            }
+
+            V oldValue = table.readValue(index, valueSerializer);
+            table.remove(index);
+            removeCount++;
+            size--;
+            return oldValue;
+        } finally {
+            unlock(wasFirst);
+        }
+    }
+
+    private void add(byte[] key, byte[] value, long hash) {
+        if (size >= threshold) {
+            rehash();
+        }
+
+        table.prepareInsert(tag(hash), key, value);
+        while (!table.insert(hash)) {
+            // entry which was displaced last is still in the table's scratch slot.
+            Table full = table;
+            rehash();
+            table.prepareInsert(full);
+            hash = full.computeHashOfInsert(hasher);
+        }
+        size++;
+    }
+
+    private void rehash() {
+        long start = System.currentTimeMillis();
+        Table currentTable = table;
+        int tableSize = currentTable.size();
+
+        Table newTable = null;
+        for (int newSize = tableSize * 2; newTable == null; newSize *= 2) {
+            if (newSize > MAX_TABLE_SIZE) {
+                logger.error("No more memory left. Each segment can have at most {} entries.", MAX_TABLE_SIZE);
+                throw new OutOfMemoryError("Each segment can have at most " + MAX_TABLE_SIZE + " entries.");
+            }
+            newTable = Table.create(newSize, fixedKeyLength, fixedValueLength);
+            if (!copy(currentTable, newTable)) {
+                // some entry would be too far from its home slot even in the new table.
+                newTable.release();
+                newTable = null;
+            }
+        }
+
+        threshold = (long) ((float) newTable.size() * loadFactor);
+        retiredTables.add(currentTable);
+        table = newTable;
+        rehashes++;
+
+        logger.info("Completed rehashing segment in {} ms.", (System.currentTimeMillis() - start));
+    }
+
+    private boolean copy(Table from, Table to) {
+        for (int i = 0; i < from.size(); i++) {
+            if (from.getTag(i) != 0) {
+                to.prepareInsert(from, i);
+                if (!to.insert(from.computeHash(i, hasher))) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    @Override
+    Runnable detachRetired() {
+        if (retiredTables.isEmpty()) {
+            return null;
+        }
+
+        List<Table> oldTables = retiredTables;
+        retiredTables = new ArrayList<>();
+        return () -> oldTables.forEach(Table::release);
+    }
+
+    static byte tag(long hash) {
+        // bits not used to select the segment or the slot, with the high bit set as 0 marks an empty slot.
+        return (byte) (0x80 | ((hash >>> 32) & 0x7F));
+    }
+
+    @Override
+    long size() {
+        return size;
+    }
+
+    @Override
+    void release() {
+        boolean wasFirst = lock();
+        try {
+            if (table == null) {
+                return;
+            }
+            size = 0;
+            retiredTables.add(table);
+            table = null;
+        } finally {
+            unlock(wasFirst);
+        }
+        reclaimRetired();
+    }
+
+    @Override
+    void clear() {
+        boolean wasFirst = lock();
+        try {
+            size = 0;
+            table.clear();
+        } finally {
+            unlock(wasFirst);
+        }
+    }
+
+    @Override
+    long hitCount() {
+        return hitCount.sum();
+    }
+
+    @Override
+    long missCount() {
+        return missCount.sum();
+    }
+
+    @Override
+    long putAddCount() {
+        return putAddCount;
+    }
+
+    @Override
+    long putReplaceCount() {
+        return putReplaceCount;
+    }
+
+    @Override
+    long removeCount() {
+        return removeCount;
+    }
+
+    @Override
+    void resetStatistics() {
+        rehashes = 0L;
+        hitCount.reset();
+        missCount.reset();
+        putAddCount = 0L;
+        putReplaceCount = 0L;
+        removeCount = 0L;
+    }
+
+    @Override
+    long numberOfSlots() {
+        return table.size();
+    }
+
+    @Override
+    long rehashes() {
+        return rehashes;
+    }
+
+    @Override
+    float loadFactor() {
+        return loadFactor;
+    }
+
+    @Override
+    int hashTableSize() {
+        return table.size();
+    }
+
+    @Override
+    void updateBucketHistogram(EstimatedHistogram hist) {
+        boolean wasFirst = lock();
+        try {
+            table.updateBucketHistogram(hist);
+        } finally {
+            unlock(wasFirst);
+        }
+    }
+
+    @VisibleForTesting
+    int distanceOf(byte[] key, long hash) {
+        int index = find(table, key, hash);
+        return index == NOT_FOUND ? NOT_FOUND : table.getDistance(index);
+    }
+
+    /**
+     * Array of slots, followed by two scratch slots which hold the entry being inserted and the one
+     * it displaces.
+     */
+    static final class Table {
+
+        static final int SLOT_OFF_TAG = 0;
+        static final int SLOT_OFF_DISTANCE = 1;
+        static final int SLOT_OFF_KEY_LENGTH = 2;
+        static final int SLOT_OFF_DATA = 3;
+
+        final int mask;
+        final long address;
+        private final int fixedKeyLength;
+        private final int fixedValueLength;
+        private final int slotSize;
+        private boolean released;
+
+        // scratch slots, swapped when an entry is displaced.
+        private int carry;
+        private int swap;
+
+        static Table create(int hashTableSize, int fixedKeyLength, int fixedValueLength) {
+            int slotSize = slotSize(fixedKeyLength, fixedValueLength);
+            long address = Uns.allocate((long) slotSize * (hashTableSize + 2), true);
+            return new Table(address, hashTableSize, fixedKeyLength, fixedValueLength);
+        }
+
+        static int slotSize(int fixedKeyLength, int fixedValueLength) {
+            return SLOT_OFF_DATA + fixedKeyLength + fixedValueLength;
+        }
+
+        private Table(long address, int hashTableSize, int fixedKeyLength, int fixedValueLength) {
+            this.address = address;
+            this.mask = hashTableSize - 1;
+            this.fixedKeyLength = fixedKeyLength;
+            this.fixedValueLength = fixedValueLength;
+            this.slotSize = slotSize(fixedKeyLength, fixedValueLength);
+            this.carry = hashTableSize;
+            this.swap = hashTableSize + 1;
+            clear();
+        }
+
+        void clear() {
+            // a zero tag marks an empty slot.
+            Uns.setMemory(address, 0L, (long) slotSize * size(), (byte) 0);
+        }
+
+        void release() {
+            Uns.free(address);
+            released = true;
+        }
+
+        protected void finalize() throws Throwable {
+            if (!released) {
+                Uns.free(address);
+            }
+            super.finalize();
+        }
+
+        int size() {
+            return mask + 1;
+        }
+
+        int home(long hash) {
+            return (int) (hash & mask);
+        }
+
+        int next(int index) {
+            return (index + 1) & mask;
+        }
+
+        private long offset(int index) {
+            return (long) index * slotSize;
+        }
+
+        byte getTag(int index) {
+            return Uns.getByte(address, offset(index) + SLOT_OFF_TAG);
+        }
+
+        int getDistance(int index) {
+            return Uns.getByte(address, offset(index) + SLOT_OFF_DISTANCE) & 0xFF;
+        }
+
+        private void setDistance(int index, int distance) {
+            Uns.putByte(address, offset(index) + SLOT_OFF_DISTANCE, (byte) distance);
+        }
+
+        private int getKeyLength(int index) {
+            return Uns.getByte(address, offset(index) + SLOT_OFF_KEY_LENGTH);
+        }
+
+        boolean compareKey(int index, byte[] key) {
+            return getKeyLength(index) == key.length && compare(offset(index) + SLOT_OFF_DATA, key);
+        }
+
+        boolean compareValue(int index, byte[] value) {
+            return compare(offset(index) + SLOT_OFF_DATA + fixedKeyLength, value);
+        }
+
+        private boolean compare(long offset, byte[] array) {
+            int p = 0, length = array.length;
+            for (; length - p >= 8; p += 8) {
+                if (Uns.getLong(address, offset + p) != Uns.getLongFromByteArray(array, p)) {
+                    return false;
+                }
+            }
+            for (; length - p >= 4; p += 4) {
+                if (Uns.getInt(address, offset + p) != Uns.getIntFromByteArray(array, p)) {
+                    return false;
+                }
+            }
+            for (; length - p >= 2; p += 2) {
+                if (Uns.getShort(address, offset + p) != Uns.getShortFromByteArray(array, p)) {
+                    return false;
+                }
+            }
+            for (; length - p >= 1; p += 1) {
+                if (Uns.getByte(address, offset + p) != array[p]) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        <V> V readValue(int index, HashTableValueSerializer<V> serializer) {
+            return serializer.deserialize(address, offset(index) + SLOT_OFF_DATA + fixedKeyLength, fixedValueLength);
+        }
+
+        void setValue(int index, byte[] value) {
+            if (value.length != fixedValueLength) {
+                throw new IllegalArgumentException(
+                    String.format("Invalid value length. fixedValueLength %d, value length %d",
+                                  fixedValueLength, value.length)
+                );
+            }
+
+            Uns.copyMemory(value, 0, address, offset(index) + SLOT_OFF_DATA + fixedKeyLength, value.length);
+        }
+
+        long computeHash(int index, Hasher hasher) {
+            return hasher.hash(address, offset(index) + SLOT_OFF_DATA, getKeyLength(index));
+        }
+
+        long computeHashOfInsert(Hasher hasher) {
+            return computeHash(carry, hasher);
+        }
+
+        /**
+         * Writes the entry to be inserted by {@link #insert(long)} to the scratch slot.
+         */
+        void prepareInsert(byte tag, byte[] key, byte[] value) {
+            if (key.length > fixedKeyLength) {
+                throw new IllegalArgumentException(
+                    String.format("Invalid request. Key length %d. fixed key length %d", key.length, fixedKeyLength)
+                );
+            }
+
+            long offset = offset(carry);
+            Uns.putByte(address, offset + SLOT_OFF_TAG, tag);
+            Uns.putByte(address, offset + SLOT_OFF_KEY_LENGTH, (byte) key.length);
+            Uns.copyMemory(key, 0, address, offset + SLOT_OFF_DATA, key.length);
+            setValue(carry, value);
+        }
+
+        void prepareInsert(Table from, int index) {
+            Uns.copyMemory(from.address, from.offset(index), address, offset(carry), slotSize);
+        }
+
+        /**
+         * Copies the entry left in the scratch slot of a table whose insert failed.
+         */
+        void prepareInsert(Table from) {
+            prepareInsert(from, from.carry);
+        }
+
+        /**
+         * Inserts the entry in the scratch slot, which must not be in the table already. Returns false if an
+         * entry would be more than {@link #MAX_DISTANCE} away from its home slot, the entry which was displaced
+         * last is then left in the scratch slot.
+         */
+        boolean insert(long hash) {
+            int index = home(hash);
+            for (int distance = 0; distance <= MAX_DISTANCE; distance++, index = next(index)) {
+                if (getTag(index) == 0) {
+                    copySlot(carry, index);
+                    setDistance(index, distance);
+                    return true;
+                }
+
+                int existing = getDistance(index);
+                if (existing < distance) {
+                    // take the place of an entry which is closer to its home slot, and insert that one instead.
+                    copySlot(index, swap);
+                    copySlot(carry, index);
+                    setDistance(index, distance);
+                    int temp = carry;
+                    carry = swap;
+                    swap = temp;
+                    distance = existing;
+                }
+            }
+
+            return false;
+        }
+
+        /**
+         * Removes the entry and shifts back the entries which follow it, until one which is in its home slot.
+         */
+        void remove(int index) {
+            int next = next(index);
+            while (getTag(next) != 0 && getDistance(next) > 0) {
+                copySlot(next, index);
+                setDistance(index, getDistance(next) - 1);
+                index = next;
+                next = next(next);
+            }
+            Uns.putByte(address, offset(index) + SLOT_OFF_TAG, (byte) 0);
+        }
+
+        private void copySlot(int from, int to) {
+            Uns.copyMemory(address, offset(from), address, offset(to), slotSize);
+        }
+
+        void updateBucketHistogram(EstimatedHistogram h) {
+            for (int i = 0; i < size(); i++) {
+                if (getTag(i) != 0) {
+                    h.add(getDistance(i) + 1);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Flushes written data to disk on a dedicated thread for asynchronous writes.
+ *
+ * A writer registers a request after its write has completed and gets back a future
+ * which is completed once the files covering the write have been fsynced. All the requests
+ * which queue up while the thread is flushing are completed by the next flush, so that
+ * concurrent writers share a single fsync.
+ */
+class SyncManager {
+    private static final Logger logger = LoggerFactory.getLogger(SyncManager.class);
+
+    private final HaloDBInternal dbInternal;
+
+    private final BlockingQueue<CompletableFuture<Void>> syncQueue = new LinkedBlockingQueue<>();
+
+    private final SyncThread syncThread;
+
+    private volatile boolean isRunning = true;
+
+    private volatile long numberOfSyncs = 0;
+
+    private static final CompletableFuture<Void> STOP_SIGNAL = new CompletableFuture<>();
+
+    SyncManager(HaloDBInternal dbInternal) {
+        this.dbInternal = dbInternal;
+        this.syncThread = new SyncThread();
+        syncThread.start();
+    }
+
+    /**
+     * @return a future which completes once all the writes made before this call are on disk.
+     */
+    CompletableFuture<Void> requestSync() {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        if (!isRunning) {
+            future.completeExceptionally(new HaloDBException("db is closing"));
+            return future;
+        }
+
+        syncQueue.add(future);
+        if (!isRunning && syncQueue.remove(future)) {
+            // stopped after the check above, the sync thread might have already drained the queue for the last time.
+            future.completeExceptionally(new HaloDBException("db is closing"));
+        }
+        return future;
+    }
+
+    /**
+     * Completes pending requests and stops the sync thread.
+     */
+    void stop() {
+        isRunning = false;
+        try {
+            // not interrupting the thread since that would close the channel it is flushing.
+            syncQueue.put(STOP_SIGNAL);
+            syncThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.error("Interrupted while waiting for sync thread to stop", e);
+        }
+    }
+
+    long getNumberOfSyncs() {
+        return numberOfSyncs;
+    }
+
+    private class SyncThread extends Thread {
+
+        SyncThread() {
+            super("SyncThread");
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            List<CompletableFuture<Void>> requests = new ArrayList<>();
+            boolean stop = false;
+            while (!stop) {
+                try {
+                    requests.add(syncQueue.take());
+                } catch (InterruptedException e) {
+                    logger.error("Sync thread interrupted", e);
+                    break;
+                }
+                // all requests which queued up during the previous flush are covered by this one.
+                syncQueue.drainTo(requests);
+                stop = requests.remove(STOP_SIGNAL);
+
+                if (!requests.isEmpty()) {
+                    sync(requests);
+                }
+                requests.clear();
+            }
+
+            // requests which were queued along with the stop signal.
+            syncQueue.drainTo(requests);
+            requests.remove(STOP_SIGNAL);
+            if (!requests.isEmpty()) {
+                sync(requests);
+            }
+        }
+
+        private void sync(List<CompletableFuture<Void>> requests) {
+            try {
+                dbInternal.syncWrittenFiles();
+                numberOfSyncs++;
+                requests.forEach(request -> request.complete(null));
+            } catch (IOException | RuntimeException e) {
+                logger.error("Error while flushing files to disk", e);
+                requests.forEach(request -> request.completeExceptionally(e));
+            }
+        }
+    }
+}
@@ -6,7 +6,6 @@
 package com.oath.halodb;
 
 import java.nio.ByteBuffer;
-import java.util.zip.CRC32;
 
 /**
  * @author Arjun Mannaly
@@ -57,14 +56,31 @@ class TombstoneEntry {
     }
 
     ByteBuffer[] serialize() {
-        byte keySize = (byte)key.length;
-        ByteBuffer header = ByteBuffer.allocate(TOMBSTONE_ENTRY_HEADER_SIZE);
-        header.put(VERSION_OFFSET, (byte)version);
-        header.putLong(SEQUENCE_NUMBER_OFFSET, sequenceNumber);
-        header.put(KEY_SIZE_OFFSET, keySize);
-        long crc32 = computeCheckSum(header.array());
-        header.putInt(CHECKSUM_OFFSET, Utils.toSignedIntFromLong(crc32));
-        return new ByteBuffer[] {header, ByteBuffer.wrap(key)};
+        byte[] entry = new byte[TOMBSTONE_ENTRY_HEADER_SIZE + key.length];
+        serialize(ByteBuffer.wrap(entry), key, sequenceNumber, version);
+        return new ByteBuffer[] {ByteBuffer.wrap(entry, 0, TOMBSTONE_ENTRY_HEADER_SIZE), ByteBuffer.wrap(entry, TOMBSTONE_ENTRY_HEADER_SIZE, key.length)};
+    }
+
+    /**
+     * Serializes an entry into the destination buffer at its position, advancing the position,
+     * and computes the checksum with the algorithm of the version in a single pass over the serialized bytes.
+     */
+    static void serialize(ByteBuffer destination, byte[] key, long sequenceNumber, int version) {
+        int start = destination.position();
+        destination.putInt(0);
+        destination.put((byte)version);
+        destination.putLong(sequenceNumber);
+        destination.put((byte)key.length);
+        destination.put(key);
+
+        int end = destination.position();
+        int limit = destination.limit();
+        destination.limit(end);
+        destination.position(start + CHECKSUM_SIZE);
+        long checkSum = ScratchBuffers.get().checksum(version).compute(destination);
+        destination.position(end);
+        destination.limit(limit);
+        destination.putInt(start + CHECKSUM_OFFSET, Utils.toSignedIntFromLong(checkSum));
     }
 
     static TombstoneEntry deserialize(ByteBuffer buffer) {
@@ -84,36 +100,32 @@ class TombstoneEntry {
             return null;
         }
 
+        int start = buffer.position();
         long crc32 = Utils.toUnsignedIntFromInt(buffer.getInt());
         int version = Utils.toUnsignedByte(buffer.get());
         long sequenceNumber = buffer.getLong();
         int keySize = (int)buffer.get();
-        if (sequenceNumber < 0 || keySize <= 0 || version < 0 || version > 255 || buffer.remaining() < keySize)
+        if (sequenceNumber < 0 || keySize <= 0 || version < 0 || version > 255
+            || Versions.getChecksumAlgorithm(version) == null || buffer.remaining() < keySize)
             return null;
 
-        byte[] key = new byte[keySize];
-        buffer.get(key);
-
-        TombstoneEntry entry = new TombstoneEntry(key, sequenceNumber, crc32, version);
-        if (entry.computeCheckSum() != entry.checkSum) {
+        // verify the checksum over the serialized entry before copying the key.
+        ByteBuffer entryBuffer = buffer.duplicate();
+        entryBuffer.position(start + CHECKSUM_SIZE);
+        entryBuffer.limit(buffer.position() + keySize);
+        if (ScratchBuffers.get().checksum(version).compute(entryBuffer) != crc32) {
             return null;
         }
 
-        return entry;
-    }
+        byte[] key = new byte[keySize];
+        buffer.get(key);
 
-    private long computeCheckSum(byte[] header) {
-        CRC32 crc32 = new CRC32();
-        crc32.update(header, CHECKSUM_OFFSET + CHECKSUM_SIZE, TOMBSTONE_ENTRY_HEADER_SIZE - CHECKSUM_SIZE);
-        crc32.update(key);
-        return crc32.getValue();
+        return new TombstoneEntry(key, sequenceNumber, crc32, version);
     }
 
     long computeCheckSum() {
-        ByteBuffer header = ByteBuffer.allocate(TOMBSTONE_ENTRY_HEADER_SIZE);
-        header.put(VERSION_OFFSET, (byte)version);
-        header.putLong(SEQUENCE_NUMBER_OFFSET, sequenceNumber);
-        header.put(KEY_SIZE_OFFSET, (byte)key.length);
-        return computeCheckSum(header.array());
+        ByteBuffer entry = ByteBuffer.allocate(TOMBSTONE_ENTRY_HEADER_SIZE + key.length);
+        serialize(entry, key, sequenceNumber, version);
+        return Utils.toUnsignedIntFromInt(entry.getInt(CHECKSUM_OFFSET));
     }
 }
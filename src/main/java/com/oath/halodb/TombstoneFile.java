@@ -12,9 +12,11 @@ import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.file.Paths;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Objects;
 
 /**
@@ -23,7 +25,7 @@ import java.util.Objects;
 class TombstoneFile {
     private static final Logger logger = LoggerFactory.getLogger(TombstoneFile.class);
 
-    private final File backingFile;
+    private File backingFile;
     private FileChannel channel;
 
     private final HaloDBOptions options;
@@ -49,6 +51,31 @@ class TombstoneFile {
         return tombstoneFile;
     }
 
+    /**
+     * Creates a file with a temporary name, which is renamed when {@link #publish()} is called.
+     * Used to create the next tombstone file ahead of time.
+     */
+    static TombstoneFile createStaged(File dbDirectory, int fileId, HaloDBOptions options)  throws IOException {
+        File file = getTombstoneFile(dbDirectory, fileId);
+
+        while (file.exists() || !FileUtils.getStagedFile(file).createNewFile()) {
+            // file already exists try another one.
+            fileId++;
+            file = getTombstoneFile(dbDirectory, fileId);
+        }
+
+        TombstoneFile tombstoneFile = new TombstoneFile(FileUtils.getStagedFile(file), options);
+        tombstoneFile.open();
+
+        return tombstoneFile;
+    }
+
+    void publish() throws IOException {
+        if (backingFile.getName().endsWith(Constants.STAGED_FILE_SUFFIX)) {
+            backingFile = FileUtils.publishStagedFile(backingFile);
+        }
+    }
+
     TombstoneFile(File backingFile, HaloDBOptions options) {
         this.backingFile = backingFile;
         this.options = options;
@@ -74,7 +101,29 @@ class TombstoneFile {
     void write(TombstoneEntry entry) throws IOException {
         Objects.requireNonNull(entry, nullMessage);
 
-        ByteBuffer[] contents = entry.serialize();
+        writeToChannel(entry.serialize());
+    }
+
+    /**
+     * Serializes all the entries into a single buffer and writes it with one write call.
+     */
+    void write(List<TombstoneEntry> entries) throws IOException {
+        int size = 0;
+        for (TombstoneEntry entry : entries) {
+            Objects.requireNonNull(entry, nullMessage);
+            size += TombstoneEntry.TOMBSTONE_ENTRY_HEADER_SIZE + entry.getKey().length;
+        }
+
+        ByteBuffer batch = ByteBuffer.allocate(size);
+        for (TombstoneEntry entry : entries) {
+            TombstoneEntry.serialize(batch, entry.getKey(), entry.getSequenceNumber(), entry.getVersion());
+        }
+        batch.flip();
+
+        writeToChannel(new ByteBuffer[] {batch});
+    }
+
+    private void writeToChannel(ByteBuffer[] contents) throws IOException {
         long toWrite = 0;
         for (ByteBuffer buffer : contents) {
             toWrite += buffer.remaining();
@@ -133,6 +182,11 @@ class TombstoneFile {
         return backingFile.getName();
     }
 
+    int getFileId() {
+        String name = backingFile.getName();
+        return Integer.parseInt(name.substring(0, name.indexOf('.')));
+    }
+
     private long getSize() {
         return backingFile.length();
     }
@@ -156,7 +210,11 @@ class TombstoneFile {
         private final boolean discardCorruptedRecords;
 
         TombstoneFileIterator(boolean discardCorruptedRecords) throws IOException {
-            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (options.isAdviseFileAccess()) {
+                NativeIO.madvise(mapped, NativeIO.Advice.SEQUENTIAL);
+            }
+            buffer = mapped;
             this.discardCorruptedRecords = discardCorruptedRecords;
         }
 
@@ -14,6 +14,7 @@ import sun.misc.Unsafe;
 
 import java.io.IOException;
 import java.lang.reflect.Field;
+import java.lang.reflect.Method;
 import java.nio.Buffer;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
@@ -27,6 +28,7 @@ final class Uns {
     private static final Logger LOGGER = LoggerFactory.getLogger(Uns.class);
 
     private static final Unsafe unsafe;
+    private static final boolean BIG_ENDIAN = ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN;
     private static final NativeMemoryAllocator allocator;
 
     private static final boolean __DEBUG_OFF_HEAP_MEMORY_ACCESS = Boolean.parseBoolean(System.getProperty(OffHeapHashTableBuilder.SYSTEM_PROPERTY_PREFIX + "debugOffHeapAccess", "false"));
@@ -205,6 +207,14 @@ final class Uns {
         return unsafe.getLong(null, address + offset);
     }
 
+    /**
+     * Reads a long written in big endian order, such as by a {@link ByteBuffer} returned by {@link #directBufferFor}.
+     */
+    static long getLongBigEndian(long address, long offset) {
+        long value = getLong(address, offset);
+        return BIG_ENDIAN ? value : Long.reverseBytes(value);
+    }
+
     static void putInt(long address, long offset, int value) {
         validate(address, offset, 4L);
         unsafe.putInt(null, address + offset, value);
@@ -215,6 +225,14 @@ final class Uns {
         return unsafe.getInt(null, address + offset);
     }
 
+    /**
+     * Reads an int written in big endian order, such as by a {@link ByteBuffer} returned by {@link #directBufferFor}.
+     */
+    static int getIntBigEndian(long address, long offset) {
+        int value = getInt(address, offset);
+        return BIG_ENDIAN ? value : Integer.reverseBytes(value);
+    }
+
     static void putShort(long address, long offset, short value) {
         validate(address, offset, 2L);
         unsafe.putShort(null, address + offset, value);
@@ -246,6 +264,20 @@ final class Uns {
         ext.getAndAddInt(address, offset, 1);
     }
 
+    /**
+     * Loads before the fence are not reordered with loads and stores after it.
+     */
+    static void loadFence() {
+        unsafe.loadFence();
+    }
+
+    /**
+     * Stores before the fence are not reordered with loads and stores after it.
+     */
+    static void storeFence() {
+        unsafe.storeFence();
+    }
+
     static void copyMemory(byte[] arr, int off, long address, long offset, long len) {
         validate(address, offset, len);
         unsafe.copyMemory(arr, Unsafe.ARRAY_BYTE_BASE_OFFSET + off, null, address + offset, len);
@@ -346,6 +378,9 @@ final class Uns {
 
     private static final Class<?> DIRECT_BYTE_BUFFER_CLASS;
     private static final Class<?> DIRECT_BYTE_BUFFER_CLASS_R;
+
+    // Unsafe.invokeCleaner, which exists since JDK 9.
+    private static final Method INVOKE_CLEANER = findInvokeCleaner();
     private static final long DIRECT_BYTE_BUFFER_ADDRESS_OFFSET;
     private static final long DIRECT_BYTE_BUFFER_CAPACITY_OFFSET;
     private static final long DIRECT_BYTE_BUFFER_LIMIT_OFFSET;
@@ -384,6 +419,16 @@ final class Uns {
         }
     }
 
+    /**
+     * @return address of the first byte of a direct buffer, not of its position.
+     */
+    static long address(ByteBuffer buffer) {
+        if (!buffer.isDirect()) {
+            throw new IllegalArgumentException("Not a direct buffer");
+        }
+        return unsafe.getLong(buffer, DIRECT_BYTE_BUFFER_ADDRESS_OFFSET);
+    }
+
     static void invalidateDirectBuffer(ByteBuffer buffer) {
         buffer.position(0);
         unsafe.putInt(buffer, DIRECT_BYTE_BUFFER_CAPACITY_OFFSET, 0);
@@ -391,6 +436,37 @@ final class Uns {
         unsafe.putLong(buffer, DIRECT_BYTE_BUFFER_ADDRESS_OFFSET, 0L);
     }
 
+    private static Method findInvokeCleaner() {
+        try {
+            return Unsafe.class.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Frees the memory of a direct or mapped buffer without waiting for the garbage collector.
+     * The buffer must not be accessed afterwards. Does nothing if the JDK doesn't allow it.
+     */
+    static void invokeCleaner(ByteBuffer buffer) {
+        try {
+            if (INVOKE_CLEANER != null) {
+                INVOKE_CLEANER.invoke(unsafe, buffer);
+                return;
+            }
+
+            // JDK 8
+            Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            Object cleaner = cleanerMethod.invoke(buffer);
+            if (cleaner != null) {
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            LOGGER.debug("Could not free buffer, it will be freed by the garbage collector", e);
+        }
+    }
+
     static ByteBuffer readOnlyBuffer(long hashEntryAdr, int length, long offset) {
         return Uns.directBufferFor(hashEntryAdr + offset, 0, length, true);
     }
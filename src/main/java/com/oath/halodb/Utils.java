@@ -27,7 +27,7 @@ class Utils {
     }
 
     static RecordMetaDataForCache getMetaData(IndexFileEntry entry, int fileId) {
-        return new RecordMetaDataForCache(fileId, Utils.getValueOffset(entry.getRecordOffset(), entry.getKey()), Utils.getValueSize(entry.getRecordSize(), entry.getKey()), entry.getSequenceNumber());
+        return new RecordMetaDataForCache(fileId, Utils.getValueOffset(entry.getRecordOffset(), entry.getKey()), Utils.getValueSize(entry.getRecordSize(), entry.getKey()), entry.getSequenceNumber(), Versions.isValueCompressed(entry.getVersion()));
     }
 
     static long toUnsignedIntFromInt(int value) {
@@ -0,0 +1,722 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import com.google.common.primitives.Ints;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Off-heap cache of values, which saves the read from a data file for keys which are read often.
+ *
+ * Entries are keyed by the key and hold the sequence number of the record the value was read from.
+ * A lookup passes the sequence number found in the in-memory index and an entry with a different
+ * sequence number is a miss, therefore a value is never served after the key was updated or deleted,
+ * even if a read raced with the update and cached the old value. Compaction copies records with their
+ * sequence number, so entries stay valid when a record is moved to another file.
+ *
+ * Eviction follows W-TinyLFU: new entries go to a small LRU window. Entries evicted from the window are
+ * admitted to the main SLRU area, which has a probation and a protected queue, only if they were accessed
+ * more often than the entry they would replace, as estimated by a {@link FrequencySketch}. Capacity is
+ * accounted in bytes of off-heap memory used by the entries.
+ *
+ * Like the in-memory index, the cache is divided into segments with their own lock, hash table and queues, and
+ * lookups don't take the lock: a hit moves the entry in its queue only if the lock is free, and the frequency
+ * sketch is updated without the lock, at the cost of losing some increments under contention.
+ */
+class ValueCache {
+
+    // assumed average size of an entry when sizing the hash tables and the sketches.
+    private static final int EXPECTED_ENTRY_SIZE = 1024;
+
+    private static final double WINDOW_RATIO = 0.01;
+    private static final double PROTECTED_RATIO = 0.8;
+
+    private final Hasher hasher = Hasher.create(HashAlgorithm.MURMUR3);
+
+    // readers of all segments, which writers wait for before freeing memory.
+    private final ReadEpoch readers = new ReadEpoch();
+
+    private final CacheSegment[] segments;
+    private final int segmentShift;
+
+    ValueCache(long capacity, int noOfSegments) {
+        int segmentCount = (int)Utils.roundUpToPowerOf2(noOfSegments);
+        this.segments = new CacheSegment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new CacheSegment(capacity / segmentCount, readers);
+        }
+        // segment is selected by the high bits of the hash, the bucket by the low bits.
+        this.segmentShift = 64 - Integer.numberOfTrailingZeros(segmentCount);
+    }
+
+    /**
+     * @return a copy of the value if it is in the cache and was read from the record with the sequence number.
+     */
+    byte[] get(byte[] key, long sequenceNumber) {
+        long hash = hasher.hash(key);
+        return segment(hash).get(key, hash, sequenceNumber);
+    }
+
+    /**
+     * Caches the value from its position to its limit, unless the cache holds a value of a newer record.
+     */
+    void put(byte[] key, long sequenceNumber, ByteBuffer value) {
+        KeyBuffer keyBuffer = new KeyBuffer(key).finish(hasher);
+        segment(keyBuffer.hash()).put(keyBuffer, sequenceNumber, value);
+    }
+
+    void remove(byte[] key) {
+        KeyBuffer keyBuffer = new KeyBuffer(key).finish(hasher);
+        segment(keyBuffer.hash()).remove(keyBuffer);
+    }
+
+    long hitCount() {
+        long count = 0;
+        for (CacheSegment segment : segments) {
+            count += segment.hitCount();
+        }
+        return count;
+    }
+
+    long missCount() {
+        long count = 0;
+        for (CacheSegment segment : segments) {
+            count += segment.missCount();
+        }
+        return count;
+    }
+
+    long evictionCount() {
+        long count = 0;
+        for (CacheSegment segment : segments) {
+            count += segment.evictionCount();
+        }
+        return count;
+    }
+
+    long size() {
+        long size = 0;
+        for (CacheSegment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    long memUsed() {
+        long bytes = 0;
+        for (CacheSegment segment : segments) {
+            bytes += segment.memUsed();
+        }
+        return bytes;
+    }
+
+    void resetStatistics() {
+        for (CacheSegment segment : segments) {
+            segment.resetStatistics();
+        }
+    }
+
+    /**
+     * Frees the memory of all entries. Lookups after the cache is closed are misses.
+     */
+    void close() {
+        for (CacheSegment segment : segments) {
+            segment.release();
+        }
+    }
+
+    private CacheSegment segment(long hash) {
+        return segments.length == 1 ? segments[0] : segments[(int)(hash >>> segmentShift)];
+    }
+
+    private static final class CacheSegment {
+
+        private static final byte WINDOW = 0;
+        private static final byte PROBATION = 1;
+        private static final byte PROTECTED = 2;
+
+        private static final long CONFLICT = -1L;
+
+        private static final int RETIRED_ENTRIES_TO_RECLAIM = 64;
+
+        private final long windowCapacity;
+        private final long mainCapacity;
+        private final long protectedCapacity;
+
+        private final AccessQueue window = new AccessQueue();
+        private final AccessQueue probation = new AccessQueue();
+        private final AccessQueue protectedQueue = new AccessQueue();
+
+        private final FrequencySketch sketch;
+
+        private final ReentrantLock lock = new ReentrantLock();
+
+        // odd while a writer changes the hash table, see Segment. Changes to the queues are not
+        // seen by readers, therefore they don't change the stamp.
+        private volatile long stamp;
+
+        private volatile SegmentNonMemoryPool.Table table;
+        private long size;
+        private long threshold;
+
+        private final ReadEpoch readers;
+        private final RetiredMemory retiredMemory;
+        private LongArrayList retiredEntries = new LongArrayList();
+        private SegmentNonMemoryPool.Table retiredTable;
+
+        private final LongAdder hitCount = new LongAdder();
+        private final LongAdder missCount = new LongAdder();
+        private long evictionCount;
+
+        CacheSegment(long capacity, ReadEpoch readers) {
+            this.windowCapacity = (long)(capacity * WINDOW_RATIO);
+            this.mainCapacity = capacity - windowCapacity;
+            this.protectedCapacity = (long)(mainCapacity * PROTECTED_RATIO);
+
+            int tableSize = Ints.checkedCast(HashTableUtil.roundUpToPowerOf2(Math.max(256, capacity / EXPECTED_ENTRY_SIZE), 1 << 30));
+            this.table = SegmentNonMemoryPool.Table.create(tableSize, true);
+            this.threshold = (long)(tableSize * 0.75);
+            this.sketch = new FrequencySketch(tableSize);
+            this.readers = readers;
+            this.retiredMemory = new RetiredMemory(readers);
+        }
+
+        /**
+         * Looks up the entry without the lock, as the segments of the in-memory index do, and falls back
+         * to the lock after {@link Segment#MAX_OPTIMISTIC_READS} attempts which raced with a writer.
+         */
+        byte[] get(byte[] key, long hash, long sequenceNumber) {
+            // misses count as well so that a key which is read often gets admitted once it is cached.
+            sketch.increment(hash);
+
+            int readerSlot = readers.enter();
+            try {
+                for (int attempt = 0; attempt < Segment.MAX_OPTIMISTIC_READS; attempt++) {
+                    long stamp = this.stamp;
+                    try {
+                        long entry = find(key, hash, stamp);
+                        byte[] value = entry != 0L && entry != CONFLICT ? readValue(entry, sequenceNumber) : null;
+                        if (entry != CONFLICT && validate(stamp)) {
+                            if (value == null) {
+                                missCount.increment();
+                                return null;
+                            }
+                            hitCount.increment();
+                            recordAccess(entry, stamp);
+                            return value;
+                        }
+                    } catch (RuntimeException e) {
+                        // an inconsistent read can fail in ways a consistent one can't.
+                        if (validate(stamp)) {
+                            throw e;
+                        }
+                    }
+                    Thread.yield();
+                }
+
+                lock.lock();
+                try {
+                    long entry = find(key, hash, -1L);
+                    byte[] value = entry != 0L ? readValue(entry, sequenceNumber) : null;
+                    if (value == null) {
+                        missCount.increment();
+                        return null;
+                    }
+                    hitCount.increment();
+                    onAccess(entry);
+                    return value;
+                } finally {
+                    lock.unlock();
+                }
+            } finally {
+                readers.exit(readerSlot);
+            }
+        }
+
+        void put(KeyBuffer key, long sequenceNumber, ByteBuffer value) {
+            int valueSize = value.remaining();
+            long weight = CacheEntries.allocLen(key.size(), valueSize);
+            if (weight > mainCapacity) {
+                return;
+            }
+
+            // copy the value before taking the lock.
+            long entry = Uns.allocate(weight, false);
+            if (entry == 0L) {
+                return;
+            }
+            CacheEntries.init(entry, key.buffer, key.hash(), sequenceNumber, valueSize);
+            if (value.hasArray()) {
+                Uns.copyMemory(value.array(), value.arrayOffset() + value.position(), entry, CacheEntries.valueOffset(entry), valueSize);
+            }
+            else {
+                Uns.buffer(entry, valueSize, CacheEntries.valueOffset(entry)).put(value.duplicate());
+            }
+
+            List<Runnable> reclaimable;
+            lock.lock();
+            try {
+                if (table != null) {
+                    long existing = find(key.buffer, key.hash(), -1L);
+                    if (existing == 0L || CacheEntries.getSequenceNumber(existing) < sequenceNumber) {
+                        beginWrite();
+                        if (existing != 0L) {
+                            unlink(existing);
+                            retiredEntries.add(existing);
+                        }
+                        link(entry);
+                        entry = 0L;
+                        evict();
+                        endWrite();
+                    }
+                }
+                reclaimable = detachRetired();
+            } finally {
+                lock.unlock();
+            }
+
+            RetiredMemory.run(reclaimable);
+            // never linked, no reader has seen it.
+            Uns.free(entry);
+        }
+
+        void remove(KeyBuffer key) {
+            List<Runnable> reclaimable;
+            lock.lock();
+            try {
+                if (table == null) {
+                    return;
+                }
+                long entry = find(key.buffer, key.hash(), -1L);
+                if (entry != 0L) {
+                    beginWrite();
+                    unlink(entry);
+                    retiredEntries.add(entry);
+                    endWrite();
+                }
+                reclaimable = detachRetired();
+            } finally {
+                lock.unlock();
+            }
+            RetiredMemory.run(reclaimable);
+        }
+
+        /**
+         * Frees the memory of all entries once no reader is left which might be reading them.
+         */
+        void release() {
+            lock.lock();
+            try {
+                if (table == null) {
+                    return;
+                }
+                beginWrite();
+                for (AccessQueue queue : new AccessQueue[] {window, probation, protectedQueue}) {
+                    for (long entry = queue.head; entry != 0L; entry = CacheEntries.getQueueNext(entry)) {
+                        retiredEntries.add(entry);
+                    }
+                    queue.head = queue.tail = 0L;
+                    queue.bytes = 0L;
+                }
+                retiredTable = table;
+                table = null;
+                size = 0;
+                endWrite();
+                detachRetired();
+            } finally {
+                lock.unlock();
+            }
+
+            readers.awaitReaders();
+            List<Runnable> reclaimable;
+            lock.lock();
+            try {
+                reclaimable = retiredMemory.pollReclaimable();
+            } finally {
+                lock.unlock();
+            }
+            RetiredMemory.run(reclaimable);
+        }
+
+        long hitCount() {
+            return hitCount.sum();
+        }
+
+        long missCount() {
+            return missCount.sum();
+        }
+
+        long evictionCount() {
+            lock.lock();
+            try {
+                return evictionCount;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        long size() {
+            lock.lock();
+            try {
+                return size;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        long memUsed() {
+            lock.lock();
+            try {
+                return window.bytes + probation.bytes + protectedQueue.bytes;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void resetStatistics() {
+            hitCount.reset();
+            missCount.reset();
+            lock.lock();
+            try {
+                evictionCount = 0;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void beginWrite() {
+            stamp = stamp + 1;
+            // changes made by the writer must not become visible before the odd stamp.
+            Uns.storeFence();
+        }
+
+        private void endWrite() {
+            stamp = stamp + 1;
+        }
+
+        private boolean validate(long stamp) {
+            Uns.loadFence();
+            return (stamp & 1) == 0 && this.stamp == stamp;
+        }
+
+        /**
+         * @return the entry, 0 if there is none, or {@link #CONFLICT} if a writer changed the table
+         * since the stamp was read. A stamp of -1 is passed with the lock held.
+         */
+        private long find(byte[] key, long hash, long stamp) {
+            SegmentNonMemoryPool.Table table = this.table;
+            if (table == null) {
+                return 0L;
+            }
+            for (long entry = table.getFirst(hash); entry != 0L; entry = NonMemoryPoolHashEntries.getNext(entry)) {
+                // checked on every hop, as a chain changed by a writer might be followed in circles.
+                if (stamp != -1L && !validate(stamp)) {
+                    return CONFLICT;
+                }
+                if (KeyBuffer.sameKey(key, entry)) {
+                    return entry;
+                }
+            }
+            return 0L;
+        }
+
+        private static byte[] readValue(long entry, long sequenceNumber) {
+            if (CacheEntries.getSequenceNumber(entry) != sequenceNumber) {
+                return null;
+            }
+            int valueSize = CacheEntries.getValueSize(entry);
+            byte[] value = new byte[valueSize];
+            Uns.copyMemory(entry, CacheEntries.valueOffset(entry), value, 0, valueSize);
+            return value;
+        }
+
+        /**
+         * Moves the entry found by an optimistic read in its queue, if the lock is free. Hits don't wait
+         * for the lock, therefore the order of access is only approximate under contention.
+         */
+        private void recordAccess(long entry, long stamp) {
+            if (!lock.tryLock()) {
+                return;
+            }
+            try {
+                // the entry is still linked only if no writer changed the table since it was found.
+                if (this.stamp == stamp) {
+                    onAccess(entry);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Hands entries and tables unlinked by writers, which readers might still be reading,
+         * over to be freed once no reader is left which entered before.
+         *
+         * @return tasks which free memory retired earlier which can now be freed, to be run without the lock.
+         */
+        private List<Runnable> detachRetired() {
+            if (retiredEntries.size() >= RETIRED_ENTRIES_TO_RECLAIM || retiredTable != null) {
+                LongArrayList entries = retiredEntries;
+                SegmentNonMemoryPool.Table oldTable = retiredTable;
+                retiredEntries = new LongArrayList();
+                retiredTable = null;
+                retiredMemory.add(() -> {
+                    for (int i = 0; i < entries.size(); i++) {
+                        Uns.free(entries.getLong(i));
+                    }
+                    if (oldTable != null) {
+                        oldTable.release();
+                    }
+                });
+            }
+            return retiredMemory.pollReclaimable();
+        }
+
+        /**
+         * Adds a new entry to the hash table and to the head of the window.
+         */
+        private void link(long entry) {
+            if (size >= threshold) {
+                rehash();
+            }
+            table.addAsHead(CacheEntries.getHash(entry), entry);
+            size++;
+            window.addFirst(entry, WINDOW);
+        }
+
+        /**
+         * Removes the entry from the hash table and its queue. Caller retires the memory.
+         */
+        private void unlink(long entry) {
+            table.removeLink(CacheEntries.getHash(entry), entry, -1L);
+            size--;
+            queueOf(entry).remove(entry);
+        }
+
+        private void onAccess(long entry) {
+            switch (CacheEntries.getQueue(entry)) {
+                case WINDOW:
+                    window.remove(entry);
+                    window.addFirst(entry, WINDOW);
+                    break;
+
+                case PROBATION:
+                    // accessed again while on probation, promote it.
+                    probation.remove(entry);
+                    protectedQueue.addFirst(entry, PROTECTED);
+                    while (protectedQueue.bytes > protectedCapacity) {
+                        long demoted = protectedQueue.tail;
+                        protectedQueue.remove(demoted);
+                        probation.addFirst(demoted, PROBATION);
+                    }
+                    break;
+
+                default:
+                    protectedQueue.remove(entry);
+                    protectedQueue.addFirst(entry, PROTECTED);
+            }
+        }
+
+        /**
+         * Moves entries which overflow the window to the main area, where each one either
+         * replaces the least recently used entries on probation or is itself evicted.
+         */
+        private void evict() {
+            while (window.bytes > windowCapacity) {
+                long candidate = window.tail;
+                if (admit(candidate)) {
+                    window.remove(candidate);
+                    probation.addFirst(candidate, PROBATION);
+                }
+                else {
+                    evictEntry(candidate);
+                }
+            }
+        }
+
+        /**
+         * Evicts entries from the main area to make room for the candidate as long as the candidate
+         * was accessed more often than the entry it replaces.
+         *
+         * @return false if the candidate should be evicted instead.
+         */
+        private boolean admit(long candidate) {
+            int candidateFrequency = sketch.frequency(CacheEntries.getHash(candidate));
+            while (probation.bytes + protectedQueue.bytes + CacheEntries.getWeight(candidate) > mainCapacity) {
+                long victim = probation.tail != 0L ? probation.tail : protectedQueue.tail;
+                if (victim == 0L || candidateFrequency <= sketch.frequency(CacheEntries.getHash(victim))) {
+                    return false;
+                }
+                evictEntry(victim);
+            }
+            return true;
+        }
+
+        private void evictEntry(long entry) {
+            unlink(entry);
+            retiredEntries.add(entry);
+            evictionCount++;
+        }
+
+        private AccessQueue queueOf(long entry) {
+            switch (CacheEntries.getQueue(entry)) {
+                case WINDOW:
+                    return window;
+                case PROBATION:
+                    return probation;
+                default:
+                    return protectedQueue;
+            }
+        }
+
+        private void rehash() {
+            int tableSize = table.size();
+            if (tableSize >= 1 << 30) {
+                return;
+            }
+            SegmentNonMemoryPool.Table newTable = SegmentNonMemoryPool.Table.create(tableSize * 2, false);
+            if (newTable == null) {
+                return;
+            }
+
+            long next;
+            for (int bucket = 0; bucket < tableSize; bucket++) {
+                for (long entry = table.getFirst(bucket); entry != 0L; entry = next) {
+                    next = NonMemoryPoolHashEntries.getNext(entry);
+                    NonMemoryPoolHashEntries.setNext(entry, 0L);
+                    newTable.addAsHead(CacheEntries.getHash(entry), entry);
+                }
+            }
+
+            retiredTable = table;
+            table = newTable;
+            threshold = (long)(newTable.size() * 0.75);
+            sketch.ensureCapacity(newTable.size());
+        }
+    }
+
+    /**
+     * Doubly linked list of entries in the order of access, most recent first.
+     */
+    private static final class AccessQueue {
+        long head;
+        long tail;
+        long bytes;
+
+        void addFirst(long entry, byte queue) {
+            CacheEntries.setQueue(entry, queue);
+            CacheEntries.setQueuePrev(entry, 0L);
+            CacheEntries.setQueueNext(entry, head);
+            if (head != 0L) {
+                CacheEntries.setQueuePrev(head, entry);
+            }
+            else {
+                tail = entry;
+            }
+            head = entry;
+            bytes += CacheEntries.getWeight(entry);
+        }
+
+        void remove(long entry) {
+            long prev = CacheEntries.getQueuePrev(entry);
+            long next = CacheEntries.getQueueNext(entry);
+            if (prev != 0L) {
+                CacheEntries.setQueueNext(prev, next);
+            }
+            else {
+                head = next;
+            }
+            if (next != 0L) {
+                CacheEntries.setQueuePrev(next, prev);
+            }
+            else {
+                tail = prev;
+            }
+            bytes -= CacheEntries.getWeight(entry);
+        }
+    }
+
+    /**
+     * Layout of an entry. The first fields are those of {@link NonMemoryPoolHashEntries} so that entries
+     * can be chained in the buckets of a {@link SegmentNonMemoryPool.Table} and compared with
+     * {@link KeyBuffer#sameKey(long)}. The remaining fields follow the key.
+     */
+    private static final class CacheEntries {
+
+        private static final long OFF_HASH = 0;
+        private static final long OFF_QUEUE_PREV = 8;
+        private static final long OFF_QUEUE_NEXT = 16;
+        private static final long OFF_SEQUENCE_NUMBER = 24;
+        private static final long OFF_VALUE_SIZE = 32;
+        private static final long OFF_QUEUE = 36;
+        private static final long FIELDS_SIZE = 37;
+
+        static long allocLen(int keyLength, int valueSize) {
+            return NonMemoryPoolHashEntries.ENTRY_OFF_DATA + keyLength + FIELDS_SIZE + valueSize;
+        }
+
+        static void init(long entry, byte[] key, long hash, long sequenceNumber, int valueSize) {
+            NonMemoryPoolHashEntries.init(key.length, entry);
+            Uns.copyMemory(key, 0, entry, NonMemoryPoolHashEntries.ENTRY_OFF_DATA, key.length);
+            long fields = fieldsOffset(entry);
+            Uns.putLong(entry, fields + OFF_HASH, hash);
+            Uns.putLong(entry, fields + OFF_SEQUENCE_NUMBER, sequenceNumber);
+            Uns.putInt(entry, fields + OFF_VALUE_SIZE, valueSize);
+        }
+
+        static long valueOffset(long entry) {
+            return fieldsOffset(entry) + FIELDS_SIZE;
+        }
+
+        static long getWeight(long entry) {
+            return allocLen(NonMemoryPoolHashEntries.getKeyLen(entry), getValueSize(entry));
+        }
+
+        static long getHash(long entry) {
+            return Uns.getLong(entry, fieldsOffset(entry) + OFF_HASH);
+        }
+
+        static long getSequenceNumber(long entry) {
+            return Uns.getLong(entry, fieldsOffset(entry) + OFF_SEQUENCE_NUMBER);
+        }
+
+        static int getValueSize(long entry) {
+            return Uns.getInt(entry, fieldsOffset(entry) + OFF_VALUE_SIZE);
+        }
+
+        static byte getQueue(long entry) {
+            return Uns.getByte(entry, fieldsOffset(entry) + OFF_QUEUE);
+        }
+
+        static void setQueue(long entry, byte queue) {
+            Uns.putByte(entry, fieldsOffset(entry) + OFF_QUEUE, queue);
+        }
+
+        static long getQueuePrev(long entry) {
+            return Uns.getLong(entry, fieldsOffset(entry) + OFF_QUEUE_PREV);
+        }
+
+        static void setQueuePrev(long entry, long prev) {
+            Uns.putLong(entry, fieldsOffset(entry) + OFF_QUEUE_PREV, prev);
+        }
+
+        static long getQueueNext(long entry) {
+            return Uns.getLong(entry, fieldsOffset(entry) + OFF_QUEUE_NEXT);
+        }
+
+        static void setQueueNext(long entry, long next) {
+            Uns.putLong(entry, fieldsOffset(entry) + OFF_QUEUE_NEXT, next);
+        }
+
+        private static long fieldsOffset(long entry) {
+            return NonMemoryPoolHashEntries.ENTRY_OFF_DATA + NonMemoryPoolHashEntries.getKeyLen(entry);
+        }
+    }
+}
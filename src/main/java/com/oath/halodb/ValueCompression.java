@@ -0,0 +1,122 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4SafeDecompressor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Compresses values with LZ4. A compressed value is stored on disk as its uncompressed size
+ * followed by the LZ4 block, and the record and its index file entry are flagged as compressed
+ * in their version byte, see {@link Versions}. Value size in the record header, the index file
+ * entry and {@link RecordMetaDataForCache} is the size on disk, so that compaction and the stale
+ * data accounting don't need to know whether a value is compressed.
+ */
+class ValueCompression {
+
+    static final int UNCOMPRESSED_SIZE_LENGTH = 4;
+
+    // smaller values rarely get smaller when compressed.
+    static final int MIN_COMPRESSIBLE_SIZE = 64;
+
+    static boolean isAvailable() {
+        try {
+            Class.forName("net.jpountz.lz4.LZ4Factory");
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Compresses the bytes between the value's position and limit without changing its position.
+     *
+     * @return the value as it is to be stored on disk, which is valid only until the next call from
+     * the same thread, or null if the value doesn't get smaller when compressed.
+     */
+    static ByteBuffer compress(ByteBuffer value) {
+        int size = value.remaining();
+        if (size < MIN_COMPRESSIBLE_SIZE) {
+            return null;
+        }
+
+        ScratchBuffers scratch = ScratchBuffers.get();
+        byte[] source;
+        int sourceOffset;
+        if (value.hasArray()) {
+            source = value.array();
+            sourceOffset = value.arrayOffset() + value.position();
+        }
+        else {
+            source = scratch.valueArray(size);
+            sourceOffset = 0;
+            value.duplicate().get(source, 0, size);
+        }
+
+        LZ4Compressor compressor = Lz4.compressor;
+        int maxCompressedSize = compressor.maxCompressedLength(size);
+        byte[] destination = scratch.compressedValueArray(UNCOMPRESSED_SIZE_LENGTH + maxCompressedSize);
+        int compressedSize = compressor.compress(
+            source, sourceOffset, size, destination, UNCOMPRESSED_SIZE_LENGTH, maxCompressedSize
+        );
+        if (UNCOMPRESSED_SIZE_LENGTH + compressedSize >= size) {
+            return null;
+        }
+
+        ByteBuffer compressed = ByteBuffer.wrap(destination, 0, UNCOMPRESSED_SIZE_LENGTH + compressedSize);
+        compressed.putInt(0, size);
+        return compressed;
+    }
+
+    /**
+     * @return uncompressed size of a value stored on disk.
+     */
+    static int uncompressedSize(byte[] stored, int offset, int length) throws IOException {
+        int size = length < UNCOMPRESSED_SIZE_LENGTH ? -1 : ByteBuffer.wrap(stored, offset, length).getInt();
+        if (size < 0) {
+            throw new IOException("Corrupted compressed value");
+        }
+        return size;
+    }
+
+    static byte[] decompress(byte[] stored) throws IOException {
+        byte[] value = new byte[uncompressedSize(stored, 0, stored.length)];
+        decompress(stored, 0, stored.length, value, 0);
+        return value;
+    }
+
+    /**
+     * Decompresses a value stored on disk into the destination, which must have space
+     * for {@link #uncompressedSize(byte[], int, int)} bytes from the offset.
+     */
+    static void decompress(byte[] stored, int offset, int length, byte[] destination, int destinationOffset) throws IOException {
+        int size = uncompressedSize(stored, offset, length);
+        int decompressed;
+        try {
+            decompressed = Lz4.decompressor.decompress(
+                stored, offset + UNCOMPRESSED_SIZE_LENGTH, length - UNCOMPRESSED_SIZE_LENGTH,
+                destination, destinationOffset, size
+            );
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupted compressed value", e);
+        }
+        if (decompressed != size) {
+            throw new IOException("Corrupted compressed value, expected " + size + " bytes but got " + decompressed);
+        }
+    }
+
+    // loaded on first use, so that lz4 is needed only if values are compressed.
+    private static class Lz4 {
+        private static final LZ4Compressor compressor = LZ4Factory.fastestInstance().fastCompressor();
+
+        // the safe decompressor never reads past the compressed block, even if it is corrupted.
+        private static final LZ4SafeDecompressor decompressor = LZ4Factory.fastestInstance().safeDecompressor();
+    }
+}
@@ -0,0 +1,22 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Receives a value read by {@link HaloDB#get(byte[], ValueConsumer)}.
+ */
+@FunctionalInterface
+public interface ValueConsumer {
+
+    /**
+     * Called with a read-only buffer whose position is at the start of the value and limit at its
+     * end. The buffer is reused for other reads once the method returns, therefore the consumer must
+     * copy the bytes it needs and not keep a reference to the buffer.
+     */
+    void accept(ByteBuffer value);
+}
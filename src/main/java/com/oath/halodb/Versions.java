@@ -6,12 +6,44 @@
 package com.oath.halodb;
 
 /**
+ * Bits 4 and 5 of the version byte of records, index file entries and tombstone entries
+ * hold the id of the {@link ChecksumAlgorithm} used for the entry. Entries written before
+ * these bits were used have them unset and therefore are read as CRC32.
+ *
+ * Bit 6 of the version byte of records and index file entries is set if the value of
+ * the record is compressed, see {@link ValueCompression}.
+ *
  * @author Arjun Mannaly
  */
 class Versions {
 
-    static final int CURRENT_DATA_FILE_VERSION = 0;
-    static final int CURRENT_INDEX_FILE_VERSION = 0;
-    static final int CURRENT_TOMBSTONE_FILE_VERSION = 0;
+    static final int CHECKSUM_ALGORITHM_SHIFT = 4;
+    static final int CHECKSUM_ALGORITHM_MASK = 0x03;
+
+    static final int COMPRESSED_VALUE_FLAG = 1 << 6;
+
+    static final int CURRENT_DATA_FILE_VERSION = withChecksumAlgorithm(0, EntryChecksum.DEFAULT_ALGORITHM);
+    static final int CURRENT_INDEX_FILE_VERSION = withChecksumAlgorithm(0, EntryChecksum.DEFAULT_ALGORITHM);
+    static final int CURRENT_TOMBSTONE_FILE_VERSION = withChecksumAlgorithm(0, EntryChecksum.DEFAULT_ALGORITHM);
     static final int CURRENT_META_FILE_VERSION = 0;
+
+    static int withChecksumAlgorithm(int version, ChecksumAlgorithm algorithm) {
+        return (version & ~(CHECKSUM_ALGORITHM_MASK << CHECKSUM_ALGORITHM_SHIFT))
+               | (algorithm.getId() << CHECKSUM_ALGORITHM_SHIFT);
+    }
+
+    /**
+     * @return checksum algorithm of an entry with the given version or null if the algorithm is unknown.
+     */
+    static ChecksumAlgorithm getChecksumAlgorithm(int version) {
+        return ChecksumAlgorithm.forId((version >>> CHECKSUM_ALGORITHM_SHIFT) & CHECKSUM_ALGORITHM_MASK);
+    }
+
+    static int withCompressedValue(int version, boolean compressed) {
+        return compressed ? version | COMPRESSED_VALUE_FLAG : version & ~COMPRESSED_VALUE_FLAG;
+    }
+
+    static boolean isValueCompressed(int version) {
+        return (version & COMPRESSED_VALUE_FLAG) != 0;
+    }
 }
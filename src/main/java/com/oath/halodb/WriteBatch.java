@@ -0,0 +1,78 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * A group of put and delete operations which are written to the db with a single call to
+ * {@link HaloDB#write(WriteBatch)}.
+ *
+ * All the records in a batch are serialized into one contiguous buffer per data, index and
+ * tombstone file and written with a single write call to each file. The in-memory index is
+ * updated only after the write completes, in the order in which operations were added to the batch.
+ *
+ * A batch is not thread safe and can be reused after calling {@link #clear()}.
+ */
+public class WriteBatch {
+
+    private final List<Operation> operations = new ArrayList<>();
+
+    public WriteBatch put(byte[] key, byte[] value) {
+        Objects.requireNonNull(key, "key cannot be null");
+        Objects.requireNonNull(value, "value cannot be null");
+        operations.add(new Operation(key, value));
+        return this;
+    }
+
+    public WriteBatch delete(byte[] key) {
+        Objects.requireNonNull(key, "key cannot be null");
+        operations.add(new Operation(key, null));
+        return this;
+    }
+
+    public int size() {
+        return operations.size();
+    }
+
+    public boolean isEmpty() {
+        return operations.isEmpty();
+    }
+
+    public void clear() {
+        operations.clear();
+    }
+
+    List<Operation> getOperations() {
+        return operations;
+    }
+
+    static class Operation {
+        private final byte[] key;
+
+        // null for deletes.
+        private final byte[] value;
+
+        private Operation(byte[] key, byte[] value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        byte[] getKey() {
+            return key;
+        }
+
+        byte[] getValue() {
+            return value;
+        }
+
+        boolean isDelete() {
+            return value == null;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import java.io.File;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Compares the read throughput of getAsync with that of get called on a blocking pool, for a single
+ * thread which keeps a fixed number of requests outstanding, as an event loop would.
+ *
+ * Not run as part of the tests. Run with
+ * {@code java -cp <test classpath> com.oath.halodb.AsyncReadBenchmark [directory]}, sizes can be changed
+ * with the system properties records, valueSize, seconds and blockingPoolSize.
+ */
+public class AsyncReadBenchmark {
+
+    private static final int[] OUTSTANDING_REQUESTS = {32, 64, 128, 256, 512};
+
+    public static void main(String[] args) throws Exception {
+        String directory = args.length > 0 ? args[0] : TestUtils.getTestDirectory("AsyncReadBenchmark");
+        int noOfRecords = Integer.getInteger("records", 200_000);
+        int valueSize = Integer.getInteger("valueSize", 1024);
+        int seconds = Integer.getInteger("seconds", 10);
+        int blockingPoolSize = Integer.getInteger("blockingPoolSize", 64);
+
+        TestUtils.deleteDirectory(new File(directory));
+        HaloDBOptions options = new HaloDBOptions();
+        options.setNumberOfRecords(noOfRecords);
+        HaloDB db = HaloDB.open(directory, options);
+
+        System.out.printf("Writing %d records with %d byte values%n", noOfRecords, valueSize);
+        byte[][] keys = new byte[noOfRecords][];
+        for (int i = 0; i < noOfRecords; i++) {
+            keys[i] = TestUtils.generateRandomByteArray(16);
+            db.put(keys[i], TestUtils.generateRandomByteArray(valueSize));
+        }
+
+        ExecutorService blockingPool = Executors.newFixedThreadPool(blockingPoolSize);
+        System.out.printf("%12s %20s %20s%n", "outstanding", "get on pool (ops/s)", "getAsync (ops/s)");
+        try {
+            for (int outstanding : OUTSTANDING_REQUESTS) {
+                long blocking = run(keys, outstanding, seconds, key -> CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return db.get(key);
+                    } catch (HaloDBException e) {
+                        throw new RuntimeException(e);
+                    }
+                }, blockingPool));
+                long async = run(keys, outstanding, seconds, db::getAsync);
+                System.out.printf("%12d %20d %20d%n", outstanding, blocking, async);
+            }
+        } finally {
+            blockingPool.shutdown();
+            db.close();
+            TestUtils.deleteDirectory(new File(directory));
+        }
+    }
+
+    /**
+     * @return number of reads completed per second.
+     */
+    private static long run(byte[][] keys, int outstanding, int seconds,
+                            Function<byte[], CompletableFuture<byte[]>> read) throws InterruptedException {
+        Semaphore permits = new Semaphore(outstanding);
+        AtomicLong completed = new AtomicLong(0);
+        Random random = new Random();
+
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        long start = System.nanoTime();
+        while (System.nanoTime() < end) {
+            permits.acquire();
+            read.apply(keys[random.nextInt(keys.length)]).whenComplete((value, error) -> {
+                completed.incrementAndGet();
+                permits.release();
+            });
+        }
+        permits.acquire(outstanding);
+        long elapsed = System.nanoTime() - start;
+
+        return completed.get() * TimeUnit.SECONDS.toNanos(1) / elapsed;
+    }
+}
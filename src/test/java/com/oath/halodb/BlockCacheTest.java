@@ -0,0 +1,144 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+public class BlockCacheTest {
+
+    @Test
+    public void testPutAndGet() {
+        BlockCache cache = new BlockCache(1024 * 1024, 4);
+        try {
+            byte[] block = TestUtils.generateRandomByteArray(BlockCache.BLOCK_SIZE);
+            ByteBuffer destination = ByteBuffer.allocate(100);
+            Assert.assertFalse(cache.get(1, 0, 0, 100, destination));
+
+            cache.put(1, 0, directBuffer(block));
+            Assert.assertTrue(cache.get(1, 0, 10, 100, destination));
+            Assert.assertEquals(destination.position(), 100);
+            assertRange(destination.array(), block, 10);
+
+            // same block of another file is a miss.
+            Assert.assertFalse(cache.get(2, 0, 0, 100, ByteBuffer.allocate(100)));
+
+            // copies into a direct buffer from its position.
+            ByteBuffer direct = ByteBuffer.allocateDirect(120);
+            direct.position(20);
+            Assert.assertTrue(cache.get(1, 0, 0, 100, direct));
+            Assert.assertEquals(direct.position(), 120);
+            byte[] copied = new byte[100];
+            direct.position(20);
+            direct.get(copied);
+            assertRange(copied, block, 0);
+
+            // last block of a file is shorter, reading past its end is a miss.
+            byte[] lastBlock = TestUtils.generateRandomByteArray(200);
+            cache.put(1, 1, directBuffer(lastBlock));
+            Assert.assertTrue(cache.get(1, 1, 100, 100, ByteBuffer.allocate(100)));
+            Assert.assertFalse(cache.get(1, 1, 100, 101, ByteBuffer.allocate(101)));
+
+            Assert.assertEquals(cache.size(), 2);
+            Assert.assertEquals(cache.hitCount(), 3);
+            Assert.assertEquals(cache.missCount(), 3);
+        } finally {
+            cache.close();
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testBlockLargerThanBlockSizeIsRejected() {
+        BlockCache cache = new BlockCache(1024 * 1024, 4);
+        try {
+            cache.put(1, 0, directBuffer(TestUtils.generateRandomByteArray(BlockCache.BLOCK_SIZE + 1)));
+        } finally {
+            cache.close();
+        }
+    }
+
+    @Test
+    public void testBlocksWhichAreReadOftenSurviveEviction() {
+        // a single segment with 8 slots.
+        BlockCache cache = new BlockCache(8 * BlockCache.BLOCK_SIZE, 1);
+        try {
+            ByteBuffer block = directBuffer(TestUtils.generateRandomByteArray(BlockCache.BLOCK_SIZE));
+            ByteBuffer destination = ByteBuffer.allocate(BlockCache.BLOCK_SIZE);
+            for (int i = 0; i < 8; i++) {
+                cache.put(1, i, block.duplicate());
+            }
+
+            for (int i = 100; i < 200; i++) {
+                // block 0 is read between each insert, so the hand always passes over it.
+                destination.clear();
+                Assert.assertTrue(cache.get(1, 0, 0, BlockCache.BLOCK_SIZE, destination));
+                cache.put(1, i, block.duplicate());
+            }
+            Assert.assertEquals(cache.size(), 8);
+            Assert.assertFalse(cache.get(1, 1, 0, 1, ByteBuffer.allocate(1)));
+        } finally {
+            cache.close();
+        }
+    }
+
+    @Test
+    public void testEvictedBlocksAreRemovedFromTheIndex() {
+        // a single segment with 64 slots, filled many times over so that chains in the index wrap around.
+        int noOfSlots = 64;
+        BlockCache cache = new BlockCache(noOfSlots * BlockCache.BLOCK_SIZE, 1);
+        try {
+            for (int i = 0; i < 10_000; i++) {
+                cache.put(i % 3, i, directBuffer(blockOf(i)));
+            }
+            Assert.assertEquals(cache.size(), noOfSlots);
+
+            // no block was read, so the hand evicted them in the order they were put.
+            for (int i = 0; i < 10_000; i++) {
+                ByteBuffer destination = ByteBuffer.allocate(8);
+                boolean cached = cache.get(i % 3, i, 0, 8, destination);
+                Assert.assertEquals(cached, i >= 10_000 - noOfSlots, "block " + i);
+                if (cached) {
+                    assertRange(destination.array(), blockOf(i), 0);
+                }
+            }
+        } finally {
+            cache.close();
+        }
+    }
+
+    @Test
+    public void testGetAfterClose() {
+        BlockCache cache = new BlockCache(1024 * 1024, 4);
+        cache.put(1, 0, directBuffer(TestUtils.generateRandomByteArray(BlockCache.BLOCK_SIZE)));
+        cache.close();
+
+        Assert.assertFalse(cache.get(1, 0, 0, 100, ByteBuffer.allocate(100)));
+        cache.put(1, 1, directBuffer(TestUtils.generateRandomByteArray(BlockCache.BLOCK_SIZE)));
+        Assert.assertEquals(cache.size(), 0);
+    }
+
+    private static ByteBuffer directBuffer(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes);
+        buffer.flip();
+        return buffer;
+    }
+
+    private static byte[] blockOf(int i) {
+        byte[] block = new byte[BlockCache.BLOCK_SIZE];
+        Arrays.fill(block, (byte)i);
+        return block;
+    }
+
+    private static void assertRange(byte[] actual, byte[] block, int offset) {
+        for (int i = 0; i < actual.length; i++) {
+            Assert.assertEquals(actual[i], block[offset + i]);
+        }
+    }
+}
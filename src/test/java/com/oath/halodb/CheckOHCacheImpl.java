@@ -10,6 +10,8 @@ package com.oath.halodb;
 import com.oath.halodb.histo.EstimatedHistogram;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
@@ -117,6 +119,28 @@ final class CheckOHCacheImpl<V> implements OffHeapHashTable<V>
         return segment.remove(keyBuffer);
     }
 
+    public V getAndPut(byte[] key, V value)
+    {
+        V old = get(key);
+        put(key, value);
+        return old;
+    }
+
+    public V getAndRemove(byte[] key)
+    {
+        V old = get(key);
+        remove(key);
+        return old;
+    }
+
+    public List<V> getAll(List<byte[]> keys)
+    {
+        List<V> values = new ArrayList<>(keys.size());
+        for (byte[] key : keys)
+            values.add(get(key));
+        return values;
+    }
+
     public void clear()
     {
         for (CheckSegment map : maps)
@@ -123,6 +123,69 @@ public class CrossCheckTest
         }
     }
 
+    @Test(dataProvider = "hashAlgorithms", dependsOnMethods = "testBasics")
+    public void testGetAndPutAndGetAndRemove(HashAlgorithm hashAlgorithm, boolean useMemoryPool) throws IOException
+    {
+        try (OffHeapHashTable<byte[]> cache = cache(hashAlgorithm, useMemoryPool, 64, 256))
+        {
+            Map<byte[], byte[]> keyValues = new HashMap<>();
+            for (int i = 0; i < 1000; i++) {
+                byte[] k = HashTableTestUtils.randomBytes(8);
+                byte[] v = HashTableTestUtils.randomBytes(fixedValueSize);
+                keyValues.put(k, v);
+                Assert.assertNull(cache.getAndPut(k, v));
+            }
+            Assert.assertEquals(cache.size(), keyValues.size());
+
+            keyValues.replaceAll((k, v) -> {
+                byte[] newValue = HashTableTestUtils.randomBytes(fixedValueSize);
+                Assert.assertEquals(cache.getAndPut(k, newValue), v);
+                return newValue;
+            });
+            Assert.assertEquals(cache.size(), keyValues.size());
+
+            keyValues.forEach((k, v) -> {
+                Assert.assertEquals(cache.getAndRemove(k), v);
+                Assert.assertNull(cache.getAndRemove(k));
+                Assert.assertNull(cache.get(k));
+            });
+            Assert.assertEquals(cache.size(), 0);
+        }
+    }
+
+    @Test(dataProvider = "hashAlgorithms", dependsOnMethods = "testBasics")
+    public void testGetAll(HashAlgorithm hashAlgorithm, boolean useMemoryPool) throws IOException
+    {
+        try (OffHeapHashTable<byte[]> cache = cache(hashAlgorithm, useMemoryPool, 64, 256))
+        {
+            List<byte[]> keys = new ArrayList<>();
+            List<byte[]> expected = new ArrayList<>();
+            for (int i = 0; i < 1000; i++) {
+                byte[] k = HashTableTestUtils.randomBytes(8);
+                keys.add(k);
+                if (i % 3 == 0) {
+                    // key which is not present.
+                    expected.add(null);
+                }
+                else {
+                    byte[] v = HashTableTestUtils.randomBytes(fixedValueSize);
+                    cache.put(k, v);
+                    expected.add(v);
+                }
+            }
+            // a key which is looked up twice.
+            keys.add(keys.get(1));
+            expected.add(expected.get(1));
+
+            List<byte[]> actual = cache.getAll(keys);
+            Assert.assertEquals(actual.size(), expected.size());
+            for (int i = 0; i < expected.size(); i++) {
+                Assert.assertEquals(actual.get(i), expected.get(i));
+            }
+            Assert.assertTrue(cache.getAll(new ArrayList<>()).isEmpty());
+        }
+    }
+
     @Test(dataProvider = "hashAlgorithms", dependsOnMethods = "testBasics")
     public void testManyValues(HashAlgorithm hashAlgorithm, boolean useMemoryPool) throws IOException, InterruptedException
     {
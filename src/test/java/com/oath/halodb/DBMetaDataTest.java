@@ -39,12 +39,16 @@ public class DBMetaDataTest {
         Assert.assertFalse(metaData.isOpen());
         Assert.assertEquals(metaData.getSequenceNumber(), 0);
         Assert.assertFalse(metaData.isIOError());
+        Assert.assertEquals(metaData.getSyncedDataFileId(), 0);
+        Assert.assertEquals(metaData.getSyncedTombstoneFileId(), 0);
 
         metaData.setVersion(Versions.CURRENT_META_FILE_VERSION);
         metaData.setOpen(true);
         metaData.setSequenceNumber(100);
         metaData.setIOError(false);
         metaData.setMaxFileSize(100);
+        metaData.setSyncedDataFileId(10);
+        metaData.setSyncedTombstoneFileId(11);
         metaData.storeToFile();
 
         // confirm that the file has been created.
@@ -59,6 +63,8 @@ public class DBMetaDataTest {
         Assert.assertEquals(metaData.getSequenceNumber(), 100);
         Assert.assertFalse(metaData.isIOError());
         Assert.assertEquals(metaData.getMaxFileSize(), 100);
+        Assert.assertEquals(metaData.getSyncedDataFileId(), 10);
+        Assert.assertEquals(metaData.getSyncedTombstoneFileId(), 11);
 
         metaData.setVersion(Versions.CURRENT_META_FILE_VERSION + 10);
         metaData.setOpen(false);
@@ -10,7 +10,10 @@ import org.testng.annotations.Test;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
 
 /**
@@ -44,6 +47,7 @@ public class DBRepairTest extends TestBase {
 
         // trick the db to think that there was an unclean shutdown.
         DBMetaData dbMetaData = new DBMetaData(directory);
+        dbMetaData.loadFromFileIfExists();
         dbMetaData.setOpen(true);
         dbMetaData.storeToFile();
 
@@ -70,13 +74,25 @@ public class DBRepairTest extends TestBase {
         String directory = TestUtils.getTestDirectory("DBRepairTest", "testRepairDBWithCompaction");
 
         options.setMaxFileSize(1024 * 1024);
+        options.setCompactionThresholdPerFile(0.5);
         HaloDB db = getTestDB(directory, options);
         int noOfRecords = 10 * 1024 + 512;
 
         List<Record> records = TestUtils.insertRandomRecordsOfSize(db, noOfRecords, 1024-Record.Header.HEADER_SIZE);
-        records = TestUtils.updateRecords(db, records);
+
+        // update every other record, so that each full file crosses the threshold with half of its records
+        // still live and compaction always copies them to a compacted file.
+        List<Record> toUpdate = new ArrayList<>();
+        for (int i = 1; i < noOfRecords; i += 2) {
+            toUpdate.add(records.get(i));
+        }
+        List<Record> updated = TestUtils.updateRecords(db, toUpdate);
+        for (int i = 0; i < updated.size(); i++) {
+            records.set(2 * i + 1, updated.get(i));
+        }
 
         TestUtils.waitForCompactionToComplete(db);
+        Assert.assertEquals(db.stats().getNumberOfRecordsCopied(), 10 * 512);
 
         File latestDataFile = TestUtils.getLatestDataFile(directory).get();
         File latestCompactionFile = TestUtils.getLatestCompactionFile(directory).get();
@@ -85,6 +101,7 @@ public class DBRepairTest extends TestBase {
 
         // trick the db to think that there was an unclean shutdown.
         DBMetaData dbMetaData = new DBMetaData(directory);
+        dbMetaData.loadFromFileIfExists();
         dbMetaData.setOpen(true);
         dbMetaData.storeToFile();
 
@@ -100,6 +117,74 @@ public class DBRepairTest extends TestBase {
         }
     }
 
+    @Test(dataProvider = "Options")
+    public void testRepairFilesAfterLastSyncedFile(HaloDBOptions options) throws HaloDBException, IOException {
+        String directory = TestUtils.getTestDirectory("DBRepairTest", "testRepairFilesAfterLastSyncedFile");
+
+        options.setMaxFileSize(320);
+        options.setCompactionDisabled(true);
+
+        HaloDB db = getTestDB(directory, options);
+
+        // 5 records of 61 bytes fit in a data file and 9 tombstone entries of 33 bytes in a tombstone file.
+        int noOfRecords = 60;
+        List<Record> records = new ArrayList<>();
+        for (int i = 0; i < noOfRecords; i++) {
+            Record r = new Record(TestUtils.generateRandomByteArray(19), TestUtils.generateRandomByteArray(24));
+            records.add(r);
+            db.put(r.getKey(), r.getValue());
+        }
+        for (int i = 0; i < noOfRecords; i++) {
+            if (i % 2 == 0) {
+                db.delete(records.get(i).getKey());
+            }
+        }
+        db.close();
+
+        File[] dataFiles = FileUtils.listDataFiles(new File(directory));
+        Arrays.sort(dataFiles, Comparator.comparing(File::getName));
+        File[] tombstoneFiles = FileUtils.listTombstoneFiles(new File(directory));
+        Assert.assertEquals(dataFiles.length, 12);
+        Assert.assertEquals(tombstoneFiles.length, 4);
+
+        // as if the process died while the files after the first ones were still being flushed in the background.
+        DBMetaData dbMetaData = new DBMetaData(directory);
+        dbMetaData.loadFromFileIfExists();
+        Assert.assertEquals(dbMetaData.getSyncedDataFileId(), fileId(dataFiles[dataFiles.length-2]));
+        Assert.assertEquals(dbMetaData.getSyncedTombstoneFileId(), fileId(tombstoneFiles[tombstoneFiles.length-2]));
+        dbMetaData.setSyncedDataFileId(fileId(dataFiles[0]));
+        dbMetaData.setSyncedTombstoneFileId(fileId(tombstoneFiles[0]));
+        dbMetaData.setOpen(true);
+        dbMetaData.storeToFile();
+
+        db = getTestDBWithoutDeletingFiles(directory, options);
+
+        // all files after the synced ones should have been repaired and deleted.
+        Assert.assertTrue(dataFiles[0].exists());
+        for (int i = 1; i < dataFiles.length; i++) {
+            Assert.assertFalse(dataFiles[i].exists());
+        }
+        Assert.assertTrue(tombstoneFiles[0].exists());
+        for (int i = 1; i < tombstoneFiles.length; i++) {
+            Assert.assertFalse(tombstoneFiles[i].exists());
+        }
+
+        Assert.assertEquals(db.size(), noOfRecords/2);
+        for (int i = 0; i < noOfRecords; i++) {
+            if (i % 2 == 0) {
+                Assert.assertNull(db.get(records.get(i).getKey()));
+            }
+            else {
+                Record r = records.get(i);
+                Assert.assertEquals(db.get(r.getKey()), r.getValue());
+            }
+        }
+    }
+
+    private static int fileId(File file) {
+        return Integer.parseInt(file.getName().substring(0, file.getName().indexOf('.')));
+    }
+
     @Test
     public void testRepairWithMultipleTombstoneFiles() throws HaloDBException, IOException {
         String directory = TestUtils.getTestDirectory("DBRepairTest", "testRepairWithMultipleTombstoneFiles");
@@ -136,6 +221,7 @@ public class DBRepairTest extends TestBase {
 
         // trick the db to think that there was an unclean shutdown.
         DBMetaData dbMetaData = new DBMetaData(directory);
+        dbMetaData.loadFromFileIfExists();
         dbMetaData.setOpen(true);
         dbMetaData.storeToFile();
 
@@ -154,4 +240,39 @@ public class DBRepairTest extends TestBase {
             Assert.assertNull(db.get(records.get(i).getKey()));
         }
     }
+
+    @Test(dataProvider = "Options")
+    public void testCrashAfterRollOverBeforeRetiredFileIsFlushed(HaloDBOptions options) throws HaloDBException, IOException {
+        String directory = TestUtils.getTestDirectory("DBRepairTest", "testCrashAfterRollOverBeforeRetiredFileIsFlushed");
+        String crashedDirectory = TestUtils.getTestDirectory("DBRepairTest", "testCrashAfterRollOverBeforeRetiredFileIsFlushed_crashed");
+
+        options.setMaxFileSize(1024 * 1024);
+        options.setCompactionDisabled(true);
+
+        HaloDB db = getTestDB(directory, options);
+        // the index entries of a full file fit in the index write buffer, the last record rolls over to a new file.
+        int noOfRecords = 1024 + 1;
+        List<Record> records = TestUtils.insertRandomRecordsOfSize(db, noOfRecords, 1024-Record.Header.HEADER_SIZE);
+
+        // the files as they are right after the roll over, which is what is left if the process dies
+        // before the retired file is flushed in the background.
+        // meta data is copied first, it records a file as synced only after the file was flushed.
+        File crashed = new File(crashedDirectory);
+        TestUtils.deleteDirectory(crashed);
+        crashed.mkdirs();
+        Files.copy(new File(directory, DBMetaData.METADATA_FILE_NAME).toPath(), new File(crashed, DBMetaData.METADATA_FILE_NAME).toPath());
+        for (File file : new File(directory).listFiles()) {
+            if (!file.getName().startsWith(DBMetaData.METADATA_FILE_NAME)) {
+                Files.copy(file.toPath(), new File(crashed, file.getName()).toPath());
+            }
+        }
+        db.close();
+        TestUtils.deleteDirectory(new File(directory));
+
+        db = getTestDBWithoutDeletingFiles(crashedDirectory, options);
+        Assert.assertEquals(db.size(), noOfRecords);
+        for (Record r : records) {
+            Assert.assertEquals(db.get(r.getKey()), r.getValue());
+        }
+    }
 }
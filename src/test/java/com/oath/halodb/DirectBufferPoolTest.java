@@ -0,0 +1,61 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+
+public class DirectBufferPoolTest {
+
+    @Test
+    public void testBuffersAreReused() {
+        DirectBufferPool pool = new DirectBufferPool(1);
+
+        ByteBuffer buffer = pool.acquire(100);
+        Assert.assertTrue(buffer.isDirect());
+        Assert.assertEquals(buffer.capacity(), DirectBufferPool.MIN_BUFFER_SIZE);
+        Assert.assertEquals(buffer.position(), 0);
+        Assert.assertEquals(buffer.limit(), 100);
+        buffer.put((byte)1);
+        pool.release(buffer);
+
+        // a buffer of the same capacity is reused and comes back cleared.
+        ByteBuffer reused = pool.acquire(DirectBufferPool.MIN_BUFFER_SIZE);
+        Assert.assertSame(reused, buffer);
+        Assert.assertEquals(reused.position(), 0);
+        Assert.assertEquals(reused.limit(), DirectBufferPool.MIN_BUFFER_SIZE);
+
+        ByteBuffer larger = pool.acquire(DirectBufferPool.MIN_BUFFER_SIZE + 1);
+        Assert.assertNotSame(larger, buffer);
+        Assert.assertEquals(larger.capacity(), 2 * DirectBufferPool.MIN_BUFFER_SIZE);
+    }
+
+    @Test
+    public void testPoolIsBounded() {
+        DirectBufferPool pool = new DirectBufferPool(1);
+
+        ByteBuffer first = pool.acquire(10);
+        ByteBuffer second = pool.acquire(10);
+        pool.release(first);
+        pool.release(second);
+
+        Assert.assertSame(pool.acquire(10), first);
+        Assert.assertNotSame(pool.acquire(10), second);
+    }
+
+    @Test
+    public void testLargeBuffersAreNotPooled() {
+        DirectBufferPool pool = new DirectBufferPool(1);
+
+        ByteBuffer buffer = pool.acquire(DirectBufferPool.MAX_BUFFER_SIZE + 1);
+        Assert.assertFalse(buffer.isDirect());
+        Assert.assertEquals(buffer.remaining(), DirectBufferPool.MAX_BUFFER_SIZE + 1);
+        pool.release(buffer);
+        Assert.assertNotSame(pool.acquire(DirectBufferPool.MAX_BUFFER_SIZE + 1), buffer);
+    }
+}
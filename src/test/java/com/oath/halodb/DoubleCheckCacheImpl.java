@@ -13,6 +13,7 @@ import com.oath.halodb.histo.EstimatedHistogram;
 import org.testng.Assert;
 
 import java.io.IOException;
+import java.util.List;
 
 /**
  * Test code that contains an instance of the production and check {@link OffHeapHashTable}
@@ -72,6 +73,32 @@ public class DoubleCheckCacheImpl<V> implements OffHeapHashTable<V>
         return rProd;
     }
 
+    public V getAndPut(byte[] key, V value)
+    {
+        V rProd = prod.getAndPut(key, value);
+        V rCheck = check.getAndPut(key, value);
+        Assert.assertEquals(rProd, rCheck, "for key='" + key + '\'');
+        return rProd;
+    }
+
+    public V getAndRemove(byte[] key)
+    {
+        V rProd = prod.getAndRemove(key);
+        V rCheck = check.getAndRemove(key);
+        Assert.assertEquals(rProd, rCheck, "for key='" + key + '\'');
+        return rProd;
+    }
+
+    public List<V> getAll(List<byte[]> keys)
+    {
+        List<V> rProd = prod.getAll(keys);
+        List<V> rCheck = check.getAll(keys);
+        Assert.assertEquals(rProd.size(), rCheck.size());
+        for (int i = 0; i < rProd.size(); i++)
+            Assert.assertEquals(rProd.get(i), rCheck.get(i), "for key='" + keys.get(i) + '\'');
+        return rProd;
+    }
+
     public void clear()
     {
         prod.clear();
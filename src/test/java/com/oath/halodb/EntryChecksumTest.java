@@ -0,0 +1,82 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+public class EntryChecksumTest {
+
+    @Test
+    public void testCrc32IsCompatibleWithOlderVersions() {
+        byte[] data = TestUtils.generateRandomByteArray(1024);
+        CRC32 crc32 = new CRC32();
+        crc32.update(data);
+
+        EntryChecksum checksum = ScratchBuffers.get().checksum(0);
+        Assert.assertEquals(checksum.compute(ByteBuffer.wrap(data)), crc32.getValue());
+    }
+
+    @Test
+    public void testPortableCrc32cMatchesJdkCrc32c() {
+        byte[] data = TestUtils.generateRandomByteArray(10000);
+        EntryChecksum portable = new EntryChecksum.PortableCrc32cChecksum();
+        EntryChecksum crc32c = EntryChecksum.create(ChecksumAlgorithm.CRC32C);
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+        direct.put(data).flip();
+        long expected = portable.compute(ByteBuffer.wrap(data));
+
+        Assert.assertEquals(portable.compute(direct), expected);
+        Assert.assertEquals(crc32c.compute(direct), expected);
+        Assert.assertEquals(crc32c.compute(ByteBuffer.wrap(data)), expected);
+    }
+
+    @Test
+    public void testComputeDoesNotChangePosition() {
+        byte[] data = TestUtils.generateRandomByteArray(100);
+        for (ChecksumAlgorithm algorithm : ChecksumAlgorithm.values()) {
+            EntryChecksum checksum = EntryChecksum.create(algorithm);
+
+            ByteBuffer buffer = ByteBuffer.allocateDirect(data.length);
+            buffer.put(data).flip();
+            buffer.position(10);
+            long value = checksum.compute(buffer);
+
+            Assert.assertEquals(buffer.position(), 10);
+            Assert.assertTrue(value >= 0 && value <= 0xffffffffL);
+            Assert.assertEquals(checksum.compute(ByteBuffer.wrap(data, 10, data.length - 10)), value);
+        }
+    }
+
+    @Test
+    public void testUpdateInPartsMatchesCompute() {
+        byte[] data = TestUtils.generateRandomByteArray(1000);
+        List<EntryChecksum> checksums = new ArrayList<>();
+        for (ChecksumAlgorithm algorithm : ChecksumAlgorithm.values()) {
+            checksums.add(EntryChecksum.create(algorithm));
+        }
+        checksums.add(new EntryChecksum.PortableCrc32cChecksum());
+
+        for (EntryChecksum checksum : checksums) {
+            long expected = checksum.compute(ByteBuffer.wrap(data));
+
+            // reset discards what was added before.
+            checksum.update(data, 0, 10);
+            checksum.reset();
+            checksum.update(data, 0, 1);
+            checksum.update(data, 1, 499);
+            checksum.update(data, 500, 0);
+            checksum.update(data, 500, 500);
+            Assert.assertEquals(checksum.getValue(), expected);
+        }
+    }
+}
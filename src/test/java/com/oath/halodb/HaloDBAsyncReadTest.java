@@ -0,0 +1,94 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class HaloDBAsyncReadTest extends TestBase {
+
+    @Test(dataProvider = "Options")
+    public void testGetAsync(HaloDBOptions options) throws Exception {
+        String directory = TestUtils.getTestDirectory("HaloDBAsyncReadTest", "testGetAsync");
+        options.setCompactionDisabled(true);
+        options.setMaxFileSize(10 * 1024);
+
+        HaloDB db = getTestDB(directory, options);
+        List<Record> records = TestUtils.insertRandomRecords(db, 2_000);
+
+        List<CompletableFuture<byte[]>> futures = new ArrayList<>();
+        for (Record record : records) {
+            futures.add(db.getAsync(record.getKey()));
+        }
+        for (int i = 0; i < records.size(); i++) {
+            Assert.assertEquals(futures.get(i).get(), records.get(i).getValue());
+        }
+
+        List<byte[]> keys = new ArrayList<>();
+        records.forEach(r -> keys.add(r.getKey()));
+        List<byte[]> values = db.multiGetAsync(keys).get();
+        for (int i = 0; i < records.size(); i++) {
+            Assert.assertEquals(values.get(i), records.get(i).getValue());
+        }
+
+        // lookups of keys which are not in the db complete immediately.
+        CompletableFuture<byte[]> missing = db.getAsync(TestUtils.generateRandomByteArray());
+        Assert.assertTrue(missing.isDone());
+        Assert.assertNull(missing.get());
+
+        CompletableFuture<List<byte[]>> allMissing = db.multiGetAsync(Collections.singletonList(TestUtils.generateRandomByteArray()));
+        Assert.assertTrue(allMissing.isDone());
+        Assert.assertEquals(allMissing.get().size(), 1);
+        Assert.assertNull(allMissing.get().get(0));
+    }
+
+    @Test
+    public void testReadsRunOnConfiguredExecutor() throws Exception {
+        String directory = TestUtils.getTestDirectory("HaloDBAsyncReadTest", "testReadsRunOnConfiguredExecutor");
+        AtomicInteger tasks = new AtomicInteger(0);
+        Executor executor = command -> {
+            tasks.incrementAndGet();
+            new Thread(command).start();
+        };
+        HaloDBOptions options = new HaloDBOptions();
+        options.setReadExecutor(executor);
+
+        HaloDB db = getTestDB(directory, options);
+        List<Record> records = TestUtils.insertRandomRecords(db, 10);
+
+        for (Record record : records) {
+            Assert.assertEquals(db.getAsync(record.getKey()).get(), record.getValue());
+        }
+        Assert.assertEquals(tasks.get(), records.size());
+
+        // index lookups of missing keys don't run on the executor.
+        db.getAsync(TestUtils.generateRandomByteArray()).get();
+        Assert.assertEquals(tasks.get(), records.size());
+    }
+
+    @Test
+    public void testMultiGetAsyncWithLargeKey() throws Exception {
+        String directory = TestUtils.getTestDirectory("HaloDBAsyncReadTest", "testMultiGetAsyncWithLargeKey");
+        HaloDB db = getTestDB(directory, new HaloDBOptions());
+
+        CompletableFuture<List<byte[]>> future =
+            db.multiGetAsync(Collections.singletonList(TestUtils.generateRandomByteArray(Byte.MAX_VALUE + 1)));
+        try {
+            future.get();
+            Assert.fail("expected the future to fail");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof HaloDBException);
+        }
+    }
+}
@@ -10,11 +10,14 @@ import org.testng.Assert;
 import org.testng.annotations.Test;
 
 import java.io.File;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 
 /**
@@ -197,6 +200,87 @@ public class HaloDBCompactionTest extends TestBase {
         }
     }
 
+    @Test(dataProvider = "Options")
+    public void testReadsDuringCompactionAreNotRetried(HaloDBOptions options) throws Exception {
+        String directory = TestUtils.getTestDirectory("HaloDBCompactionTest", "testReadsDuringCompactionAreNotRetried");
+
+        options.setMaxFileSize(recordsPerFile * recordSize);
+        options.setCompactionThresholdPerFile(0.5);
+
+        HaloDB db = getTestDB(directory, options);
+        List<Record> records = TestUtils.insertRandomRecordsOfSize(db, 1000, recordSize - Record.Header.HEADER_SIZE);
+
+        Thread updateThread = new Thread(() -> {
+            for (int i = 0; i < 5; i++) {
+                TestUtils.updateRecordsWithSize(db, records, recordSize);
+            }
+        });
+        updateThread.start();
+
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        List<Thread> readers = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Thread reader = new Thread(() -> {
+                ByteBuffer buffer = ByteBuffer.allocate(recordSize);
+                try {
+                    while (updateThread.isAlive()) {
+                        for (Record record : records) {
+                            Assert.assertNotNull(db.get(record.getKey()));
+                            Assert.assertEquals(db.get(ByteBuffer.wrap(record.getKey()), buffer), recordSize - Record.Header.HEADER_SIZE - record.getKey().length);
+                        }
+                    }
+                } catch (Throwable t) {
+                    error.compareAndSet(null, t);
+                }
+            });
+            reader.start();
+            readers.add(reader);
+        }
+
+        updateThread.join();
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        TestUtils.waitForCompactionToComplete(db);
+
+        Assert.assertNull(error.get());
+        Assert.assertTrue(db.stats().getSizeOfFilesDeleted() > 0);
+        // compaction waits for reads which might have looked up a file before deleting it.
+        Assert.assertEquals(db.stats().getNumberOfReadRetries(), 0);
+    }
+
+    @Test
+    public void testFileIsDeletedOnceReleased() throws Exception {
+        String directory = TestUtils.getTestDirectory("HaloDBCompactionTest", "testFileIsDeletedOnceReleased");
+        TestUtils.deleteDirectory(new File(directory));
+
+        HaloDBOptions options = new HaloDBOptions();
+        options.setCompactionDisabled(true);
+        HaloDBInternal dbInternal = HaloDBInternal.open(new File(directory), options);
+        try {
+            byte[] key = TestUtils.generateRandomByteArray();
+            byte[] value = TestUtils.generateRandomByteArray();
+            dbInternal.put(key, value);
+            RecordMetaDataForCache metaData = dbInternal.getInMemoryIndex().get(key);
+            int fileId = metaData.getFileId();
+
+            // held by a reader, such as an iterator, while compaction deletes it.
+            HaloDBFile file = dbInternal.acquireHaloDBFile(fileId);
+            Assert.assertNotNull(file);
+            dbInternal.deleteHaloDBFile(fileId);
+
+            Assert.assertNull(dbInternal.getHaloDBFile(fileId));
+            Assert.assertNull(dbInternal.acquireHaloDBFile(fileId));
+            Assert.assertTrue(Paths.get(directory, fileId + HaloDBFile.DATA_FILE_NAME).toFile().exists());
+            Assert.assertEquals(file.readFromFile(metaData.getValueOffset(), metaData.getValueSize()), value);
+
+            dbInternal.releaseHaloDBFile(file);
+            Assert.assertFalse(Paths.get(directory, fileId + HaloDBFile.DATA_FILE_NAME).toFile().exists());
+        } finally {
+            dbInternal.close();
+        }
+    }
+
     private Record[] insertAndUpdateRecords(int numberOfRecords, HaloDB db) throws HaloDBException {
         int valueSize = recordSize - Record.Header.HEADER_SIZE - 8; // 8 is the key size.
 
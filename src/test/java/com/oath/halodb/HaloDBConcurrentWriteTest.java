@@ -0,0 +1,240 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class HaloDBConcurrentWriteTest extends TestBase {
+
+    @Test(dataProvider = "Options")
+    public void testConcurrentPuts(HaloDBOptions options) throws Exception {
+        String directory = TestUtils.getTestDirectory("HaloDBConcurrentWriteTest", "testConcurrentPuts");
+        options.setCompactionDisabled(true);
+        options.setMaxFileSize(10 * 1024);
+
+        HaloDB db = getTestDB(directory, options);
+
+        int noOfThreads = 8, noOfRecordsPerThread = 2_000;
+        List<Record> expected = TestUtils.generateRandomData(noOfThreads * noOfRecordsPerThread);
+        List<List<Record>> recordsPerThread = new ArrayList<>();
+        for (int i = 0; i < noOfThreads; i++) {
+            recordsPerThread.add(expected.subList(i * noOfRecordsPerThread, (i + 1) * noOfRecordsPerThread));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(noOfThreads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (List<Record> records : recordsPerThread) {
+            futures.add(executor.submit(() -> {
+                for (Record record : records) {
+                    db.put(record.getKey(), record.getValue());
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        Assert.assertEquals(db.size(), expected.size());
+        for (Record record : expected) {
+            Assert.assertEquals(db.get(record.getKey()), record.getValue());
+        }
+
+        // reopen and check that the data and index files written concurrently are consistent.
+        db.close();
+        HaloDB reopened = getTestDBWithoutDeletingFiles(directory, options);
+        Assert.assertEquals(reopened.size(), expected.size());
+        for (Record record : expected) {
+            Assert.assertEquals(reopened.get(record.getKey()), record.getValue());
+        }
+
+        List<Record> actual = new ArrayList<>();
+        reopened.newIterator().forEachRemaining(actual::add);
+        Assert.assertTrue(actual.containsAll(expected) && expected.containsAll(actual));
+    }
+
+    @Test(dataProvider = "Options")
+    public void testConcurrentUpdatesAndDeletesToSameKeys(HaloDBOptions options) throws Exception {
+        String directory = TestUtils.getTestDirectory("HaloDBConcurrentWriteTest", "testConcurrentUpdatesAndDeletesToSameKeys");
+        options.setCompactionDisabled(true);
+        options.setMaxFileSize(10 * 1024);
+
+        HaloDB writer = getTestDB(directory, options);
+        List<Record> records = TestUtils.insertRandomRecords(writer, 500);
+
+        int noOfThreads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(noOfThreads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < noOfThreads; t++) {
+            final int thread = t;
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < records.size(); i++) {
+                    Record record = records.get(i);
+                    if ((i + thread) % 4 == 0) {
+                        writer.delete(record.getKey());
+                    }
+                    else {
+                        writer.put(record.getKey(), TestUtils.generateRandomByteArray());
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        // the final state of each key should survive a restart.
+        List<byte[]> values = new ArrayList<>();
+        for (Record record : records) {
+            values.add(writer.get(record.getKey()));
+        }
+        long size = writer.size();
+
+        writer.close();
+        HaloDB db = getTestDBWithoutDeletingFiles(directory, options);
+
+        Assert.assertEquals(db.size(), size);
+        for (int i = 0; i < records.size(); i++) {
+            Assert.assertEquals(db.get(records.get(i).getKey()), values.get(i));
+        }
+    }
+
+    @Test(dataProvider = "Options")
+    public void testConcurrentPutsAndBatchesToSameKeys(HaloDBOptions options) throws Exception {
+        String directory = TestUtils.getTestDirectory("HaloDBConcurrentWriteTest", "testConcurrentPutsAndBatchesToSameKeys");
+        options.setCompactionDisabled(true);
+        // small files so that writers often roll over, when a put waits for the write lock.
+        options.setMaxFileSize(4 * 1024);
+
+        HaloDB writer = getTestDB(directory, options);
+        int noOfPairs = 4, noOfKeysPerPair = 2_000, batchSize = 4;
+        List<Record> records = TestUtils.insertRandomRecords(writer, noOfPairs * noOfKeysPerPair);
+
+        // a put thread and a batch thread walk the same keys at about the same pace, so that each key
+        // is last written by whichever of the two came second.
+        ExecutorService executor = Executors.newFixedThreadPool(2 * noOfPairs);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int p = 0; p < noOfPairs; p++) {
+            List<Record> keys = records.subList(p * noOfKeysPerPair, (p + 1) * noOfKeysPerPair);
+            futures.add(executor.submit(() -> {
+                for (Record record : keys) {
+                    writer.put(record.getKey(), TestUtils.generateRandomByteArray(20));
+                }
+                return null;
+            }));
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < keys.size(); i += batchSize) {
+                    WriteBatch batch = new WriteBatch();
+                    for (int j = i; j < i + batchSize; j++) {
+                        if (j % 7 == 0) {
+                            batch.delete(keys.get(j).getKey());
+                        }
+                        else {
+                            batch.put(keys.get(j).getKey(), TestUtils.generateRandomByteArray(20));
+                        }
+                    }
+                    writer.write(batch);
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        // the index rebuilt from disk keeps the record with the highest sequence number of each
+        // key, which must be the one the index pointed to before the restart.
+        List<byte[]> values = new ArrayList<>();
+        for (Record record : records) {
+            values.add(writer.get(record.getKey()));
+        }
+        long size = writer.size();
+
+        writer.close();
+        HaloDB db = getTestDBWithoutDeletingFiles(directory, options);
+
+        Assert.assertEquals(db.size(), size);
+        for (int i = 0; i < records.size(); i++) {
+            Assert.assertEquals(db.get(records.get(i).getKey()), values.get(i), "value of key " + i);
+        }
+    }
+
+    @Test(dataProvider = "Options")
+    public void testAsyncWritesAreCoalesced(HaloDBOptions options) throws Exception {
+        String directory = TestUtils.getTestDirectory("HaloDBConcurrentWriteTest", "testAsyncWritesAreCoalesced");
+        options.setCompactionDisabled(true);
+        options.setMaxFileSize(10 * 1024);
+
+        HaloDB db = getTestDB(directory, options);
+
+        int noOfThreads = 4, noOfRecordsPerThread = 500;
+        List<Record> expected = TestUtils.generateRandomData(noOfThreads * noOfRecordsPerThread);
+        ExecutorService executor = Executors.newFixedThreadPool(noOfThreads);
+        List<Future<List<CompletableFuture<Void>>>> futures = new ArrayList<>();
+        for (int i = 0; i < noOfThreads; i++) {
+            List<Record> records = expected.subList(i * noOfRecordsPerThread, (i + 1) * noOfRecordsPerThread);
+            futures.add(executor.submit(() -> {
+                // pipeline the writes without waiting for each one to be synced.
+                List<CompletableFuture<Void>> syncs = new ArrayList<>();
+                for (Record record : records) {
+                    syncs.add(db.putAsync(record.getKey(), record.getValue()));
+                }
+                return syncs;
+            }));
+        }
+
+        List<CompletableFuture<Void>> syncs = new ArrayList<>();
+        for (Future<List<CompletableFuture<Void>>> future : futures) {
+            syncs.addAll(future.get());
+        }
+        executor.shutdown();
+        CompletableFuture.allOf(syncs.toArray(new CompletableFuture[0])).get();
+
+        Assert.assertTrue(db.getNumberOfSyncs() > 0);
+        Assert.assertTrue(db.getNumberOfSyncs() < expected.size());
+        for (Record record : expected) {
+            Assert.assertEquals(db.get(record.getKey()), record.getValue());
+        }
+
+        db.close();
+        HaloDB reopened = getTestDBWithoutDeletingFiles(directory, options);
+        Assert.assertEquals(reopened.size(), expected.size());
+    }
+
+    @Test(dataProvider = "Options")
+    public void testAsyncDelete(HaloDBOptions options) throws Exception {
+        String directory = TestUtils.getTestDirectory("HaloDBConcurrentWriteTest", "testAsyncDelete");
+        options.setCompactionDisabled(true);
+
+        HaloDB db = getTestDB(directory, options);
+        List<Record> records = TestUtils.insertRandomRecords(db, 100);
+
+        List<CompletableFuture<Void>> syncs = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            syncs.add(db.deleteAsync(records.get(i).getKey()));
+        }
+        CompletableFuture.allOf(syncs.toArray(new CompletableFuture[0])).get();
+
+        db.close();
+        HaloDB reopened = getTestDBWithoutDeletingFiles(directory, options);
+        Assert.assertEquals(reopened.size(), 50);
+        for (int i = 0; i < records.size(); i++) {
+            Assert.assertEquals(reopened.get(records.get(i).getKey()), i < 50 ? null : records.get(i).getValue());
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class HaloDBDirectIOTest extends TestBase {
+
+    @Test(dataProvider = "Options")
+    public void testReadsAndCompactionWithDirectIO(HaloDBOptions options) throws Exception {
+        String directory = TestUtils.getTestDirectory("HaloDBDirectIOTest", "testReadsAndCompactionWithDirectIO");
+        options.setMaxFileSize(16 * 1024);
+        options.setCompactionThresholdPerFile(0.5);
+        options.setDirectIO(true);
+        options.setBlockCacheSize(1024 * 1024);
+
+        HaloDB db = getTestDB(directory, options);
+        List<Record> records = TestUtils.insertRandomRecords(db, 1_000);
+        List<Record> kept = new ArrayList<>();
+        for (int i = 0; i < records.size(); i++) {
+            Record record = records.get(i);
+            if (i % 2 == 0) {
+                db.delete(record.getKey());
+            }
+            else {
+                kept.add(record);
+            }
+        }
+        TestUtils.waitForCompactionToComplete(db);
+        Assert.assertTrue(db.stats().getNumberOfRecordsCopied() > 0);
+
+        // reads from the files which are no longer written to, and from the current write file.
+        for (int i = 0; i < 2; i++) {
+            for (Record record : kept) {
+                Assert.assertEquals(db.get(record.getKey()), record.getValue());
+            }
+        }
+        if (NativeIO.isDirectIOAvailable()) {
+            Assert.assertTrue(db.stats().getBlockCacheHitCount() > 0);
+            Assert.assertTrue(db.stats().getBlockCacheMissCount() > 0);
+        }
+
+        db.close();
+        db = getTestDBWithoutDeletingFiles(directory, options);
+        for (Record record : kept) {
+            Assert.assertEquals(db.get(record.getKey()), record.getValue());
+        }
+    }
+
+    @Test(dataProvider = "Options")
+    public void testCachedReadsAfterReadOfManyBlocks(HaloDBOptions options) throws Exception {
+        String directory = TestUtils.getTestDirectory("HaloDBDirectIOTest", "testCachedReadsAfterReadOfManyBlocks");
+        options.setMaxFileSize(1024 * 1024);
+        options.setDirectIO(true);
+        options.setBlockCacheSize(256 * 1024);
+
+        HaloDB db = getTestDB(directory, options);
+        // spans more blocks than are read through the block cache, and grows the thread's aligned buffer.
+        byte[] largeKey = "large".getBytes();
+        byte[] largeValue = TestUtils.generateRandomByteArray(20 * BlockCache.BLOCK_SIZE);
+        db.put(largeKey, largeValue);
+        List<Record> records = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            Record record = new Record(TestUtils.generateRandomByteArray(), TestUtils.generateRandomByteArray(1000));
+            db.put(record.getKey(), record.getValue());
+            records.add(record);
+        }
+        db.close();
+
+        // reopened, so that all reads are from files which are no longer written to. Blocks are read out of order,
+        // so that a cached block which spilled over into the slots of others would be noticed.
+        db = getTestDBWithoutDeletingFiles(directory, options);
+        Collections.shuffle(records, new Random(42));
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals(db.get(largeKey), largeValue);
+            for (Record record : records) {
+                Assert.assertEquals(db.get(record.getKey()), record.getValue());
+            }
+        }
+        if (NativeIO.isDirectIOAvailable()) {
+            Assert.assertTrue(db.stats().getBlockCacheHitCount() > 0);
+        }
+    }
+
+    @Test(dataProvider = "Options")
+    public void testConcurrentAppendsWithDirectIO(HaloDBOptions options) throws Exception {
+        String directory = TestUtils.getTestDirectory("HaloDBDirectIOTest", "testConcurrentAppendsWithDirectIO");
+        options.setMaxFileSize(4 * DirectAppendBuffer.WINDOW_SIZE);
+        options.setDirectIO(true);
+        options.setBlockCacheSize(1024 * 1024);
+
+        HaloDB writeDB = getTestDB(directory, options);
+        int threads = 4, recordsPerThread = 500;
+        List<List<Record>> written = new ArrayList<>();
+        List<Thread> writers = new ArrayList<>();
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        for (int t = 0; t < threads; t++) {
+            List<Record> records = new ArrayList<>();
+            written.add(records);
+            Random random = new Random(t);
+            String prefix = "thread-" + t + "-";
+            writers.add(new Thread(() -> {
+                try {
+                    for (int i = 0; i < recordsPerThread; i++) {
+                        // now and then a record which spans more than a window.
+                        int size = i % 100 == 0 ? DirectAppendBuffer.WINDOW_SIZE + 1000 : 1 + random.nextInt(4000);
+                        Record record = new Record((prefix + i).getBytes(), TestUtils.generateRandomByteArray(size));
+                        writeDB.put(record.getKey(), record.getValue());
+                        records.add(record);
+                        // read back while it is still in the window, or already written out.
+                        Assert.assertEquals(writeDB.get(record.getKey()), record.getValue());
+                    }
+                } catch (Throwable e) {
+                    error.compareAndSet(null, e);
+                }
+            }));
+        }
+        writers.forEach(Thread::start);
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        Assert.assertNull(error.get());
+        HaloDB db = writeDB;
+
+        // synced, which writes out the padded window of the current write file.
+        Record last = new Record("last".getBytes(), TestUtils.generateRandomByteArray(100));
+        db.putAsync(last.getKey(), last.getValue()).get();
+        written.get(0).add(last);
+        for (List<Record> records : written) {
+            for (Record record : records) {
+                Assert.assertEquals(db.get(record.getKey()), record.getValue());
+            }
+        }
+
+        db.close();
+        // data files are trimmed to the data once closed.
+        File[] dataFiles = new File(directory).listFiles((dir, name) -> name.endsWith(HaloDBFile.DATA_FILE_NAME));
+        long totalSize = 0;
+        for (File dataFile : dataFiles) {
+            totalSize += dataFile.length();
+        }
+        long expectedSize = 0;
+        for (List<Record> records : written) {
+            for (Record record : records) {
+                expectedSize += Record.Header.HEADER_SIZE + record.getKey().length + record.getValue().length;
+            }
+        }
+        Assert.assertEquals(totalSize, expectedSize);
+
+        db = getTestDBWithoutDeletingFiles(directory, options);
+        for (List<Record> records : written) {
+            for (Record record : records) {
+                Assert.assertEquals(db.get(record.getKey()), record.getValue());
+            }
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testDirectIOCannotBeUsedWithMappedFiles() throws Exception {
+        String directory = TestUtils.getTestDirectory("HaloDBDirectIOTest", "testDirectIOCannotBeUsedWithMappedFiles");
+        HaloDBOptions options = new HaloDBOptions();
+        options.setDirectIO(true);
+        options.setMemoryMapDataFiles(true);
+        getTestDB(directory, options);
+    }
+}
@@ -5,6 +5,8 @@
 
 package com.oath.halodb;
 
+import com.sun.jna.Platform;
+
 import org.testng.Assert;
 import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
@@ -12,11 +14,18 @@ import org.testng.annotations.Test;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
 import java.nio.channels.FileChannel;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 public class HaloDBFileTest extends TestBase {
 
@@ -46,7 +55,22 @@ public class HaloDBFileTest extends TestBase {
     @Test
     public void testIndexFile() throws IOException {
         List<Record> list = insertTestRecords();
+        file.getIndexFile().flush();
+
+        indexFile.open();
+        verifyIndexFile(indexFile, list);
+    }
+
+    @Test
+    public void testBufferedIndexEntriesWrittenOnClose() throws IOException {
+        List<Record> list = insertTestRecords();
 
+        // entries are buffered and not yet written to the index file.
+        indexFile.open();
+        Assert.assertFalse(indexFile.newIterator().hasNext());
+        indexFile.close();
+
+        file.close();
         indexFile.open();
         verifyIndexFile(indexFile, list);
     }
@@ -206,6 +230,224 @@ public class HaloDBFileTest extends TestBase {
         verifyIndexFile(newFile.getIndexFile(), list);
     }
 
+    @Test
+    public void testPreallocatedFileIsTrimmed() throws IOException {
+        HaloDBOptions options = new HaloDBOptions();
+        options.setPreallocateDataFiles(true);
+        file.delete();
+        file = HaloDBFile.create(directory, fileId, options, HaloDBFile.FileType.DATA_FILE);
+        Assert.assertEquals(file.getChannel().size(), options.getMaxFileSize());
+
+        List<Record> list = insertTestRecords();
+        verifyDataFile(list, file);
+
+        file.trim();
+        Assert.assertEquals(file.getChannel().size(), file.getWriteOffset());
+        verifyDataFile(list, file);
+    }
+
+    @Test
+    public void testReadFromMappedFile() throws IOException {
+        HaloDBOptions options = new HaloDBOptions();
+        options.setMemoryMapDataFiles(true);
+        file.delete();
+        file = HaloDBFile.create(directory, fileId, options, HaloDBFile.FileType.DATA_FILE);
+
+        List<Record> list = insertTestRecords();
+        Assert.assertFalse(file.isMapped());
+        file.map();
+        Assert.assertTrue(file.isMapped());
+
+        for (Record record : list) {
+            RecordMetaDataForCache meta = record.getRecordMetaData();
+            Assert.assertEquals(file.readFromFile(meta.getValueOffset(), meta.getValueSize()), record.getValue());
+        }
+        verifyDataFile(list, file);
+
+        // files opened for reading are mapped.
+        File dataFile = Paths.get(directory.getCanonicalPath(), fileId + HaloDBFile.DATA_FILE_NAME).toFile();
+        HaloDBFile reopened = HaloDBFile.openForReading(directory, dataFile, HaloDBFile.FileType.DATA_FILE, options);
+        Assert.assertTrue(reopened.isMapped());
+        verifyDataFile(list, reopened);
+
+        // once deleted reads fail, as they do for a file which is not mapped, so that readers retry.
+        reopened.delete();
+        Assert.assertFalse(reopened.isMapped());
+        RecordMetaDataForCache meta = list.get(0).getRecordMetaData();
+        try {
+            reopened.readFromFile(meta.getValueOffset(), meta.getValueSize());
+            Assert.fail("read from a deleted file");
+        } catch (ClosedChannelException e) {
+            // expected.
+        }
+    }
+
+    @Test
+    public void testReadWithDirectIO() throws IOException {
+        HaloDBOptions options = new HaloDBOptions();
+        options.setDirectIO(true);
+        file.delete();
+        BlockCache blockCache = new BlockCache(1024 * 1024, 2);
+        file = HaloDBFile.create(directory, fileId, options, HaloDBFile.FileType.DATA_FILE, blockCache);
+
+        try {
+            List<Record> list = insertTestRecords();
+            file.seal();
+
+            // values are read twice, the second read of a small value is served from the cache.
+            for (int i = 0; i < 2; i++) {
+                for (Record record : list) {
+                    RecordMetaDataForCache meta = record.getRecordMetaData();
+                    Assert.assertEquals(file.readFromFile(meta.getValueOffset(), meta.getValueSize()), record.getValue());
+                }
+            }
+            verifyDataFile(list, file);
+            if (NativeIO.isDirectIOAvailable()) {
+                Assert.assertTrue(blockCache.hitCount() > 0);
+                Assert.assertTrue(blockCache.size() > 0);
+            }
+
+            // a read larger than the cached blocks into a direct buffer.
+            ByteBuffer all = ByteBuffer.allocateDirect((int)file.getSize());
+            Assert.assertEquals(file.readFromFile(0, all), file.getSize());
+            all.flip();
+            ByteBuffer expected = ByteBuffer.allocate((int)file.getSize());
+            file.getChannel().read(expected, 0);
+            expected.flip();
+            Assert.assertEquals(all, expected);
+
+            file.close();
+            RecordMetaDataForCache meta = list.get(0).getRecordMetaData();
+            try {
+                file.readFromFile(meta.getValueOffset(), meta.getValueSize());
+                Assert.fail("read from a closed file");
+            } catch (ClosedChannelException e) {
+                // expected.
+            }
+        } finally {
+            blockCache.close();
+        }
+    }
+
+    @Test
+    public void testReadAfterAdvice() throws IOException {
+        HaloDBOptions options = new HaloDBOptions();
+        options.setMemoryMapDataFiles(true);
+        file.delete();
+        file = HaloDBFile.create(directory, fileId, options, HaloDBFile.FileType.DATA_FILE);
+
+        List<Record> list = insertTestRecords();
+        file.map();
+        File dataFile = Paths.get(directory.getCanonicalPath(), fileId + HaloDBFile.DATA_FILE_NAME).toFile();
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(dataFile, "r")) {
+            Assert.assertEquals(NativeIO.fadvise(randomAccessFile.getFD(), 0, 0, NativeIO.Advice.RANDOM), NativeIO.isAvailable());
+        }
+        // opens the file itself, therefore doesn't need the descriptor of the file opened by java.
+        Assert.assertEquals(NativeIO.dropCachedPages(dataFile), Platform.isLinux());
+
+        // advice changes only how the file is cached, not what is read.
+        for (NativeIO.Advice advice : NativeIO.Advice.values()) {
+            file.advise(advice);
+            verifyDataFile(list, file);
+            for (Record record : list) {
+                RecordMetaDataForCache meta = record.getRecordMetaData();
+                Assert.assertEquals(file.readFromFile(meta.getValueOffset(), meta.getValueSize()), record.getValue());
+            }
+        }
+    }
+
+    @Test
+    public void testRepairPreallocatedFile() throws IOException {
+        HaloDBOptions options = new HaloDBOptions();
+        options.setPreallocateDataFiles(true);
+        file.delete();
+        file = HaloDBFile.create(directory, fileId, options, HaloDBFile.FileType.DATA_FILE);
+
+        // fallocate is used whether or not the descriptor of the file opened by java is accessible.
+        Assert.assertEquals(file.getChannel().size(), options.getMaxFileSize());
+        File dataFile = Paths.get(directory.getCanonicalPath(), fileId + HaloDBFile.DATA_FILE_NAME).toFile();
+        Assert.assertEquals(NativeIO.fallocate(dataFile, 0, options.getMaxFileSize()), Platform.isLinux());
+
+        List<Record> list = insertTestRecords();
+        long size = file.getWriteOffset();
+
+        // file was not trimmed, as would happen if the db crashed.
+        HaloDBFile reopened = HaloDBFile.openForReading(directory, dataFile, HaloDBFile.FileType.DATA_FILE, options);
+        Assert.assertEquals(reopened.getSize(), size);
+
+        HaloDBFile newFile = reopened.repairFile(newFileId);
+        Assert.assertFalse(dataFile.exists());
+        Assert.assertEquals(newFile.getChannel().size(), size);
+        verifyDataFile(list, newFile);
+        verifyIndexFile(newFile.getIndexFile(), list);
+        newFile.close();
+    }
+
+    @Test
+    public void testRepairFileWrittenWithDirectIO() throws IOException {
+        HaloDBOptions options = new HaloDBOptions();
+        options.setDirectIO(true);
+        file.delete();
+        file = HaloDBFile.create(directory, fileId, options, HaloDBFile.FileType.DATA_FILE);
+
+        // read back from the window of the append buffer before it is written out.
+        List<Record> list = insertTestRecords();
+        for (Record record : list) {
+            RecordMetaDataForCache meta = record.getRecordMetaData();
+            Assert.assertEquals(file.readFromFile(meta.getValueOffset(), meta.getValueSize()), record.getValue());
+        }
+        long size = file.getWriteOffset();
+
+        // the last block is padded with zeros, and the file not trimmed, as would happen if the db crashed after a sync.
+        file.flushToDisk();
+        File dataFile = Paths.get(directory.getCanonicalPath(), fileId + HaloDBFile.DATA_FILE_NAME).toFile();
+        if (NativeIO.isDirectIOAvailable()) {
+            Assert.assertEquals(file.getChannel().size() % NativeIO.DIRECT_IO_ALIGNMENT, 0);
+        }
+        HaloDBFile reopened = HaloDBFile.openForReading(directory, dataFile, HaloDBFile.FileType.DATA_FILE, options);
+        Assert.assertEquals(reopened.getSize(), size);
+
+        HaloDBFile newFile = reopened.repairFile(newFileId);
+        Assert.assertEquals(newFile.getChannel().size(), size);
+        verifyDataFile(list, newFile);
+        verifyIndexFile(newFile.getIndexFile(), list);
+        newFile.close();
+    }
+
+    @Test
+    public void testWriterFailingAfterReserveWithDirectIO() throws Exception {
+        HaloDBOptions options = new HaloDBOptions();
+        options.setDirectIO(true);
+        file.delete();
+        file = HaloDBFile.create(directory, fileId, options, HaloDBFile.FileType.DATA_FILE);
+
+        // a key too long for the header, serializing the record overruns the space reserved for it.
+        Record failing = new Record(TestUtils.generateRandomByteArray(200), TestUtils.generateRandomByteArray(DirectAppendBuffer.WINDOW_SIZE));
+        int failingOffset = file.reserve(failing.getRecordSize());
+
+        // starts in the first window and ends in the next one, which has to wait for the failing writer.
+        Record next = new Record(TestUtils.generateRandomByteArray(10), TestUtils.generateRandomByteArray(1000));
+        next.setSequenceNumber(100);
+        int nextOffset = file.reserve(next.getRecordSize());
+        Assert.assertTrue(nextOffset + next.getRecordSize() > DirectAppendBuffer.WINDOW_SIZE);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<RecordMetaDataForCache> written = executor.submit(() -> file.writeRecord(next, nextOffset));
+            try {
+                file.writeRecord(failing, failingOffset);
+                Assert.fail("record with a key longer than the header allows was written");
+            } catch (BufferOverflowException e) {
+                // expected.
+            }
+
+            RecordMetaDataForCache meta = written.get(10, TimeUnit.SECONDS);
+            Assert.assertEquals(file.readFromFile(meta.getValueOffset(), meta.getValueSize()), next.getValue());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
     private void verifyIndexFile(IndexFile file, List<Record> recordList) throws IOException {
         IndexFile.IndexFileIterator indexFileIterator = file.newIterator();
         int count = 0;
@@ -10,9 +10,11 @@ import org.hamcrest.Matchers;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
+import java.io.File;
 import java.io.IOException;
 import java.nio.channels.ClosedChannelException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.NoSuchElementException;
 
@@ -241,4 +243,34 @@ public class HaloDBIteratorTest extends TestBase {
             }
         }
     }
+
+    @Test(dataProvider = "Options")
+    public void testFilesAreReleasedOnCloseAndWhenExhausted(HaloDBOptions options) throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBIteratorTest", "testFilesAreReleasedOnCloseAndWhenExhausted");
+
+        options.setMaxFileSize(1024 * 1024);
+        options.setCompactionThresholdPerFile(0.5);
+
+        HaloDB db = getTestDB(directory, options);
+        // two full files.
+        List<Record> records = TestUtils.insertRandomRecordsOfSize(db, 2 * 1024, 1024-Record.Header.HEADER_SIZE);
+        File[] dataFiles = FileUtils.listDataFiles(new File(directory));
+
+        HaloDBIterator exhausted = db.newIterator();
+        while (exhausted.hasNext()) {
+            exhausted.next();
+        }
+
+        HaloDBIterator abandoned = db.newIterator();
+        Assert.assertNotNull(abandoned.next());
+
+        // all records are moved to new files, the old files are compacted and deleted unless they are held.
+        TestUtils.updateRecordsWithSize(db, records, 1024);
+        TestUtils.waitForCompactionToComplete(db);
+        Assert.assertEquals(Arrays.stream(dataFiles).filter(File::exists).count(), 1);
+
+        abandoned.close();
+        Assert.assertFalse(abandoned.hasNext());
+        Assert.assertEquals(Arrays.stream(dataFiles).filter(File::exists).count(), 0);
+    }
 }
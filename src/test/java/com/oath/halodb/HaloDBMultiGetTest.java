@@ -0,0 +1,114 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class HaloDBMultiGetTest extends TestBase {
+
+    @Test(dataProvider = "Options")
+    public void testMultiGet(HaloDBOptions options) throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBMultiGetTest", "testMultiGet");
+        options.setCompactionDisabled(true);
+        options.setMaxFileSize(10 * 1024);
+
+        HaloDB db = getTestDB(directory, options);
+        List<Record> records = TestUtils.insertRandomRecords(db, 2_000);
+
+        List<byte[]> keys = new ArrayList<>();
+        List<byte[]> expected = new ArrayList<>();
+        // in the reverse of the order on disk.
+        for (int i = 0; i < 200; i++) {
+            Record record = records.get(records.size() - 1 - i * 7);
+            keys.add(record.getKey());
+            expected.add(record.getValue());
+            if (i % 10 == 0) {
+                // a short random key could be one of those inserted.
+                keys.add(TestUtils.generateRandomByteArray(Byte.MAX_VALUE));
+                expected.add(null);
+            }
+        }
+        // the same key twice.
+        keys.add(records.get(0).getKey());
+        expected.add(records.get(0).getValue());
+
+        verifyValues(db.multiGet(keys), expected);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            verifyValues(db.multiGet(keys, executor), expected);
+
+            List<ByteBuffer> buffers = db.multiGetAsByteBuffers(keys, executor);
+            Assert.assertEquals(buffers.size(), expected.size());
+            for (int i = 0; i < expected.size(); i++) {
+                if (expected.get(i) == null) {
+                    Assert.assertNull(buffers.get(i));
+                }
+                else {
+                    Assert.assertEquals(buffers.get(i), ByteBuffer.wrap(expected.get(i)));
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        Assert.assertTrue(db.multiGet(new ArrayList<>()).isEmpty());
+    }
+
+    @Test(dataProvider = "Options")
+    public void testMultiGetWithCompressionAndCompaction(HaloDBOptions options) throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBMultiGetTest", "testMultiGetWithCompressionAndCompaction");
+        options.setMaxFileSize(10 * 1024);
+        options.setCompactionThresholdPerFile(0.5);
+        options.setCompressValues(true);
+
+        HaloDB db = getTestDB(directory, options);
+        List<Record> records = new ArrayList<>();
+        for (int i = 0; i < 1_000; i++) {
+            byte[] key = TestUtils.generateRandomByteArray(8);
+            // half of the values compress well.
+            byte[] value = i % 2 == 0 ? new byte[200] : TestUtils.generateRandomByteArray(200);
+            db.put(key, value);
+            records.add(new Record(key, value));
+        }
+
+        List<byte[]> keys = new ArrayList<>();
+        List<byte[]> expected = new ArrayList<>();
+        records.forEach(r -> { keys.add(r.getKey()); expected.add(r.getValue()); });
+
+        // files are compacted while the keys are read.
+        List<Record> updated = TestUtils.updateRecords(db, records.subList(0, records.size() / 2));
+        for (int i = 0; i < updated.size(); i++) {
+            expected.set(i, updated.get(i).getValue());
+        }
+        verifyValues(db.multiGet(keys), expected);
+
+        TestUtils.waitForCompactionToComplete(db);
+        verifyValues(db.multiGet(keys), expected);
+    }
+
+    @Test(expectedExceptions = HaloDBException.class)
+    public void testMultiGetWithLargeKey() throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBMultiGetTest", "testMultiGetWithLargeKey");
+        HaloDB db = getTestDB(directory, new HaloDBOptions());
+        db.multiGet(Collections.singletonList(TestUtils.generateRandomByteArray(Byte.MAX_VALUE + 1)));
+    }
+
+    private void verifyValues(List<byte[]> actual, List<byte[]> expected) {
+        Assert.assertEquals(actual.size(), expected.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Assert.assertEquals(actual.get(i), expected.get(i));
+        }
+    }
+}
@@ -146,8 +146,12 @@ public class HaloDBStatsTest extends TestBase {
 
         SegmentStats[] expected = new SegmentStats[numberOfSegments];
         SegmentStats s;
-        if (options.isUseMemoryPool()) {
-            s = new SegmentStats(0, 0, 0, 0);
+        if (options.isUseOpenAddressing()) {
+            // slots of the table are allocated up front.
+            s = new SegmentStats(0, -1, Math.max(256, stats.getMaxSizePerSegment()), -1);
+        }
+        else if (options.isUseMemoryPool()) {
+            s = new SegmentStats(0, 0, 0, 0, 0, 0);
         }
         else {
             s = new SegmentStats(0, -1, -1, -1);
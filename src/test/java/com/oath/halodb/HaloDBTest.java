@@ -6,12 +6,16 @@
 package com.oath.halodb;
 
 import org.testng.Assert;
+import org.testng.SkipException;
 import org.testng.annotations.Test;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.nio.ByteBuffer;
+import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -382,6 +386,330 @@ public class HaloDBTest extends TestBase {
         getTestDBWithoutDeletingFiles(directory, options);
     }
 
+    @Test(dataProvider = "Options")
+    public void testPutAndGetWithByteBuffers(HaloDBOptions options) throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBTest", "testPutAndGetWithByteBuffers");
+        options.setCompactionDisabled(true);
+        options.setMaxFileSize(10 * 1024);
+
+        HaloDB db = getTestDB(directory, options);
+
+        List<Record> records = TestUtils.generateRandomData(2_000);
+        ByteBuffer key = ByteBuffer.allocateDirect(Byte.MAX_VALUE);
+        ByteBuffer value = ByteBuffer.allocateDirect(1024);
+        for (Record record : records) {
+            key.clear();
+            key.put(record.getKey()).flip();
+            value.clear();
+            value.put(record.getValue()).flip();
+            db.put(key, value);
+
+            // positions of the buffers are not changed.
+            Assert.assertEquals(key.remaining(), record.getKey().length);
+            Assert.assertEquals(value.remaining(), record.getValue().length);
+        }
+
+        ByteBuffer dst = ByteBuffer.allocateDirect(1024);
+        for (Record record : records) {
+            Assert.assertEquals(db.get(record.getKey()), record.getValue());
+
+            int size = db.get(ByteBuffer.wrap(record.getKey()), dst);
+            Assert.assertEquals(size, record.getValue().length);
+            Assert.assertEquals(dst, ByteBuffer.wrap(record.getValue()));
+        }
+        Assert.assertEquals(db.get(ByteBuffer.wrap(TestUtils.generateRandomByteArray()), dst), -1);
+
+        // records are read back after the index is rebuilt from disk.
+        db.close();
+        db = getTestDBWithoutDeletingFiles(directory, options);
+        Assert.assertEquals(db.size(), records.size());
+        for (Record record : records) {
+            Assert.assertEquals(db.get(record.getKey()), record.getValue());
+        }
+    }
+
+    @Test(dataProvider = "Options")
+    public void testGetWithValueConsumer(HaloDBOptions options) throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBTest", "testGetWithValueConsumer");
+        options.setCompactionDisabled(true);
+
+        HaloDB db = getTestDB(directory, options);
+
+        List<Record> records = TestUtils.generateRandomData(2_000);
+        // a value which is too large to be read into a pooled buffer.
+        records.add(new Record(TestUtils.generateRandomByteArray(8), TestUtils.generateRandomByteArray(DirectBufferPool.MAX_BUFFER_SIZE + 1)));
+        for (Record record : records) {
+            db.put(record.getKey(), record.getValue());
+        }
+
+        ByteBuffer dst = ByteBuffer.allocate(DirectBufferPool.MAX_BUFFER_SIZE + 1);
+        for (Record record : records) {
+            byte[][] actual = new byte[1][];
+            Assert.assertTrue(db.get(record.getKey(), value -> {
+                Assert.assertTrue(value.isReadOnly());
+                actual[0] = new byte[value.remaining()];
+                value.get(actual[0]);
+            }));
+            Assert.assertEquals(actual[0], record.getValue());
+
+            Assert.assertEquals(db.get(record.getKey(), dst), record.getValue().length);
+            Assert.assertEquals(dst, ByteBuffer.wrap(record.getValue()));
+        }
+
+        Assert.assertFalse(db.get(TestUtils.generateRandomByteArray(), value -> Assert.fail("consumer called for a missing key")));
+        Assert.assertEquals(db.get(TestUtils.generateRandomByteArray(), dst), -1);
+    }
+
+    @Test(dataProvider = "Options")
+    public void testMemoryMappedReads(HaloDBOptions options) throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBTest", "testMemoryMappedReads");
+        options.setMaxFileSize(10 * 1024);
+        options.setCompactionThresholdPerFile(0.5);
+        options.setMemoryMapDataFiles(true);
+
+        HaloDB db = getTestDB(directory, options);
+        List<Record> records = TestUtils.insertRandomRecords(db, 2_000);
+
+        // updates make files eligible for compaction, which deletes them while they are read.
+        List<Record> updated = TestUtils.updateRecords(db, records);
+        for (Record record : updated) {
+            Assert.assertEquals(db.get(record.getKey()), record.getValue());
+        }
+        TestUtils.waitForCompactionToComplete(db);
+        for (Record record : updated) {
+            Assert.assertEquals(db.get(record.getKey()), record.getValue());
+        }
+
+        db.close();
+        db = getTestDBWithoutDeletingFiles(directory, options);
+        Assert.assertEquals(db.size(), updated.size());
+        for (Record record : updated) {
+            Assert.assertEquals(db.get(record.getKey()), record.getValue());
+        }
+    }
+
+    @Test(dataProvider = "Options")
+    public void testByteBufferKeyLongerThanMaxKeySizeIsRejected(HaloDBOptions options) throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBTest", "testByteBufferKeyLongerThanMaxKeySizeIsRejected");
+        HaloDB db = getTestDB(directory, options);
+
+        ByteBuffer key = ByteBuffer.wrap(TestUtils.generateRandomByteArray(Byte.MAX_VALUE + 1));
+        ByteBuffer value = ByteBuffer.wrap(TestUtils.generateRandomByteArray(10));
+        try {
+            db.put(key, value);
+            Assert.fail("put of a key longer than " + Byte.MAX_VALUE + " bytes");
+        } catch (HaloDBException e) {
+            Assert.assertEquals(e.getMessage(), "key length cannot exceed " + Byte.MAX_VALUE);
+        }
+
+        // not reported as a key which is not in the db.
+        try {
+            db.get(key, ByteBuffer.allocate(10));
+            Assert.fail("get of a key longer than " + Byte.MAX_VALUE + " bytes");
+        } catch (HaloDBException e) {
+            Assert.assertEquals(e.getMessage(), "key length cannot exceed " + Byte.MAX_VALUE);
+        }
+        Assert.assertEquals(db.size(), 0);
+    }
+
+    @Test(dataProvider = "Options")
+    public void testPutAndGetWithByteBuffersAllocateLittle(HaloDBOptions options) throws HaloDBException {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!threads.isThreadAllocatedMemorySupported() || !threads.isThreadAllocatedMemoryEnabled()) {
+            throw new SkipException("Allocated memory per thread can't be measured on this jvm");
+        }
+
+        String directory = TestUtils.getTestDirectory("HaloDBTest", "testPutAndGetWithByteBuffersAllocateLittle");
+        options.setCompactionDisabled(true);
+        // large enough that the measured puts don't roll over to a new file.
+        options.setMaxFileSize(512 * 1024 * 1024);
+        options.setFixedKeySize(8);
+
+        HaloDB db = getTestDB(directory, options);
+
+        int noOfKeys = 1_000;
+        ByteBuffer[] keys = new ByteBuffer[noOfKeys];
+        for (int i = 0; i < noOfKeys; i++) {
+            keys[i] = ByteBuffer.allocateDirect(8).putLong(0, i);
+        }
+        ByteBuffer value = ByteBuffer.allocateDirect(1024);
+        ByteBuffer dst = ByteBuffer.allocateDirect(1024);
+
+        // warm up so that compilation and the first use of per-thread buffers don't count.
+        putAndGet(db, keys, value, dst, 20);
+
+        int rounds = 10;
+        long threadId = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        putAll(db, keys, value, rounds);
+        long allocatedByPuts = threads.getThreadAllocatedBytes(threadId) - before;
+
+        before = threads.getThreadAllocatedBytes(threadId);
+        getAll(db, keys, dst, rounds);
+        long allocatedByGets = threads.getThreadAllocatedBytes(threadId) - before;
+
+        // what is left are the index entries and the key of the hash table, a few dozen bytes each. A copy
+        // of the value, or of the serialized record, would exceed the bounds by far.
+        long operations = (long)noOfKeys * rounds;
+        Assert.assertTrue(allocatedByPuts < 256 * operations, allocatedByPuts + " bytes allocated by " + operations + " puts");
+        Assert.assertTrue(allocatedByGets < 128 * operations, allocatedByGets + " bytes allocated by " + operations + " gets");
+    }
+
+    private void putAndGet(HaloDB db, ByteBuffer[] keys, ByteBuffer value, ByteBuffer dst, int rounds) throws HaloDBException {
+        putAll(db, keys, value, rounds);
+        getAll(db, keys, dst, rounds);
+    }
+
+    private void putAll(HaloDB db, ByteBuffer[] keys, ByteBuffer value, int rounds) throws HaloDBException {
+        for (int round = 0; round < rounds; round++) {
+            for (ByteBuffer key : keys) {
+                db.put(key, value);
+            }
+        }
+    }
+
+    private void getAll(HaloDB db, ByteBuffer[] keys, ByteBuffer dst, int rounds) throws HaloDBException {
+        for (int round = 0; round < rounds; round++) {
+            for (ByteBuffer key : keys) {
+                if (db.get(key, dst) != dst.capacity()) {
+                    Assert.fail("Unexpected value size");
+                }
+            }
+        }
+    }
+
+    @Test(dataProvider = "Options")
+    public void testFilesCreatedAheadOfTimeAreNotVisible(HaloDBOptions options) throws HaloDBException, IOException {
+        String directory = TestUtils.getTestDirectory("HaloDBTest", "testFilesCreatedAheadOfTimeAreNotVisible");
+        options.setCompactionDisabled(true);
+        options.setMaxFileSize(10 * 1024);
+
+        HaloDB db = getTestDB(directory, options);
+        List<Record> records = TestUtils.insertRandomRecords(db, 2_000);
+        for (int i = 0; i < records.size(); i += 2) {
+            db.delete(records.get(i).getKey());
+        }
+        db.close();
+
+        // files which were created but not used must be deleted on close.
+        Assert.assertEquals(Files.list(Paths.get(directory)).filter(p -> p.toString().endsWith(Constants.STAGED_FILE_SUFFIX)).count(), 0);
+
+        db = getTestDBWithoutDeletingFiles(directory, options);
+        Assert.assertEquals(db.size(), records.size() / 2);
+        for (int i = 0; i < records.size(); i++) {
+            if (i % 2 == 0) {
+                Assert.assertNull(db.get(records.get(i).getKey()));
+            }
+            else {
+                Assert.assertEquals(db.get(records.get(i).getKey()), records.get(i).getValue());
+            }
+        }
+    }
+
+    @Test(dataProvider = "Options")
+    public void testContainsValueSizeAndVersion(HaloDBOptions options) throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBTest", "testContainsValueSizeAndVersion");
+        options.setMaxFileSize(10 * 1024);
+
+        HaloDB db = getTestDB(directory, options);
+        List<Record> records = TestUtils.insertRandomRecords(db, 1_000);
+        List<byte[]> keys = new ArrayList<>();
+        long previousVersion = -1;
+        for (Record record : records) {
+            Assert.assertTrue(db.contains(record.getKey()));
+            Assert.assertEquals(db.getValueSize(record.getKey()), record.getValue().length);
+            // records are inserted one after another.
+            long version = db.getVersion(record.getKey());
+            Assert.assertTrue(version > previousVersion);
+            previousVersion = version;
+            keys.add(record.getKey());
+        }
+
+        // an update gets a higher version, a deleted key is not found.
+        byte[] updatedKey = records.get(0).getKey();
+        long version = db.getVersion(updatedKey);
+        db.put(updatedKey, new byte[10]);
+        Assert.assertTrue(db.getVersion(updatedKey) > version);
+        Assert.assertEquals(db.getValueSize(updatedKey), 10);
+
+        byte[] deletedKey = records.get(1).getKey();
+        db.delete(deletedKey);
+        Assert.assertFalse(db.contains(deletedKey));
+        Assert.assertEquals(db.getValueSize(deletedKey), -1);
+        Assert.assertEquals(db.getVersion(deletedKey), -1);
+
+        byte[] missingKey = TestUtils.generateRandomByteArray();
+        keys.add(missingKey);
+        boolean[] contains = db.contains(keys);
+        int[] sizes = db.getValueSizes(keys);
+        long[] versions = db.getVersions(keys);
+        for (int i = 0; i < keys.size(); i++) {
+            byte[] key = keys.get(i);
+            Assert.assertEquals(contains[i], db.contains(key));
+            Assert.assertEquals(sizes[i], db.getValueSize(key));
+            Assert.assertEquals(versions[i], db.getVersion(key));
+        }
+        Assert.assertFalse(contains[keys.size() - 1]);
+    }
+
+    @Test(dataProvider = "Options")
+    public void testGetRangeOfValue(HaloDBOptions options) throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBTest", "testGetRangeOfValue");
+        options.setMaxFileSize(64 * 1024);
+
+        HaloDB db = getTestDB(directory, options);
+        List<Record> records = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            Record record = new Record(TestUtils.generateRandomByteArray(), TestUtils.generateRandomByteArray(1000 + i));
+            db.put(record.getKey(), record.getValue());
+            records.add(record);
+        }
+
+        ByteBuffer heapBuffer = ByteBuffer.allocate(100);
+        ByteBuffer directBuffer = ByteBuffer.allocateDirect(100);
+        for (Record record : records) {
+            byte[] value = record.getValue();
+            for (ByteBuffer buffer : new ByteBuffer[] {heapBuffer, directBuffer}) {
+                // header of the value.
+                Assert.assertEquals(db.get(record.getKey(), 0, 16, buffer), 16);
+                Assert.assertEquals(buffer, ByteBuffer.wrap(value, 0, 16));
+
+                // slice from the middle.
+                Assert.assertEquals(db.get(record.getKey(), 500, 100, buffer), 100);
+                Assert.assertEquals(buffer, ByteBuffer.wrap(value, 500, 100));
+
+                // range which goes past the end of the value is cut short.
+                Assert.assertEquals(db.get(record.getKey(), value.length - 10, 100, buffer), 10);
+                Assert.assertEquals(buffer, ByteBuffer.wrap(value, value.length - 10, 10));
+
+                Assert.assertEquals(db.get(record.getKey(), value.length, 100, buffer), 0);
+            }
+        }
+
+        Assert.assertEquals(db.get(TestUtils.generateRandomByteArray(), 0, 10, heapBuffer), -1);
+        try {
+            db.get(records.get(0).getKey(), 2000, 10, heapBuffer);
+            Assert.fail("offset beyond the end of the value");
+        } catch (HaloDBException e) {
+            // expected.
+        }
+        try {
+            db.get(records.get(0).getKey(), 0, 200, heapBuffer);
+            Assert.fail("buffer too small for the range");
+        } catch (HaloDBException e) {
+            // expected.
+        }
+
+        // iterator which reads only a prefix of each value.
+        List<Record> prefixes = new ArrayList<>();
+        db.newIterator(16).forEachRemaining(prefixes::add);
+        Assert.assertEquals(prefixes.size(), records.size());
+        for (Record prefix : prefixes) {
+            Record record = records.stream().filter(r -> Arrays.equals(r.getKey(), prefix.getKey())).findFirst().get();
+            Assert.assertEquals(prefix.getValue(), Arrays.copyOf(record.getValue(), 16));
+        }
+    }
+
     @Test(expectedExceptions = HaloDBException.class, expectedExceptionsMessageRegExp = "Another process already holds a lock for this db.")
     public void testLock() throws Throwable {
         String directory = TestUtils.getTestDirectory("HaloDBTest", "testLock");
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+public class HaloDBValueCacheTest extends TestBase {
+
+    @Test(dataProvider = "Options")
+    public void testReadsAreServedFromCache(HaloDBOptions options) throws Exception {
+        String directory = TestUtils.getTestDirectory("HaloDBValueCacheTest", "testReadsAreServedFromCache");
+        options.setCompactionDisabled(true);
+        options.setValueCacheSize(4 * 1024 * 1024);
+
+        HaloDB db = getTestDB(directory, options);
+        List<Record> records = TestUtils.insertRandomRecords(db, 500);
+        for (Record record : records) {
+            Assert.assertEquals(db.get(record.getKey()), record.getValue());
+        }
+        Assert.assertEquals(db.stats().getValueCacheMissCount(), records.size());
+        Assert.assertEquals(db.stats().getValueCacheSize(), records.size());
+
+        // second read of each value is a hit on every read path.
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        List<byte[]> keys = new ArrayList<>();
+        for (Record record : records) {
+            Assert.assertEquals(db.get(record.getKey()), record.getValue());
+
+            Assert.assertEquals(db.get(ByteBuffer.wrap(record.getKey()), buffer), record.getValue().length);
+            Assert.assertEquals(buffer, ByteBuffer.wrap(record.getValue()));
+
+            byte[][] consumed = new byte[1][];
+            Assert.assertTrue(db.get(record.getKey(), value -> {
+                consumed[0] = new byte[value.remaining()];
+                value.get(consumed[0]);
+            }));
+            Assert.assertEquals(consumed[0], record.getValue());
+
+            int prefixLength = Math.min(10, record.getValue().length);
+            Assert.assertEquals(db.get(record.getKey(), 0, 10, buffer), prefixLength);
+            Assert.assertEquals(buffer, ByteBuffer.wrap(record.getValue(), 0, prefixLength));
+
+            CompletableFuture<byte[]> future = db.getAsync(record.getKey());
+            Assert.assertTrue(future.isDone());
+            Assert.assertEquals(future.get(), record.getValue());
+
+            keys.add(record.getKey());
+        }
+        List<byte[]> values = db.multiGet(keys);
+        for (int i = 0; i < records.size(); i++) {
+            Assert.assertEquals(values.get(i), records.get(i).getValue());
+        }
+        CompletableFuture<List<byte[]>> asyncValues = db.multiGetAsync(keys);
+        Assert.assertTrue(asyncValues.isDone());
+        for (int i = 0; i < records.size(); i++) {
+            Assert.assertEquals(asyncValues.get().get(i), records.get(i).getValue());
+        }
+        Assert.assertEquals(db.stats().getValueCacheHitCount(), 7 * records.size());
+
+        // updated and deleted values are not served from the cache.
+        List<Record> updated = new ArrayList<>();
+        for (int i = 0; i < records.size(); i++) {
+            Record record = records.get(i);
+            if (i % 3 == 0) {
+                db.delete(record.getKey());
+                continue;
+            }
+            if (i % 3 == 1) {
+                record = new Record(record.getKey(), TestUtils.generateRandomByteArray());
+                db.put(record.getKey(), record.getValue());
+            }
+            updated.add(record);
+        }
+        for (int i = 0; i < records.size(); i += 3) {
+            Assert.assertNull(db.get(records.get(i).getKey()));
+        }
+        for (Record record : updated) {
+            Assert.assertEquals(db.get(record.getKey()), record.getValue());
+        }
+
+        db.resetStats();
+        Assert.assertEquals(db.stats().getValueCacheHitCount(), 0);
+        Assert.assertEquals(db.stats().getValueCacheMissCount(), 0);
+    }
+
+    @Test(dataProvider = "Options")
+    public void testCachedValuesAreValidAfterCompaction(HaloDBOptions options) throws Exception {
+        String directory = TestUtils.getTestDirectory("HaloDBValueCacheTest", "testCachedValuesAreValidAfterCompaction");
+        options.setMaxFileSize(16 * 1024);
+        options.setCompactionThresholdPerFile(0.5);
+        options.setValueCacheSize(4 * 1024 * 1024);
+
+        HaloDB db = getTestDB(directory, options);
+        List<Record> records = TestUtils.insertRandomRecords(db, 1_000);
+        List<Record> kept = new ArrayList<>();
+        for (int i = 0; i < records.size(); i++) {
+            Record record = records.get(i);
+            if (i % 2 == 0) {
+                // so that files get compacted.
+                db.delete(record.getKey());
+            }
+            else {
+                Assert.assertEquals(db.get(record.getKey()), record.getValue());
+                kept.add(record);
+            }
+        }
+
+        TestUtils.waitForCompactionToComplete(db);
+        Assert.assertTrue(db.stats().getNumberOfRecordsCopied() > 0);
+
+        // records moved by compaction keep their sequence numbers, therefore their cached values are still served.
+        db.resetStats();
+        for (Record record : kept) {
+            Assert.assertEquals(db.get(record.getKey()), record.getValue());
+        }
+        Assert.assertEquals(db.stats().getValueCacheHitCount(), kept.size());
+        Assert.assertEquals(db.stats().getValueCacheMissCount(), 0);
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import com.google.common.primitives.Ints;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public class HaloDBValueCompressionTest extends TestBase {
+
+    @Test(dataProvider = "Options")
+    public void testPutAndGet(HaloDBOptions options) throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBValueCompressionTest", "testPutAndGet");
+        options.setCompactionDisabled(true);
+        options.setMaxFileSize(64 * 1024);
+        options.setCompressValues(true);
+
+        HaloDB db = getTestDB(directory, options);
+        List<Record> records = insertRecords(db, 2_000);
+        verifyRecords(db, records);
+
+        // compressed values take less space on disk.
+        long rawSize = records.stream().mapToLong(r -> Utils.getRecordSize(r.getKey().length, r.getValue().length)).sum();
+        long sizeOnDisk = 0;
+        for (File file : FileUtils.listDataFiles(new File(directory))) {
+            sizeOnDisk += file.length();
+        }
+        Assert.assertTrue(sizeOnDisk < rawSize, "size on disk " + sizeOnDisk + " raw size " + rawSize);
+
+        // in-memory index is rebuilt from the index files.
+        db.close();
+        db = getTestDBWithoutDeletingFiles(directory, options);
+        verifyRecords(db, records);
+
+        // values written with compression are readable after it is turned off.
+        db.close();
+        options.setCompressValues(false);
+        db = getTestDBWithoutDeletingFiles(directory, options);
+        verifyRecords(db, records);
+    }
+
+    @Test(dataProvider = "Options")
+    public void testBatchAndIterator(HaloDBOptions options) throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBValueCompressionTest", "testBatchAndIterator");
+        options.setCompactionDisabled(true);
+        options.setMaxFileSize(64 * 1024);
+        options.setCompressValues(true);
+
+        HaloDB db = getTestDB(directory, options);
+        List<Record> records = generateRecords(2_000);
+        WriteBatch batch = new WriteBatch();
+        records.forEach(r -> batch.put(r.getKey(), r.getValue()));
+        db.write(batch);
+        verifyRecords(db, records);
+
+        List<Record> actual = new ArrayList<>();
+        db.newIterator().forEachRemaining(actual::add);
+        Assert.assertTrue(actual.containsAll(records) && records.containsAll(actual));
+
+        List<Record> prefixes = new ArrayList<>();
+        db.newIterator(8).forEachRemaining(prefixes::add);
+        List<Record> expected = new ArrayList<>();
+        records.forEach(r -> expected.add(new Record(r.getKey(), Arrays.copyOf(r.getValue(), Math.min(8, r.getValue().length)))));
+        Assert.assertTrue(prefixes.containsAll(expected) && expected.containsAll(prefixes));
+    }
+
+    @Test(dataProvider = "Options")
+    public void testCompaction(HaloDBOptions options) throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBValueCompressionTest", "testCompaction");
+        options.setMaxFileSize(16 * 1024);
+        options.setCompactionThresholdPerFile(0.5);
+        options.setCompressValues(true);
+
+        HaloDB db = getTestDB(directory, options);
+        List<Record> records = insertRecords(db, 2_000);
+
+        // update half of the records so that files get compacted.
+        List<Record> updated = new ArrayList<>();
+        for (int i = 0; i < records.size(); i++) {
+            Record record = records.get(i);
+            if (i % 2 == 0) {
+                record = new Record(record.getKey(), jsonValue(i + records.size()));
+                db.put(record.getKey(), record.getValue());
+            }
+            updated.add(record);
+        }
+
+        TestUtils.waitForCompactionToComplete(db);
+        Assert.assertTrue(db.stats().getNumberOfRecordsCopied() > 0);
+        verifyRecords(db, updated);
+
+        db.close();
+        db = getTestDBWithoutDeletingFiles(directory, options);
+        verifyRecords(db, updated);
+    }
+
+    @Test(expectedExceptions = HaloDBException.class)
+    public void testGetWithSmallBuffer() throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBValueCompressionTest", "testGetWithSmallBuffer");
+        HaloDBOptions options = new HaloDBOptions();
+        options.setCompressValues(true);
+
+        HaloDB db = getTestDB(directory, options);
+        byte[] key = TestUtils.generateRandomByteArray(8);
+        byte[] value = jsonValue(1);
+        db.put(key, value);
+
+        // buffer can hold the compressed but not the uncompressed value.
+        db.get(ByteBuffer.wrap(key), ByteBuffer.allocate(value.length - 1));
+    }
+
+    private List<Record> insertRecords(HaloDB db, int noOfRecords) throws HaloDBException {
+        List<Record> records = generateRecords(noOfRecords);
+        for (Record record : records) {
+            db.put(record.getKey(), record.getValue());
+        }
+        return records;
+    }
+
+    // mix of compressible, incompressible and small values.
+    private List<Record> generateRecords(int noOfRecords) {
+        List<Record> records = new ArrayList<>();
+        for (int i = 0; i < noOfRecords; i++) {
+            byte[] key = TestUtils.concatenateArrays(TestUtils.generateRandomByteArray(8), Ints.toByteArray(i));
+            byte[] value;
+            switch (i % 3) {
+                case 0:
+                    value = jsonValue(i);
+                    break;
+                case 1:
+                    value = TestUtils.generateRandomByteArray(512);
+                    break;
+                default:
+                    value = TestUtils.generateRandomByteArray(16);
+            }
+            records.add(new Record(key, value));
+        }
+        return records;
+    }
+
+    private void verifyRecords(HaloDB db, List<Record> records) throws HaloDBException {
+        Assert.assertEquals(db.size(), records.size());
+        ByteBuffer heapBuffer = ByteBuffer.allocate(2048);
+        ByteBuffer directBuffer = ByteBuffer.allocateDirect(2048);
+        for (Record record : records) {
+            Assert.assertEquals(db.get(record.getKey()), record.getValue());
+            // size as stored, without reading the value.
+            ByteBuffer compressed = ValueCompression.compress(ByteBuffer.wrap(record.getValue()));
+            int storedSize = compressed != null ? compressed.remaining() : record.getValue().length;
+            Assert.assertEquals(db.getValueSize(record.getKey()), storedSize);
+            Assert.assertTrue(storedSize <= record.getValue().length);
+
+            for (ByteBuffer buffer : new ByteBuffer[] {heapBuffer, directBuffer}) {
+                int size = db.get(ByteBuffer.wrap(record.getKey()), buffer);
+                Assert.assertEquals(size, record.getValue().length);
+                byte[] value = new byte[buffer.remaining()];
+                buffer.get(value);
+                Assert.assertEquals(value, record.getValue());
+            }
+
+            byte[][] consumed = new byte[1][];
+            Assert.assertTrue(db.get(record.getKey(), value -> {
+                consumed[0] = new byte[value.remaining()];
+                value.get(consumed[0]);
+            }));
+            Assert.assertEquals(consumed[0], record.getValue());
+
+            // a range of a compressed value.
+            int offset = record.getValue().length / 2;
+            int read = db.get(record.getKey(), offset, 16, heapBuffer);
+            Assert.assertEquals(read, Math.min(16, record.getValue().length - offset));
+            Assert.assertEquals(heapBuffer, ByteBuffer.wrap(record.getValue(), offset, read));
+        }
+    }
+
+    private static byte[] jsonValue(int id) {
+        Random random = new Random(id);
+        StringBuilder builder = new StringBuilder("{\"id\":").append(id).append(",\"items\":[");
+        while (builder.length() < 1000) {
+            builder.append("{\"name\":\"item-").append(random.nextInt(100))
+                .append("\",\"enabled\":").append(random.nextBoolean()).append("},");
+        }
+        builder.setLength(builder.length() - 1);
+        return builder.append("]}").toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class HaloDBWriteBatchTest extends TestBase {
+
+    @Test(dataProvider = "Options")
+    public void testBatchPutAndGet(HaloDBOptions options) throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBWriteBatchTest", "testBatchPutAndGet");
+        options.setCompactionDisabled(true);
+        options.setMaxFileSize(10 * 1024);
+
+        HaloDB db = getTestDB(directory, options);
+
+        List<Record> records = TestUtils.generateRandomData(5_000);
+        WriteBatch batch = new WriteBatch();
+        records.forEach(r -> batch.put(r.getKey(), r.getValue()));
+        db.write(batch);
+
+        Assert.assertEquals(db.size(), records.size());
+        for (Record record : records) {
+            Assert.assertEquals(db.get(record.getKey()), record.getValue());
+        }
+
+        List<Record> actual = new ArrayList<>();
+        db.newIterator().forEachRemaining(actual::add);
+        Assert.assertTrue(actual.containsAll(records) && records.containsAll(actual));
+    }
+
+    @Test(dataProvider = "Options")
+    public void testBatchWithUpdatesAndDeletes(HaloDBOptions options) throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBWriteBatchTest", "testBatchWithUpdatesAndDeletes");
+        options.setCompactionDisabled(true);
+        options.setMaxFileSize(10 * 1024);
+
+        HaloDB db = getTestDB(directory, options);
+
+        List<Record> records = TestUtils.insertRandomRecords(db, 1_000);
+
+        WriteBatch batch = new WriteBatch();
+        List<Record> expected = new ArrayList<>();
+        for (int i = 0; i < records.size(); i++) {
+            Record record = records.get(i);
+            if (i % 3 == 0) {
+                batch.delete(record.getKey());
+            }
+            else if (i % 3 == 1) {
+                byte[] value = TestUtils.generateRandomByteArray();
+                batch.put(record.getKey(), value);
+                expected.add(new Record(record.getKey(), value));
+            }
+            else {
+                // put followed by a delete of the same key in the same batch.
+                batch.put(record.getKey(), TestUtils.generateRandomByteArray());
+                batch.delete(record.getKey());
+            }
+        }
+
+        // delete of a key which doesn't exist.
+        batch.delete(TestUtils.generateRandomByteArray());
+        db.write(batch);
+
+        Assert.assertEquals(db.size(), expected.size());
+        for (int i = 0; i < records.size(); i++) {
+            if (i % 3 != 1) {
+                Assert.assertNull(db.get(records.get(i).getKey()));
+            }
+        }
+        for (Record record : expected) {
+            Assert.assertEquals(db.get(record.getKey()), record.getValue());
+        }
+
+        // reopen and check that the index was rebuilt correctly from data and tombstone files.
+        db.close();
+        db = getTestDBWithoutDeletingFiles(directory, options);
+
+        Assert.assertEquals(db.size(), expected.size());
+        for (Record record : expected) {
+            Assert.assertEquals(db.get(record.getKey()), record.getValue());
+        }
+        for (int i = 0; i < records.size(); i++) {
+            if (i % 3 != 1) {
+                Assert.assertNull(db.get(records.get(i).getKey()));
+            }
+        }
+    }
+
+    @Test(expectedExceptions = HaloDBException.class)
+    public void testBatchWithLargeKey() throws HaloDBException {
+        String directory = TestUtils.getTestDirectory("HaloDBWriteBatchTest", "testBatchWithLargeKey");
+        HaloDB db = getTestDB(directory, new HaloDBOptions());
+
+        WriteBatch batch = new WriteBatch();
+        batch.put(TestUtils.generateRandomByteArray(Byte.MAX_VALUE + 1), TestUtils.generateRandomByteArray());
+        db.write(batch);
+    }
+}
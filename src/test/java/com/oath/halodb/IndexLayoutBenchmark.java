@@ -0,0 +1,114 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import com.google.common.primitives.Longs;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Compares the memory used by a segment of the index, and the latency of lookups of keys which are and
+ * aren't present, between the memory pool's chained table and the open addressing table.
+ *
+ * Not run as part of the tests. Run with
+ * {@code java -cp <test classpath> com.oath.halodb.IndexLayoutBenchmark}, sizes can be changed with the
+ * system properties keys, rounds and chunkSize.
+ */
+public class IndexLayoutBenchmark {
+
+    private static final int KEY_SIZE = 8;
+
+    public static void main(String[] args) {
+        int noOfKeys = Integer.getInteger("keys", 1_000_000);
+        int rounds = Integer.getInteger("rounds", 5);
+        int chunkSize = Integer.getInteger("chunkSize", 16 * 1024 * 1024);
+
+        OffHeapHashTableBuilder<RecordMetaDataForCache> builder = OffHeapHashTableBuilder.<RecordMetaDataForCache>newBuilder()
+            .valueSerializer(new RecordMetaDataSerializer())
+            .fixedKeySize(KEY_SIZE)
+            .fixedValueSize(RecordMetaDataForCache.SERIALIZED_SIZE)
+            .memoryPoolChunkSize(chunkSize)
+            // as the index is configured by the db.
+            .hashTableSize((int) Utils.roundUpToPowerOf2(noOfKeys))
+            .loadFactor(1);
+
+        Hasher hasher = Hasher.create(builder.getHashAlgorighm());
+        KeyBuffer[] present = new KeyBuffer[noOfKeys];
+        KeyBuffer[] absent = new KeyBuffer[noOfKeys];
+        for (int i = 0; i < noOfKeys; i++) {
+            present[i] = new KeyBuffer(Longs.toByteArray(i)).finish(hasher);
+            absent[i] = new KeyBuffer(Longs.toByteArray(noOfKeys + i)).finish(hasher);
+        }
+        shuffle(present);
+        shuffle(absent);
+
+        SegmentWithMemoryPool<RecordMetaDataForCache> chained = new SegmentWithMemoryPool<>(builder);
+        SegmentWithOpenAddressing<RecordMetaDataForCache> openAddressing = new SegmentWithOpenAddressing<>(builder);
+        try {
+            fill(chained, present);
+            fill(openAddressing, present);
+
+            long chainedMemory = (long) chained.hashTableSize() * HashTableUtil.MEMORY_POOL_BUCKET_ENTRY_LEN
+                                 + chained.numberOfChunks() * chunkSize;
+            long openAddressingMemory = (long) (openAddressing.hashTableSize() + 2)
+                                        * SegmentWithOpenAddressing.Table.slotSize(KEY_SIZE, RecordMetaDataForCache.SERIALIZED_SIZE);
+
+            System.out.printf("%d keys of %d bytes%n", noOfKeys, KEY_SIZE);
+            System.out.printf("%16s %16s %16s %16s%n", "layout", "bytes per key", "hit (ns)", "miss (ns)");
+            for (int round = 0; round < rounds; round++) {
+                // the first round warms up.
+                boolean print = round == rounds - 1;
+                report(print, "chained", chainedMemory, noOfKeys, chained, present, absent);
+                report(print, "open addressing", openAddressingMemory, noOfKeys, openAddressing, present, absent);
+            }
+        } finally {
+            chained.release();
+            openAddressing.release();
+        }
+    }
+
+    private static void report(boolean print, String layout, long memory, int noOfKeys,
+                               Segment<RecordMetaDataForCache> segment, KeyBuffer[] present, KeyBuffer[] absent) {
+        long hit = nanosPerLookup(segment, present);
+        long miss = nanosPerLookup(segment, absent);
+        if (print) {
+            System.out.printf("%16s %16d %16d %16d%n", layout, memory / noOfKeys, hit, miss);
+        }
+    }
+
+    private static void fill(Segment<RecordMetaDataForCache> segment, KeyBuffer[] keys) {
+        for (int i = 0; i < keys.length; i++) {
+            segment.putEntry(keys[i].buffer, new RecordMetaDataForCache(1, i, 100, i), keys[i].hash(), false, null);
+        }
+    }
+
+    private static long nanosPerLookup(Segment<RecordMetaDataForCache> segment, KeyBuffer[] keys) {
+        long found = 0;
+        long start = System.nanoTime();
+        for (KeyBuffer key : keys) {
+            if (segment.getEntry(key) != null) {
+                found++;
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+
+        // so that the lookups aren't optimized away.
+        if (found == -1) {
+            System.out.println(found);
+        }
+        return elapsed / keys.length;
+    }
+
+    private static void shuffle(KeyBuffer[] keys) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = keys.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            KeyBuffer temp = keys[i];
+            keys[i] = keys[j];
+            keys[j] = temp;
+        }
+    }
+}
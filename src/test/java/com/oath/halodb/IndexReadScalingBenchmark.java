@@ -0,0 +1,134 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import com.google.common.primitives.Longs;
+import com.oath.halodb.histo.EstimatedHistogram;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures how lookups in the off-heap index scale with the number of reader threads, while a single
+ * writer keeps updating the index, with and without the memory pool. The 99th percentile and the maximum
+ * latency of the writer's puts are reported as well, as readers must not hold up the writer.
+ *
+ * Not run as part of the tests. Run with
+ * {@code java -cp <test classpath> com.oath.halodb.IndexReadScalingBenchmark}, sizes can be changed with the
+ * system properties keys, segments and seconds. Writes per second of the writer can be limited with the system
+ * property writesPerSecond, 0 means as fast as possible.
+ */
+public class IndexReadScalingBenchmark {
+
+    private static final int[] READER_THREADS = {1, 2, 4, 8, 16, 32, 64};
+
+    public static void main(String[] args) throws Exception {
+        int noOfKeys = Integer.getInteger("keys", 1_000_000);
+        int segments = Integer.getInteger("segments", 2 * Runtime.getRuntime().availableProcessors());
+        int seconds = Integer.getInteger("seconds", 5);
+        int writesPerSecond = Integer.getInteger("writesPerSecond", 0);
+
+        System.out.printf("%8s %24s %20s %24s %20s%n", "readers", "without pool (reads/s)", "put p99/max (us)",
+                          "with pool (reads/s)", "put p99/max (us)");
+        for (int readers : READER_THREADS) {
+            Result withoutPool = run(false, noOfKeys, segments, readers, seconds, writesPerSecond);
+            Result withPool = run(true, noOfKeys, segments, readers, seconds, writesPerSecond);
+            System.out.printf("%8d %24d %20s %24d %20s%n", readers, withoutPool.readsPerSecond, withoutPool.putLatency(),
+                              withPool.readsPerSecond, withPool.putLatency());
+        }
+    }
+
+    private static class Result {
+        final long readsPerSecond;
+        final EstimatedHistogram putMicros;
+
+        Result(long readsPerSecond, EstimatedHistogram putMicros) {
+            this.readsPerSecond = readsPerSecond;
+            this.putMicros = putMicros;
+        }
+
+        String putLatency() {
+            return putMicros.percentile(0.99) + "/" + putMicros.max();
+        }
+    }
+
+    /**
+     * @return number of lookups completed per second by all readers, and the latency of the writer's puts.
+     */
+    private static Result run(boolean useMemoryPool, int noOfKeys, int segments, int readers, int seconds,
+                            int writesPerSecond) throws InterruptedException, IOException {
+        OffHeapHashTable<RecordMetaDataForCache> index = OffHeapHashTableBuilder.<RecordMetaDataForCache>newBuilder()
+            .valueSerializer(new RecordMetaDataSerializer())
+            .fixedKeySize(8)
+            .fixedValueSize(RecordMetaDataForCache.SERIALIZED_SIZE)
+            .useMemoryPool(useMemoryPool)
+            .segmentCount(segments)
+            .hashTableSize(noOfKeys / segments)
+            .capacity(Long.MAX_VALUE)
+            .build();
+
+        try {
+            for (long i = 0; i < noOfKeys; i++) {
+                index.put(Longs.toByteArray(i), new RecordMetaDataForCache(1, 0, 100, i));
+            }
+
+            AtomicBoolean done = new AtomicBoolean(false);
+            LongAdder completed = new LongAdder();
+            EstimatedHistogram putMicros = new EstimatedHistogram();
+
+            Thread writer = new Thread(() -> {
+                long sequenceNumber = noOfKeys;
+                long nanosPerWrite = writesPerSecond > 0 ? TimeUnit.SECONDS.toNanos(1) / writesPerSecond : 0;
+                long next = System.nanoTime();
+                while (!done.get()) {
+                    long key = ThreadLocalRandom.current().nextLong(noOfKeys);
+                    long putStart = System.nanoTime();
+                    index.put(Longs.toByteArray(key), new RecordMetaDataForCache(2, 0, 100, sequenceNumber++));
+                    putMicros.add(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - putStart));
+                    if (nanosPerWrite > 0) {
+                        next += nanosPerWrite;
+                        while (System.nanoTime() < next && !done.get()) {
+                            Thread.yield();
+                        }
+                    }
+                }
+            });
+
+            List<Thread> threads = new ArrayList<>();
+            for (int t = 0; t < readers; t++) {
+                threads.add(new Thread(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    long count = 0;
+                    while (!done.get()) {
+                        index.get(Longs.toByteArray(random.nextLong(noOfKeys)));
+                        count++;
+                    }
+                    completed.add(count);
+                }));
+            }
+
+            writer.start();
+            long start = System.nanoTime();
+            threads.forEach(Thread::start);
+            Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+            done.set(true);
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            long elapsed = System.nanoTime() - start;
+            writer.join();
+
+            return new Result(completed.sum() * TimeUnit.SECONDS.toNanos(1) / elapsed, putMicros);
+        } finally {
+            index.close();
+        }
+    }
+}
@@ -11,6 +11,7 @@ import org.testng.Assert;
 import org.testng.annotations.AfterMethod;
 import org.testng.annotations.Test;
 
+import java.nio.ByteBuffer;
 import java.util.Random;
 
 /**
@@ -24,6 +25,7 @@ public class MemoryPoolChunkTest {
     private void destroyChunk() {
         if (chunk != null) {
             chunk.destroy();
+            chunk = null;
         }
     }
 
@@ -42,7 +44,7 @@ public class MemoryPoolChunkTest {
         // write to an empty slot.
         byte[] key = Longs.toByteArray(101);
         byte[] value = HashTableTestUtils.randomBytes(fixedValueLength);
-        MemoryPoolAddress nextAddress = new MemoryPoolAddress((byte) 10, 34343);
+        long nextAddress = MemoryPoolAddress.encode(1000, 34343);
         chunk.fillNextSlot(key, value, nextAddress);
 
         Assert.assertEquals(chunk.getWriteOffset(), offset + slotSize);
@@ -50,14 +52,14 @@ public class MemoryPoolChunkTest {
         Assert.assertTrue(chunk.compareKey(offset, key));
         Assert.assertTrue(chunk.compareValue(offset, value));
 
-        MemoryPoolAddress actual = chunk.getNextAddress(offset);
-        Assert.assertEquals(actual.chunkIndex, nextAddress.chunkIndex);
-        Assert.assertEquals(actual.chunkOffset, nextAddress.chunkOffset);
+        long actual = chunk.getNextAddress(offset);
+        Assert.assertEquals(MemoryPoolAddress.chunkIndex(actual), 1000);
+        Assert.assertEquals(MemoryPoolAddress.chunkOffset(actual), 34343);
 
         // write to the next empty slot.
         byte[] key2 = HashTableTestUtils.randomBytes(fixedKeyLength);
         byte[] value2 = HashTableTestUtils.randomBytes(fixedValueLength);
-        MemoryPoolAddress nextAddress2 = new MemoryPoolAddress((byte) 0, 4454545);
+        long nextAddress2 = MemoryPoolAddress.encode(0, 4454545);
         chunk.fillNextSlot(key2, value2, nextAddress2);
         Assert.assertEquals(chunk.getWriteOffset(), offset + 2*slotSize);
         Assert.assertEquals(chunk.remaining(), chunkSize-2*slotSize);
@@ -67,13 +69,13 @@ public class MemoryPoolChunkTest {
         Assert.assertTrue(chunk.compareValue(offset, value2));
 
         actual = chunk.getNextAddress(offset);
-        Assert.assertEquals(actual.chunkIndex, nextAddress2.chunkIndex);
-        Assert.assertEquals(actual.chunkOffset, nextAddress2.chunkOffset);
+        Assert.assertEquals(MemoryPoolAddress.chunkIndex(actual), 0);
+        Assert.assertEquals(MemoryPoolAddress.chunkOffset(actual), 4454545);
 
         // update an existing slot.
         byte[] key3 = Longs.toByteArray(0x64735981289L);
         byte[] value3 = HashTableTestUtils.randomBytes(fixedValueLength);
-        MemoryPoolAddress nextAddress3 = new MemoryPoolAddress((byte)-1, -1);
+        long nextAddress3 = MemoryPoolAddress.EMPTY;
         chunk.fillSlot(0, key3, value3, nextAddress3);
 
         offset = 0;
@@ -85,11 +87,47 @@ public class MemoryPoolChunkTest {
         Assert.assertEquals(chunk.remaining(), chunkSize-2*slotSize);
     }
 
+    @Test
+    public void testReadValue() {
+        int chunkSize = 1024;
+        int fixedKeyLength = 8, fixedValueLength = RecordMetaDataForCache.SERIALIZED_SIZE;
+        RecordMetaDataSerializer serializer = new RecordMetaDataSerializer();
+
+        chunk = MemoryPoolChunk.create(chunkSize, fixedKeyLength, fixedValueLength);
+        RecordMetaDataForCache metaData = new RecordMetaDataForCache(Integer.MAX_VALUE, 1 << 30, 0x7ff001, Long.MIN_VALUE + 3, true);
+        ByteBuffer value = ByteBuffer.allocate(fixedValueLength);
+        serializer.serialize(metaData, value);
+        chunk.fillSlot(0, Longs.toByteArray(1), value.array(), MemoryPoolAddress.EMPTY);
+
+        // decoded straight from the chunk, same as from a buffer.
+        for (RecordMetaDataForCache actual : new RecordMetaDataForCache[] {
+            chunk.readValue(0, serializer), serializer.deserialize(ByteBuffer.wrap(value.array()))}) {
+            Assert.assertEquals(actual.getFileId(), metaData.getFileId());
+            Assert.assertEquals(actual.getValueOffset(), metaData.getValueOffset());
+            Assert.assertEquals(actual.getValueSize(), metaData.getValueSize());
+            Assert.assertEquals(actual.getSequenceNumber(), metaData.getSequenceNumber());
+            Assert.assertTrue(actual.isValueCompressed());
+        }
+    }
+
+    @Test
+    public void testAddressEncoding() {
+        long address = MemoryPoolAddress.encode(Integer.MAX_VALUE, Integer.MAX_VALUE);
+        Assert.assertEquals(MemoryPoolAddress.chunkIndex(address), Integer.MAX_VALUE);
+        Assert.assertEquals(MemoryPoolAddress.chunkOffset(address), Integer.MAX_VALUE);
+        Assert.assertFalse(MemoryPoolAddress.isEmpty(address));
+        Assert.assertFalse(MemoryPoolAddress.isEmpty(MemoryPoolAddress.encode(0, 0)));
+        Assert.assertEquals(MemoryPoolAddress.chunkOffset(MemoryPoolAddress.encode(200, -5)), -5);
+        Assert.assertEquals(MemoryPoolAddress.chunkIndex(MemoryPoolAddress.encode(200, -5)), 200);
+        Assert.assertTrue(MemoryPoolAddress.isEmpty(MemoryPoolAddress.EMPTY));
+        Assert.assertEquals(MemoryPoolAddress.encode(-1, -1), MemoryPoolAddress.EMPTY);
+    }
+
     @Test(expectedExceptions = IllegalArgumentException.class, expectedExceptionsMessageRegExp = "Invalid offset.*")
     public void testWithInvalidOffset() {
         int chunkSize = 256;
         int fixedKeyLength = 100, fixedValueLength = 100;
-        MemoryPoolAddress next = new MemoryPoolAddress((byte)-1, -1);
+        long next = MemoryPoolAddress.EMPTY;
         chunk = MemoryPoolChunk.create(chunkSize, fixedKeyLength, fixedValueLength);
         chunk.fillSlot(chunkSize - 5, HashTableTestUtils.randomBytes(fixedKeyLength), HashTableTestUtils.randomBytes(fixedValueLength), next);
     }
@@ -98,7 +136,7 @@ public class MemoryPoolChunkTest {
     public void testWithInvalidKey() {
         int chunkSize = 256;
         int fixedKeyLength = 32, fixedValueLength = 100;
-        MemoryPoolAddress next = new MemoryPoolAddress((byte)-1, -1);
+        long next = MemoryPoolAddress.EMPTY;
         chunk = MemoryPoolChunk.create(chunkSize, fixedKeyLength, fixedValueLength);
         chunk.fillSlot(chunkSize - 5, HashTableTestUtils.randomBytes(fixedKeyLength + 10), HashTableTestUtils.randomBytes(fixedValueLength), next);
     }
@@ -112,7 +150,7 @@ public class MemoryPoolChunkTest {
         byte[] key = HashTableTestUtils.randomBytes(fixedKeyLength);
         byte[] value = HashTableTestUtils.randomBytes(fixedValueLength);
         int offset = 0;
-        chunk.fillSlot(offset, key, value, new MemoryPoolAddress((byte)-1, -1));
+        chunk.fillSlot(offset, key, value, MemoryPoolAddress.EMPTY);
 
         Assert.assertTrue(chunk.compareKey(offset, key));
         Assert.assertTrue(chunk.compareValue(offset, value));
@@ -138,7 +176,7 @@ public class MemoryPoolChunkTest {
         byte[] key = HashTableTestUtils.randomBytes(fixedKeyLength);
         byte[] value = HashTableTestUtils.randomBytes(fixedValueLength);
         int offset = 0;
-        chunk.fillSlot(offset, key, value, new MemoryPoolAddress((byte)-1, -1));
+        chunk.fillSlot(offset, key, value, MemoryPoolAddress.EMPTY);
 
         byte[] bigKey = HashTableTestUtils.randomBytes(fixedKeyLength + 1);
         chunk.compareKey(offset, bigKey);
@@ -156,7 +194,7 @@ public class MemoryPoolChunkTest {
         byte[] key = HashTableTestUtils.randomBytes(fixedKeyLength);
         byte[] value = HashTableTestUtils.randomBytes(fixedValueLength);
         int offset = 0;
-        chunk.fillSlot(offset, key, value, new MemoryPoolAddress((byte)-1, -1));
+        chunk.fillSlot(offset, key, value, MemoryPoolAddress.EMPTY);
 
         byte[] bigValue = HashTableTestUtils.randomBytes(fixedValueLength + 1);
         chunk.compareValue(offset, bigValue);
@@ -170,7 +208,7 @@ public class MemoryPoolChunkTest {
 
         chunk = MemoryPoolChunk.create(chunkSize, fixedKeyLength, fixedValueLength);
 
-        MemoryPoolAddress nextAddress = new MemoryPoolAddress((byte)r.nextInt(Byte.MAX_VALUE), r.nextInt());
+        long nextAddress = MemoryPoolAddress.encode(r.nextInt(Integer.MAX_VALUE), r.nextInt());
         int offset = r.nextInt(chunkSize - fixedKeyLength - fixedValueLength - MemoryPoolHashEntries.HEADER_SIZE);
         chunk.setNextAddress(offset, nextAddress);
 
@@ -85,4 +85,74 @@ public class RecordTest {
         Assert.assertEquals(ByteBuffer.wrap(key), buffers[1]);
         Assert.assertEquals(ByteBuffer.wrap(value), buffers[2]);
     }
+
+    @Test
+    public void testSerializeIntoBuffer() {
+        byte[] key = TestUtils.generateRandomByteArray();
+        byte[] value = TestUtils.generateRandomByteArray();
+        long sequenceNumber = 192;
+        int version = 13;
+
+        Record record = new Record(key, value);
+        record.setSequenceNumber(sequenceNumber);
+        record.setVersion(version);
+        ByteBuffer expected = ByteBuffer.allocate(record.getRecordSize());
+        for (ByteBuffer buffer : record.serialize()) {
+            expected.put(buffer);
+        }
+        expected.flip();
+
+        // serialized at a non zero position in a direct buffer.
+        ByteBuffer valueBuffer = ByteBuffer.wrap(value);
+        ByteBuffer destination = ByteBuffer.allocateDirect(1024);
+        destination.position(10);
+        Record.serialize(destination, key, valueBuffer, sequenceNumber, version);
+
+        Assert.assertEquals(destination.position(), 10);
+        Assert.assertEquals(destination.remaining(), record.getRecordSize());
+        Assert.assertEquals(destination, expected);
+        Assert.assertEquals(valueBuffer.position(), 0);
+    }
+
+    @Test
+    public void testVerifyChecksumOfEachAlgorithm() {
+        byte[] key = TestUtils.generateRandomByteArray();
+        byte[] value = TestUtils.generateRandomByteArray();
+
+        for (ChecksumAlgorithm algorithm : ChecksumAlgorithm.values()) {
+            Record record = new Record(key, value);
+            record.setSequenceNumber(192);
+            record.setVersion(Versions.withChecksumAlgorithm(0, algorithm));
+
+            ByteBuffer[] buffers = record.serialize();
+            Record.Header header = Record.Header.deserialize(buffers[0]);
+            Assert.assertEquals(Versions.getChecksumAlgorithm(header.getVersion()), algorithm);
+
+            Record read = new Record(key, value);
+            read.setHeader(header);
+            Assert.assertTrue(read.verifyChecksum());
+
+            byte[] corruptedValue = value.clone();
+            corruptedValue[0]++;
+            Record corrupted = new Record(key, corruptedValue);
+            corrupted.setHeader(header);
+            Assert.assertFalse(corrupted.verifyChecksum());
+        }
+    }
+
+    @Test
+    public void testRecordWithUnknownChecksumAlgorithmIsCorrupted() {
+        byte[] key = TestUtils.generateRandomByteArray();
+        byte[] value = TestUtils.generateRandomByteArray();
+
+        int version = Versions.CHECKSUM_ALGORITHM_MASK << Versions.CHECKSUM_ALGORITHM_SHIFT;
+        Assert.assertNull(Versions.getChecksumAlgorithm(version));
+
+        Record.Header header = new Record.Header(0, version, (byte)key.length, value.length, 192);
+        Assert.assertFalse(Record.Header.verifyHeader(header));
+
+        Record record = new Record(key, value);
+        record.setHeader(header);
+        Assert.assertFalse(record.verifyChecksum());
+    }
 }
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import com.google.common.primitives.Longs;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class SegmentConcurrentReadTest {
+
+    @DataProvider(name = "layouts")
+    public Object[][] layouts() {
+        return new Object[][] {{false, false}, {true, false}, {true, true}};
+    }
+
+    @Test(dataProvider = "layouts")
+    public void testReadsWhileWriting(boolean useMemoryPool, boolean useOpenAddressing) throws Exception {
+        int noOfKeys = 5_000;
+        OffHeapHashTable<byte[]> table = OffHeapHashTableBuilder.<byte[]>newBuilder()
+            .valueSerializer(HashTableTestUtils.byteArraySerializer)
+            .fixedKeySize(8)
+            .fixedValueSize(24)
+            .useMemoryPool(useMemoryPool)
+            .useOpenAddressing(useOpenAddressing)
+            .memoryPoolChunkSize(16 * 1024)
+            // small tables so that segments are rehashed while being read.
+            .hashTableSize(256)
+            .segmentCount(4)
+            .capacity(64 * 1024 * 1024)
+            .build();
+
+        try {
+            // keys below noOfKeys are never removed, odd keys above it are removed and added again.
+            for (long i = 0; i < noOfKeys; i++) {
+                table.put(Longs.toByteArray(i), value(i, 0));
+            }
+
+            AtomicBoolean done = new AtomicBoolean(false);
+            AtomicLong reads = new AtomicLong(0);
+            AtomicReference<String> error = new AtomicReference<>();
+
+            Thread writer = new Thread(() -> {
+                for (long version = 1; version <= 20; version++) {
+                    for (long i = 0; i < 2 * noOfKeys; i++) {
+                        byte[] key = Longs.toByteArray(i);
+                        if (i >= noOfKeys && i % 2 == 1 && version % 2 == 0) {
+                            table.remove(key);
+                        } else {
+                            table.put(key, value(i, version));
+                        }
+                    }
+                }
+                done.set(true);
+            });
+
+            List<Thread> readers = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                readers.add(new Thread(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    while (!done.get() && error.get() == null) {
+                        long i = random.nextLong(2 * noOfKeys);
+                        byte[] key = Longs.toByteArray(i);
+                        byte[] value = table.get(key);
+                        boolean contains = table.containsKey(key);
+                        reads.addAndGet(2);
+                        if (i < noOfKeys && (value == null || !contains)) {
+                            error.set("key " + i + " not found");
+                        }
+                        else if (value != null && !isValueOf(i, value)) {
+                            error.set("inconsistent value for key " + i);
+                        }
+                    }
+                }));
+            }
+
+            readers.forEach(Thread::start);
+            writer.start();
+            writer.join();
+            for (Thread reader : readers) {
+                reader.join();
+            }
+
+            Assert.assertNull(error.get());
+            Assert.assertTrue(table.stats().getRehashCount() > 0);
+            Assert.assertEquals(table.stats().getHitCount() + table.stats().getMissCount(), reads.get());
+            for (long i = 0; i < 2 * noOfKeys; i++) {
+                byte[] expected = i >= noOfKeys && i % 2 == 1 ? null : value(i, 20);
+                Assert.assertEquals(table.get(Longs.toByteArray(i)), expected);
+            }
+        } finally {
+            table.close();
+        }
+    }
+
+    @Test(dataProvider = "layouts")
+    public void testClearWhileReading(boolean useMemoryPool, boolean useOpenAddressing) throws Exception {
+        OffHeapHashTable<byte[]> table = OffHeapHashTableBuilder.<byte[]>newBuilder()
+            .valueSerializer(HashTableTestUtils.byteArraySerializer)
+            .fixedKeySize(8)
+            .fixedValueSize(24)
+            .useMemoryPool(useMemoryPool)
+            .useOpenAddressing(useOpenAddressing)
+            .memoryPoolChunkSize(16 * 1024)
+            .segmentCount(1)
+            .capacity(64 * 1024 * 1024)
+            .build();
+
+        try {
+            AtomicBoolean done = new AtomicBoolean(false);
+            AtomicReference<String> error = new AtomicReference<>();
+            Thread reader = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (!done.get()) {
+                    long i = random.nextLong(1_000);
+                    byte[] value = table.get(Longs.toByteArray(i));
+                    if (value != null && !isValueOf(i, value)) {
+                        error.set("inconsistent value for key " + i);
+                    }
+                }
+            });
+            reader.start();
+
+            // memory of cleared entries, chunks and tables is freed while the reader looks them up.
+            for (int round = 0; round < 50; round++) {
+                for (long i = 0; i < 1_000; i++) {
+                    table.put(Longs.toByteArray(i), value(i, round));
+                }
+                table.clear();
+            }
+            done.set(true);
+            reader.join();
+
+            Assert.assertNull(error.get());
+            Assert.assertEquals(table.size(), 0);
+        } finally {
+            table.close();
+        }
+    }
+
+    // key followed by the version twice, a value read while it was written wouldn't match.
+    private static byte[] value(long key, long version) {
+        return ByteBuffer.allocate(24).putLong(key).putLong(version).putLong(version).array();
+    }
+
+    private static boolean isValueOf(long key, byte[] value) {
+        ByteBuffer buffer = ByteBuffer.wrap(value);
+        return buffer.getLong() == key && buffer.getLong() == buffer.getLong();
+    }
+}
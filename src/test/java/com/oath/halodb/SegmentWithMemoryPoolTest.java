@@ -6,11 +6,16 @@
 package com.oath.halodb;
 
 import com.google.common.collect.Lists;
+import com.google.common.primitives.Longs;
 
 import org.testng.Assert;
+import org.testng.SkipException;
 import org.testng.annotations.Test;
 
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -62,7 +67,7 @@ public class SegmentWithMemoryPoolTest {
         int noOfEntries = 100;
         int chunkCount = 2;
         int fixedSlotSize = MemoryPoolHashEntries.HEADER_SIZE + fixedKeySize + fixedValueSize;
-        MemoryPoolAddress emptyList = new MemoryPoolAddress((byte) -1, -1);
+        long emptyList = MemoryPoolAddress.EMPTY;
 
         OffHeapHashTableBuilder<byte[]> builder = OffHeapHashTableBuilder
             .<byte[]>newBuilder()
@@ -127,15 +132,14 @@ public class SegmentWithMemoryPoolTest {
         Assert.assertEquals(segment.getFreeListHead(), emptyList);
     }
 
-    @Test(expectedExceptions = OutOfMemoryError.class, expectedExceptionsMessageRegExp = "Each segment can have at most 128 chunks.")
-    public void testOutOfMemoryException() {
+    @Test
+    public void testManyChunks() {
         int fixedKeySize = 8;
         int fixedValueSize = 18;
         int fixedSlotSize = MemoryPoolHashEntries.HEADER_SIZE + fixedKeySize + fixedValueSize;
 
-        // Each segment can have only Byte.MAX_VALUE chunks.
-        // we add more that that.
-        int noOfEntries = Byte.MAX_VALUE * 2;
+        // more than the 128 chunks a segment could have when the chunk index was a byte.
+        int noOfEntries = 1000;
 
         OffHeapHashTableBuilder<byte[]> builder = OffHeapHashTableBuilder
             .<byte[]>newBuilder()
@@ -146,7 +150,107 @@ public class SegmentWithMemoryPoolTest {
             .valueSerializer(HashTableTestUtils.byteArraySerializer);
 
         SegmentWithMemoryPool<byte[]> segment = new SegmentWithMemoryPool<>(builder);
-        addEntriesToSegment(segment, Hasher.create(HashAlgorithm.MURMUR3), noOfEntries, fixedKeySize, fixedValueSize);
+        try {
+            List<Record> records = addEntriesToSegment(segment, Hasher.create(HashAlgorithm.MURMUR3), noOfEntries, fixedKeySize, fixedValueSize);
+
+            Assert.assertEquals(segment.numberOfChunks(), noOfEntries);
+            Assert.assertEquals(segment.numberOfSlots(), noOfEntries);
+            Assert.assertEquals(segment.chunkMemory(), (long) noOfEntries * fixedSlotSize);
+            Assert.assertEquals(segment.chunkMemoryInUse(), (long) noOfEntries * fixedSlotSize);
+            records.forEach(r -> Assert.assertEquals(segment.getEntry(r.keyBuffer), r.value));
+
+            // freed slots are reused, no new chunks are allocated.
+            records.subList(0, noOfEntries / 2).forEach(r -> Assert.assertTrue(segment.removeEntry(r.keyBuffer)));
+            Assert.assertEquals(segment.chunkMemoryInUse(), (long) noOfEntries / 2 * fixedSlotSize);
+            addEntriesToSegment(segment, Hasher.create(HashAlgorithm.MURMUR3), noOfEntries / 2, fixedKeySize, fixedValueSize);
+            Assert.assertEquals(segment.numberOfChunks(), noOfEntries);
+            Assert.assertEquals(segment.freeListSize(), 0);
+            records.subList(noOfEntries / 2, noOfEntries).forEach(r -> Assert.assertEquals(segment.getEntry(r.keyBuffer), r.value));
+
+            segment.clear();
+            Assert.assertEquals(segment.numberOfChunks(), 0);
+            Assert.assertEquals(segment.chunkMemory(), 0);
+            Assert.assertEquals(segment.chunkMemoryInUse(), 0);
+        } finally {
+            segment.release();
+        }
+    }
+
+    @Test
+    public void testSizeClasses() {
+        Assert.assertEquals(SegmentWithMemoryPool.keySizeClasses(127), new int[] {8, 16, 32, 64, 127});
+        Assert.assertEquals(SegmentWithMemoryPool.keySizeClasses(64), new int[] {8, 16, 32, 64});
+        Assert.assertEquals(SegmentWithMemoryPool.keySizeClasses(9), new int[] {8, 9});
+        Assert.assertEquals(SegmentWithMemoryPool.keySizeClasses(5), new int[] {5});
+
+        int fixedKeySize = 100;
+        int fixedValueSize = 18;
+        int noOfEntries = 10_000;
+        int[] keySizes = {8, 16, 32, 64, 100};
+
+        OffHeapHashTableBuilder<byte[]> builder = OffHeapHashTableBuilder
+            .<byte[]>newBuilder()
+            .fixedKeySize(fixedKeySize)
+            .fixedValueSize(fixedValueSize)
+            .memoryPoolChunkSize(16 * 1024)
+            .valueSerializer(HashTableTestUtils.byteArraySerializer);
+
+        SegmentWithMemoryPool<byte[]> segment = new SegmentWithMemoryPool<>(builder);
+        Hasher hasher = Hasher.create(HashAlgorithm.MURMUR3);
+        Random random = new Random();
+        try {
+            // keys of all lengths, each goes to the smallest slots which fit it.
+            List<Record> records = new ArrayList<>();
+            long expectedMemoryInUse = 0;
+            for (int i = 0; i < noOfEntries; i++) {
+                // low bytes first so that keys are unique, except those too short for it.
+                byte[] key = Arrays.copyOf(Longs.toByteArray(Long.reverseBytes(i)), 1 + random.nextInt(fixedKeySize));
+                KeyBuffer k = new KeyBuffer(key).finish(hasher);
+                if (segment.containsEntry(k)) {
+                    continue;
+                }
+                byte[] value = HashTableTestUtils.randomBytes(fixedValueSize);
+                Assert.assertTrue(segment.putEntry(key, value, k.hash(), true, null));
+                records.add(new Record(k, value));
+                expectedMemoryInUse += MemoryPoolHashEntries.HEADER_SIZE + sizeClass(keySizes, key.length) + fixedValueSize;
+            }
+
+            Assert.assertEquals(segment.size(), records.size());
+            Assert.assertEquals(segment.chunkMemoryInUse(), expectedMemoryInUse);
+            Assert.assertTrue(segment.chunkMemoryInUse()
+                              < records.size() * (MemoryPoolHashEntries.HEADER_SIZE + fixedKeySize + fixedValueSize));
+            records.forEach(r -> Assert.assertEquals(segment.getEntry(r.keyBuffer), r.value));
+
+            // removed slots go to the free list of their size class only.
+            Record removed = records.stream().filter(r -> r.keyBuffer.size() <= 8).findFirst().get();
+            Assert.assertTrue(segment.removeEntry(removed.keyBuffer));
+            Assert.assertFalse(MemoryPoolAddress.isEmpty(segment.getFreeListHead(8)));
+            for (int keySize : new int[] {16, 32, 64, 100}) {
+                Assert.assertTrue(MemoryPoolAddress.isEmpty(segment.getFreeListHead(keySize)));
+            }
+
+            // removed slots are reused by keys of the same size class.
+            records.forEach(r -> segment.removeEntry(r.keyBuffer));
+            Assert.assertEquals(segment.chunkMemoryInUse(), 0);
+            Assert.assertEquals(segment.freeListSize(), records.size());
+            long chunks = segment.numberOfChunks();
+            records.forEach(r -> segment.putEntry(r.keyBuffer.buffer, r.value, r.keyBuffer.hash(), true, null));
+            Assert.assertEquals(segment.numberOfChunks(), chunks);
+            Assert.assertEquals(segment.freeListSize(), 0);
+            Assert.assertEquals(segment.chunkMemoryInUse(), expectedMemoryInUse);
+            records.forEach(r -> Assert.assertEquals(segment.getEntry(r.keyBuffer), r.value));
+        } finally {
+            segment.release();
+        }
+    }
+
+    private int sizeClass(int[] keySizes, int keyLength) {
+        for (int keySize : keySizes) {
+            if (keyLength <= keySize) {
+                return keySize;
+            }
+        }
+        throw new IllegalArgumentException("key length " + keyLength);
     }
 
     @Test
@@ -231,7 +335,113 @@ public class SegmentWithMemoryPoolTest {
         records.forEach(r -> Assert.assertEquals(segment.getEntry(r.keyBuffer), r.value));
     }
 
+    @Test
+    public void testReleaseTwice() {
+        int fixedKeySize = 8;
+        int fixedValueSize = 18;
 
+        OffHeapHashTableBuilder<byte[]> builder = OffHeapHashTableBuilder
+            .<byte[]>newBuilder()
+            .fixedKeySize(fixedKeySize)
+            .fixedValueSize(fixedValueSize)
+            .valueSerializer(HashTableTestUtils.byteArraySerializer);
+
+        SegmentWithMemoryPool<byte[]> segment = new SegmentWithMemoryPool<>(builder);
+        addEntriesToSegment(segment, Hasher.create(HashAlgorithm.MURMUR3), 100, fixedKeySize, fixedValueSize);
+
+        // the second release must not free the table or the chunks again.
+        segment.release();
+        segment.release();
+        Assert.assertEquals(segment.size(), 0);
+        Assert.assertEquals(segment.numberOfChunks(), 0);
+    }
+
+    @Test
+    public void testLookupsDoNotAllocate() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!threads.isThreadAllocatedMemorySupported() || !threads.isThreadAllocatedMemoryEnabled()) {
+            throw new SkipException("Allocated memory per thread can't be measured on this jvm");
+        }
+
+        int fixedKeySize = 8;
+        int noOfEntries = 100;
+
+        // values are small ints which are cached by Integer.valueOf, so that the lookup itself is measured.
+        HashTableValueSerializer<Integer> serializer = new HashTableValueSerializer<Integer>() {
+            @Override
+            public void serialize(Integer value, ByteBuffer buf) {
+                buf.putInt(value);
+            }
+
+            @Override
+            public Integer deserialize(ByteBuffer buf) {
+                return buf.getInt();
+            }
+
+            @Override
+            public Integer deserialize(long address, long offset, int length) {
+                return Uns.getIntBigEndian(address, offset);
+            }
+
+            @Override
+            public int serializedSize(Integer value) {
+                return 4;
+            }
+        };
+
+        OffHeapHashTableBuilder<Integer> builder = OffHeapHashTableBuilder
+            .<Integer>newBuilder()
+            .fixedKeySize(fixedKeySize)
+            .fixedValueSize(4)
+            .memoryPoolChunkSize(1024)
+            // a small table so that lookups walk chains spread over several chunks.
+            .hashTableSize(16)
+            .loadFactor(100)
+            .valueSerializer(serializer);
+
+        SegmentWithMemoryPool<Integer> segment = new SegmentWithMemoryPool<>(builder);
+        Hasher hasher = Hasher.create(HashAlgorithm.MURMUR3);
+        KeyBuffer[] present = new KeyBuffer[noOfEntries];
+        KeyBuffer[] absent = new KeyBuffer[noOfEntries];
+        try {
+            for (int i = 0; i < noOfEntries; i++) {
+                byte[] key = Longs.toByteArray(i);
+                present[i] = new KeyBuffer(key).finish(hasher);
+                absent[i] = new KeyBuffer(Longs.toByteArray(-1 - i)).finish(hasher);
+                segment.putEntry(key, i, present[i].hash(), false, null);
+            }
+            Assert.assertTrue(segment.numberOfChunks() > 1);
+
+            long threadId = Thread.currentThread().getId();
+            threads.getThreadAllocatedBytes(threadId);
+
+            // warm up so that compilation doesn't count.
+            lookup(segment, present, absent, 1000);
+
+            int rounds = 1000;
+            long before = threads.getThreadAllocatedBytes(threadId);
+            lookup(segment, present, absent, rounds);
+            long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+            // an absolute bound, which allows only for the few bytes allocated by the measurement itself,
+            // as a single object allocated per lookup would already add up to megabytes.
+            long lookups = 3L * noOfEntries * rounds;
+            Assert.assertTrue(allocated < 1024, allocated + " bytes allocated by " + lookups + " lookups");
+        } finally {
+            segment.release();
+        }
+    }
+
+    private void lookup(SegmentWithMemoryPool<Integer> segment, KeyBuffer[] present, KeyBuffer[] absent, int rounds) {
+        for (int round = 0; round < rounds; round++) {
+            for (int i = 0; i < present.length; i++) {
+                if (segment.getEntry(present[i]) != i || !segment.containsEntry(present[i])
+                    || segment.getEntry(absent[i]) != null) {
+                    Assert.fail("Unexpected lookup result for key " + i);
+                }
+            }
+        }
+    }
 
     private List<Record> addEntriesToSegment(SegmentWithMemoryPool<byte[]> segment, Hasher hasher, int noOfEntries, int fixedKeySize, int fixedValueSize) {
         List<Record> records = new ArrayList<>();
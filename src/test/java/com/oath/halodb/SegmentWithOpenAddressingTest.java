@@ -0,0 +1,159 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class SegmentWithOpenAddressingTest {
+
+    private final int fixedKeySize = 8;
+    private final int fixedValueSize = 18;
+
+    @Test
+    public void testPutGetAndRemove() {
+        SegmentWithOpenAddressing<byte[]> segment = new SegmentWithOpenAddressing<>(builder(256));
+        Hasher hasher = Hasher.create(HashAlgorithm.MURMUR3);
+        Random random = new Random();
+        Map<ByteBuffer, byte[]> expected = new HashMap<>();
+        List<byte[]> keys = new ArrayList<>();
+
+        try {
+            // grows the table past its initial size several times.
+            for (int i = 0; i < 5_000; i++) {
+                byte[] key = HashTableTestUtils.randomBytes(1 + random.nextInt(fixedKeySize));
+                byte[] value = HashTableTestUtils.randomBytes(fixedValueSize);
+                segment.putEntry(key, value, hasher.hash(key), false, null);
+                if (expected.put(ByteBuffer.wrap(key), value) == null) {
+                    keys.add(key);
+                }
+            }
+            Assert.assertEquals(segment.size(), expected.size());
+            Assert.assertTrue(segment.rehashes() > 0);
+            Assert.assertTrue(segment.size() <= segment.hashTableSize() * SegmentWithOpenAddressing.MAX_LOAD_FACTOR);
+
+            // replace some and remove some, entries which follow a removed one are shifted back.
+            for (int i = 0; i < keys.size(); i++) {
+                byte[] key = keys.get(i);
+                if (i % 3 == 0) {
+                    Assert.assertEquals(segment.getAndRemoveEntry(keyBuffer(key, hasher)), expected.remove(ByteBuffer.wrap(key)));
+                    Assert.assertFalse(segment.removeEntry(keyBuffer(key, hasher)));
+                } else if (i % 3 == 1) {
+                    byte[] value = HashTableTestUtils.randomBytes(fixedValueSize);
+                    Assert.assertEquals(segment.getAndPutEntry(key, value, hasher.hash(key)), expected.put(ByteBuffer.wrap(key), value));
+                }
+            }
+
+            Assert.assertEquals(segment.size(), expected.size());
+            for (byte[] key : keys) {
+                byte[] value = expected.get(ByteBuffer.wrap(key));
+                Assert.assertEquals(segment.getEntry(keyBuffer(key, hasher)), value);
+                Assert.assertEquals(segment.containsEntry(keyBuffer(key, hasher)), value != null);
+                if (value != null) {
+                    Assert.assertTrue(segment.distanceOf(key, hasher.hash(key)) <= SegmentWithOpenAddressing.MAX_DISTANCE);
+                }
+            }
+        } finally {
+            segment.release();
+        }
+    }
+
+    @Test
+    public void testPutIfAbsentAndReplace() {
+        SegmentWithOpenAddressing<byte[]> segment = new SegmentWithOpenAddressing<>(builder(256));
+        Hasher hasher = Hasher.create(HashAlgorithm.MURMUR3);
+        try {
+            byte[] key = HashTableTestUtils.randomBytes(fixedKeySize);
+            byte[] value = HashTableTestUtils.randomBytes(fixedValueSize);
+            byte[] newValue = HashTableTestUtils.randomBytes(fixedValueSize);
+            long hash = hasher.hash(key);
+
+            // replace of a key which isn't present.
+            Assert.assertFalse(segment.putEntry(key, newValue, hash, false, value));
+
+            Assert.assertTrue(segment.putEntry(key, value, hash, true, null));
+            Assert.assertFalse(segment.putEntry(key, newValue, hash, true, null));
+            Assert.assertEquals(segment.getEntry(keyBuffer(key, hasher)), value);
+
+            // replace with the wrong old value.
+            Assert.assertFalse(segment.putEntry(key, newValue, hash, false, newValue));
+            Assert.assertTrue(segment.putEntry(key, newValue, hash, false, value));
+            Assert.assertEquals(segment.getEntry(keyBuffer(key, hasher)), newValue);
+
+            Assert.assertEquals(segment.size(), 1);
+            Assert.assertEquals(segment.putAddCount(), 1);
+            Assert.assertEquals(segment.putReplaceCount(), 1);
+
+            segment.clear();
+            Assert.assertEquals(segment.size(), 0);
+            Assert.assertNull(segment.getEntry(keyBuffer(key, hasher)));
+        } finally {
+            segment.release();
+        }
+    }
+
+    @Test
+    public void testCollidingKeys() {
+        SegmentWithOpenAddressing<byte[]> segment = new SegmentWithOpenAddressing<>(builder(256));
+        // all keys have the same home slot and tag, therefore lookups have to compare the keys.
+        long hash = 42;
+        Hasher hasher = new Hasher() {
+            @Override
+            long hash(byte[] array) {
+                return hash;
+            }
+
+            @Override
+            long hash(long address, long offset, int length) {
+                return hash;
+            }
+        };
+
+        try {
+            List<byte[]> keys = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                byte[] key = ByteBuffer.allocate(fixedKeySize).putLong(i).array();
+                Assert.assertTrue(segment.putEntry(key, value(i), hash, false, null));
+                keys.add(key);
+                Assert.assertEquals(segment.distanceOf(key, hash), i);
+            }
+
+            // removing the first one shifts all the others back by one.
+            Assert.assertTrue(segment.removeEntry(keyBuffer(keys.get(0), hasher)));
+            for (int i = 1; i < keys.size(); i++) {
+                Assert.assertEquals(segment.distanceOf(keys.get(i), hash), i - 1);
+                Assert.assertEquals(segment.getEntry(keyBuffer(keys.get(i), hasher)), value(i));
+            }
+        } finally {
+            segment.release();
+        }
+    }
+
+    private KeyBuffer keyBuffer(byte[] key, Hasher hasher) {
+        return new KeyBuffer(key).finish(hasher);
+    }
+
+    private byte[] value(int i) {
+        return ByteBuffer.allocate(fixedValueSize).putInt(i).array();
+    }
+
+    private OffHeapHashTableBuilder<byte[]> builder(int hashTableSize) {
+        return OffHeapHashTableBuilder
+            .<byte[]>newBuilder()
+            .fixedKeySize(fixedKeySize)
+            .fixedValueSize(fixedValueSize)
+            .hashTableSize(hashTableSize)
+            .useOpenAddressing(true)
+            .valueSerializer(HashTableTestUtils.byteArraySerializer);
+    }
+}
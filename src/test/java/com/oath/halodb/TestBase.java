@@ -26,10 +26,14 @@ public class TestBase {
         HaloDBOptions withMemoryPool = new HaloDBOptions();
         withMemoryPool.setUseMemoryPool(true);
         withMemoryPool.setMemoryPoolChunkSize(1024 * 1024);
+        HaloDBOptions withOpenAddressing = new HaloDBOptions();
+        withOpenAddressing.setUseMemoryPool(true);
+        withOpenAddressing.setUseOpenAddressing(true);
 
         return new Object[][] {
             {options},
-            {withMemoryPool}
+            {withMemoryPool},
+            {withOpenAddressing}
         };
     }
 
@@ -56,6 +60,8 @@ public class TestBase {
     public void closeDB() throws HaloDBException, IOException {
         if (db != null) {
             db.close();
+            // a test which fails to open its db must not close the db of the previous test again.
+            db = null;
             File dir = new File(directory);
             TestUtils.deleteDirectory(dir);
         }
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2018, Oath Inc
+ * Licensed under the terms of the Apache License 2.0. Please refer to accompanying LICENSE file for terms.
+ */
+
+package com.oath.halodb;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class ValueCacheTest {
+
+    @Test
+    public void testPutAndGet() {
+        ValueCache cache = new ValueCache(1024 * 1024, 4);
+        try {
+            byte[] key = TestUtils.generateRandomByteArray(8);
+            byte[] value = TestUtils.generateRandomByteArray(100);
+            Assert.assertNull(cache.get(key, 1));
+
+            cache.put(key, 1, ByteBuffer.wrap(value));
+            Assert.assertEquals(cache.get(key, 1), value);
+            Assert.assertEquals(cache.size(), 1);
+
+            // value of a different record of the key is a miss.
+            Assert.assertNull(cache.get(key, 2));
+
+            // a direct buffer is copied from its position.
+            byte[] newValue = TestUtils.generateRandomByteArray(100);
+            ByteBuffer direct = ByteBuffer.allocateDirect(110);
+            direct.position(10);
+            direct.put(newValue);
+            direct.position(10);
+            cache.put(key, 2, direct);
+            Assert.assertEquals(cache.get(key, 2), newValue);
+            Assert.assertEquals(direct.position(), 10);
+
+            // value of an older record doesn't replace that of a newer one.
+            cache.put(key, 1, ByteBuffer.wrap(value));
+            Assert.assertEquals(cache.get(key, 2), newValue);
+            Assert.assertEquals(cache.size(), 1);
+
+            Assert.assertEquals(cache.hitCount(), 3);
+            Assert.assertEquals(cache.missCount(), 2);
+
+            cache.remove(key);
+            Assert.assertNull(cache.get(key, 2));
+            Assert.assertEquals(cache.size(), 0);
+            Assert.assertEquals(cache.memUsed(), 0);
+        } finally {
+            cache.close();
+        }
+    }
+
+    @Test
+    public void testFrequentlyReadValuesSurviveScan() {
+        int capacity = 64 * 1024;
+        ValueCache cache = new ValueCache(capacity, 1);
+        try {
+            List<byte[]> hotKeys = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                hotKeys.add(TestUtils.generateRandomByteArray(8));
+            }
+            byte[] value = TestUtils.generateRandomByteArray(1024);
+
+            for (int round = 0; round < 10; round++) {
+                for (byte[] key : hotKeys) {
+                    readThrough(cache, key, value);
+                }
+            }
+
+            // keys which are read once, as by a scan, don't evict the keys which are read often.
+            for (int i = 0; i < 1000; i++) {
+                readThrough(cache, TestUtils.generateRandomByteArray(8), value);
+            }
+
+            for (byte[] key : hotKeys) {
+                Assert.assertEquals(cache.get(key, 1), value);
+            }
+            Assert.assertTrue(cache.evictionCount() > 0);
+            Assert.assertTrue(cache.memUsed() <= capacity);
+        } finally {
+            cache.close();
+        }
+    }
+
+    @Test
+    public void testGetAfterClose() {
+        ValueCache cache = new ValueCache(1024 * 1024, 4);
+        byte[] key = TestUtils.generateRandomByteArray(8);
+        cache.put(key, 1, ByteBuffer.wrap(TestUtils.generateRandomByteArray(100)));
+        cache.close();
+
+        Assert.assertNull(cache.get(key, 1));
+        cache.put(key, 2, ByteBuffer.wrap(TestUtils.generateRandomByteArray(100)));
+        Assert.assertEquals(cache.size(), 0);
+    }
+
+    @Test
+    public void testConcurrentReadsAndWrites() throws Exception {
+        // small enough to evict and large enough to rehash while readers walk the chains.
+        ValueCache cache = new ValueCache(256 * 1024, 2);
+        int keyCount = 2_000;
+        byte[][] keys = new byte[keyCount][];
+        for (int i = 0; i < keyCount; i++) {
+            keys[i] = TestUtils.generateRandomByteArray(8);
+        }
+
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<String> failure = new AtomicReference<>();
+        Thread writer = new Thread(() -> {
+            Random random = new Random();
+            for (int n = 0; n < 200_000; n++) {
+                int i = random.nextInt(keyCount);
+                long sequenceNumber = random.nextInt(4);
+                if (n % 10 == 0) {
+                    cache.remove(keys[i]);
+                }
+                else {
+                    cache.put(keys[i], sequenceNumber, ByteBuffer.wrap(valueOf(i, sequenceNumber)));
+                }
+            }
+            done.set(true);
+        });
+
+        List<Thread> readers = new ArrayList<>();
+        for (int t = 0; t < 3; t++) {
+            readers.add(new Thread(() -> {
+                Random random = new Random();
+                while (!done.get()) {
+                    int i = random.nextInt(keyCount);
+                    long sequenceNumber = random.nextInt(4);
+                    byte[] value = cache.get(keys[i], sequenceNumber);
+                    if (value != null && !Arrays.equals(value, valueOf(i, sequenceNumber))) {
+                        failure.compareAndSet(null, "wrong value for key " + i + " and sequence number " + sequenceNumber);
+                    }
+                }
+            }));
+        }
+
+        try {
+            readers.forEach(Thread::start);
+            writer.start();
+            writer.join();
+            for (Thread reader : readers) {
+                reader.join();
+            }
+            Assert.assertNull(failure.get());
+            Assert.assertTrue(cache.evictionCount() > 0);
+            Assert.assertTrue(cache.hitCount() > 0);
+        } finally {
+            cache.close();
+        }
+    }
+
+    private static byte[] valueOf(int key, long sequenceNumber) {
+        byte[] value = new byte[100 + key % 100];
+        Arrays.fill(value, (byte)(key * 31 + sequenceNumber));
+        return value;
+    }
+
+    // what the db does on a read.
+    private void readThrough(ValueCache cache, byte[] key, byte[] value) {
+        if (cache.get(key, 1) == null) {
+            cache.put(key, 1, ByteBuffer.wrap(value));
+        }
+    }
+}